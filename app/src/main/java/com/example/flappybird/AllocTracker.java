@@ -0,0 +1,82 @@
+package com.example.flappybird;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * 统计每一帧在游戏线程上分配的对象个数和字节数 (只在 debug 包中使用)
+ * 稳定运行时每帧都不应该有分配，否则迟早会触发 GC 造成卡顿
+ *
+ * Debug 的分配计数从 API 23 开始标成了废弃，但没有别的按线程计数的方法, debug 包中照用
+ */
+@SuppressWarnings("deprecation")
+public class AllocTracker {
+    private static final String TAG = "AllocTracker";
+    // 每隔多少帧输出一次统计
+    private static final int REPORT_INTERVAL_FRAMES = 300;
+
+    private int mFrames; // 本统计周期内的帧数
+    private int mAllocFrames; // 本统计周期内有分配的帧数
+    private long mObjects; // 本统计周期内分配的对象总数
+    private long mBytes; // 本统计周期内分配的字节总数
+    private int mMaxObjects; // 单帧最多分配的对象数
+    private int mMaxBytes; // 单帧最多分配的字节数
+    private int mLastObjects;
+    private int mLastBytes;
+
+    public void start() {
+        Debug.startAllocCounting();
+    }
+
+    public void stop() {
+        Debug.stopAllocCounting();
+    }
+
+    // 一帧开始时清零线程的分配计数
+    public void beginFrame() {
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+    }
+
+    // 一帧结束时读取这一帧的分配计数
+    public void endFrame() {
+        mLastObjects = Debug.getThreadAllocCount();
+        mLastBytes = Debug.getThreadAllocSize();
+        mFrames++;
+        if (mLastObjects > 0) {
+            mAllocFrames++;
+            mObjects += mLastObjects;
+            mBytes += mLastBytes;
+            mMaxObjects = Math.max(mMaxObjects, mLastObjects);
+            mMaxBytes = Math.max(mMaxBytes, mLastBytes);
+        }
+        if (mFrames == REPORT_INTERVAL_FRAMES) {
+            // 在下一帧的 beginFrame() 之前输出，日志本身的分配不会算进帧里
+            report();
+        }
+    }
+
+    public int getLastFrameObjects() {
+        return mLastObjects;
+    }
+
+    public int getLastFrameBytes() {
+        return mLastBytes;
+    }
+
+    private void report() {
+        if (mAllocFrames > 0) {
+            Log.w(TAG, mAllocFrames + "/" + mFrames + " frames allocated: "
+                    + mObjects + " objects, " + mBytes + " bytes, max per frame "
+                    + mMaxObjects + " objects, " + mMaxBytes + " bytes");
+        } else {
+            Log.d(TAG, mFrames + " frames, no allocation");
+        }
+        mFrames = 0;
+        mAllocFrames = 0;
+        mObjects = 0;
+        mBytes = 0;
+        mMaxObjects = 0;
+        mMaxBytes = 0;
+    }
+}
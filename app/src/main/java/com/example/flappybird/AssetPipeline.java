@@ -0,0 +1,233 @@
+package com.example.flappybird;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 皮肤位图的加载管线
+ *
+ * 1. 解码：在一个小线程池中并行解码、缩放资源图片
+ * 2. 磁盘缓存：缩放好的位图按 "资源 id + 大小" 保存成原始像素文件，
+ *    下次启动时用内存映射直接读回像素，不需要再解码和缩放
+ * 3. 内存缓存：进程内的 LRU 缓存，Surface 销毁后再创建时直接复用
+ *
+ * 位图可以指定格式：没有透明部分的位图用 RGB_565 可以省一半内存；
+ * HARDWARE 格式的位图只保存在显存中，只能用硬件加速画布绘制，磁盘缓存中保存的是解码后的 ARGB_8888 像素。
+ *
+ * 缓存中的位图是共享的，使用者不能 recycle()
+ */
+public class AssetPipeline {
+    private static final String TAG = "AssetPipeline";
+    // 磁盘缓存文件的格式：魔数, 宽, 高, 位图格式, 然后是原始像素
+    private static final int MAGIC = 0x464c4231;
+    private static final int HEADER_SIZE = 16;
+
+    private static AssetPipeline sInstance;
+
+    private final Resources mResources;
+    private final File mCacheDir;
+    private final ExecutorService mExecutor;
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    // 启动耗时统计：分别从内存、磁盘和解码得到的位图数量
+    private final AtomicInteger mMemoryHits = new AtomicInteger();
+    private final AtomicInteger mDiskHits = new AtomicInteger();
+    private final AtomicInteger mDecodes = new AtomicInteger();
+
+    public static synchronized AssetPipeline getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AssetPipeline(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AssetPipeline(Context context) {
+        mResources = context.getResources();
+        // 资源 id 在不同版本之间可能变化，所以缓存目录按版本号区分
+        mCacheDir = new File(context.getCacheDir(), "skins/v" + BuildConfig.VERSION_CODE);
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "asset-decode-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // 内存缓存最多占用 1/8 的可用堆
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * 加载资源 resId，缩放到 width x height，并只保留上面 visibleHeight 高的部分，转换成 config 格式
+     */
+    public Future<Bitmap> load(final int resId, final int width, final int height,
+                               final int visibleHeight, final Bitmap.Config config) {
+        return mExecutor.submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                String key = resId + "_" + width + "x" + height + "_" + visibleHeight;
+                Bitmap bitmap = mMemoryCache.get(key + "_" + config);
+                if (bitmap != null) {
+                    mMemoryHits.incrementAndGet();
+                    return bitmap;
+                }
+                // 硬件位图不能读写像素, 磁盘缓存中保存 ARGB_8888 的像素, 读出后再上传
+                Bitmap.Config pixelConfig = config == Bitmap.Config.HARDWARE
+                        ? Bitmap.Config.ARGB_8888 : config;
+                File file = new File(mCacheDir, key + "_" + pixelConfig + ".raw");
+                bitmap = readRaw(file);
+                if (bitmap != null) {
+                    mDiskHits.incrementAndGet();
+                } else {
+                    bitmap = decode(resId, width, height, visibleHeight, pixelConfig);
+                    mDecodes.incrementAndGet();
+                    writeRaw(file, bitmap);
+                }
+                if (config == Bitmap.Config.HARDWARE) {
+                    Bitmap hardware = bitmap.copy(Bitmap.Config.HARDWARE, false);
+                    if (hardware != null) {
+                        bitmap.recycle();
+                        bitmap = hardware;
+                    }
+                }
+                mMemoryCache.put(key + "_" + config, bitmap);
+                return bitmap;
+            }
+        });
+    }
+
+    public Future<Bitmap> load(int resId, int width, int height, Bitmap.Config config) {
+        return load(resId, width, height, height, config);
+    }
+
+    // 等待加载完成
+    public static Bitmap await(Future<Bitmap> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Bitmap decode(int resId, int width, int height, int visibleHeight, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        Bitmap origin = BitmapFactory.decodeResource(mResources, resId, options);
+        Bitmap scaled = Bitmap.createScaledBitmap(origin, width, height, false);
+        if (scaled != origin) {
+            origin.recycle();
+        }
+        Bitmap visible = scaled;
+        if (visibleHeight != height) {
+            visible = Bitmap.createBitmap(scaled, 0, 0, width, visibleHeight);
+            if (visible != scaled) {
+                scaled.recycle();
+            }
+        }
+        // 解码器不一定按要求的格式输出 (比如带透明通道的图片), 这时再转换一次
+        if (visible.getConfig() != config) {
+            Bitmap converted = visible.copy(config, false);
+            visible.recycle();
+            visible = converted;
+        }
+        return visible;
+    }
+
+    // 用内存映射读取磁盘缓存，文件不存在或格式不对时返回 null
+    private Bitmap readRaw(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                return null;
+            }
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            Bitmap.Config config = Bitmap.Config.values()[buffer.getInt()];
+            Bitmap bitmap = Bitmap.createBitmap(width, height, config);
+            if (buffer.remaining() != bitmap.getByteCount()) {
+                bitmap.recycle();
+                return null;
+            }
+            bitmap.copyPixelsFromBuffer(buffer);
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "bad cache file " + file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeRaw(File file, Bitmap bitmap) {
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            return;
+        }
+        // 先写到临时文件再改名，避免留下写了一半的缓存
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            int size = HEADER_SIZE + bitmap.getByteCount();
+            raf.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(bitmap.getWidth()).putInt(bitmap.getHeight())
+                    .putInt(bitmap.getConfig().ordinal());
+            ByteBuffer pixels = buffer.slice();
+            bitmap.copyPixelsToBuffer(pixels);
+            buffer.force();
+        } catch (IOException e) {
+            Log.w(TAG, "cannot write cache file " + file, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+
+    public void resetStats() {
+        mMemoryHits.set(0);
+        mDiskHits.set(0);
+        mDecodes.set(0);
+    }
+
+    // 输出从 startNanos 开始到现在的加载耗时和各级缓存的命中情况
+    public void report(long startNanos) {
+        long elapsedMicros = (System.nanoTime() - startNanos) / 1000;
+        Log.i(TAG, "skins loaded in " + elapsedMicros / 1000 + "." + elapsedMicros % 1000 / 100
+                + " ms: " + mMemoryHits.get() + " from memory, " + mDiskHits.get()
+                + " from disk, " + mDecodes.get() + " decoded");
+    }
+}
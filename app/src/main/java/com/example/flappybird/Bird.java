@@ -1,163 +1,193 @@
 package com.example.flappybird;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.graphics.Rect;
-
+import com.example.flappybird.render.DirtyRect;
+import com.example.flappybird.render.Renderer;
+import com.example.flappybird.sim.BirdState;
+
+/**
+ * 鸟的绘制
+ * 鸟的位置、速度和角度都记录在 BirdState 中，这里只负责通过 Renderer 把它画出来
+ *
+ * 每一帧都做缩放和旋转变换再画位图是很慢的，所以把旋转后的鸟预先画在一个图层里：
+ * 角度在 RISING_MAX_ANGLE 到 FALLING_MAX_ANGLE 之间每 mAngleStep 度取一个 (默认 5 度)，
+ * 绘制时取最接近的角度，直接把图层中的一格拷贝到屏幕上
+ *
+ * 所有的格子在创建图层或者换皮肤后由 bakeRotationCache() 一次画好，游戏中不会因为画新的一格而卡顿。
+ * 格子排成接近正方形的网格，图层的宽和高都只有几千像素，不会超过 GPU 纹理的最大尺寸。
+ */
 public class Bird {
-    private static final int RISING_MAX_ANGLE = -30;
-    private static final int FALLING_MAX_ANGLE = 70;
-    private static final int MAX_RISE_SPEED_Y_STANDBY = -10; // 待命时刻向上飞的速度
-    private static final int FALL_ACCEL_Y_STANDBY = 1; // 待命时刻向下的加速的
-    private static final int MAX_RISE_SPEED_Y = -80;
-    private static final int FALL_ACCEL_Y = 20;
-
-    /**
-     * 记录鸟的位置和大小
-     */
-    private Rect mBound;
-    // 鸟的皮肤，由 3 张位图构成，分别是
+    private static final int DEFAULT_ANGLE_STEP = 5;
+
+    // 鸟的物理状态
+    private BirdState mState;
+    // 鸟的皮肤图集 (纹理 id)，每一行是一种皮肤，由 3 张位图构成
     // 对这三张图进行切换，就可以实现飞翔效果
-    private Bitmap[] mBirdsSkin;
-
-    // Matrix 是用于图片变换的矩阵，能实现对位图的移动、缩放和旋转变换
-    private Matrix mMatrix;
-    // 标识是否处于待命状态 （另一个状态是游戏状态）
-    private boolean mIsStandby;
-    private boolean mIsDead;
-
-    // 标识是否需要调整图片大小
-    private boolean mNeedScale;
-    private float mScaleX;
-    private float mScaleY;
-
-    // Y方向的速度
-    private int mSpeedY;
-    // Y方向的加速度
-    private int mAccelY;
-    // 旋转角的速度
-    private float mAngularSpeed;
-
-    // 当前变换帧数
-    private int mFrameCount;
-    // 当前旋转的角度
-    private float mRotationAngle;
-
-    // 设置鸟在屏幕中的位置
-    public synchronized Bird setBound(Rect bound){
-        mBound = bound;
+    private int mSkinAtlas;
+    private int mSkinCellWidth;
+    private int mSkinCellHeight;
+    private int mSkinIndex;
+
+    // 旋转缓存：第 frame * mAngleCount + angleIndex 格是第 frame 张皮肤旋转后的样子,
+    // 格子按顺序每行 mColumns 个排列. 格子是正方形，边长足够放下任意角度旋转后的鸟
+    private int mRotationCache = -1;
+    private int mAngleStep;
+    private int mAngleCount;
+    private int mColumns;
+    private int mCellSize;
+    private boolean mBaked; // 所有格子都按当前的皮肤画好了
+
+    // 这一帧要画的格子和位置, 由 prepare() 计算
+    private int mCell;
+    private final DirtyRect mDrawRect = new DirtyRect();
+    // 上一帧画过的格子和位置, 用来计算脏区域
+    private int mLastCell = -1;
+    private final DirtyRect mLastDrawRect = new DirtyRect();
+
+    // 设置要绘制的鸟的状态
+    public Bird setState(BirdState state) {
+        mState = state;
+        mCellSize = (int) Math.ceil(Math.hypot(state.getWidth(), state.getHeight()));
+        return setAngleStep(DEFAULT_ANGLE_STEP);
+    }
+
+    // 设置旋转缓存的角度间隔, 间隔越大旋转缓存越小, 必须在第一次 prepare() 之前调用
+    public Bird setAngleStep(int angleStep) {
+        mAngleStep = angleStep;
+        mAngleCount = angleCountFor(angleStep);
+        mColumns = columnsFor(mAngleCount * BirdState.SKIN_FRAMES);
         return this;
     }
-    // 返回鸟的位置
-    public Rect getBound() {
-        return mBound;
+
+    private static int angleCountFor(int angleStep) {
+        return (BirdState.FALLING_MAX_ANGLE - BirdState.RISING_MAX_ANGLE) / angleStep + 1;
+    }
+
+    // cells 个格子排成接近正方形的网格时每行的格子数
+    private static int columnsFor(int cells) {
+        return (int) Math.ceil(Math.sqrt(cells));
+    }
+
+    // 鸟的大小是 birdWidth x birdHeight 时旋转缓存 (ARGB_8888) 的字节数, TextureManager 用来估算内存
+    public static long rotationCacheBytes(int birdWidth, int birdHeight, int angleStep) {
+        long cellSize = (long) Math.ceil(Math.hypot(birdWidth, birdHeight));
+        int cells = angleCountFor(angleStep) * BirdState.SKIN_FRAMES;
+        int columns = columnsFor(cells);
+        int rows = (cells + columns - 1) / columns;
+        return cellSize * columns * cellSize * rows * 4;
     }
 
-    // 设置一个 Matrix 类的实例来控制位图
-    public Bird setMatrix(Matrix matrix){
-        mMatrix = matrix;
+//  设置鸟的皮肤：使用图集中第 skinIndex 行，每一格大小是 cellWidth x cellHeight
+    public Bird setBirdsSkin(int atlas, int cellWidth, int cellHeight, int skinIndex) {
+        mSkinAtlas = atlas;
+        mSkinCellWidth = cellWidth;
+        mSkinCellHeight = cellHeight;
+        mSkinIndex = skinIndex;
+        // 换了皮肤, 旋转缓存需要重新生成
+        mBaked = false;
+        mLastCell = -1;
         return this;
     }
 
-//  设置鸟的皮肤
-    public Bird setBirdsSkin(Bitmap[] skin) {
-        this.mBirdsSkin = skin;
-        // getHeight() 和 getWidth() 方法的返回值会根据 dpi 的不同而有所调整
-        // 所以同样的图片，在不同机型上的返回值可能不一样
-        int bitmapHeight = mBirdsSkin[0].getHeight();
-        int bitmapWidth = mBirdsSkin[0].getWidth();
-        // 判断是否需要缩放
-        if (bitmapHeight != mBound.height() ||
-                bitmapWidth != mBound.width()) {
-            mScaleX = mBound.width() / bitmapWidth;
-            mScaleY = mBound.height() / bitmapHeight;
-            mNeedScale = true;
+    // 把角度量化为旋转缓存中的列号
+    private int angleIndex(float angle) {
+        int index = Math.round((angle - BirdState.RISING_MAX_ANGLE) / mAngleStep);
+        return Math.max(0, Math.min(mAngleCount - 1, index));
+    }
+
+    /*
+    按当前的皮肤画出旋转缓存中所有的格子: 第 frame 张皮肤旋转每个角度后的样子,
+    皮肤大小和给定的鸟的大小不一致时同时缩放. 还没有图层时先创建, 已经画好时什么也不做。
+    在设置皮肤以后、开始画之前调用 (GameView 在创建绘制对象和换皮肤时调用)
+     */
+    public void bakeRotationCache(Renderer renderer) {
+        if (mBaked) {
+            return;
+        }
+        int cells = mAngleCount * BirdState.SKIN_FRAMES;
+        if (mRotationCache < 0) {
+            mRotationCache = renderer.createLayer(mCellSize * mColumns,
+                    mCellSize * ((cells + mColumns - 1) / mColumns), false);
         } else {
-            mNeedScale = false;
+            renderer.clearLayer(mRotationCache);
         }
-        return this;
+        int srcTop = mSkinIndex * mSkinCellHeight;
+        renderer.beginLayer(mRotationCache);
+        for (int cell = 0; cell < cells; cell++) {
+            int frame = cell / mAngleCount;
+            int angleIndex = cell % mAngleCount;
+            int srcLeft = frame * mSkinCellWidth;
+            // 绕鸟图片的中心进行旋转，中心放在格子的中间
+            renderer.drawSpriteRotated(mSkinAtlas, srcLeft, srcTop,
+                    srcLeft + mSkinCellWidth, srcTop + mSkinCellHeight,
+                    getCellLeft(cell) + mCellSize / 2f, getCellTop(cell) + mCellSize / 2f,
+                    mState.getWidth(), mState.getHeight(),
+                    BirdState.RISING_MAX_ANGLE + angleIndex * mAngleStep);
+        }
+        renderer.endLayer();
+        mBaked = true;
     }
 
-    // 待命状态： 上下飞
-    public void makeStandby() {
-        mIsStandby = true;
-        mIsDead = false;
-        mSpeedY = MAX_RISE_SPEED_Y_STANDBY; // 从中间开始向上飞
-        mAccelY = FALL_ACCEL_Y_STANDBY; // 加速度向下
+    // 第 frame 张皮肤旋转到最接近 angle 的样子在旋转缓存中是哪一格
+    // 幽灵鸟 (GhostBirds) 也从这里取格子, 和这只鸟共用同一个旋转缓存
+    public int prepareCell(Renderer renderer, int frame, float angle) {
+        bakeRotationCache(renderer); // 调用者忘了先画好时, 也是一次全部画好
+        return frame * mAngleCount + angleIndex(angle);
     }
 
-    public void put2Death() {
-        mIsDead = true;
-        mSpeedY = 0;
-        mAccelY = FALL_ACCEL_Y;
+    // 旋转缓存的纹理 id, bakeRotationCache() 之后才有效
+    public int getRotationCache() {
+        return mRotationCache;
     }
 
+    // 旋转缓存中每一格的边长, 格子的中心就是鸟的中心
+    public int getCellSize() {
+        return mCellSize;
+    }
 
-    // 发射 单击屏幕后小鸟向上飞的过程
-    public synchronized void shot(){
-        mIsStandby = false;
-        mAccelY = FALL_ACCEL_Y; // 向下的加速度
-        mSpeedY = MAX_RISE_SPEED_Y; // 速度向上
-        calAngularSpeed(RISING_MAX_ANGLE); //计算角速度
+    // 第 cell 格在旋转缓存中的左上角
+    public int getCellLeft(int cell) {
+        return cell % mColumns * mCellSize;
     }
-    // 角速度计算： 参数是从当前角速度变换至最大角度
-    // 观察鸟的飞行效果，当鸟发射时，会有一个向上旋转的过程，这个旋转角度的最大值
-    // 在鸟飞行到最高点后，会朝饭方向旋转（向下）达到 70 度
-    // 鸟发射至最高点的时间，可以由发射时速度除以加速度计算得到
-    private void calAngularSpeed(int toAngle){
-        int frameCount = 0;
-        // 在往上飞的时候
-        if (mSpeedY < 0){
-            frameCount = mSpeedY / (-mAccelY);
-        } else {
-            frameCount = 2 * MAX_RISE_SPEED_Y / (-FALL_ACCEL_Y); // 坠落的时候
-        }
-        mAngularSpeed = (toAngle - mRotationAngle) / frameCount;
+
+    public int getCellTop(int cell) {
+        return cell / mColumns * mCellSize;
     }
 
-    public void draw(Canvas canvas) {
-        // 具体在画布中如何画鸟？
-        // 根据帧号 mFrameCount 选择要绘制的鸟皮肤
-        Bitmap skin = mBirdsSkin[mFrameCount++ % mBirdsSkin.length];
-        // [mFrameCount++ % mBirdsSkin.length] => [0,1,2]
-        if (mFrameCount == mBirdsSkin.length)
-            mFrameCount = 0;
-
-        mMatrix.reset(); // 清除矩阵中的数据
-        if (mNeedScale) {  // 如果皮肤大小和给定的鸟的 bound 不一致，则需要先缩放
-            mMatrix.preScale(mScaleX, mScaleY);
+    // 计算这一帧要画的格子和位置，有变化时把上一帧和这一帧鸟所在的区域合并到 dirty 中
+    // alpha 表示当前时刻处在上一个物理帧和当前物理帧之间的位置 [0, 1)
+    public void prepare(Renderer renderer, float alpha, DirtyRect dirty) {
+        // 根据帧号选择要绘制的鸟皮肤
+        int frame = mState.getFrameCount();
+        float angle = 0; // 待命状态下，鸟上下来回飞动，并不需要处理旋转变换
+        if (!mState.isStandby()) {
+            // 在游戏状态下，需要对鸟的图片进行旋转变换
+            float prevAngle = mState.getPrevRotationAngle();
+            angle = prevAngle + (mState.getRotationAngle() - prevAngle) * alpha;
+        }
+        mCell = prepareCell(renderer, frame, angle);
+
+        // 格子的中心就是鸟的中心
+        int top = Math.round(mState.getPrevTop() + (mState.getTop() - mState.getPrevTop()) * alpha);
+        int left = mState.getLeft() + (mState.getWidth() - mCellSize) / 2;
+        top += (mState.getHeight() - mCellSize) / 2;
+        if (mCell != mLastCell || !mLastDrawRect.equals(left, top, left + mCellSize, top + mCellSize)) {
+            mDrawRect.set(left, top, left + mCellSize, top + mCellSize);
+            dirty.union(mLastDrawRect);
+            dirty.union(mDrawRect);
+            mLastCell = mCell;
+            mLastDrawRect.set(mDrawRect);
         }
-        synchronized (this) {
-            if (mIsStandby) {
-                // 待命状态下，鸟上下来回飞动，并不需要处理旋转变换
-                mMatrix.postTranslate(mBound.left, mBound.top); // 平移到鸟现在的位置
-                mBound.offset(0, mSpeedY); // 更新鸟的位置
-                // 当鸟处于中间位置时，速度最快，这时需要改变加速方向
-                if (mSpeedY == MAX_RISE_SPEED_Y_STANDBY) {
-                    mAccelY = FALL_ACCEL_Y_STANDBY;
-                } else if (mSpeedY == -MAX_RISE_SPEED_Y_STANDBY) {
-                    mAccelY = -FALL_ACCEL_Y_STANDBY;
-                }
-                mSpeedY += mAccelY;  // 更新速度
-            } else {
-                // 在游戏状态下，需要对鸟的图片进行平移和旋转变换
-                // 先在远点，饶鸟图片的中心进行旋转
-                mMatrix.preRotate(mRotationAngle, mBound.width() / 2, mBound.height() / 2);
-                // 在对图片做平移变换
-                mMatrix.postTranslate(mBound.left, mBound.top);
-                mBound.offset(0, mSpeedY); // 用速度更新位置
-                mSpeedY += mAccelY; //用加速度更新速度
-                if (mSpeedY == mAccelY) { // 表示小鸟由上升状态转入下落状态
-                    calAngularSpeed(FALLING_MAX_ANGLE);
-                }
-                float angle = mRotationAngle + mAngularSpeed; // 更新角度
-                if (angle >= RISING_MAX_ANGLE && angle <= FALLING_MAX_ANGLE) {
-                    mRotationAngle = angle;
-                }
-            }
+    }
+
+    // 具体如何画鸟？按 prepare() 算好的格子和位置, 从旋转缓存中拷贝过来
+    public void draw(Renderer renderer, DirtyRect dirty) {
+        if (dirty.overlapArea(mDrawRect.left, mDrawRect.top, mDrawRect.right, mDrawRect.bottom) == 0) {
+            return;
         }
+        int srcLeft = getCellLeft(mCell);
+        int srcTop = getCellTop(mCell);
         //  画鸟
-        canvas.drawBitmap(skin, mMatrix, null);
+        renderer.drawSprite(mRotationCache, srcLeft, srcTop, srcLeft + mCellSize, srcTop + mCellSize,
+                mDrawRect.left, mDrawRect.top, mDrawRect.right, mDrawRect.bottom);
     }
 }
@@ -1,298 +1,232 @@
 package com.example.flappybird;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Rect;
-import android.util.Log;
-
-import java.nio.channels.Pipe;
-import java.security.PrivateKey;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Queue;
-
+import com.example.flappybird.render.DirtyRect;
+import com.example.flappybird.render.Renderer;
+import com.example.flappybird.sim.WorldState;
+
+/**
+ * 游戏背景世界的绘制
+ * 画面滚动和水管的位置记录在 WorldState 中，这里只负责通过 Renderer 把它们画出来
+ *
+ * 画面分成几层：天空 (远景)、地面 (近景)、水管，鸟画在最上面。
+ * 天空滚动得很慢，预先合成在一个离屏图层里，只有滚动距离超过 SKY_REDRAW_THRESHOLD
+ * 像素时才重新合成。每一帧先用 prepare() 算出这一帧真正有变化的区域 (脏区域)，
+ * 只重画这个区域，其余部分保留上一帧的内容。
+ * 如果后端不保留上一帧的内容 (硬件加速)，每帧本来就要全部重画，天空直接从皮肤画出，不经过图层。
+ */
 public class BirdWorld {
-    public static final int DEFAULT_ROLLING_SPEED = 30;
-    public static final int CRASH_DETECT_PADDING = 20;
-    public static final int CRASH_TYPE_GROUND = 1;
-    public static final int CRASH_TYPE_PIPE = 2;
-    /**
-     * 近景（地面）滚动速度是远景（天空）的8倍
-     */
-
-    private static final int SPEED_SCALE = 8;
-
-    public Rect mBound; //游戏背景世界的边界
-    private int mGroundTop; //记录地面位置 (设定为底部 1/5 的位置)
-
-    private Bitmap mSkySkin; //天空 (远景) 背景
-    private Bitmap mGroundSkin; // 地面 (近景) 背景
-
-    private Bitmap[] mPipesSkin; // 水管皮肤
-
-    private List<PipePair> mTemplatePipeList; //水管的模板列表, 4 种可能的水管位置
-    private Queue<PipePair> mPipePairQueue; //当前出现的水管列表
-
-    private int mRollingSpeed; //画面滚动的速度
-    private boolean mIsStandby; //是否处于待命状态
-
-    private int mNextPipeFrameCount; //用于计算下一个水管出现的帧数
-    private int mFrameCount; // 当前帧数记录
-
-    private boolean mIsQuiet;
-    private int mCrashType; // 碰撞
-
-    /*
-    水管的描述
-    游戏中的水管都是上下成对出现的,由于涉及到碰撞的判断,描述水管时应该关心,中
-    间空隙的位置和长度.
-     */
-
-    // Java
-    private class PipePair implements Cloneable {
-        Rect bound; //水管的边界
-        private int downBottom; //朝下的水管底部的位置
-        private int upTop; //朝上的水管顶部的位置
-
-        PipePair() {
-            bound = new Rect(mBound.right, mBound.top,
-                    mBound.right + mPipesSkin[0].getWidth(), mGroundTop);
-        }
-
-        @Override
-        protected Object clone() { // 重写水管类的克隆方法
-            PipePair pp = null;
-            try {
-                pp = (PipePair)super.clone();
-            } catch (CloneNotSupportedException e) {
-                e.printStackTrace();
-            }
-            // 如果直接调用 Object.clone 那么水管类中的引用类型成员将不会得到 深复制
-            pp.bound = new Rect(bound);
-            return pp;
-        }
-        // 设置朝下的水管及水管长度
-        PipePair setDownBottom(int downBottom) {
-            this.downBottom = downBottom;
-            return this;
-        }
-        // 设置朝上的水管和水管长度
-        PipePair setUpTop(int upTop) {
-            this.upTop = upTop;
-            return this;
-        }
-        // 移动水管的位置，速度就是地面滚动的速度
-        void roll() {
-            bound.offset(-mRollingSpeed, 0);
-        }
-
-        // 分别画出上下水管
-        void draw(Canvas canvas) {
-            canvas.save(); //保持画布当前的状态
-            canvas.clipRect(bound); //在画布上剪出水管的区域进行绘制,这样不会影响到其他地方
-            canvas.drawBitmap(mPipesSkin[0], bound.left,
-                    downBottom - mPipesSkin[0].getHeight(), null);
-
-            canvas.drawBitmap(mPipesSkin[1], bound.left,
-                    upTop, null);
-            canvas.restore(); //恢复画布之前状态
-        }
-    }
-    // 获取碰撞值的方法
-    public int getCrashType() {
-        return mCrashType;
-    }
-
-    // 检测鸟是否成功过管
-    public boolean hasPassPipe(Bird bird) {
-        boolean isPass = false;
-        for (PipePair pp : mPipePairQueue) {
-            // 通过判断     鸟的左边在X轴的位置 大于 水管的右边在X轴的位置 &&
-            //                         鸟的左边在X轴的位置 小于等于 水管的右边在X轴的位置加上画面滚动速度
-            if (bird.getBound().left > pp.bound.right && bird.getBound().left <= pp.bound.right + mRollingSpeed) {
-                isPass = true;
-            }
-        }
-        return isPass;
-    }
-
-    public BirdWorld(){
-        mRollingSpeed = DEFAULT_ROLLING_SPEED;
-        mTemplatePipeList = new ArrayList<>();
-        mPipePairQueue = new LinkedList<>();
-    }
-    // 设置背景的在屏幕上位置
-    public BirdWorld setBound(Rect bound) {
-        mBound = bound;
-        mGroundTop = mBound.top + mBound.height() * 4/5;  // 地面的位置，占整个游戏背景 4/5
+    // 天空图层滚动多少像素后才重新合成
+    private static final int SKY_REDRAW_THRESHOLD = 4;
+
+    private WorldState mState; // 背景世界的物理状态
+
+    // 皮肤的纹理 id
+    private int mSkySkin; //天空 (远景) 背景
+    private int mGroundSkin; // 地面 (近景) 背景
+    private int[] mPipesSkin; // 水管皮肤
+    private int mPipeCapHeight; // 水管皮肤中管口的高度, 其余部分是管身
+
+    // 天空图层：按 mSkyLayerOffset 的滚动距离合成好的整块天空
+    private int mSkyLayer = -1;
+    private int mSkyLayerOffset = -1; // -1 表示还没有合成过
+
+    // 这一帧的天空、地面位置和水管的插值偏移, 由 prepare() 计算
+    private int mSkyOffset;
+    private int mGroundLeft;
+    private int mPipeOffsetX;
+    private boolean mUseSkyLayer;
+    // 上一帧画过的地面位置和水管位置, 用来计算脏区域
+    private int mLastGroundLeft = Integer.MIN_VALUE;
+    private int[] mLastPipeLeft;
+    private int mLastPipeCount;
+
+    // 设置要绘制的背景世界的状态
+    public BirdWorld setState(WorldState state) {
+        mState = state;
+        mLastPipeLeft = new int[state.getPipeCapacity()];
         return this;
     }
     // 设置天空的皮肤
-    public BirdWorld setSkySkin(Bitmap skySkin) {
+    public BirdWorld setSkySkin(int skySkin) {
         mSkySkin = skySkin;
+        mSkyLayerOffset = -1;
         return this;
     }
     // 设置地面皮肤
-    public BirdWorld setGroundSkin(Bitmap groundSkin){
+    public BirdWorld setGroundSkin(int groundSkin){
         mGroundSkin = groundSkin;
+        mLastGroundLeft = Integer.MIN_VALUE;
         return this;
     }
-    // 设置水管皮肤
-    public BirdWorld setPipesSkin(Bitmap[] skins) {
+    // 设置水管皮肤, 朝下和朝上的水管各一张
+    public BirdWorld setPipesSkin(int[] skins) {
         mPipesSkin = skins;
         return this;
     }
 
-    // 设置滚动速度
-//    public BirdWorld setRollingSpeed(int rollingSpeed) {
-//        mRollingSpeed = rollingSpeed;
-//        return this;
-//    }
-    /*
-    水管在游戏中是会不断产生的,如何高效的生成水管呢?
-    创建一个水管的模板列表,事先创建所有可能形状的水管,在每次需要新水管时从模板列表中随机拿出一个,
-    来设置新水管的形状.
-    水管从屏幕消失了,还可以回收利用当作下一个新出现的水管。
-     */
-
-    // 生成水管的模板列表
-    public void genTemplatePipeList() {
-        // 背景的顶部距边框的距离 + 背景的高度 / 10
-        int top = mBound.top + mBound.height()/10;
-        // 设置上下管道的间距
-        int space = mBound.height() * 3/10;
-        int step = mBound.height() / 10;
-        mTemplatePipeList.clear();
-        // 在循环中构建上下水管实例
-        while (top + space < mGroundTop) {
-            PipePair pp = new PipePair().setDownBottom(top).setUpTop(top + space);
-            mTemplatePipeList.add(pp);
-            top += step;
-        }
+    // 设置管口的高度: 朝下水管皮肤的最下面、朝上水管皮肤的最上面 capHeight 像素是管口,
+    // 其余部分是管身, 水管比皮肤长时重复铺管身. capHeight 必须小于皮肤的高度
+    public BirdWorld setPipeCapHeight(int capHeight) {
+        mPipeCapHeight = capHeight;
+        return this;
     }
-    // 产生新的水管
-    private void genPipePair() {
-        PipePair pp = null;
-        if (mTemplatePipeList.isEmpty()) {
-            genTemplatePipeList();
-        }
-        // 获得一个随机的水管样式
-        PipePair temp = mTemplatePipeList.get((int) (Math.random() *
-                mTemplatePipeList.size()));
-        if(!mPipePairQueue.isEmpty()) {
-            // 如果水管队列有水管， 从队列头取得一个水管。
-            PipePair tmp = mPipePairQueue.peek();
-            // 并判断是否已经在屏幕中不显示
-            if (tmp.bound.right < 0) {
-                // 如果是，则取出这个水管并设置水管样式，并用作新水管
-                pp = mPipePairQueue.poll();
-                pp.setDownBottom(temp.downBottom).setUpTop(temp.upTop);
-                pp.bound.set(temp.bound);
-            }
-        }
-        if (pp == null) { // 否则，克隆从随机得到的水管
-            pp = (PipePair) temp.clone();
+
+    // 按滚动距离 offset 重新合成天空图层，从左边界开始往右移动
+    private void composeSkyLayer(Renderer renderer, int offset) {
+        int width = renderer.getTextureWidth(mSkySkin);
+        int height = renderer.getTextureHeight(mSkySkin);
+        if (mSkyLayer < 0) {
+            mSkyLayer = renderer.createLayer(width, height, true);
         }
-        mPipePairQueue.offer(pp); // 把新的水管放入队列尾部
+        renderer.beginLayer(mSkyLayer);
+        drawSky(renderer, offset, 0, 0);
+        renderer.endLayer();
+        mSkyLayerOffset = offset;
     }
 
-
-    public void makeStandby() {
-        mIsStandby = true;
-        mFrameCount = 0;
-    }
-//    public boolean isStandby() {
-//        return mIsStandby;
-//    }
-    public void roll() { //启动游戏时地调用,画面开始滚动
-        mIsStandby = false;
-        mNextPipeFrameCount = -1;
+    // 把滚动了 offset 的天空画在 (left, top)
+    private void drawSky(Renderer renderer, int offset, int left, int top) {
+        int width = renderer.getTextureWidth(mSkySkin);
+        int height = renderer.getTextureHeight(mSkySkin);
+        // 两张天空首尾相接, 只画出可见的部分
+        renderer.drawSprite(mSkySkin, offset, 0, width, height,
+                left, top, left + width - offset, top + height);
+        if (offset > 0) {
+            // 填补背景图中的空缺的部分
+            renderer.drawSprite(mSkySkin, 0, 0, offset, height,
+                    left + width - offset, top, left + width, top + height);
+        }
     }
 
     // 画面滚动 ---------------------->------------------>---------------
-    public void draw(Canvas canvas){
-        int skyLeft = mBound.left; //记录远景的左边界
-        int groundLeft = mBound.left; //记录近景的左边界
-        if (!mIsStandby) { //如果处于游戏状态
-            int recycleFrameCount = mBound.width() / mRollingSpeed; //循环一次的帧数
-            //地面帧数 （用来确定地面显示位置）
-            int groundFrameCount = mFrameCount % recycleFrameCount;
-            skyLeft -= mFrameCount * mRollingSpeed / SPEED_SCALE; // 更新天空的位置
-            groundLeft -= groundFrameCount * mRollingSpeed; //更新地面左边的位置
-            // 绘制背景图，从左边界开始往右移动
-            canvas.drawBitmap(mSkySkin, skyLeft + mBound.width(), mBound.top, null);
-            canvas.drawBitmap(mGroundSkin, groundLeft + mBound.width(), mGroundTop, null);
-            // 绘制背景图，填补背景图中的空缺的部分
-            canvas.drawBitmap(mSkySkin, skyLeft, mBound.top, null);
-            canvas.drawBitmap(mGroundSkin, groundLeft, mGroundTop, null);
-            // 绘制水管图
-            for (PipePair pp : mPipePairQueue) {
-                pp.draw(canvas);
-            }
+    // 计算这一帧各层的位置，并把有变化的区域合并到 dirty 中
+    // alpha 表示当前时刻处在上一个物理帧和当前物理帧之间的位置 [0, 1)
+    public void prepare(Renderer renderer, float alpha, DirtyRect dirty) {
+        int left = mState.getLeft();
+        int right = left + mState.getWidth();
+        int top = mState.getTop();
+        int groundTop = mState.getGroundTop();
+        int skyOffset = 0; //远景滚动的距离
+        int groundOffset = 0; //近景滚动的距离
+        mPipeOffsetX = 0;
+        if (!mState.isStandby()) { //如果处于游戏状态
+            // 上一帧到当前帧之间插值的滚动距离, 还没滚动过时 lastScroll 为 0, 停在原处
+            // 关卡模式下滚动速度会变, 所以按滚动的距离而不是帧数计算
+            int lastScroll = mState.getLastScroll();
+            float scroll = mState.getPrevScroll() + alpha * lastScroll;
+            skyOffset = (int) (scroll / WorldState.SPEED_SCALE); // 天空滚动的距离
+            groundOffset = (int) (scroll % mState.getWidth()); //地面滚动的距离
+            // 水管已经滚动到当前帧的位置，往回退 (1 - alpha) 个滚动距离
+            mPipeOffsetX = Math.round(lastScroll * (1 - alpha));
+        }
+        skyOffset %= renderer.getTextureWidth(mSkySkin);
+
+        // 天空：滚动距离变化足够大时才重新合成
+        mUseSkyLayer = renderer.preservesContent();
+        if (!mUseSkyLayer) {
+            mSkyOffset = skyOffset;
+        } else if (mSkyLayerOffset < 0 || Math.abs(skyOffset - mSkyLayerOffset) >= SKY_REDRAW_THRESHOLD
+                || (skyOffset == 0 && mSkyLayerOffset != 0)) {
+            composeSkyLayer(renderer, skyOffset);
+            dirty.union(left, top, right, groundTop);
+        }
 
-//            Log.d("yourTag", "mNextPipeFrameCount =" + mNextPipeFrameCount);
-            //  游戏启动时为 -1
-            //  水管的帧数
-            if (mNextPipeFrameCount == -1) {
-                // 让水管帧数 = 循环一次的帧数
-                mNextPipeFrameCount = recycleFrameCount;
-            }
+        // 地面
+        mGroundLeft = left - groundOffset;
+        if (mGroundLeft != mLastGroundLeft) {
+            dirty.union(left, groundTop, right, groundTop + renderer.getTextureHeight(mGroundSkin));
+            mLastGroundLeft = mGroundLeft;
+        }
 
-            if (mFrameCount == mNextPipeFrameCount) {
-                genPipePair();
-                mNextPipeFrameCount += recycleFrameCount / 2;
-                if (mNextPipeFrameCount >= (SPEED_SCALE * recycleFrameCount)) {
-                    mNextPipeFrameCount -= (SPEED_SCALE * recycleFrameCount);
-                }
-            }
+        // 水管：上一帧和这一帧画水管的区域都需要重画
+        for (int i = 0; i < mLastPipeCount; i++) {
+            dirty.union(mLastPipeLeft[i], top, mLastPipeLeft[i] + mState.getPipeWidth(), groundTop);
+        }
+        mLastPipeCount = mState.isStandby() ? 0 : mState.getPipeCount();
+        for (int i = 0; i < mLastPipeCount; i++) {
+            mLastPipeLeft[i] = mState.getPipeLeft(i) + mPipeOffsetX;
+            dirty.union(mLastPipeLeft[i], top, mLastPipeLeft[i] + mState.getPipeWidth(), groundTop);
+        }
+    }
 
-            mFrameCount++;
-            for (PipePair pp : mPipePairQueue) {
-                pp.roll();
-            }
+    // 让下一帧重画所有图层
+    public void invalidate() {
+        mSkyLayerOffset = -1;
+        mLastGroundLeft = Integer.MIN_VALUE;
+    }
 
-            if (mFrameCount == (SPEED_SCALE * recycleFrameCount)) {
-                mFrameCount = 0;
-            }
-        } else {
-            // 不动的背景
-            canvas.drawBitmap(mSkySkin, skyLeft, mBound.top, null);
-            canvas.drawBitmap(mGroundSkin, groundLeft, mGroundTop, null);
+    // 分别画出第 i 对上下水管
+    // 每根水管由管口和管身拼成，正好画到可见的长度 (天空顶部到地面)：
+    // 管口按原样拷贝一次，管身从皮肤中取一段按原样重复铺满，不需要裁剪画布，也不会画出看不见的部分
+    private void drawPipePair(Renderer renderer, DirtyRect dirty, int i) {
+        int left = mLastPipeLeft[i];
+        int right = left + mState.getPipeWidth();
+        int top = mState.getTop();
+        int groundTop = mState.getGroundTop();
+        if (dirty.overlapArea(left, top, right, groundTop) == 0) {
+            return;
+        }
+        int width = renderer.getTextureWidth(mPipesSkin[0]);
+        // 朝下的水管，底部在 downBottom，管口在皮肤的最下面，管身从管口往上铺
+        int skin = mPipesSkin[0];
+        int height = renderer.getTextureHeight(skin);
+        int body = height - mPipeCapHeight;
+        int y = mState.getPipeDownBottom(i);
+        int capTop = Math.max(top, y - mPipeCapHeight);
+        if (capTop < y) {
+            renderer.drawSprite(skin, 0, height - (y - capTop), width, height, left, capTop, right, y);
+            y = capTop;
+        }
+        while (y > top) {
+            int tileTop = Math.max(top, y - body);
+            renderer.drawSprite(skin, 0, body - (y - tileTop), width, body, left, tileTop, right, y);
+            y = tileTop;
+        }
+        // 朝上的水管，顶部在 upTop，管口在皮肤的最上面，管身从管口往下铺
+        skin = mPipesSkin[1];
+        height = renderer.getTextureHeight(skin);
+        body = height - mPipeCapHeight;
+        y = mState.getPipeUpTop(i);
+        int capBottom = Math.min(groundTop, y + mPipeCapHeight);
+        if (y < capBottom) {
+            renderer.drawSprite(skin, 0, 0, width, capBottom - y, left, y, right, capBottom);
+            y = capBottom;
+        }
+        while (y < groundTop) {
+            int tileBottom = Math.min(groundTop, y + body);
+            renderer.drawSprite(skin, 0, mPipeCapHeight, width, mPipeCapHeight + tileBottom - y,
+                    left, y, right, tileBottom);
+            y = tileBottom;
         }
     }
-    // 判断鸟的碰撞
-    public boolean isBirdCrash(Bird bird) {
-        boolean crashed = false;
-        // 如果 鸟的底部距上方背景边界的距离 - 距上方背景边界整个背景 4/5 的距离
-        if (bird.getBound().bottom - mGroundTop > CRASH_DETECT_PADDING) {
-            crashed = true;
-            mCrashType = CRASH_TYPE_GROUND;
-            Log.d("yourTag", "bird.getBound().bottom =" + bird.getBound().bottom);
-            Log.d("yourTag", "mGroundTop =" + mGroundTop);
-            bird.put2Death();  //撞在地面上，鸟就直接挂了
-            mIsQuiet = true;    //表示背景不再动了
-        } else {
-            for (PipePair pp : mPipePairQueue) {
-                if (pp.bound.left - bird.getBound().right > -CRASH_DETECT_PADDING ||
-                        bird.getBound().left - pp.bound.right > -CRASH_DETECT_PADDING
-                ) {
-                    Log.d("shuiguan", "bird.getBound().bottom =" + bird.getBound().bottom);
-                    Log.d("shuiguan", "mGroundTop =" + mGroundTop);
-                    continue;
-                }
 
-                //...CRASH_TYPE_PIPE
-                if (pp.downBottom - bird.getBound().top > CRASH_DETECT_PADDING ||
-                        bird.getBound().bottom - pp.upTop > CRASH_DETECT_PADDING) {
-                    crashed = true;
-                    mCrashType = CRASH_TYPE_PIPE;
-                    mIsQuiet = true;
-                    break;
-                }
+    // 按 prepare() 算好的位置画出各层
+    public void draw(Renderer renderer, DirtyRect dirty){
+        int left = mState.getLeft();
+        int width = mState.getWidth();
+        int top = mState.getTop();
+        int groundTop = mState.getGroundTop();
+        // 天空
+        if (mUseSkyLayer) {
+            renderer.drawSprite(mSkyLayer, 0, 0, width, groundTop - top,
+                    left, top, left + width, groundTop);
+        } else {
+            drawSky(renderer, mSkyOffset, left, top);
+        }
+        // 地面，从左边界开始往右移动，并填补背景图中的空缺的部分
+        int groundHeight = renderer.getTextureHeight(mGroundSkin);
+        if (dirty.overlapArea(left, groundTop, left + width, groundTop + groundHeight) > 0) {
+            int offset = left - mGroundLeft;
+            renderer.drawSprite(mGroundSkin, offset, 0, width, groundHeight,
+                    left, groundTop, left + width - offset, groundTop + groundHeight);
+            if (offset > 0) {
+                renderer.drawSprite(mGroundSkin, 0, 0, offset, groundHeight,
+                        left + width - offset, groundTop, left + width, groundTop + groundHeight);
             }
         }
-        return crashed;
+        // 水管
+        for (int i = 0; i < mLastPipeCount; i++) {
+            drawPipePair(renderer, dirty, i);
+        }
     }
 }
-
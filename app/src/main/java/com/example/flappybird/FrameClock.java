@@ -0,0 +1,16 @@
+package com.example.flappybird;
+
+/**
+ * FrameScheduler 用来测量每帧工作时间的时钟，测试时换成手动拨动的假时钟
+ */
+public interface FrameClock {
+    // 和 System.nanoTime() 以及 Choreographer 的 vsync 时间是同一个时间基准
+    FrameClock SYSTEM = new FrameClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    long nanoTime();
+}
@@ -0,0 +1,216 @@
+package com.example.flappybird;
+
+/**
+ * 按 vsync 安排每一帧要做的事
+ *
+ * GameView 在 Choreographer 的每个 vsync 回调中调用 onVsync()，由这里决定：
+ *   推进几个物理帧 —— 按 vsync 的时间戳累加，每 tickNanos 推进一个，卡顿后最多追 MAX_CATCH_UP_TICKS 个，
+ *     多出来的时间直接丢掉；落后时错过的几个 vsync 由 Choreographer 合并成一次回调，物理帧也在这一次中一起推进；
+ *   画不画这一帧 —— 开始处理这个 vsync 时已经晚了超过一个刷新周期 (上一帧超出了预算)，就只推进物理不画，
+ *     把时间还给下一个 vsync，但不会连续两帧都不画；
+ *   下一次回调要等多久 —— 待命和结束的画面几乎不动 (setIdle)，这时每 idleFrameNanos 才画一帧，
+ *     中间的 vsync 不用醒来；玩家点击时 requestFrame() 让下一个 vsync 立即处理，点击不会多等。
+ * 每帧的工作时间 (onVsync() 到 onFrameDone()) 和刷新周期比较，记录超出预算的帧数和错过的 vsync 数。
+ *
+ * 不依赖 Android，时钟可以替换 (FrameClock)，用假时钟在电脑上测试每一个决定。
+ */
+public class FrameScheduler {
+    public static final int MAX_CATCH_UP_TICKS = 5;
+
+    private final FrameClock mClock;
+    private long mTickNanos = 50000000L;
+    private long mVsyncPeriod = 1000000000L / 60;
+    private long mIdleFrameNanos = 50000000L;
+    private boolean mIdle;
+    private boolean mFrameRequested;
+
+    private long mLastVsync; // 上一个处理过的 vsync, 0 表示还没有
+    private long mLastDrawVsync; // 上一次画的那一帧的 vsync
+    private long mLag; // 还没有模拟的时间
+    private boolean mDrewLast;
+    // 这一次 onVsync() 的决定
+    private int mTicks;
+    private boolean mDraw;
+    private long mFrameStart;
+    private long mLastWorkNanos;
+
+    // 统计
+    private long mVsyncs;
+    private long mFrames; // 处理过的 vsync (没有因为待命而跳过)
+    private long mDrawnFrames;
+    private long mSkippedDraws; // 因为落后而没有画的帧
+    private long mIdleVsyncs; // 因为待命而跳过的 vsync
+    private long mMissedVsyncs; // 两次回调之间错过的 vsync
+    private long mDroppedTicks; // 卡顿太久, 没有追上的物理帧
+    private long mOverBudgetFrames;
+
+    public FrameScheduler(FrameClock clock) {
+        mClock = clock;
+    }
+
+    // 物理帧的固定步长
+    public FrameScheduler setTickNanos(long tickNanos) {
+        mTickNanos = tickNanos;
+        return this;
+    }
+
+    // 屏幕的刷新周期, 也是每帧的时间预算
+    public FrameScheduler setVsyncPeriod(long periodNanos) {
+        mVsyncPeriod = periodNanos;
+        return this;
+    }
+
+    // 待命时每帧的间隔
+    public FrameScheduler setIdleFrameNanos(long idleFrameNanos) {
+        mIdleFrameNanos = idleFrameNanos;
+        return this;
+    }
+
+    public long getVsyncPeriod() {
+        return mVsyncPeriod;
+    }
+
+    // 画面几乎不动 (待命、结束) 时降低帧率
+    public void setIdle(boolean idle) {
+        mIdle = idle;
+    }
+
+    public boolean isIdle() {
+        return mIdle;
+    }
+
+    // 有点击等需要马上处理的事: 下一个 vsync 不管是否待命都处理
+    public void requestFrame() {
+        mFrameRequested = true;
+    }
+
+    // 重新开始计时, 比如游戏线程重新启动时
+    public void reset() {
+        mLastVsync = 0;
+        mLastDrawVsync = 0;
+        mLag = 0;
+        mDrewLast = false;
+        mFrameRequested = false;
+    }
+
+    /*
+    收到一个 vsync, frameTimeNanos 是它的时间戳 (Choreographer.FrameCallback.doFrame() 的参数)。
+    返回 false 表示待命时这个 vsync 什么都不用做; 返回 true 时按 getTicks() 推进物理,
+    shouldDraw() 时按 getAlpha() 插值画一帧, 最后调用 onFrameDone()
+     */
+    public boolean onVsync(long frameTimeNanos) {
+        mVsyncs++;
+        mTicks = 0;
+        mDraw = false;
+        if (mIdle && !mFrameRequested && mLastVsync != 0
+                && frameTimeNanos - mLastDrawVsync < mIdleFrameNanos - mVsyncPeriod / 2) {
+            mIdleVsyncs++;
+            return false;
+        }
+        mFrameRequested = false;
+        mFrameStart = mClock.nanoTime();
+        mFrames++;
+        if (mLastVsync != 0) {
+            long interval = frameTimeNanos - mLastVsync;
+            // 待命时是有意跳过的, 不算错过
+            if (!mIdle) {
+                mMissedVsyncs += Math.max(0, (interval + mVsyncPeriod / 2) / mVsyncPeriod - 1);
+            }
+            mLag += interval;
+        }
+        mLastVsync = frameTimeNanos;
+        long maxLag = MAX_CATCH_UP_TICKS * mTickNanos;
+        if (mLag > maxLag) {
+            mDroppedTicks += (mLag - maxLag) / mTickNanos;
+            mLag = maxLag;
+        }
+        mTicks = (int) (mLag / mTickNanos);
+        mLag -= mTicks * mTickNanos;
+
+        // 晚了一个周期以上才开始处理这个 vsync, 画了也赶不上, 先不画, 但不连续两帧不画
+        boolean late = mFrameStart - frameTimeNanos > mVsyncPeriod;
+        mDraw = !(late && mDrewLast);
+        if (mDraw) {
+            mLastDrawVsync = frameTimeNanos;
+            mDrawnFrames++;
+        } else {
+            mSkippedDraws++;
+        }
+        mDrewLast = mDraw;
+        return true;
+    }
+
+    // 这一次 onVsync() 要推进的物理帧数
+    public int getTicks() {
+        return mTicks;
+    }
+
+    public boolean shouldDraw() {
+        return mDraw;
+    }
+
+    // 画面时刻处在上一个物理帧和当前物理帧之间的位置 [0, 1)
+    public float getAlpha() {
+        return (float) mLag / mTickNanos;
+    }
+
+    // 这一帧的工作做完了, 返回工作时间
+    public long onFrameDone() {
+        mLastWorkNanos = mClock.nanoTime() - mFrameStart;
+        if (mLastWorkNanos > mVsyncPeriod) {
+            mOverBudgetFrames++;
+        }
+        return mLastWorkNanos;
+    }
+
+    public long getLastWorkNanos() {
+        return mLastWorkNanos;
+    }
+
+    // 下一次回调最早什么时候需要: 0 表示下一个 vsync, 待命时可以晚一些再醒来
+    public long getNextFrameDelayMillis() {
+        if (!mIdle || mFrameRequested) {
+            return 0;
+        }
+        return Math.max(0, (mIdleFrameNanos - mVsyncPeriod) / 1000000L);
+    }
+
+    public long getVsyncs() {
+        return mVsyncs;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    public long getDrawnFrames() {
+        return mDrawnFrames;
+    }
+
+    public long getSkippedDraws() {
+        return mSkippedDraws;
+    }
+
+    public long getIdleVsyncs() {
+        return mIdleVsyncs;
+    }
+
+    public long getMissedVsyncs() {
+        return mMissedVsyncs;
+    }
+
+    public long getDroppedTicks() {
+        return mDroppedTicks;
+    }
+
+    public long getOverBudgetFrames() {
+        return mOverBudgetFrames;
+    }
+
+    // 一行统计, 游戏线程结束时记在日志里
+    public String report() {
+        return mFrames + " frames (" + mDrawnFrames + " drawn, " + mSkippedDraws + " skipped), "
+                + mIdleVsyncs + " idle vsyncs, " + mMissedVsyncs + " missed vsyncs, "
+                + mOverBudgetFrames + " over budget, " + mDroppedTicks + " ticks dropped";
+    }
+}
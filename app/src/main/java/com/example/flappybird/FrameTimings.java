@@ -0,0 +1,134 @@
+package com.example.flappybird;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * 每一帧的时间记录：从点击到画面出现在屏幕上经过了哪些阶段，各用了多长时间
+ *
+ * 游戏线程在每一帧中依次调用：
+ *   onTap()      取走一个点击时, 传入点击入队的时间和处理它的物理帧开始的时间
+ *   beginDraw()  开始计算和绘制画面
+ *   endDraw()    绘制命令全部发出, 准备提交
+ *   posted()     unlockCanvasAndPost 返回, 画面已经交给系统合成
+ * 由此得到三个滚动直方图：
+ *   帧间隔 (相邻两次提交之间)、帧耗时 (开始绘制到提交完成)、点击延迟 (点击到第一次提交)
+ * 最近 FRAME_LOG_SIZE 帧的原始时间戳保存在环形缓冲区中，可以导出到文件。
+ * 所有数组都是预先分配的，记录时不创建对象。
+ */
+public class FrameTimings {
+    public static final int FRAME_LOG_SIZE = 1024;
+    // 直方图的窗口大小和精度: 最近 600 个样本 (60Hz 时约 10 秒), 每个桶 0.1ms, 最多 200ms
+    private static final int WINDOW = 600;
+    private static final int BUCKET_MICROS = 100;
+    private static final int BUCKET_COUNT = 2000;
+
+    // 原始记录每帧的字段
+    private static final int FIELD_TAP = 0; // 这一帧显示的点击入队的时间, 没有点击时为 0
+    private static final int FIELD_TICK = 1; // 处理这个点击的物理帧开始的时间
+    private static final int FIELD_DRAW_START = 2;
+    private static final int FIELD_DRAW_END = 3;
+    private static final int FIELD_POSTED = 4;
+    private static final int FIELD_COUNT = 5;
+
+    private final RollingHistogram mFrameInterval =
+            new RollingHistogram(WINDOW, BUCKET_MICROS, BUCKET_COUNT);
+    private final RollingHistogram mFrameTime =
+            new RollingHistogram(WINDOW, BUCKET_MICROS, BUCKET_COUNT);
+    private final RollingHistogram mTapLatency =
+            new RollingHistogram(WINDOW, BUCKET_MICROS, BUCKET_COUNT);
+
+    private final long[] mFrameLog = new long[FRAME_LOG_SIZE * FIELD_COUNT];
+    private int mFrameCount; // 一共记录过的帧数
+
+    // 已经被模拟处理、还没有显示出来的点击中最早的一个
+    private long mPendingTap;
+    private long mPendingTick;
+    private long mDrawStart;
+    private long mDrawEnd;
+    private long mLastPosted;
+
+    // 游戏线程取走了一个 tapNanos 时入队的点击, 在 tickNanos 开始的物理帧中处理
+    // 同一帧显示的多个点击只按最早的一个计算延迟
+    public void onTap(long tapNanos, long tickNanos) {
+        if (mPendingTap == 0) {
+            mPendingTap = tapNanos;
+            mPendingTick = tickNanos;
+        }
+    }
+
+    public void beginDraw(long nanos) {
+        mDrawStart = nanos;
+    }
+
+    public void endDraw(long nanos) {
+        mDrawEnd = nanos;
+    }
+
+    // 画面已经提交
+    public void posted(long nanos) {
+        if (mLastPosted != 0) {
+            mFrameInterval.add(nanos - mLastPosted);
+        }
+        mLastPosted = nanos;
+        mFrameTime.add(nanos - mDrawStart);
+        if (mPendingTap != 0) {
+            mTapLatency.add(nanos - mPendingTap);
+        }
+
+        int base = (mFrameCount % FRAME_LOG_SIZE) * FIELD_COUNT;
+        mFrameLog[base + FIELD_TAP] = mPendingTap;
+        mFrameLog[base + FIELD_TICK] = mPendingTick;
+        mFrameLog[base + FIELD_DRAW_START] = mDrawStart;
+        mFrameLog[base + FIELD_DRAW_END] = mDrawEnd;
+        mFrameLog[base + FIELD_POSTED] = nanos;
+        mFrameCount++;
+        mPendingTap = 0;
+        mPendingTick = 0;
+    }
+
+    public RollingHistogram getFrameInterval() {
+        return mFrameInterval;
+    }
+
+    public RollingHistogram getFrameTime() {
+        return mFrameTime;
+    }
+
+    public RollingHistogram getTapLatency() {
+        return mTapLatency;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    private static void writePercentiles(Writer out, String name, RollingHistogram h) throws IOException {
+        out.write("# " + name + " (us): p50 " + h.percentileMicros(50) + ", p95 " + h.percentileMicros(95)
+                + ", p99 " + h.percentileMicros(99) + ", samples " + h.getCount() + "\n");
+    }
+
+    // 导出百分位数和最近的原始记录 (CSV, 时间相对于第一条记录, 单位是微秒)
+    public void writeCsv(Writer out) throws IOException {
+        writePercentiles(out, "frame interval", mFrameInterval);
+        writePercentiles(out, "frame time", mFrameTime);
+        writePercentiles(out, "tap latency", mTapLatency);
+        out.write("frame,tap,tick,draw_start,draw_end,posted\n");
+        int count = Math.min(mFrameCount, FRAME_LOG_SIZE);
+        int first = mFrameCount - count;
+        long origin = mFrameLog[(first % FRAME_LOG_SIZE) * FIELD_COUNT + FIELD_DRAW_START];
+        for (int frame = first; frame < mFrameCount; frame++) {
+            int base = (frame % FRAME_LOG_SIZE) * FIELD_COUNT;
+            StringBuilder line = new StringBuilder().append(frame);
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                long value = mFrameLog[base + field];
+                line.append(',');
+                if (value != 0) {
+                    line.append((value - origin) / 1000L);
+                }
+            }
+            out.write(line.append('\n').toString());
+        }
+        out.flush();
+    }
+}
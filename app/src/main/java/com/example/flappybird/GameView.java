@@ -1,49 +1,214 @@
 package com.example.flappybird;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
+import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Rect;
-import android.media.AudioManager;
-import android.media.SoundPool;
+import android.graphics.Typeface;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
+import com.example.flappybird.audio.AudioEngine;
+import com.example.flappybird.audio.AudioTrackOutput;
+import com.example.flappybird.net.DatagramTransport;
+import com.example.flappybird.net.LockstepSession;
+import com.example.flappybird.render.CanvasRenderer;
+import com.example.flappybird.render.DirtyRect;
+import com.example.flappybird.render.HardwareCanvasRenderer;
+import com.example.flappybird.sim.BirdState;
+import com.example.flappybird.sim.GhostPack;
+import com.example.flappybird.sim.GhostStore;
+import com.example.flappybird.sim.GhostStream;
+import com.example.flappybird.sim.GhostTrack;
+import com.example.flappybird.sim.ReplayLog;
+import com.example.flappybird.sim.SimSnapshot;
+import com.example.flappybird.sim.Simulation;
+import com.example.flappybird.telemetry.Telemetry;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.security.PublicKey;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class GameView extends SurfaceView implements Choreographer.FrameCallback, SurfaceHolder.Callback {
+    private static final String TAG = "GameView";
+    // 物理模拟的固定步长：沿用原来每 50ms 推进一帧的节奏，游戏速度不随设备快慢变化
+    private static final long TICK_NANOS = 50000000L;
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+    // 使用的天空和水管皮肤, 只加载这一套
+    private static final int SKY_SKIN = 0;
+    private static final int PIPES_SKIN = 1;
+    // 水管原图高 320 像素, 其中管口占 24 像素
+    private static final int PIPE_SKIN_ROWS = 320;
+    private static final int PIPE_CAP_ROWS = 24;
 
-public class GameView extends SurfaceView implements Runnable, SurfaceHolder.Callback {
-    public static int STAGE_READY = 1;
-    public static int STAGE_PLAY = 2;
-    public static int STAGE_BIRD_FALLING = 3;
-    public static int STAGE_OVER = 4;
+    // 绘制后端：软件画布只重画脏区域，硬件加速画布每帧完整地重画
+    public static final int RENDERER_SOFTWARE = 0;
+    public static final int RENDERER_HARDWARE = 1;
 
+    private Simulation mSim; // 游戏的物理模拟, 只在游戏线程中推进
+    // 这一次 Surface 存在期间的回放记录, 游戏线程结束时保存到 files/replays/last.fbr
+    // 从快照恢复的一局不是从 init() 开始的, 不能回放, 这时为 null
+    // 幽灵竞速时每局都重新 init(), 只记录最后一局
+    private ReplayLog mReplayLog;
+    // 映射到 files/session.snap 的快照: 游戏线程结束时写入, 下次创建 Surface 时恢复还没有结束的一局
+    private SimSnapshot mSnapshot;
+    // 从快照恢复到游戏中时先暂停, 等玩家点击以后再继续
+    private boolean mResumePaused;
     private Bird mBird;
     private BirdWorld mBirdWorld;
-    private List<Bitmap[]> mListBirdsSkin;
-    private List<Bitmap[]> mListPipesSkin;
-    private List<Bitmap> mListSkySkin;
+    // 幽灵竞速: 同一条赛道 (同一个种子) 上之前的每一局都作为半透明的幽灵和玩家一起飞,
+    // 轨迹保存在 files/ghosts/course.fbg 中, 播放时边读边解码
+    private boolean mGhostMode;
+    private long mGhostSeed;
+    private GhostStream mGhostStream; // 只在游戏线程中使用
+    private final GhostStore mGhosts = new GhostStore(GhostPack.MAX_GHOSTS);
+    private GhostBirds mGhostBirds;
+    private GhostTrack mGhostTrack; // 正在录制的这一局, 结束时交给后台写入文件
+    private volatile int mGhostPackVersion; // 后台每写好一次文件加 1
+    private int mGhostStreamVersion = -1; // mGhostStream 打开的是哪一次写好的文件
+    // 联机竞速: 每个玩家一个模拟, 用锁步同步点击, mSim 是本地玩家的模拟, 对手画成半透明的鸟。
+    // 只比一局, 不录制回放, 也不保存快照
+    private String[] mRacePeers; // 每个玩家的 host:port, 为 null 时不联机
+    private int mRacePlayer;
+    private long mRaceSeed;
+    private LockstepSession mRace;
+    private DatagramTransport mRaceTransport; // 在游戏线程中打开, 解析地址可能要访问网络
+    private final GhostStore mRaceBirds = new GhostStore(LockstepSession.MAX_PLAYERS);
+    private SpriteAtlas mBirdsAtlas; // 3 种鸟的皮肤, 每种 3 张, 放在同一个图集中
+    // 鸟和水管在屏幕坐标中的大小, 皮肤按渲染比例缩小后可能比它们小
+    private int mBirdWidth;
+    private int mBirdHeight;
+    private int mPipeWidth;
+    private int mPipeHeight;
+    private Bitmap[] mPipesSkin;
+    private Bitmap mSkySkin;
     private Bitmap mGroundSkin;
-    private Matrix mMatrix;
-    private boolean mIsRunning;
-    private int mState;
+    // 纹理的内存预算和画质档位, 每次创建 Surface 时按屏幕大小重新选择
+    private TextureManager mTextureManager;
+    private boolean mTexturesReported;
+    // 绘制后端和登记在后端中的纹理 id
+    private int mRendererBackend = RENDERER_SOFTWARE;
+    private CanvasRenderer mRenderer;
+    private int mBirdsTexture;
+    private int mSkyTexture;
+    private int mGroundTexture;
+    private int[] mPipesTextures;
+    // 游戏线程是否在运行, 由 UI 线程修改, 游戏线程读取
+    private volatile boolean mIsRunning;
+    // 游戏线程: 一个带 Looper 的线程, 每一帧由它的 Choreographer 在 vsync 时回调 doFrame()
+    private HandlerThread mGameThread;
+    private Handler mGameHandler;
+    private Choreographer mChoreographer; // 只在游戏线程中使用
+    // 决定每个 vsync 推进几个物理帧、画不画, 以及待命时隔多久再醒来
+    private final FrameScheduler mScheduler = new FrameScheduler(FrameClock.SYSTEM).setTickNanos(TICK_NANOS);
+    // 在后台预先生成关卡中的水管, 和游戏线程同时创建和结束
+    private ExecutorService mLevelWorker;
+    // UI 线程只把点击放进队列, 由游戏线程在每个物理帧开始时取走, UI 线程不接触模拟的状态
+    private final InputQueue mInputQueue = new InputQueue(64);
+    // 模拟当前的阶段, 只在游戏线程中使用
+    private int mStage = Simulation.STAGE_READY;
+    // 每一帧画面的目标时长，由屏幕刷新率决定 (60/90/120 Hz)
+    private long mFrameNanos;
+    // 游戏线程开始: 在游戏线程中取得 Choreographer, 等下一个 vsync
+    private final Runnable mStartLoop = new Runnable() {
+        @Override
+        public void run() {
+            if (mAllocTracker != null) {
+                mAllocTracker.start();
+            }
+            if (mRace != null && mRaceTransport == null) {
+                openRaceTransport();
+            }
+            mScheduler.reset();
+            mChoreographer = Choreographer.getInstance();
+            mChoreographer.postFrameCallback(GameView.this);
+        }
+    };
+    // 游戏线程结束: 不再等 vsync, 保存这一次的记录
+    private final Runnable mStopLoop = new Runnable() {
+        @Override
+        public void run() {
+            mChoreographer.removeFrameCallback(GameView.this);
+            finishLoop();
+        }
+    };
+    // 点击以后不等待命的低帧率, 下一个 vsync 就处理
+    private final Runnable mWakeLoop = new Runnable() {
+        @Override
+        public void run() {
+            if (mIsRunning && mScheduler.getNextFrameDelayMillis() > 0) {
+                mScheduler.requestFrame();
+                mChoreographer.removeFrameCallback(GameView.this);
+                mChoreographer.postFrameCallback(GameView.this);
+            }
+        }
+    };
 
-    private SoundPool mSoundPool;
-    private Map<String,Integer> mSoundMap;
+    // 音效: 加载时解码一次, 之后只用整数句柄播放
+    private AudioEngine mAudio;
+    private int mSoundDie;
+    private int mSoundHit;
+    private int mSoundPoint;
+    private int mSoundWing;
     private Paint mPaint;
 
     private GestureDetector mGestureDetector;
+    // 每帧的内存分配统计, 只在 debug 包中开启
+    private AllocTracker mAllocTracker;
+
+    // 这一帧需要重画的区域 (脏区域), 其余部分保留上一帧的内容
+    private final DirtyRect mDirty = new DirtyRect();
+    private boolean mFullRedraw;
+    // 每帧填充的像素数统计, 用来衡量过度绘制 (只在 debug 包中输出)
+    private long mFilledPixels;
+    private int mFillFrames;
+    // 从点击到画面的各阶段时间, 游戏线程结束时导出到 files/perf/timings.csv
+    private final FrameTimings mFrameTimings = new FrameTimings();
+    // 遥测: 每局的得分、撞到哪里、卡顿的帧, 由后台线程压缩后追加到 files/telemetry/events.fbt
+    private Telemetry mTelemetry;
+    private int mRunScore; // 这一局的得分
+    private int mRunStartTick;
+    // 左上角的性能信息, 默认不显示
+    private final PerfHud mHud = new PerfHud(mFrameTimings);
+    private boolean mHudEnabled;
+    // 自适应的渲染比例: 游戏线程按每帧的工作时间和设备温度决定, 由 UI 线程改变 Surface 的大小,
+    // surfaceChanged() 报告新的大小后, 游戏线程按新的比例重新加载皮肤和创建绘制后端
+    private final RenderScaler mRenderScaler = new RenderScaler();
+    private volatile int mSurfaceWidth; // Surface 的实际宽度, 由 UI 线程更新
+    private int mRenderWidth; // 当前皮肤和绘制后端对应的 Surface 宽度
+    // 电池温度变化时更新 mRenderScaler 的温度档位
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int temperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+            mRenderScaler.setThermalStatus(RenderScaler.thermalStatusForBattery(temperature));
+        }
+    };
     public GameView(Context context, AttributeSet attrs){
         super(context, attrs);
     // 第二个参数表示 手势监听器的实例
@@ -51,179 +216,803 @@ public class GameView extends SurfaceView implements Runnable, SurfaceHolder.Cal
                 GameGestureDetector());
         mPaint = new Paint();
         mPaint.setStrokeWidth(6);
+        mPaint.setColor(Color.WHITE);
+        mPaint.setAntiAlias(true);
+        mPaint.setTypeface(Typeface.MONOSPACE);
 
-        mMatrix = new Matrix();
+        if (BuildConfig.DEBUG) {
+            mAllocTracker = new AllocTracker();
+        }
         getHolder().addCallback(this);
-        loadSoundPool();
-    }
-    // 点击屏幕时鸟的动作
-    private Rect calcBirdShotBound() {
-        Bitmap birdSkin = mListBirdsSkin.get(0)[0];
-        Rect bound = new Rect();
-        bound.set(getWidth() / 3 - birdSkin.getWidth() / 2, getHeight() / 2 - birdSkin.getHeight() /2 ,
-                getWidth() / 3 + birdSkin.getWidth() / 2, getHeight() / 2 + birdSkin.getHeight() / 2);
-        return bound;
-    }
-    // 初始化时，鸟动作
-    private Rect calcBirdInitBound() {
-        Bitmap birdSkin = mListBirdsSkin.get(0)[0];
-        Rect bound = new Rect();
-        bound.set(getWidth() / 2 - birdSkin.getWidth() / 2, getHeight() / 2 - birdSkin.getHeight() /2 ,
-                getWidth() / 2 + birdSkin.getWidth() / 2, getHeight() / 2 + birdSkin.getHeight() / 2);
-        return bound;
-    }
-
-    private void loadSoundPool() {
-        mSoundPool = new SoundPool(5, AudioManager.STREAM_MUSIC, 0);
+        loadSounds();
+    }
+    // 选择绘制后端, 在下一次创建 Surface 时生效
+    // 同一个 Surface 用软件画布锁定过以后就不能再用硬件加速画布锁定, 反之亦然
+    public GameView setRendererBackend(int backend) {
+        mRendererBackend = backend;
+        return this;
+    }
+
+    // 是否在左上角显示帧时间和点击延迟
+    public GameView setHudEnabled(boolean enabled) {
+        mHudEnabled = enabled;
+        return this;
+    }
+
+    // 幽灵竞速模式, 在下一次创建 Surface 时生效
+    public GameView setGhostMode(boolean enabled) {
+        mGhostMode = enabled;
+        return this;
+    }
+
+    /*
+    联机竞速, 在下一次创建 Surface 时生效。
+    peers: 所有玩家的地址 (host:port, 按玩家的序号排列, 包括自己, 本地在自己的端口上收包);
+    player: 本地玩家的序号; seed: 赛道, 所有玩家必须相同
+     */
+    public GameView setRace(String[] peers, int player, long seed) {
+        if (peers != null && (peers.length < 2 || peers.length > LockstepSession.MAX_PLAYERS
+                || player < 0 || player >= peers.length)) {
+            throw new IllegalArgumentException("player " + player + " of " + peers.length);
+        }
+        mRacePeers = peers;
+        mRacePlayer = player;
+        mRaceSeed = seed;
+        return this;
+    }
+
+    private void loadSounds() {
+        mAudio = new AudioEngine(new AudioTrackOutput(getContext()));
         AssetManager am = getContext().getAssets();
-        mSoundMap = new HashMap<>();
         try {
-            mSoundMap.put("Die", mSoundPool.load(am.openFd("sound/Die.wav"), 1));
-            mSoundMap.put("Hit", mSoundPool.load(am.openFd("sound/Hit.wav"), 1));
-            mSoundMap.put("Point", mSoundPool.load(am.openFd("sound/Point.wav"), 1));
-            mSoundMap.put("Swooshing", mSoundPool.load(am.openFd("sound/Swooshing.wav"), 1));
-            mSoundMap.put("Wing", mSoundPool.load(am.openFd("sound/Wing.wav"), 1));
+            mSoundDie = loadSound(am, "sound/Die.wav");
+            mSoundHit = loadSound(am, "sound/Hit.wav");
+            mSoundPoint = loadSound(am, "sound/Point.wav");
+            mSoundWing = loadSound(am, "sound/Wing.wav");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void loadBackgroundSkin() {
-        mListSkySkin = new ArrayList<>();
-        Bitmap skyOrigin, skyScale, sky;
-        skyOrigin = BitmapFactory.decodeResource(getContext().getResources(), R.drawable.bg_day);
-        skyScale = Bitmap.createScaledBitmap(skyOrigin, getWidth(), getHeight(), false);
-        sky = Bitmap.createBitmap(skyScale, 0, 0, skyScale.getWidth(), getHeight() * 4 / 5);
-        mListSkySkin.add(sky);
-        skyOrigin.recycle();
-        skyScale.recycle();
-
-        skyOrigin = BitmapFactory.decodeResource(getContext().getResources(), R.drawable.bg_night);
-        skyScale = Bitmap.createScaledBitmap(skyOrigin, getWidth(), getHeight(), false);
-        sky = Bitmap.createBitmap(skyScale, 0, 0, skyScale.getWidth(), getHeight() * 4 / 5);
-        mListSkySkin.add(sky);
-        skyOrigin.recycle();
-        skyScale.recycle();
-
-        Bitmap groundOrigin;
-        groundOrigin = BitmapFactory.decodeResource(getContext().getResources(), R.drawable.land);
-        mGroundSkin = Bitmap.createScaledBitmap(groundOrigin, getWidth(),
-                getHeight() * 1 / 5, false);
-        groundOrigin.recycle();
-    }
-
-    private void loadBirdsSkin() {
-        Bitmap[] birds = null;
-        Bitmap bitmap = null;
-        int width = getWidth() / 6;
-        int height = getHeight() * 3 / 32;
-
-        mListBirdsSkin = new ArrayList<>();
-        for (int i = 0; i < 3; i++) {
-            birds = new Bitmap[3];
-            for (int j = 0; j < 3; j++) {
-                bitmap = BitmapFactory.decodeResource(getContext().getResources(),
-                        R.drawable.bird0_0 + i * 3 + j);
-                birds[j] = Bitmap.createScaledBitmap(bitmap, width, height, false);
-                bitmap.recycle();
+    private int loadSound(AssetManager am, String path) throws IOException {
+        InputStream in = am.open(path);
+        try {
+            return mAudio.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+    加载皮肤
+    先把所有图片一起提交给加载管线，在线程池中并行解码和缩放，再按顺序取回结果。
+    缩放好的位图会缓存在内存和磁盘中，Surface 重新创建或者下次启动时不需要再解码。
+    天空和水管只加载正在使用的那一套；位图格式由 TextureManager 的档位决定。
+    鸟的图集每局都会换皮肤，而且要用来生成旋转缓存，所以全部加载为软件位图。
+    所有皮肤都按渲染比例 scale 缩小，和缩小后的 Surface 一致。
+     */
+    private void loadSkins(float scale) {
+        long start = System.nanoTime();
+        AssetPipeline pipeline = AssetPipeline.getInstance(getContext());
+        pipeline.resetStats();
+        int width = Math.round(getWidth() * scale);
+        int height = Math.round(getHeight() * scale);
+
+        // 天空：缩放到整个屏幕，只保留上面 4/5，下面是地面
+        Bitmap.Config opaque = mTextureManager.getOpaqueConfig();
+        Bitmap.Config sprite = mTextureManager.getSpriteConfig();
+        int[] skies = {R.drawable.bg_day, R.drawable.bg_night};
+        Future<Bitmap> sky = pipeline.load(skies[SKY_SKIN], width, height, height * 4 / 5, opaque);
+        Future<Bitmap> ground = pipeline.load(R.drawable.land, width, height * 1 / 5, opaque);
+
+        // 鸟：3 种皮肤，每种 3 张
+        int birdWidth = Math.round(mBirdWidth * scale);
+        int birdHeight = Math.round(mBirdHeight * scale);
+        List<Future<Bitmap>> birds = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            birds.add(pipeline.load(R.drawable.bird0_0 + i, birdWidth, birdHeight,
+                    Bitmap.Config.ARGB_8888));
+        }
+
+        // 水管：3 种皮肤，每种朝下、朝上各 1 张
+        int pipeWidth = Math.round(mPipeWidth * scale);
+        int pipeHeight = Math.round(mPipeHeight * scale);
+        int pipeRes = R.drawable.pipe2_down + PIPES_SKIN * 2;
+        Future<Bitmap> pipeDown = pipeline.load(pipeRes, pipeWidth, pipeHeight, sprite);
+        Future<Bitmap> pipeUp = pipeline.load(pipeRes + 1, pipeWidth, pipeHeight, sprite);
+
+        mSkySkin = AssetPipeline.await(sky);
+        mGroundSkin = AssetPipeline.await(ground);
+
+        // 每一行是一种皮肤, 每一列是一张飞行动作
+        mBirdsAtlas = new SpriteAtlas(birdWidth, birdHeight, 3, 3);
+        for (int i = 0; i < 9; i++) {
+            mBirdsAtlas.put(i, AssetPipeline.await(birds.get(i)), null);
+        }
+
+        mPipesSkin = new Bitmap[] {AssetPipeline.await(pipeDown), AssetPipeline.await(pipeUp)};
+        pipeline.report(start);
+    }
+
+    // 创建选定的绘制后端，并把所有皮肤按屏幕坐标中的大小登记为纹理
+    private void createRenderer(float scale) {
+        if (mRendererBackend == RENDERER_HARDWARE) {
+            mRenderer = new HardwareCanvasRenderer(getHolder());
+        } else {
+            mRenderer = new CanvasRenderer(getHolder());
+        }
+        Log.d(TAG, "renderer: " + mRenderer.getClass().getSimpleName() + ", scale " + scale);
+        mRenderer.setOpaqueLayerConfig(mTextureManager.getOpaqueLayerConfig()).setScale(scale);
+        int width = getWidth();
+        int height = getHeight();
+        mBirdsTexture = mRenderer.addTexture(mBirdsAtlas.getBitmap(), mBirdWidth * 3, mBirdHeight * 3);
+        mSkyTexture = mRenderer.addTexture(mSkySkin, width, height * 4 / 5);
+        mGroundTexture = mRenderer.addTexture(mGroundSkin, width, height * 1 / 5);
+        mPipesTextures = new int[] {mRenderer.addTexture(mPipesSkin[0], mPipeWidth, mPipeHeight),
+                mRenderer.addTexture(mPipesSkin[1], mPipeWidth, mPipeHeight)};
+        mRenderer.setTextPaint(mPaint);
+        mTexturesReported = false;
+        mFullRedraw = true;
+    }
+
+    // 为当前的绘制后端创建画鸟和背景的对象
+    private void createDrawables() {
+        mBird = new Bird().setState(mSim.getBird()).setAngleStep(mTextureManager.getAngleStep())
+                .setBirdsSkin(mBirdsTexture, mBirdWidth, mBirdHeight, mBirdSkinIndex % 3);
+        mBird.bakeRotationCache(mRenderer);
+
+        mBirdWorld = new BirdWorld().setState(mSim.getWorld())
+                .setSkySkin(mSkyTexture).setGroundSkin(mGroundTexture)
+                .setPipesSkin(mPipesTextures)
+                .setPipeCapHeight(mPipeHeight * PIPE_CAP_ROWS / PIPE_SKIN_ROWS);
+
+        mGhostBirds = mRace != null ? new GhostBirds().setStore(mRaceBirds).setBird(mBird)
+                : mGhostMode ? new GhostBirds().setStore(mGhosts).setBird(mBird) : null;
+    }
+
+    // Surface 的大小变了: 按新的比例重新加载皮肤, 重新创建绘制后端, 在游戏线程中调用
+    // 缩放后的皮肤在 AssetPipeline 中有缓存, 来回切换时不需要重新解码
+    private void applyRenderScale() {
+        long start = System.nanoTime();
+        mRenderWidth = mSurfaceWidth;
+        float scale = (float) mRenderWidth / getWidth();
+        loadSkins(scale);
+        createRenderer(scale);
+        createDrawables();
+        Log.i(TAG, "render scale " + scale + " (" + mRenderWidth + " px wide) applied in "
+                + (System.nanoTime() - start) / 1000000L + " ms");
+    }
+
+    // 游戏线程决定换一档比例: 改变 Surface 的大小必须在 UI 线程中进行
+    private void requestRenderScale() {
+        final float scale = mRenderScaler.getScale();
+        Log.i(TAG, "render scale -> " + scale + ": " + mRenderScaler.getReason()
+                + ", thermal status " + mRenderScaler.getThermalStatus());
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (scale == 1f) {
+                    getHolder().setSizeFromLayout();
+                } else {
+                    getHolder().setFixedSize(Math.round(getWidth() * scale), Math.round(getHeight() * scale));
+                }
             }
-            mListBirdsSkin.add(birds);
+        });
+    }
+
+    private void reportFill(int filledPixels) {
+        mFilledPixels += filledPixels;
+        if (++mFillFrames == 300) {
+            long screen = (long) getWidth() * getHeight();
+            Log.d(TAG, "average fill per frame: " + mFilledPixels * 100 / mFillFrames / screen
+                    + "% of screen");
+            mFilledPixels = 0;
+            mFillFrames = 0;
         }
     }
 
-    private void loadPipesSkin() {
-        Bitmap[] pipes = null;
-        Bitmap bitmap = null;
-        int width = getWidth() * 13 / 72;
-        int height = getHeight() * 5 / 8;
+    // alpha 表示画面时刻处在上一个物理帧和当前物理帧之间的位置 [0, 1)
+    private void drawFrame(float alpha) {
+        mFrameTimings.beginDraw(System.nanoTime());
+        mDirty.setEmpty();
+        if (mFullRedraw) {
+            mBirdWorld.invalidate();
+            mFullRedraw = false;
+        }
+        mBirdWorld.prepare(mRenderer, alpha, mDirty);
+        mBird.prepare(mRenderer, alpha, mDirty);
+        if (mGhostBirds != null) {
+            // 幽灵从玩家点击开始的那一帧起和玩家一起飞, 待命时不显示
+            mGhostBirds.prepare(mRenderer, mSim.getBird(), mStage != Simulation.STAGE_READY, alpha, mDirty);
+        }
+        if (mHudEnabled) {
+            mHud.prepare(System.nanoTime(), mDirty);
+        }
+        if (!mDirty.intersect(0, 0, getWidth(), getHeight())) {
+            return; // 这一帧画面没有变化
+        }
+        if (!mRenderer.preservesContent()) {
+            mDirty.set(0, 0, getWidth(), getHeight());
+        }
+        // 后端可能会扩大 mDirty, 扩大后的区域也要完整地重画
+        if (!mRenderer.beginFrame(mDirty)) {
+            mFullRedraw = true;
+            return;
+        }
+        mBirdWorld.draw(mRenderer, mDirty);
+        if (mGhostBirds != null) {
+            mGhostBirds.draw(mRenderer, mDirty);
+        }
+        mBird.draw(mRenderer, mDirty);
+        if (mHudEnabled) {
+            mHud.draw(mRenderer, mDirty);
+        }
+        mFrameTimings.endDraw(System.nanoTime());
+        mRenderer.endFrame();
+        mFrameTimings.posted(System.nanoTime());
+        if (!mTexturesReported) {
+            // 第一帧画完时图层都已经创建好了
+            mTextureManager.report(mRenderer.getTextureBytes());
+            mTexturesReported = true;
+        }
+        if (BuildConfig.DEBUG) {
+            reportFill(mRenderer.getFilledPixels());
+        }
+    }
 
-        mListPipesSkin = new ArrayList<>();
-        for (int i = 0; i < 3; i++) {
-            pipes = new Bitmap[2];
-            for (int j = 0; j < 2; j++) {
-                bitmap = BitmapFactory.decodeResource(getContext().getResources(),
-                        R.drawable.pipe2_down + i * 2 + j);
-                pipes[j] = Bitmap.createScaledBitmap(bitmap, width, height, false);
-                bitmap.recycle();
+    // 推进一个固定步长的物理帧：取走这段时间内的点击，交给模拟处理，再根据事件播放音效
+    private void update() {
+        if (mResumePaused) {
+            if (mInputQueue.size() == 0) {
+                return;
             }
-            mListPipesSkin.add(pipes);
+            mResumePaused = false; // 这次点击同时也是扇翅膀
+        }
+        // 模拟每帧只接受一个输入, 同一帧内的多次点击合并为一次
+        // 命令的含义 (扇翅膀/开始/重新开始) 由模拟按当前的阶段决定, 不依赖 UI 线程看到的阶段
+        long tickNanos = System.nanoTime();
+        int input = Simulation.INPUT_NONE;
+        while (mInputQueue.poll() != InputQueue.CMD_NONE) {
+            input = Simulation.INPUT_TAP;
+            mFrameTimings.onTap(mInputQueue.getPolledTime(), tickNanos);
+        }
+        // 点击在哪一帧被处理, 就记在哪一帧, 回放时在同一帧交给模拟
+        if (mReplayLog != null) {
+            mReplayLog.record(mSim.getTick(), input);
+        }
+        int prevStage = mSim.getStage();
+        int events;
+        if (mRace != null) {
+            events = updateRace(input);
+        } else {
+            events = mSim.step(input);
+        }
+        if (mGhostMode && mRace == null) {
+            updateGhosts(prevStage, events);
+        }
+        mStage = mSim.getStage();
+        logTelemetry(prevStage, events);
+        if ((events & Simulation.EVENT_WING) != 0) {
+            mAudio.play(mSoundWing);
+        }
+        if ((events & Simulation.EVENT_HIT) != 0) {
+            mAudio.play(mSoundHit);
+        }
+        if ((events & Simulation.EVENT_DIE) != 0) {
+            mAudio.play(mSoundDie);
+        }
+        if ((events & Simulation.EVENT_POINT) != 0) {
+            mAudio.play(mSoundPoint);
+        }
+        if ((events & Simulation.EVENT_RESTART) != 0) {
+            // 每局换一种鸟的皮肤
+            // 这时鸟在待命, 一次画好新皮肤所有角度的旋转缓存, 开始以后不会再画
+            mBird.setBirdsSkin(mBirdsTexture, mBirdWidth, mBirdHeight, (++mBirdSkinIndex) % 3);
+            mBird.bakeRotationCache(mRenderer);
         }
     }
 
-    @Override
-    public void draw(Canvas canvas) {
-        super.draw(canvas);
-        mBirdWorld.draw(canvas);
-        mBird.draw(canvas);
+    // 记录这一帧的遥测事件, 只是往环形缓冲区里写几个数
+    private void logTelemetry(int prevStage, int events) {
+        int tick = mSim.getTick();
+        int stage = mSim.getStage();
+        if (prevStage == Simulation.STAGE_READY && stage != Simulation.STAGE_READY) {
+            mRunScore = 0;
+            mRunStartTick = tick;
+            mTelemetry.log(Telemetry.EVENT_RUN_START, tick, (int) mSim.getSeed(), 0);
+        }
+        if ((events & Simulation.EVENT_POINT) != 0) {
+            mRunScore++;
+            mTelemetry.log(Telemetry.EVENT_POINT, tick, mRunScore, 0);
+        }
+        if ((events & Simulation.EVENT_HIT) != 0) {
+            mTelemetry.log(Telemetry.EVENT_CRASH, tick, mSim.getWorld().getCrashType(), mRunScore);
+        }
+        if (prevStage != Simulation.STAGE_OVER && stage == Simulation.STAGE_OVER) {
+            mTelemetry.log(Telemetry.EVENT_RUN_END, tick, mRunScore, tick - mRunStartTick);
+        }
     }
 
-    @Override
-    public void run() {
-        while (mIsRunning) {
-            Canvas canvas = getHolder().lockCanvas();
-            draw(canvas);
-            if (mState == STAGE_PLAY) {
-                if (mBirdWorld.isBirdCrash(mBird)) {
-                    mSoundPool.play(mSoundMap.get("Hit"), 1f, 1f, 1, 0, 1f);
-                    if (mBirdWorld.getCrashType() == BirdWorld.CRASH_TYPE_GROUND) {
-                        mState = STAGE_OVER;
-                    } else {
-                        mState = STAGE_BIRD_FALLING;
-                        mSoundPool.play(mSoundMap.get("Die"), 1f, 1f, 1, 0, 1f);
+    /*
+    联机竞速的一个物理帧: 收包, 推进所有玩家 (必要时回滚对手), 发包, 返回本地玩家的事件。
+    在等待对手的输入时不推进, 这一帧的点击留到下一次推进; 落地以后的点击无效, 不会重新开始
+     */
+    private int updateRace(int input) {
+        // 网络出错时只是收不到对手的输入, 领先太多以后停下来等
+        try {
+            mRace.poll();
+        } catch (IOException e) {
+            Log.w(TAG, "race receive failed", e);
+        }
+        boolean advanced = mRace.advance(input);
+        try {
+            mRace.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "race send failed", e);
+        }
+        if (!advanced) {
+            return 0;
+        }
+        // 对手的位置可能是猜测的, 回滚以后直接跳到正确的位置
+        mRaceBirds.beginTick(mRace.getTick());
+        int count = mRace.getPlayerCount();
+        for (int p = 0, i = 0; p < count; p++) {
+            if (p != mRacePlayer) {
+                BirdState bird = mRace.getSimulation(p).getBird();
+                mRaceBirds.set(i++, bird.getTop(), bird.getRotationAngle());
+            }
+        }
+        return mRace.getLocalEvents();
+    }
+
+    // 在游戏线程中绑定本地端口, 解析对手的地址
+    private void openRaceTransport() {
+        try {
+            String[] local = mRacePeers[mRacePlayer].split(":");
+            mRaceTransport = new DatagramTransport(new InetSocketAddress(Integer.parseInt(local[local.length - 1])));
+            for (int p = 0; p < mRacePeers.length; p++) {
+                if (p != mRacePlayer) {
+                    String[] peer = mRacePeers[p].split(":");
+                    mRaceTransport.setPeer(p, new InetSocketAddress(peer[0], Integer.parseInt(peer[1])));
+                }
+            }
+            mRace.setTransport(mRaceTransport);
+            Log.i(TAG, "race: player " + mRacePlayer + " of " + mRacePeers.length + " on "
+                    + mRaceTransport.getLocalAddress());
+        } catch (IOException e) {
+            Log.w(TAG, "failed to open race transport", e);
+            closeRaceTransport();
+        }
+    }
+
+    private void closeRaceTransport() {
+        if (mRaceTransport != null) {
+            try {
+                mRaceTransport.close();
+            } catch (IOException e) {
+                Log.w(TAG, "failed to close race transport", e);
+            }
+            mRaceTransport = null;
+        }
+    }
+
+    /*
+    幽灵竞速, 每个物理帧在模拟之后调用:
+      重新开始时按同一个种子重新 init(), 每一局都是同一条赛道;
+      开始的那一帧从头播放幽灵, 同时开始录制玩家的轨迹;
+      玩家撞到以后幽灵停在原地, 玩家的鸟落地以后把这一局交给后台加入文件。
+    从快照恢复的一局不知道幽灵应该在哪一帧, 不播放也不录制
+     */
+    private void updateGhosts(int prevStage, int events) {
+        if ((events & Simulation.EVENT_RESTART) != 0) {
+            startSession(mGhostSeed);
+            return;
+        }
+        int stage = mSim.getStage();
+        if (prevStage == Simulation.STAGE_READY && stage == Simulation.STAGE_PLAY) {
+            startGhosts();
+        }
+        if (mGhostTrack == null || prevStage == Simulation.STAGE_OVER) {
+            return;
+        }
+        mGhostTrack.record(mSim.getBird());
+        if (stage == Simulation.STAGE_PLAY) {
+            stepGhosts();
+        } else if (prevStage == Simulation.STAGE_PLAY) {
+            mGhosts.freeze();
+        }
+        if (stage == Simulation.STAGE_OVER) {
+            saveGhost(mGhostTrack);
+            mGhostTrack = null;
+        }
+    }
+
+    // 从第 0 帧开始播放幽灵, 后台写好了新的文件时重新打开
+    private void startGhosts() {
+        int version = mGhostPackVersion;
+        if (version != mGhostStreamVersion) {
+            closeGhostStream();
+            mGhostStream = openGhostStream();
+            mGhostStreamVersion = version;
+            if (mGhostStream != null && mGhostStream.getSeed() != mGhostSeed) {
+                closeGhostStream(); // 不是这条赛道
+            }
+        }
+        mGhostTrack = new GhostTrack();
+        mGhosts.reset(0);
+        if (mGhostStream != null) {
+            try {
+                mGhostStream.rewind(mGhosts);
+            } catch (IOException e) {
+                Log.w(TAG, "failed to rewind ghosts", e);
+                closeGhostStream();
+            }
+        }
+    }
+
+    private void stepGhosts() {
+        if (mGhostStream == null) {
+            return;
+        }
+        try {
+            mGhostStream.step(mGhosts);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read ghosts", e);
+            closeGhostStream();
+            mGhosts.reset(0);
+        }
+    }
+
+    private File getGhostFile() {
+        return new File(new File(getContext().getFilesDir(), "ghosts"), "course.fbg");
+    }
+
+    // 打开幽灵轨迹, 没有录过或者屏幕大小不同时返回 null
+    private GhostStream openGhostStream() {
+        File file = getGhostFile();
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            GhostStream stream = GhostStream.open(file);
+            GhostPack course = stream.getCourse();
+            if (course.matches(getWidth(), getHeight(), mBirdWidth, mBirdHeight, mPipeWidth)
+                    && course.getLevelMode() == Simulation.LEVEL_PROCEDURAL) {
+                Log.d(TAG, "ghosts: " + stream.getGhostCount() + " runs, " + file.length() + " bytes");
+                return stream;
+            }
+            stream.close();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to open ghosts", e);
+        }
+        return null;
+    }
+
+    private void closeGhostStream() {
+        if (mGhostStream != null) {
+            try {
+                mGhostStream.close();
+            } catch (IOException e) {
+                Log.w(TAG, "failed to close ghosts", e);
+            }
+            mGhostStream = null;
+        }
+    }
+
+    // 在后台把这一局加入文件: 读出原来的所有轨迹, 加上这一局, 写到临时文件再换掉原来的文件
+    // 游戏线程打开着的是原来的文件, 不受影响, 下一局开始时再重新打开
+    private void saveGhost(final GhostTrack track) {
+        final GhostPack course = new GhostPack(getWidth(), getHeight(), mBirdWidth, mBirdHeight, mPipeWidth,
+                mGhostSeed).setLevelMode(Simulation.LEVEL_PROCEDURAL);
+        final File file = getGhostFile();
+        mLevelWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                GhostPack pack = course;
+                if (file.exists()) {
+                    try {
+                        GhostPack old = GhostPack.read(file);
+                        if (old.sameCourse(course)) {
+                            pack = old;
+                        }
+                    } catch (IOException e) {
+                        Log.w(TAG, "failed to read ghosts, starting over", e);
                     }
-                } else if (mBirdWorld.hasPassPipe(mBird)) {
-                    mSoundPool.play(mSoundMap.get("Point"), 1f, 1f, 1, 0, 1f);
                 }
-            } else if (mState == STAGE_BIRD_FALLING) {
-                if (mBirdWorld.isBirdCrash(mBird) &&
-                        mBirdWorld.getCrashType() == BirdWorld.CRASH_TYPE_GROUND) {
-                    mState = STAGE_OVER;
+                pack.add(track);
+                File tmp = new File(file.getPath() + ".tmp");
+                try {
+                    File dir = file.getParentFile();
+                    if (!dir.isDirectory() && !dir.mkdirs()) {
+                        throw new IOException("can't create " + dir);
+                    }
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+                    try {
+                        pack.writeTo(out);
+                    } finally {
+                        out.close();
+                    }
+                    if (!tmp.renameTo(file)) {
+                        throw new IOException("can't rename " + tmp);
+                    }
+                    mGhostPackVersion++; // 只有这一个线程修改
+                    Log.d(TAG, "ghost saved: " + track.getLength() + " ticks, " + pack.getGhostCount()
+                            + " runs, " + file.length() + " bytes in " + (System.nanoTime() - start) / 1000 + "us");
+                } catch (IOException e) {
+                    Log.w(TAG, "failed to save ghost", e);
                 }
             }
+        });
+    }
 
-            getHolder().unlockCanvasAndPost(canvas);
-            sleep(50);
+    /*
+    游戏循环, 每个 vsync 由 Choreographer 在游戏线程中回调一次
+    物理按固定步长 TICK_NANOS 推进，用 vsync 的时间戳累加还没有模拟的时间；
+    画面跟着 vsync 绘制，在两个物理帧之间插值；落后时只推进物理不画，待命时降低帧率 (FrameScheduler)。
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mIsRunning) {
+            return;
         }
+        // 待命、结束、从快照恢复后等待点击时画面几乎不动; 联机竞速时对手还在飞
+        mScheduler.setIdle(mRace == null && (mResumePaused
+                || mStage == Simulation.STAGE_READY || mStage == Simulation.STAGE_OVER));
+        if (mScheduler.onVsync(frameTimeNanos)) {
+            if (mAllocTracker != null) {
+                mAllocTracker.beginFrame();
+            }
+            if (mSurfaceWidth != mRenderWidth) {
+                applyRenderScale();
+            }
+            for (int i = mScheduler.getTicks(); i > 0; i--) {
+                update();
+            }
+            if (mScheduler.shouldDraw()) {
+                drawFrame(mScheduler.getAlpha());
+            }
+            if (mAllocTracker != null) {
+                mAllocTracker.endFrame();
+            }
+            long work = mScheduler.onFrameDone();
+            long budget = mScheduler.getVsyncPeriod();
+            if (work > 2 * budget) {
+                mTelemetry.log(Telemetry.EVENT_FRAME_SPIKE, mSim.getTick(), (int) (work / 1000), (int) (budget / 1000));
+            }
+            // 没有画的帧不能说明绘制的开销
+            if (mScheduler.shouldDraw() && mRenderScaler.onFrame(work)) {
+                requestRenderScale();
+            }
+        }
+        long delay = mScheduler.getNextFrameDelayMillis();
+        if (delay > 0) {
+            mChoreographer.postFrameCallbackDelayed(this, delay);
+        } else {
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    private void finishLoop() {
+        if (mAllocTracker != null) {
+            mAllocTracker.stop();
+        }
+        Log.d(TAG, "frames: " + mScheduler.report());
+        if (mRace != null) {
+            Log.d(TAG, mRace.report());
+        } else {
+            saveSnapshot();
+        }
+        saveReplay();
+        saveTimings();
+        closeTelemetry();
     }
 
-    private void sleep(int ms) {
+    // 写出还在缓冲区中的事件, 结束遥测的后台线程
+    private void closeTelemetry() {
         try {
-            Thread.sleep(ms);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            mTelemetry.close();
+            Log.d(TAG, "telemetry: " + mTelemetry.getSegments() + " segments, " + mTelemetry.getBytesWritten()
+                    + " bytes, " + mTelemetry.getDropped() + " events dropped");
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write telemetry", e);
+        }
+    }
+
+    // 在游戏线程中保存快照: 只是往映射的内存里写几百个字节, 由系统写回文件
+    private void saveSnapshot() {
+        if (mSnapshot == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        if (mSnapshot.save(mSim, mBirdSkinIndex)) {
+            Log.d(TAG, "snapshot saved in " + (System.nanoTime() - start) / 1000 + "us, stage "
+                    + mSim.getStage() + ", tick " + mSim.getTick());
+        } else {
+            Log.w(TAG, "snapshot too large, not saved");
+        }
+    }
+
+    // 有一局还没有结束的快照, 而且屏幕大小没变时恢复它, 返回是否恢复了
+    private boolean restoreSnapshot(int width, int height) {
+        if (mSnapshot == null) {
+            try {
+                mSnapshot = SimSnapshot.open(new File(getContext().getFilesDir(), "session.snap"));
+            } catch (IOException e) {
+                Log.w(TAG, "failed to open snapshot", e);
+                return false;
+            }
+        }
+        if (!mSnapshot.isValid() || mSnapshot.getWidth() != width || mSnapshot.getHeight() != height) {
+            return false;
+        }
+        long start = System.nanoTime();
+        mSnapshot.restore(mSim);
+        mSnapshot.clear(); // 同一个快照只恢复一次
+        int stage = mSim.getStage();
+        if (stage != Simulation.STAGE_PLAY && stage != Simulation.STAGE_BIRD_FALLING) {
+            return false; // 没有正在进行的一局, 用 init() 的新状态重新开始, 这样还能录制回放
+        }
+        mBirdSkinIndex = mSnapshot.getExtra();
+        mResumePaused = stage == Simulation.STAGE_PLAY;
+        Log.i(TAG, "snapshot restored in " + (System.nanoTime() - start) / 1000 + "us, tick " + mSim.getTick());
+        return true;
+    }
+
+    // 导出帧时间和点击延迟, 可以用来比较不同设备和不同版本
+    private void saveTimings() {
+        File dir = new File(getContext().getFilesDir(), "perf");
+        File file = new File(dir, "timings.csv");
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("can't create " + dir);
+            }
+            Writer out = new FileWriter(file);
+            try {
+                mFrameTimings.writeCsv(out);
+            } finally {
+                out.close();
+            }
+            RollingHistogram latency = mFrameTimings.getTapLatency();
+            Log.d(TAG, "timings saved: " + file + ", tap latency p50 " + latency.percentileMicros(50)
+                    + "us p99 " + latency.percentileMicros(99) + "us");
+        } catch (IOException e) {
+            Log.w(TAG, "failed to save timings", e);
+        }
+    }
+
+    // 保存回放记录, 可以用 ReplayPlayer 在电脑上重现这一段游戏
+    private void saveReplay() {
+        if (mReplayLog == null) {
+            return;
+        }
+        mReplayLog.finish(mSim.getTick(), mSim.stateHash());
+        File dir = new File(getContext().getFilesDir(), "replays");
+        File file = new File(dir, "last.fbr");
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("can't create " + dir);
+            }
+            OutputStream out = new FileOutputStream(file);
+            try {
+                mReplayLog.writeTo(out);
+            } finally {
+                out.close();
+            }
+            Log.d(TAG, "replay saved: " + file + ", " + mSim.getTick() + " ticks, "
+                    + mReplayLog.getInputCount() + " inputs");
+        } catch (IOException e) {
+            Log.w(TAG, "failed to save replay", e);
         }
     }
 
 
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
-        loadBirdsSkin();
-        loadPipesSkin();
-        loadBackgroundSkin();
+        mTextureManager = new TextureManager(getContext(), getWidth(), getHeight(),
+                mRendererBackend == RENDERER_HARDWARE);
+        int width = getWidth();
+        int height = getHeight();
+        mBirdWidth = width / 6;
+        mBirdHeight = height * 3 / 32;
+        mPipeWidth = width * 13 / 72;
+        mPipeHeight = height * 5 / 8;
+        // 上一次调整过的比例在 Surface 重新创建后仍然有效
+        mSurfaceWidth = holder.getSurfaceFrame().width() > 0 ? holder.getSurfaceFrame().width() : width;
+        mRenderWidth = mSurfaceWidth;
+        float scale = (float) mRenderWidth / width;
+        loadSkins(scale);
+        createRenderer(scale);
+        mPaint.setTextSize(getHeight() / 60);
+        mHud.setBounds(getWidth() / 40, getHeight() / 40, getWidth() * 2 / 3,
+                (int) (mPaint.getFontSpacing() + 0.5f));
 
-        Rect bound = calcBirdInitBound();
-        mBird = new Bird().setBound(bound).setMatrix(mMatrix)
-                .setBirdsSkin(mListBirdsSkin.get(0));
-        mBird.makeStandby();
+        // 每次用新的种子, 种子记在回放记录中; 幽灵竞速时沿用幽灵的赛道
+        long seed = System.nanoTime();
+        if (mRacePeers != null) {
+            // Surface 重新创建时接着比这一局, 这期间对手领先 MAX_ROLLBACK 帧以后停下来等
+            if (mRace == null) {
+                mRace = new LockstepSession(mRacePeers.length, mRacePlayer, mRaceSeed,
+                        width, height, mBirdWidth, mBirdHeight, mPipeWidth);
+                mRaceBirds.reset(mRacePeers.length - 1);
+            }
+        } else if (mGhostMode) {
+            mGhostStreamVersion = mGhostPackVersion;
+            mGhostStream = openGhostStream();
+            if (mGhostStream != null) {
+                seed = mGhostStream.getSeed();
+            }
+            mGhostSeed = seed;
+            mGhostTrack = null;
+            mGhosts.reset(0);
+        }
+        mLevelWorker = Executors.newSingleThreadExecutor();
+        mSim = new Simulation().setSeed(seed).setLevelMode(Simulation.LEVEL_PROCEDURAL).setExecutor(mLevelWorker);
+        mResumePaused = false;
+        if (mRace != null) {
+            mSim = mRace.getSimulation(mRacePlayer);
+            mReplayLog = null;
+        } else if (restoreSnapshot(width, height)) {
+            mReplayLog = null;
+        } else {
+            startSession(seed);
+        }
+        createDrawables();
 
-        mBirdWorld = new BirdWorld().setBound(new Rect(0, 0, getWidth(), getHeight()))
-                .setSkySkin(mListSkySkin.get(0)).setGroundSkin(mGroundSkin)
-                .setPipesSkin(mListPipesSkin.get(1));
-        mBirdWorld.makeStandby();
+        float refreshRate = getDisplay() != null ? getDisplay().getRefreshRate() : DEFAULT_REFRESH_RATE;
+        mFrameNanos = (long) (1000000000L / refreshRate);
+        mRenderScaler.setFrameBudget(mFrameNanos);
+        mScheduler.setVsyncPeriod(mFrameNanos).setIdleFrameNanos(TICK_NANOS);
+        getContext().registerReceiver(mBatteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
 
+        mStage = mSim.getStage();
+        // 从快照恢复的一局不知道之前的得分, 从 0 开始算
+        mRunScore = 0;
+        mRunStartTick = mSim.getTick();
+        mTelemetry = Telemetry.open(new File(new File(getContext().getFilesDir(), "telemetry"), "events.fbt"));
         mIsRunning = true;
-        mState = STAGE_READY;
-        new Thread(this).start();
+        mAudio.start();
+        mGameThread = new HandlerThread("GameThread", Process.THREAD_PRIORITY_DISPLAY);
+        mGameThread.start();
+        mGameHandler = new Handler(mGameThread.getLooper());
+        mGameHandler.post(mStartLoop);
+    }
+
+    // 用 seed 重新开始, 从这里开始录制回放
+    private void startSession(long seed) {
+        int width = getWidth();
+        int height = getHeight();
+        mSim.setSeed(seed).setLevelMode(Simulation.LEVEL_PROCEDURAL)
+                .init(width, height, mBirdWidth, mBirdHeight, mPipeWidth);
+        mReplayLog = new ReplayLog(width, height, mBirdWidth, mBirdHeight, mPipeWidth, seed)
+                .setLevelMode(Simulation.LEVEL_PROCEDURAL);
     }
 
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-
+        mSurfaceWidth = width; // 游戏线程在下一帧开始时按新的大小重新创建绘制后端
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         mIsRunning = false;
+        // 等游戏线程画完最后一帧、保存好记录再返回, 之后 Surface 就不能再用了,
+        // 也保证 Surface 重新创建时不会有两个游戏线程同时修改模拟
+        mGameHandler.post(mStopLoop);
+        mGameThread.quitSafely();
+        try {
+            mGameThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mGameThread = null;
+        mGameHandler = null;
+        closeGhostStream();
+        closeRaceTransport();
+        mLevelWorker.shutdown(); // 已经交给后台的幽灵轨迹仍然会写完
+        mLevelWorker = null;
+        getContext().unregisterReceiver(mBatteryReceiver);
+        mAudio.stop();
     }
 
     @Override
@@ -235,25 +1024,10 @@ public class GameView extends SurfaceView implements Runnable, SurfaceHolder.Cal
     private class GameGestureDetector extends GestureDetector.SimpleOnGestureListener {
         @Override
         public boolean onSingleTapUp(MotionEvent e) {
+            // 只做记录, 真正的处理在游戏线程中完成
             if (mIsRunning) {
-                if (mState == STAGE_READY) {
-                    mBirdWorld.roll();
-                    Rect bound = calcBirdShotBound();
-                    synchronized (mBird) {
-                        mBird.setBound(bound).shot();
-                    }
-                    mState = STAGE_PLAY;
-                } else if (mState == STAGE_PLAY) {
-                    mBird.shot();
-                    int id = mSoundMap.get("Wing");
-                    mSoundPool.play(id, 1f, 1f, 1, 0, 1f);
-                } else if (mState == STAGE_OVER) {
-                    Rect bound = calcBirdInitBound();
-                    mBird.setBound(bound).setMatrix(mMatrix).setBirdsSkin(mListBirdsSkin.get((++mBirdSkinIndex) % 3));
-                    mBird.makeStandby();
-                    mBirdWorld.makeStandby();
-                    mState = STAGE_READY;
-                }
+                mInputQueue.offer(InputQueue.CMD_TAP, System.nanoTime());
+                mGameHandler.post(mWakeLoop);
             }
             return true;
         }
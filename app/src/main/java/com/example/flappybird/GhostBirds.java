@@ -0,0 +1,110 @@
+package com.example.flappybird;
+
+import com.example.flappybird.render.DirtyRect;
+import com.example.flappybird.render.Renderer;
+import com.example.flappybird.sim.BirdState;
+import com.example.flappybird.sim.GhostStore;
+
+import java.util.Arrays;
+
+/**
+ * 幽灵鸟的绘制：GhostStore 中所有在飞的鸟，半透明地画在玩家的鸟后面
+ *
+ * 不为每只鸟创建 Bird 对象，旋转后的样子直接借用玩家的鸟的旋转缓存 (Bird.prepareCell())，
+ * prepare() 把每只鸟在缓存中的格子和屏幕上的位置写进一个 int 数组，
+ * draw() 用一次 Renderer.drawSprites() 全部画出来。
+ * 所有幽灵和玩家的鸟在同一列上，脏区域只是包住所有幽灵的一个矩形。
+ */
+public class GhostBirds {
+    private static final int DEFAULT_ALPHA = 96;
+
+    private GhostStore mStore;
+    private Bird mBird; // 提供旋转缓存
+    private int mAlpha = DEFAULT_ALPHA;
+
+    // 这一帧要画的精灵: 每个 4 个 int, 旋转缓存中的左上角和屏幕上的左上角
+    private int[] mSprites = new int[4 * 64];
+    private int mSpriteCount;
+    // 这一帧和上一帧所有幽灵占的区域
+    private final DirtyRect mDrawRect = new DirtyRect();
+    private final DirtyRect mLastDrawRect = new DirtyRect();
+
+    public GhostBirds setStore(GhostStore store) {
+        mStore = store;
+        return this;
+    }
+
+    // 用 bird 的旋转缓存画幽灵, 幽灵和它的皮肤相同
+    public GhostBirds setBird(Bird bird) {
+        mBird = bird;
+        return this;
+    }
+
+    // 幽灵的不透明度 (0 - 255)
+    public GhostBirds setAlpha(int alpha) {
+        mAlpha = alpha;
+        return this;
+    }
+
+    /*
+    计算这一帧每只幽灵的格子和位置, 把上一帧和这一帧幽灵所在的区域合并到 dirty 中。
+    bird: 玩家的鸟, 幽灵在同一列, 大小也相同; visible 为 false 时不画幽灵 (比如待命的时候)。
+    alpha 表示当前时刻处在上一个物理帧和当前物理帧之间的位置 [0, 1)
+     */
+    public void prepare(Renderer renderer, BirdState bird, boolean visible, float alpha, DirtyRect dirty) {
+        mSpriteCount = 0;
+        mDrawRect.setEmpty();
+        int count = visible && mStore != null ? mStore.getCount() : 0;
+        if (mSprites.length < 4 * count) {
+            mSprites = Arrays.copyOf(mSprites, 4 * count);
+        }
+        int cellSize = mBird.getCellSize();
+        int left = bird.getLeft() + (bird.getWidth() - cellSize) / 2;
+        int offset = (bird.getHeight() - cellSize) / 2;
+        // 所有幽灵一起扇翅膀, 和轨迹中的帧号一致
+        int frame = Math.max(0, mStore == null ? 0 : mStore.getTick()) % BirdState.SKIN_FRAMES;
+        int minTop = Integer.MAX_VALUE;
+        int maxTop = Integer.MIN_VALUE;
+        int[] sprites = mSprites;
+        int p = 0;
+        for (int i = 0; i < count; i++) {
+            if (!mStore.isActive(i)) {
+                continue;
+            }
+            float prevAngle = mStore.getPrevAngle(i);
+            int cell = mBird.prepareCell(renderer, frame, prevAngle + (mStore.getAngle(i) - prevAngle) * alpha);
+            int prevTop = mStore.getPrevTop(i);
+            int top = Math.round(prevTop + (mStore.getTop(i) - prevTop) * alpha) + offset;
+            sprites[p] = mBird.getCellLeft(cell);
+            sprites[p + 1] = mBird.getCellTop(cell);
+            sprites[p + 2] = left;
+            sprites[p + 3] = top;
+            p += 4;
+            minTop = Math.min(minTop, top);
+            maxTop = Math.max(maxTop, top);
+        }
+        mSpriteCount = p / 4;
+        if (mSpriteCount > 0) {
+            mDrawRect.set(left, minTop, left + cellSize, maxTop + cellSize);
+        }
+        if (!mDrawRect.isEmpty() || !mLastDrawRect.isEmpty()) {
+            dirty.union(mLastDrawRect);
+            dirty.union(mDrawRect);
+            mLastDrawRect.set(mDrawRect);
+        }
+    }
+
+    public int getSpriteCount() {
+        return mSpriteCount;
+    }
+
+    // 一次画出所有幽灵
+    public void draw(Renderer renderer, DirtyRect dirty) {
+        if (mSpriteCount == 0
+                || dirty.overlapArea(mDrawRect.left, mDrawRect.top, mDrawRect.right, mDrawRect.bottom) == 0) {
+            return;
+        }
+        int cellSize = mBird.getCellSize();
+        renderer.drawSprites(mBird.getRotationCache(), cellSize, cellSize, mSprites, mSpriteCount, mAlpha);
+    }
+}
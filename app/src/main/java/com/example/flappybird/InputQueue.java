@@ -0,0 +1,69 @@
+package com.example.flappybird;
+
+/**
+ * 从 UI 线程交给游戏线程的输入命令队列
+ * 只有一个生产者 (UI 线程) 和一个消费者 (游戏线程)，所以不需要锁：
+ * 生产者只写 mTail，消费者只写 mHead，两者都是 volatile，
+ * 先写入数据再推进下标，另一方看到下标变化时一定也能看到数据。
+ *
+ * 每个命令带有入队时的时间戳 (System.nanoTime())，用来统计从点击到画面的延迟。
+ * 命令和时间戳放在预先分配的数组里，入队和出队都不创建对象。
+ */
+public class InputQueue {
+    public static final int CMD_NONE = 0;
+    // 点击了一次屏幕; 是扇翅膀、开始还是重新开始由模拟按它自己的阶段决定
+    public static final int CMD_TAP = 1;
+
+    private final int[] mCommands;
+    private final long[] mTimes;
+    private final int mMask;
+
+    private volatile int mHead; // 下一个要取出的位置, 只由消费者修改
+    private volatile int mTail; // 下一个要放入的位置, 只由生产者修改
+
+    private long mPolledTime; // 最近一次取出的命令的时间戳
+
+    // capacity 必须是 2 的幂
+    public InputQueue(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mCommands = new int[capacity];
+        mTimes = new long[capacity];
+        mMask = capacity - 1;
+    }
+
+    // 生产者：放入一个命令，队列已满时丢弃并返回 false
+    public boolean offer(int command, long timeNanos) {
+        int tail = mTail;
+        if (tail - mHead == mCommands.length) {
+            return false;
+        }
+        mCommands[tail & mMask] = command;
+        mTimes[tail & mMask] = timeNanos;
+        mTail = tail + 1; // 发布: 之前写入的数据对消费者可见
+        return true;
+    }
+
+    // 消费者：取出一个命令，队列为空时返回 CMD_NONE
+    // 命令的时间戳用 getPolledTime() 读取
+    public int poll() {
+        int head = mHead;
+        if (head == mTail) {
+            return CMD_NONE;
+        }
+        int command = mCommands[head & mMask];
+        mPolledTime = mTimes[head & mMask];
+        mHead = head + 1; // 释放这个位置给生产者
+        return command;
+    }
+
+    public long getPolledTime() {
+        return mPolledTime;
+    }
+
+    // 队列中的命令数, 只是一个近似值
+    public int size() {
+        return mTail - mHead;
+    }
+}
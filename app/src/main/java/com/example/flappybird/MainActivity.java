@@ -20,6 +20,20 @@ public class MainActivity extends Activity {
         getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN,
                 WindowManager.LayoutParams.FLAG_FULLSCREEN);
         mGameView = new GameView(this, null);
+        // 绘制后端可以用启动参数选择: adb shell am start -n ... --es renderer hardware
+        if ("hardware".equals(getIntent().getStringExtra("renderer"))) {
+            mGameView.setRendererBackend(GameView.RENDERER_HARDWARE);
+        }
+        // --ez hud true 显示帧时间和点击延迟
+        mGameView.setHudEnabled(getIntent().getBooleanExtra("hud", false));
+        // --ez ghosts true 幽灵竞速: 每一局都是同一条赛道, 之前的每一局都作为幽灵一起飞
+        mGameView.setGhostMode(getIntent().getBooleanExtra("ghosts", false));
+        // 联机竞速: --es race_peers host0:port0,host1:port1,... --ei race_player 0 --el race_seed 42
+        String peers = getIntent().getStringExtra("race_peers");
+        if (peers != null) {
+            mGameView.setRace(peers.split(","), getIntent().getIntExtra("race_player", 0),
+                    getIntent().getLongExtra("race_seed", 0));
+        }
         setContentView(mGameView);
     }
 }
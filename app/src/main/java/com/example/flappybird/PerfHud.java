@@ -0,0 +1,97 @@
+package com.example.flappybird;
+
+import com.example.flappybird.render.DirtyRect;
+import com.example.flappybird.render.Renderer;
+
+/**
+ * 屏幕左上角的性能信息：帧间隔、帧耗时和点击延迟的 p50/p95/p99 (毫秒)
+ * 文字每 UPDATE_NANOS 更新一次，写在预先分配的字符数组中，绘制时不创建字符串
+ */
+public class PerfHud {
+    private static final long UPDATE_NANOS = 250000000L;
+    private static final String[] LABELS = {"frame ", "draw  ", "tap   "};
+    private static final int LINE_CHARS = 48;
+
+    private final FrameTimings mTimings;
+    private final char[][] mLines = new char[LABELS.length][LINE_CHARS];
+    private final int[] mLineLengths = new int[LABELS.length];
+    private final DirtyRect mBounds = new DirtyRect();
+    private int mLineHeight;
+    private long mLastUpdate;
+
+    public PerfHud(FrameTimings timings) {
+        mTimings = timings;
+    }
+
+    // 文字显示在 (left, top) 开始的区域，每行高 lineHeight，最宽 width
+    public PerfHud setBounds(int left, int top, int width, int lineHeight) {
+        mLineHeight = lineHeight;
+        mBounds.set(left, top, left + width, top + lineHeight * LABELS.length);
+        return this;
+    }
+
+    // 到了更新的时间就重新生成文字，并把文字区域合并到 dirty 中
+    public void prepare(long nanos, DirtyRect dirty) {
+        if (nanos - mLastUpdate < UPDATE_NANOS) {
+            return;
+        }
+        mLastUpdate = nanos;
+        formatLine(0, mTimings.getFrameInterval());
+        formatLine(1, mTimings.getFrameTime());
+        formatLine(2, mTimings.getTapLatency());
+        dirty.union(mBounds);
+    }
+
+    private void formatLine(int line, RollingHistogram histogram) {
+        char[] text = mLines[line];
+        int length = append(text, 0, LABELS[line]);
+        length = append(text, length, "p50 ");
+        length = appendMillis(text, length, histogram.percentileMicros(50));
+        length = append(text, length, "  p95 ");
+        length = appendMillis(text, length, histogram.percentileMicros(95));
+        length = append(text, length, "  p99 ");
+        length = appendMillis(text, length, histogram.percentileMicros(99));
+        mLineLengths[line] = append(text, length, " ms");
+    }
+
+    private static int append(char[] text, int length, String s) {
+        s.getChars(0, s.length(), text, length);
+        return length + s.length();
+    }
+
+    // 把微秒写成保留一位小数的毫秒
+    static int appendMillis(char[] text, int length, long micros) {
+        long tenths = (micros + 50) / 100;
+        length = appendLong(text, length, tenths / 10);
+        text[length++] = '.';
+        text[length++] = (char) ('0' + tenths % 10);
+        return length;
+    }
+
+    private static int appendLong(char[] text, int length, long value) {
+        int start = length;
+        do {
+            text[length++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // 倒序写入的数字翻转过来
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char c = text[i];
+            text[i] = text[j];
+            text[j] = c;
+        }
+        return length;
+    }
+
+    // 文字区域和 dirty 重叠时画出文字
+    public void draw(Renderer renderer, DirtyRect dirty) {
+        if (dirty.overlapArea(mBounds.left, mBounds.top, mBounds.right, mBounds.bottom) == 0) {
+            return;
+        }
+        for (int i = 0; i < mLines.length; i++) {
+            // 文字的基线在每一行的底部
+            renderer.drawText(mLines[i], 0, mLineLengths[i], mBounds.left,
+                    mBounds.top + mLineHeight * (i + 1) - mLineHeight / 5);
+        }
+    }
+}
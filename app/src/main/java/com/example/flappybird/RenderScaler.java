@@ -0,0 +1,124 @@
+package com.example.flappybird;
+
+/**
+ * 自适应的渲染分辨率
+ *
+ * 游戏画面可以画在比屏幕小的 Surface 上 (SurfaceHolder.setFixedSize)，由系统放大到整个屏幕，
+ * 纹理也按同样的比例缩小，画一帧需要填充的像素随比例的平方减少。
+ * 这里只负责决定用哪一档比例 (SCALES)：
+ *   每 WINDOW_FRAMES 帧看一次每帧工作时间 (物理 + 绘制) 的 p90，
+ *   超过帧预算的 DOWN_PERCENT 就降一档；连续 UP_WINDOWS 个窗口都低于 UP_PERCENT 才升一档，
+ *   刚切换过的一个窗口里包含切换时重新加载纹理的时间, 不参与判断。
+ *   设备发热时 (温度档位, 见 thermalStatusForBattery()) 有一个最高画质的上限，超过上限立即降档，也不会再升上去。
+ * 不依赖 Android，切换的原因用 getReason() 取得，由 GameView 记在日志里。
+ */
+public class RenderScaler {
+    // 可选的缩放比例, 下标就是档位, 档位越高分辨率越低
+    public static final float[] SCALES = {1f, 0.85f, 0.7f, 0.5f};
+
+    // 温度档位, 含义和 Android Q 的 PowerManager.THERMAL_STATUS_* 相同
+    public static final int THERMAL_NONE = 0;
+    public static final int THERMAL_LIGHT = 1;
+    public static final int THERMAL_MODERATE = 2;
+    public static final int THERMAL_SEVERE = 3;
+    // 每个温度档位至少要用哪一档
+    private static final int[] THERMAL_MIN_LEVEL = {0, 0, 1, SCALES.length - 1};
+
+    public static final int WINDOW_FRAMES = 120;
+    private static final int DOWN_PERCENT = 85;
+    private static final int UP_PERCENT = 50;
+    private static final int UP_WINDOWS = 3;
+
+    // 每帧工作时间, 250us 一个桶, 最多统计到 100ms
+    private final RollingHistogram mWork = new RollingHistogram(WINDOW_FRAMES, 250, 400);
+    private long mBudgetNanos = 1000000000L / 60;
+    private int mLevel;
+    private volatile int mThermalStatus; // 由 UI 线程更新
+    private int mFrames; // 当前窗口中的帧数
+    private boolean mSettling; // 刚切换过, 这个窗口不参与判断
+    private int mEasyWindows; // 连续有多少个窗口工作时间都很少
+    private String mReason = "";
+
+    // 每帧的时间预算, 由屏幕刷新率决定
+    public RenderScaler setFrameBudget(long budgetNanos) {
+        mBudgetNanos = budgetNanos;
+        return this;
+    }
+
+    // 可以在任何线程中调用, 下一次 onFrame() 时生效
+    public void setThermalStatus(int status) {
+        mThermalStatus = Math.max(THERMAL_NONE, Math.min(THERMAL_SEVERE, status));
+    }
+
+    public int getThermalStatus() {
+        return mThermalStatus;
+    }
+
+    /*
+    API 28 没有 PowerManager.getCurrentThermalStatus()，用电池温度 (单位 0.1 摄氏度,
+    来自 BatteryManager.EXTRA_TEMPERATURE) 估计：40 度以下正常, 43 度以下轻微, 46 度以下中等, 再往上就是严重
+     */
+    public static int thermalStatusForBattery(int decidegrees) {
+        if (decidegrees < 400) {
+            return THERMAL_NONE;
+        } else if (decidegrees < 430) {
+            return THERMAL_LIGHT;
+        } else if (decidegrees < 460) {
+            return THERMAL_MODERATE;
+        }
+        return THERMAL_SEVERE;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public float getScale() {
+        return SCALES[mLevel];
+    }
+
+    // 最近一次切换的原因
+    public String getReason() {
+        return mReason;
+    }
+
+    // 记录一帧的工作时间, 返回 true 表示这一帧之后要换一档比例
+    public boolean onFrame(long workNanos) {
+        mWork.add(workNanos);
+        int minLevel = THERMAL_MIN_LEVEL[mThermalStatus];
+        if (mLevel < minLevel) {
+            return switchTo(minLevel, "thermal status " + mThermalStatus);
+        }
+        if (++mFrames < WINDOW_FRAMES) {
+            return false;
+        }
+        mFrames = 0;
+        if (mSettling) {
+            mSettling = false;
+            return false;
+        }
+        long p90 = mWork.percentileMicros(90) * 1000L;
+        if (p90 * 100 > mBudgetNanos * DOWN_PERCENT) {
+            mEasyWindows = 0;
+            if (mLevel < SCALES.length - 1) {
+                return switchTo(mLevel + 1, "p90 frame work " + p90 / 1000 + "us over budget");
+            }
+        } else if (p90 * 100 < mBudgetNanos * UP_PERCENT && mLevel > minLevel) {
+            if (++mEasyWindows >= UP_WINDOWS) {
+                return switchTo(mLevel - 1, "p90 frame work " + p90 / 1000 + "us, headroom");
+            }
+        } else {
+            mEasyWindows = 0;
+        }
+        return false;
+    }
+
+    private boolean switchTo(int level, String reason) {
+        mReason = reason;
+        mLevel = level;
+        mFrames = 0;
+        mEasyWindows = 0;
+        mSettling = true;
+        return true;
+    }
+}
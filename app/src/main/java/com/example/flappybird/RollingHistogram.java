@@ -0,0 +1,73 @@
+package com.example.flappybird;
+
+import java.util.Arrays;
+
+/**
+ * 滚动直方图：只统计最近 window 个样本，可以随时查询百分位数 (p50/p95/p99)
+ * 样本以微秒为单位放入固定宽度的桶中，超出范围的放在最后一个桶里。
+ * 最近的样本保存在环形缓冲区中，新样本进来时把最老的样本从桶中减掉，
+ * 所有数组都在构造时分配好，添加和查询都不创建对象。
+ */
+public class RollingHistogram {
+    private final int[] mSamples; // 最近的样本所在的桶, 环形缓冲区
+    private final int[] mBuckets; // 每个桶中的样本数
+    private final int mBucketMicros;
+    private int mNext; // 下一个样本在环形缓冲区中的位置
+    private int mCount; // 窗口中的样本数
+    private long mTotal; // 一共添加过的样本数
+
+    // window: 窗口大小; bucketMicros: 每个桶的宽度; bucketCount: 桶的个数
+    public RollingHistogram(int window, int bucketMicros, int bucketCount) {
+        mSamples = new int[window];
+        mBuckets = new int[bucketCount];
+        mBucketMicros = bucketMicros;
+    }
+
+    public void add(long nanos) {
+        long bucket = nanos / 1000L / mBucketMicros;
+        int index = (int) Math.max(0, Math.min(mBuckets.length - 1, bucket));
+        if (mCount == mSamples.length) {
+            mBuckets[mSamples[mNext]]--; // 移出最老的样本
+        } else {
+            mCount++;
+        }
+        mSamples[mNext] = index;
+        mBuckets[index]++;
+        if (++mNext == mSamples.length) {
+            mNext = 0;
+        }
+        mTotal++;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getTotal() {
+        return mTotal;
+    }
+
+    // 第 percent 百分位数 (0 ~ 100)，单位是微秒，取所在桶的上界；没有样本时返回 0
+    public long percentileMicros(int percent) {
+        if (mCount == 0) {
+            return 0;
+        }
+        // 需要有多少个样本不大于结果
+        int rank = Math.max(1, (int) (((long) mCount * percent + 99) / 100));
+        int seen = 0;
+        for (int i = 0; i < mBuckets.length; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank) {
+                return (long) (i + 1) * mBucketMicros;
+            }
+        }
+        return (long) mBuckets.length * mBucketMicros;
+    }
+
+    public void clear() {
+        Arrays.fill(mBuckets, 0);
+        mNext = 0;
+        mCount = 0;
+        mTotal = 0;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.flappybird;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * 纹理图集：把多张同样大小的小图按网格排在一张大位图里
+ * 绘制时用 drawBitmap(atlas, src, dst, null) 从图集中取出其中一格，
+ * src 和 dst 大小相同时只是一次简单的拷贝，不需要任何变换
+ */
+public class SpriteAtlas {
+    private final Bitmap mBitmap;
+    private final Canvas mCanvas; // 用来往图集中画图
+    private final int mCellWidth;
+    private final int mCellHeight;
+    private final int mColumns;
+    private final int mRows;
+
+    public SpriteAtlas(int cellWidth, int cellHeight, int columns, int rows) {
+        mCellWidth = cellWidth;
+        mCellHeight = cellHeight;
+        mColumns = columns;
+        mRows = rows;
+        mBitmap = Bitmap.createBitmap(cellWidth * columns, cellHeight * rows, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    public Canvas getCanvas() {
+        return mCanvas;
+    }
+
+    public int getCellWidth() {
+        return mCellWidth;
+    }
+
+    public int getCellHeight() {
+        return mCellHeight;
+    }
+
+    public int getCellCount() {
+        return mColumns * mRows;
+    }
+
+    public int getCellLeft(int index) {
+        return index % mColumns * mCellWidth;
+    }
+
+    public int getCellTop(int index) {
+        return index / mColumns * mCellHeight;
+    }
+
+    // 取得第 index 格在图集中的位置
+    public void getCell(int index, Rect out) {
+        int left = getCellLeft(index);
+        int top = getCellTop(index);
+        out.set(left, top, left + mCellWidth, top + mCellHeight);
+    }
+
+    // 把一张图缩放到格子的大小后放进第 index 格
+    public void put(int index, Bitmap sprite, Paint paint) {
+        Rect dst = new Rect();
+        getCell(index, dst);
+        mCanvas.drawBitmap(sprite, null, dst, paint);
+    }
+
+    // 清空整个图集
+    public void clear() {
+        mBitmap.eraseColor(0);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.flappybird;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * 纹理的内存预算和画质档位
+ *
+ * 根据设备的内存情况选择一个档位，每个档位决定：
+ *   没有透明部分的纹理 (天空、地面、天空图层) 的格式：高档用 ARGB_8888，其余用 RGB_565
+ *   鸟的旋转缓存每隔多少度取一个角度：角度越少，旋转缓存越小
+ * 使用硬件加速画布时，只用来直接绘制的纹理都上传为 HARDWARE 位图，不占用 Java 堆和本地堆。
+ *
+ * 选档时先按内存级别 (memoryClass) 和系统剩余内存确定最高档位，
+ * 再估算这个档位下所有纹理的大小，超出预算 (memoryClass 的 1/4) 时降一档。
+ */
+public class TextureManager {
+    private static final String TAG = "TextureManager";
+
+    public static final int TIER_LOW = 0;
+    public static final int TIER_MEDIUM = 1;
+    public static final int TIER_HIGH = 2;
+    private static final String[] TIER_NAMES = {"low", "medium", "high"};
+
+    // 每个档位旋转缓存的角度间隔
+    private static final int[] ANGLE_STEPS = {10, 5, 5};
+
+    private final int mTier;
+    private final long mBudgetBytes;
+    private final boolean mHardwareBitmaps;
+
+    // width, height: 屏幕大小; hardwareRenderer: 是否使用硬件加速画布
+    public TextureManager(Context context, int width, int height, boolean hardwareRenderer) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+        am.getMemoryInfo(info);
+        int memoryClass = am.getMemoryClass(); // 单个应用可用的堆大小, 单位 MB
+        mBudgetBytes = memoryClass * 1024L * 1024L / 4;
+        mHardwareBitmaps = hardwareRenderer;
+
+        int tier;
+        if (am.isLowRamDevice() || info.lowMemory || memoryClass < 128) {
+            tier = TIER_LOW;
+        } else if (memoryClass < 256 || info.availMem < 1024L * 1024L * 1024L) {
+            tier = TIER_MEDIUM;
+        } else {
+            tier = TIER_HIGH;
+        }
+        while (tier > TIER_LOW && estimateBytes(tier, width, height) > mBudgetBytes) {
+            tier--;
+        }
+        mTier = tier;
+        Log.i(TAG, "tier " + TIER_NAMES[tier] + ": memory class " + memoryClass + " MB, available "
+                + info.availMem / (1024 * 1024) + " MB, estimated textures "
+                + estimateBytes(tier, width, height) / 1024 + " KB, budget " + mBudgetBytes / 1024 + " KB");
+    }
+
+    public int getTier() {
+        return mTier;
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    // 没有透明部分的纹理的格式
+    public Bitmap.Config getOpaqueConfig() {
+        if (mHardwareBitmaps) {
+            return Bitmap.Config.HARDWARE;
+        }
+        return mTier == TIER_HIGH ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+    }
+
+    // 离屏图层 (软件位图) 中没有透明部分时的格式
+    public Bitmap.Config getOpaqueLayerConfig() {
+        return mTier == TIER_HIGH ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+    }
+
+    // 带透明部分、只用来直接绘制的纹理 (水管) 的格式
+    public Bitmap.Config getSpriteConfig() {
+        return mHardwareBitmaps ? Bitmap.Config.HARDWARE : Bitmap.Config.ARGB_8888;
+    }
+
+    // 鸟的旋转缓存的角度间隔
+    public int getAngleStep() {
+        return ANGLE_STEPS[mTier];
+    }
+
+    // 估算 tier 档位下所有纹理占用的字节数, 尺寸和 GameView.loadSkins() 一致
+    private long estimateBytes(int tier, int width, int height) {
+        long opaque = tier == TIER_HIGH ? 4 : 2;
+        long sky = (long) width * (height * 4 / 5) * opaque; // 天空和天空图层各一张
+        long ground = (long) width * (height / 5) * opaque;
+        int birdWidth = width / 6;
+        int birdHeight = height * 3 / 32;
+        long birds = 9L * birdWidth * birdHeight * 4;
+        long pipes = 2L * (width * 13 / 72) * (height * 5 / 8) * 4;
+        // 旋转缓存: 按 Bird 实际创建的网格大小计算
+        long rotationCache = Bird.rotationCacheBytes(birdWidth, birdHeight, ANGLE_STEPS[tier]);
+        if (mHardwareBitmaps) {
+            // 硬件位图不在堆中, 也不需要天空图层
+            return birds + rotationCache;
+        }
+        return sky * 2 + ground + birds + pipes + rotationCache;
+    }
+
+    // 输出当前纹理占用的内存
+    public void report(long textureBytes) {
+        Log.i(TAG, "textures " + textureBytes / 1024 + " KB of " + mBudgetBytes / 1024
+                + " KB budget (tier " + TIER_NAMES[mTier] + ")");
+        if (textureBytes > mBudgetBytes) {
+            Log.w(TAG, "texture memory over budget");
+        }
+    }
+}
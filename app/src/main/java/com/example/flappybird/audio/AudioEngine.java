@@ -0,0 +1,144 @@
+package com.example.flappybird.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 音效引擎：加载时把声音解码成 PCM，播放时由混音线程混合后交给 AudioOutput 输出
+ *
+ * 声音加载后用一个整数句柄表示，游戏线程播放时只调用 play(handle)：
+ * 把句柄放进一个无锁的单生产者/单消费者队列就返回，不做查找、不装箱、也不会被音频调用阻塞。
+ * 混音线程每次混音前取走队列中的所有请求，为每个请求分配一个声部 (最多 MAX_VOICES 个，
+ * 不够时替换播放得最久的声部)，然后把所有声部叠加成立体声输出。
+ */
+public class AudioEngine {
+    public static final int SAMPLE_RATE = 44100;
+    public static final int CHANNELS = 2; // 输出总是立体声
+    public static final int MAX_VOICES = 8;
+    private static final int QUEUE_CAPACITY = 32;
+
+    private final AudioOutput mOutput;
+    private final List<PcmSound> mSounds = new ArrayList<>();
+    private PcmSound[] mSoundTable = new PcmSound[0]; // 混音线程使用的声音表, 按句柄查找
+
+    // 播放请求队列: 游戏线程只写 mTail, 混音线程只写 mHead
+    private final int[] mQueue = new int[QUEUE_CAPACITY];
+    private volatile int mHead;
+    private volatile int mTail;
+
+    // 声部: 正在播放的声音和播放到的位置, 只由混音线程访问
+    private final int[] mVoiceSound = new int[MAX_VOICES];
+    private final int[] mVoiceFrame = new int[MAX_VOICES];
+    private final long[] mVoiceStart = new long[MAX_VOICES];
+    private long mStartCount;
+    private int[] mMix = new int[0]; // 混音时的累加缓冲区, 防止中途溢出
+
+    public AudioEngine(AudioOutput output) {
+        mOutput = output;
+        for (int i = 0; i < MAX_VOICES; i++) {
+            mVoiceSound[i] = -1;
+        }
+    }
+
+    // 加载一个 WAV 声音，返回它的句柄，必须在 start() 之前调用
+    public int load(InputStream in) throws IOException {
+        mSounds.add(PcmSound.decodeWav(in, SAMPLE_RATE));
+        mSoundTable = mSounds.toArray(new PcmSound[mSounds.size()]);
+        return mSounds.size() - 1;
+    }
+
+    public void start() {
+        mOutput.start(this);
+    }
+
+    public void stop() {
+        mOutput.stop();
+    }
+
+    // 播放一个声音，只能由一个线程 (游戏线程) 调用，队列满时丢弃
+    public void play(int handle) {
+        int tail = mTail;
+        if (tail - mHead == QUEUE_CAPACITY) {
+            return;
+        }
+        mQueue[tail & (QUEUE_CAPACITY - 1)] = handle;
+        mTail = tail + 1;
+    }
+
+    // 为新的播放请求找一个声部: 优先用空闲的, 没有时替换开始得最早的
+    private void startVoice(int sound) {
+        int voice = 0;
+        for (int i = 0; i < MAX_VOICES; i++) {
+            if (mVoiceSound[i] < 0) {
+                voice = i;
+                break;
+            }
+            if (mVoiceStart[i] < mVoiceStart[voice]) {
+                voice = i;
+            }
+        }
+        mVoiceSound[voice] = sound;
+        mVoiceFrame[voice] = 0;
+        mVoiceStart[voice] = mStartCount++;
+    }
+
+    // 正在播放的声部数, 在混音线程中调用
+    public int getActiveVoices() {
+        int count = 0;
+        for (int i = 0; i < MAX_VOICES; i++) {
+            if (mVoiceSound[i] >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // 混音线程调用：混合 frames 帧立体声写入 out (左右声道交替)
+    public void mix(short[] out, int frames) {
+        int head = mHead;
+        int tail = mTail;
+        while (head != tail) {
+            startVoice(mQueue[head & (QUEUE_CAPACITY - 1)]);
+            head++;
+        }
+        mHead = head;
+
+        int samples = frames * CHANNELS;
+        if (mMix.length < samples) {
+            mMix = new int[samples]; // 只在第一次或输出缓冲区变大时分配
+        }
+        for (int i = 0; i < samples; i++) {
+            mMix[i] = 0;
+        }
+        for (int v = 0; v < MAX_VOICES; v++) {
+            if (mVoiceSound[v] < 0) {
+                continue;
+            }
+            PcmSound sound = mSoundTable[mVoiceSound[v]];
+            ShortBuffer pcm = sound.getSamples();
+            int start = mVoiceFrame[v];
+            int count = Math.min(frames, sound.getFrames() - start);
+            if (sound.getChannels() == 2) {
+                for (int i = 0, j = start * 2; i < count * 2; i++, j++) {
+                    mMix[i] += pcm.get(j);
+                }
+            } else { // 单声道复制到左右两个声道
+                for (int i = 0; i < count; i++) {
+                    int s = pcm.get(start + i);
+                    mMix[i * 2] += s;
+                    mMix[i * 2 + 1] += s;
+                }
+            }
+            mVoiceFrame[v] = start + count;
+            if (mVoiceFrame[v] >= sound.getFrames()) {
+                mVoiceSound[v] = -1; // 播放完了
+            }
+        }
+        for (int i = 0; i < samples; i++) {
+            out[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mMix[i]));
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.flappybird.audio;
+
+/**
+ * 声音的输出后端：在自己的线程中不断调用 AudioEngine.mix() 取得混好的采样并播放
+ */
+public interface AudioOutput {
+    void start(AudioEngine engine);
+
+    // 停止输出，返回时不会再调用 mix()
+    void stop();
+}
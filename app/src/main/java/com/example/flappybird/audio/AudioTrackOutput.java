@@ -0,0 +1,89 @@
+package com.example.flappybird.audio;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * 用 AudioTrack 输出声音
+ * 使用低延迟模式 (PERFORMANCE_MODE_LOW_LATENCY)，缓冲区只保留两个硬件周期 (burst) 的数据，
+ * 混音线程以最高的音频优先级运行，每次混一个周期的采样，写满后阻塞等待下一个周期。
+ * 没有声音播放时写入静音，AudioTrack 一直保持在运行状态，播放时不需要重新启动。
+ */
+public class AudioTrackOutput implements AudioOutput, Runnable {
+    private static final String TAG = "AudioTrackOutput";
+    private static final int DEFAULT_FRAMES_PER_BURST = 256;
+
+    private final int mFramesPerBurst;
+    private AudioTrack mTrack;
+    private AudioEngine mEngine;
+    private Thread mThread;
+    private volatile boolean mIsRunning;
+
+    public AudioTrackOutput(Context context) {
+        // 设备硬件每个周期的帧数, 按这个大小混音延迟最低
+        AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        String frames = am != null ? am.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER) : null;
+        mFramesPerBurst = frames != null ? Integer.parseInt(frames) : DEFAULT_FRAMES_PER_BURST;
+    }
+
+    @Override
+    public void start(AudioEngine engine) {
+        mEngine = engine;
+        mTrack = new AudioTrack.Builder()
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_GAME)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                        .build())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                        .setSampleRate(AudioEngine.SAMPLE_RATE)
+                        .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+                        .build())
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                .setBufferSizeInBytes(AudioTrack.getMinBufferSize(AudioEngine.SAMPLE_RATE,
+                        AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT))
+                .build();
+        // 缓冲区越小延迟越低, 但至少要有两个周期, 否则容易断音
+        mTrack.setBufferSizeInFrames(mFramesPerBurst * 2);
+        Log.d(TAG, "burst " + mFramesPerBurst + " frames, buffer " + mTrack.getBufferSizeInFrames()
+                + " frames, performance mode " + mTrack.getPerformanceMode());
+        mTrack.play();
+        mIsRunning = true;
+        mThread = new Thread(this, "AudioMixer");
+        mThread.start();
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        short[] buffer = new short[mFramesPerBurst * AudioEngine.CHANNELS];
+        while (mIsRunning) {
+            mEngine.mix(buffer, mFramesPerBurst);
+            mTrack.write(buffer, 0, buffer.length);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mIsRunning = false;
+        mTrack.pause(); // 让阻塞中的 write() 返回
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mTrack.flush();
+        mTrack.release();
+        mTrack = null;
+        mThread = null;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.flappybird.audio;
+
+/**
+ * 不发出声音的后端，用于 JVM 测试和没有声音设备的环境
+ * 不启动混音线程，需要时由调用者自己调用 AudioEngine.mix()
+ */
+public class NullAudioOutput implements AudioOutput {
+    @Override
+    public void start(AudioEngine engine) {
+    }
+
+    @Override
+    public void stop() {
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.flappybird.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * 解码好的 16 位 PCM 声音
+ * 采样放在 direct buffer 中 (不在 Java 堆上，不会被 GC 移动或扫描)，只在加载时解码一次，
+ * 混音线程直接按下标读取
+ */
+public class PcmSound {
+    private final ShortBuffer mSamples; // 交错存放的采样, 立体声时左右声道交替
+    private final int mChannels;
+    private final int mFrames; // 采样帧数, 每帧 mChannels 个采样
+
+    public PcmSound(ShortBuffer samples, int channels) {
+        mSamples = samples;
+        mChannels = channels;
+        mFrames = samples.capacity() / channels;
+    }
+
+    public ShortBuffer getSamples() {
+        return mSamples;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    public int getFrames() {
+        return mFrames;
+    }
+
+    private static int readIntLE(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8
+                | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+    }
+
+    private static int readShortLE(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8;
+    }
+
+    // 解码 WAV 文件，只支持 sampleRate 采样率、单声道或立体声的 16 位 PCM
+    public static PcmSound decodeWav(InputStream in, int sampleRate) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        byte[] data = bytes.toByteArray();
+        if (data.length < 12 || readIntLE(data, 0) != 0x46464952 || readIntLE(data, 8) != 0x45564157) {
+            throw new IOException("not a RIFF/WAVE file");
+        }
+        int channels = 0;
+        // 依次查找 "fmt " 和 "data" 块, 跳过其他的块
+        int offset = 12;
+        while (offset + 8 <= data.length) {
+            int id = readIntLE(data, offset);
+            int size = readIntLE(data, offset + 4);
+            offset += 8;
+            if (size < 0 || offset + size > data.length) {
+                size = data.length - offset; // 有的文件 data 块的长度写得不对, 读到文件末尾为止
+            }
+            if (id == 0x20746d66) { // "fmt "
+                int format = readShortLE(data, offset);
+                channels = readShortLE(data, offset + 2);
+                int rate = readIntLE(data, offset + 4);
+                int bits = readShortLE(data, offset + 14);
+                if (format != 1 || bits != 16 || (channels != 1 && channels != 2)) {
+                    throw new IOException("unsupported format " + format + ", " + channels
+                            + " channels, " + bits + " bits");
+                }
+                if (rate != sampleRate) {
+                    throw new IOException("sample rate " + rate + " != " + sampleRate);
+                }
+            } else if (id == 0x61746164) { // "data"
+                if (channels == 0) {
+                    throw new IOException("data before fmt");
+                }
+                int frames = size / 2 / channels;
+                ShortBuffer samples = ByteBuffer.allocateDirect(frames * channels * 2)
+                        .order(ByteOrder.nativeOrder()).asShortBuffer();
+                for (int i = 0; i < frames * channels; i++) {
+                    samples.put(i, (short) readShortLE(data, offset + i * 2));
+                }
+                return new PcmSound(samples, channels);
+            }
+            offset += size + (size & 1); // 块的长度按 2 字节对齐
+        }
+        throw new IOException("no data chunk");
+    }
+}
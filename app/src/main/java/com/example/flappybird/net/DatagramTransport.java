@@ -0,0 +1,177 @@
+package com.example.flappybird.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+
+/**
+ * 非阻塞的 UDP 传输：一个 DatagramChannel，发给每个对手的包都从这里发出，收到的包也都从这里读
+ * 只在游戏线程中调用，发送和接收都不会阻塞，收发用的缓冲区都是预先分配的。
+ *
+ * 为了在一台机器上用回环地址测试，发出的包可以先经过一个模拟的网络：
+ *   按 setLoss() 的概率丢掉，按 setJitter() 随机延迟 0 ~ maxTicks 次 tick() 再发出 (所以也会乱序)。
+ * 延迟的包拷贝在预先分配的队列中，不为每个包创建对象。
+ */
+public class DatagramTransport implements Closeable {
+    public static final int MAX_PACKET = 512;
+    private static final int QUEUE_SIZE = 256;
+
+    private final DatagramChannel mChannel;
+    private final SocketAddress[] mPeers = new SocketAddress[LockstepSession.MAX_PLAYERS];
+    private final ByteBuffer mSendBuffer = ByteBuffer.allocateDirect(MAX_PACKET);
+
+    // 模拟的网络
+    private float mLoss;
+    private int mJitter;
+    private final Random mRandom = new Random(0);
+    private int mTicks; // tick() 的次数
+    // 延迟发送的包: 内容、长度、发给谁、第几次 tick() 时发出
+    private final byte[][] mQueued = new byte[QUEUE_SIZE][MAX_PACKET];
+    private final int[] mQueuedLength = new int[QUEUE_SIZE];
+    private final int[] mQueuedPeer = new int[QUEUE_SIZE];
+    private final int[] mQueuedDue = new int[QUEUE_SIZE];
+    private int mQueuedCount;
+
+    // 统计
+    private long mPacketsSent;
+    private long mBytesSent;
+    private long mPacketsDropped;
+    private long mPacketsReceived;
+
+    // 绑定到 address, 端口为 0 时由系统选择
+    public DatagramTransport(InetSocketAddress address) throws IOException {
+        mChannel = DatagramChannel.open();
+        try {
+            mChannel.configureBlocking(false);
+            mChannel.bind(address);
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+    }
+
+    // 绑定到回环地址上一个空闲的端口, 用于测试
+    public static DatagramTransport loopback() throws IOException {
+        return new DatagramTransport(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) mChannel.getLocalAddress();
+    }
+
+    // 第 player 个玩家的地址
+    public DatagramTransport setPeer(int player, SocketAddress address) {
+        mPeers[player] = address;
+        return this;
+    }
+
+    // 模拟丢包的概率 [0, 1)
+    public DatagramTransport setLoss(float loss) {
+        mLoss = loss;
+        return this;
+    }
+
+    // 模拟的延迟抖动: 每个包随机延迟 0 ~ maxTicks 次 tick()
+    public DatagramTransport setJitter(int maxTicks) {
+        mJitter = Math.max(0, maxTicks);
+        return this;
+    }
+
+    // 模拟网络用的随机数种子
+    public DatagramTransport setSeed(long seed) {
+        mRandom.setSeed(seed);
+        return this;
+    }
+
+    // 把 packet 中 position 到 limit 的内容发给第 player 个玩家
+    public void send(int player, ByteBuffer packet) throws IOException {
+        int length = packet.remaining();
+        if (mLoss > 0 && mRandom.nextFloat() < mLoss) {
+            mPacketsDropped++;
+            return;
+        }
+        int delay = mJitter > 0 ? mRandom.nextInt(mJitter + 1) : 0;
+        if (delay == 0 || mQueuedCount == QUEUE_SIZE) {
+            sendNow(player, packet);
+            return;
+        }
+        int slot = mQueuedCount++;
+        packet.get(mQueued[slot], 0, length);
+        mQueuedLength[slot] = length;
+        mQueuedPeer[slot] = player;
+        mQueuedDue[slot] = mTicks + delay;
+    }
+
+    private void sendNow(int player, ByteBuffer packet) throws IOException {
+        int length = packet.remaining();
+        // 发送缓冲区满了也不等, 对 UDP 来说就是丢了一个包, 由之后的包补上
+        if (mChannel.send(packet, mPeers[player]) > 0) {
+            mPacketsSent++;
+            mBytesSent += length;
+        } else {
+            mPacketsDropped++;
+        }
+    }
+
+    // 收一个包放进 into (从 position 开始), 返回包的长度, 没有包时返回 -1
+    public int receive(ByteBuffer into) throws IOException {
+        int start = into.position();
+        if (mChannel.receive(into) == null) {
+            return -1;
+        }
+        mPacketsReceived++;
+        return into.position() - start;
+    }
+
+    // 模拟的时间前进一步, 发出到期的延迟包
+    public void tick() throws IOException {
+        mTicks++;
+        int kept = 0;
+        for (int i = 0; i < mQueuedCount; i++) {
+            if (mQueuedDue[i] - mTicks <= 0) {
+                mSendBuffer.clear();
+                mSendBuffer.put(mQueued[i], 0, mQueuedLength[i]).flip();
+                sendNow(mQueuedPeer[i], mSendBuffer);
+            } else {
+                if (kept != i) {
+                    // 交换两个槽, 保留下来的包移到前面
+                    byte[] bytes = mQueued[kept];
+                    mQueued[kept] = mQueued[i];
+                    mQueued[i] = bytes;
+                    mQueuedLength[kept] = mQueuedLength[i];
+                    mQueuedPeer[kept] = mQueuedPeer[i];
+                    mQueuedDue[kept] = mQueuedDue[i];
+                }
+                kept++;
+            }
+        }
+        mQueuedCount = kept;
+    }
+
+    public long getPacketsSent() {
+        return mPacketsSent;
+    }
+
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    // 模拟丢掉的包, 以及发送缓冲区满时丢掉的包
+    public long getPacketsDropped() {
+        return mPacketsDropped;
+    }
+
+    public long getPacketsReceived() {
+        return mPacketsReceived;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+}
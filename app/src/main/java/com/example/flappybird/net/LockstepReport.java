@@ -0,0 +1,45 @@
+package com.example.flappybird.net;
+
+import java.io.IOException;
+
+/**
+ * 在电脑上测量联机竞速的回滚开销和带宽：
+ *   java -cp ... com.example.flappybird.net.LockstepReport [玩家数] [丢包率] [最大延迟帧数] [输入延迟]
+ *
+ * 所有玩家在同一个进程中通过回环地址联机 (LoopbackRace)，模拟的网络按给定的概率丢包、随机延迟。
+ * 先跑一局预热，再跑一局输出每个玩家每帧回滚的平均耗时、p50 / p99、最深回滚了多少帧，以及每帧发出的字节数。
+ */
+public class LockstepReport {
+    // 和 GameView 在 1080x1920 屏幕上的大小相同
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int BIRD_WIDTH = WIDTH / 6;
+    private static final int BIRD_HEIGHT = HEIGHT * 3 / 32;
+    private static final int PIPE_WIDTH = WIDTH * 13 / 72;
+    private static final int TICKS = 3000;
+
+    public static void main(String[] args) throws IOException {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        float loss = args.length > 1 ? Float.parseFloat(args[1]) : 0.05f;
+        int jitter = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int inputDelay = args.length > 3 ? Integer.parseInt(args[3]) : LockstepSession.DEFAULT_INPUT_DELAY;
+        System.out.println(players + " players, loss " + loss + ", jitter " + jitter + " ticks, input delay "
+                + inputDelay + " ticks");
+        for (int round = 0; round < 2; round++) { // 第一局用来预热
+            LoopbackRace race = new LoopbackRace(players, round, TICKS, WIDTH, HEIGHT, BIRD_WIDTH, BIRD_HEIGHT,
+                    PIPE_WIDTH).setNetwork(loss, jitter).setInputDelay(inputDelay);
+            try {
+                int rounds = race.run(TICKS);
+                if (round == 0) {
+                    continue;
+                }
+                System.out.println(TICKS + " ticks in " + rounds + " rounds");
+                for (int p = 0; p < players; p++) {
+                    System.out.println(race.getSession(p).report());
+                }
+            } finally {
+                race.close();
+            }
+        }
+    }
+}
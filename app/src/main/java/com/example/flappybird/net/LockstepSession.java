@@ -0,0 +1,384 @@
+package com.example.flappybird.net;
+
+import com.example.flappybird.RollingHistogram;
+import com.example.flappybird.sim.Simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 多人竞速的确定性锁步 (lockstep)
+ *
+ * 2 ~ MAX_PLAYERS 个玩家在同一条赛道 (同一个种子) 上各自飞，每个玩家一个 Simulation。
+ * 模拟只由输入决定，所以玩家之间只交换每一帧有没有点击 (1 位)，所有人在第 0 帧同时起飞，落地以后点击不再有效。
+ *
+ * 输入延迟：本地在第 t 帧的点击在第 t + inputDelay 帧才生效，给网络留出时间，对手的输入通常在用到之前就已经到了。
+ * 回滚：某个对手第 t 帧的输入还没有到时，先猜他没有点击 (点击很少, 大多数时候猜对) 继续模拟，
+ * 模拟之前保存这个对手的快照；输入到了而且是点击时，把他恢复到第 t 帧的快照，用正确的输入重新模拟到当前帧。
+ * 玩家之间没有相互作用，只需要回滚猜错了的那个对手，本地玩家永远不会回滚。
+ * 当前帧最多领先所有输入都已收到的帧 MAX_ROLLBACK 帧，再多就停下来等 (退化为普通的锁步)。
+ *
+ * 网络包：每帧给每个对手发一个，包含所有对方还没有确认收到的本地输入，丢了的包由之后的包补上：
+ *   byte 发送者, short 已经连续收到接收者的多少帧输入 (确认), short 包中第一个输入的帧号,
+ *   byte 输入的个数 n, (n + 7) / 8 个字节: 每帧 1 位
+ * 帧号只发低 16 位，按离已知值最近的数还原。网络正常时每个包 6 ~ 7 个字节。
+ *
+ * 只在一个线程中使用。收发包和猜测都不分配对象，回滚时 Simulation.readState() 会重新创建关卡生成器。
+ */
+public class LockstepSession {
+    public static final int MAX_PLAYERS = 8;
+    public static final int DEFAULT_INPUT_DELAY = 2;
+    public static final int MAX_ROLLBACK = 8;
+    private static final int HISTORY = 256; // 输入的环形缓冲区, 2 的幂
+    private static final int SNAPSHOTS = 16; // 每个对手的快照, 2 的幂, 大于 MAX_ROLLBACK
+    private static final int MAX_INPUTS_PER_PACKET = 255;
+    private static final int HEADER_BYTES = 6;
+
+    private final int mPlayerCount;
+    private final int mLocal;
+    private int mInputDelay = DEFAULT_INPUT_DELAY;
+    private final Simulation[] mSims;
+    private DatagramTransport mTransport;
+
+    // 每个玩家每帧的输入 (只有点击的 1 位), 第 t 帧在 t & (HISTORY - 1)
+    private final byte[][] mInputs;
+    // 第 p 个玩家小于 mReceived[p] 的帧的输入都已经知道了
+    private final int[] mReceived;
+    // 第 p 个玩家已经确认收到了本地小于 mAcked[p] 的帧的输入
+    private final int[] mAcked;
+    // 第 p 个玩家要从哪一帧开始回滚, Integer.MAX_VALUE 表示不需要
+    private final int[] mRollbackFrom;
+    // 对手在猜测输入之前的快照, 第 t 帧在 t & (SNAPSHOTS - 1)
+    private final ByteBuffer[][] mSnapshots;
+    private final int[][] mSnapshotTick;
+    private int mTick; // 下一次要模拟的帧
+    private int mPendingLocal; // 还没有生效的本地点击
+    private int mLocalEvents;
+
+    private final ByteBuffer mPacket = ByteBuffer.allocateDirect(DatagramTransport.MAX_PACKET);
+
+    // 统计
+    private long mFrames;
+    private long mStalls;
+    private long mRollbacks;
+    private long mRolledBackTicks;
+    private int mMaxRollbackTicks;
+    private long mRollbackNanos;
+    // 每帧回滚的耗时 (包括没有回滚的帧), 1us 一个桶
+    private final RollingHistogram mRollbackCost = new RollingHistogram(1024, 1, 5000);
+
+    // 所有玩家的参数必须相同; localPlayer 是本地玩家的序号 [0, playerCount)
+    public LockstepSession(int playerCount, int localPlayer, long seed,
+                           int width, int height, int birdWidth, int birdHeight, int pipeWidth) {
+        if (playerCount < 1 || playerCount > MAX_PLAYERS || localPlayer < 0 || localPlayer >= playerCount) {
+            throw new IllegalArgumentException("player " + localPlayer + " of " + playerCount);
+        }
+        mPlayerCount = playerCount;
+        mLocal = localPlayer;
+        mSims = new Simulation[playerCount];
+        mInputs = new byte[playerCount][HISTORY];
+        mReceived = new int[playerCount];
+        mAcked = new int[playerCount];
+        mRollbackFrom = new int[playerCount];
+        mSnapshots = new ByteBuffer[playerCount][SNAPSHOTS];
+        mSnapshotTick = new int[playerCount][SNAPSHOTS];
+        for (int p = 0; p < playerCount; p++) {
+            mSims[p] = new Simulation().setSeed(seed).setLevelMode(Simulation.LEVEL_PROCEDURAL)
+                    .init(width, height, birdWidth, birdHeight, pipeWidth);
+            if (p != localPlayer) {
+                for (int i = 0; i < SNAPSHOTS; i++) {
+                    mSnapshots[p][i] = ByteBuffer.allocate(mSims[p].getSnapshotSize());
+                }
+            }
+        }
+        setInputDelay(DEFAULT_INPUT_DELAY);
+    }
+
+    // 输入延迟 (帧), 所有玩家必须相同, 在第一次 advance() 之前设置
+    public LockstepSession setInputDelay(int inputDelay) {
+        if (mTick > 0) {
+            throw new IllegalStateException("session already started");
+        }
+        mInputDelay = Math.max(0, Math.min(inputDelay, MAX_ROLLBACK));
+        // 前 inputDelay 帧谁都没有点击
+        Arrays.fill(mReceived, mInputDelay);
+        Arrays.fill(mAcked, mInputDelay);
+        Arrays.fill(mRollbackFrom, Integer.MAX_VALUE);
+        return this;
+    }
+
+    public int getInputDelay() {
+        return mInputDelay;
+    }
+
+    // 网络, 每个对手的地址都要在 transport 中设置好; null 表示不联网, 只用 receiveInputs() 交换输入
+    public LockstepSession setTransport(DatagramTransport transport) {
+        mTransport = transport;
+        return this;
+    }
+
+    public int getPlayerCount() {
+        return mPlayerCount;
+    }
+
+    public int getLocalPlayer() {
+        return mLocal;
+    }
+
+    // 第 player 个玩家的模拟, 对手的状态可能是猜测的结果
+    public Simulation getSimulation(int player) {
+        return mSims[player];
+    }
+
+    // 下一次 advance() 要模拟的帧
+    public int getTick() {
+        return mTick;
+    }
+
+    // 小于这一帧的输入都已经收到, 这些帧的模拟结果不会再变
+    public int getConfirmedTick() {
+        int confirmed = Integer.MAX_VALUE;
+        for (int p = 0; p < mPlayerCount; p++) {
+            confirmed = Math.min(confirmed, mReceived[p]);
+        }
+        return Math.min(confirmed, mTick);
+    }
+
+    // 所有人都落地了
+    public boolean isFinished() {
+        for (Simulation sim : mSims) {
+            if (sim.getStage() != Simulation.STAGE_OVER) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 一个物理帧：收包，能推进时推进一帧，再发包；返回是否推进了
+    public boolean update(int localInput) throws IOException {
+        poll();
+        boolean advanced = advance(localInput);
+        flush();
+        return advanced;
+    }
+
+    // 本地玩家最近一次推进时的事件 (Simulation.EVENT_*), 本地玩家不会回滚, 这些事件不会被撤销
+    public int getLocalEvents() {
+        return mLocalEvents;
+    }
+
+    /*
+    推进一帧: 先做需要的回滚, 再记下本地的输入 (在 inputDelay 帧以后生效), 然后模拟所有玩家的当前帧。
+    领先已确认的帧太多时不推进, 返回 false, 这一次的点击留到下一次推进
+     */
+    public boolean advance(int localInput) {
+        mPendingLocal |= localInput;
+        mLocalEvents = 0;
+        if (mTick - getConfirmedTick() >= MAX_ROLLBACK) {
+            mStalls++;
+            return false;
+        }
+        rollback();
+        int slot = mReceived[mLocal] & (HISTORY - 1);
+        mInputs[mLocal][slot] = (byte) (mPendingLocal & Simulation.INPUT_TAP);
+        mReceived[mLocal]++;
+        mPendingLocal = 0;
+        for (int p = 0; p < mPlayerCount; p++) {
+            int events = stepPlayer(p, mTick);
+            if (p == mLocal) {
+                mLocalEvents = events;
+            }
+        }
+        mTick++;
+        mFrames++;
+        return true;
+    }
+
+    // 模拟第 player 个玩家的第 tick 帧, 输入还不知道时先保存快照, 再按没有点击模拟
+    private int stepPlayer(int player, int tick) {
+        Simulation sim = mSims[player];
+        int input = Simulation.INPUT_NONE;
+        if (tick < mReceived[player]) {
+            input = mInputs[player][tick & (HISTORY - 1)];
+        } else {
+            int slot = tick & (SNAPSHOTS - 1);
+            ByteBuffer snapshot = mSnapshots[player][slot];
+            snapshot.clear();
+            sim.writeState(snapshot);
+            mSnapshotTick[player][slot] = tick;
+        }
+        if (tick == 0) {
+            input = Simulation.INPUT_TAP; // 所有人同时起飞
+        } else if (sim.getStage() == Simulation.STAGE_OVER) {
+            input = Simulation.INPUT_NONE; // 落地以后不会重新开始
+        }
+        return sim.step(input);
+    }
+
+    // 把猜错了的对手恢复到猜错的那一帧, 用收到的输入重新模拟到当前帧
+    public void rollback() {
+        long start = System.nanoTime();
+        int ticks = 0;
+        for (int p = 0; p < mPlayerCount; p++) {
+            int from = mRollbackFrom[p];
+            if (from >= mTick) {
+                continue;
+            }
+            int slot = from & (SNAPSHOTS - 1);
+            if (mSnapshotTick[p][slot] != from) {
+                throw new IllegalStateException("no snapshot of player " + p + " at tick " + from);
+            }
+            ByteBuffer snapshot = mSnapshots[p][slot];
+            snapshot.flip();
+            mSims[p].readState(snapshot);
+            for (int tick = from; tick < mTick; tick++) {
+                stepPlayer(p, tick);
+            }
+            mRollbackFrom[p] = Integer.MAX_VALUE;
+            ticks += mTick - from;
+            mMaxRollbackTicks = Math.max(mMaxRollbackTicks, mTick - from);
+            mRollbacks++;
+        }
+        long nanos = ticks > 0 ? System.nanoTime() - start : 0;
+        mRollbackCost.add(nanos);
+        mRollbackNanos += nanos;
+        mRolledBackTicks += ticks;
+    }
+
+    /*
+    收到第 player 个玩家从第 start 帧开始的 count 帧输入 (inputs 中每帧 1 位, 从 offset 字节开始)。
+    已经收到过的帧跳过, 和猜测不同 (是点击) 而且已经模拟过的帧记下要回滚
+     */
+    public void receiveInputs(int player, int start, int count, ByteBuffer inputs, int offset) {
+        int received = mReceived[player];
+        if (start > received || player == mLocal) {
+            return; // 中间缺了一段, 等对方重发
+        }
+        // 不能超过环形缓冲区, 超出的部分对方会重发
+        int end = Math.min(start + count, getConfirmedTick() + HISTORY - MAX_ROLLBACK);
+        for (int tick = received; tick < end; tick++) {
+            int bit = tick - start;
+            int input = (inputs.get(offset + (bit >> 3)) >> (bit & 7)) & 1;
+            mInputs[player][tick & (HISTORY - 1)] = (byte) input;
+            if (input != Simulation.INPUT_NONE && tick < mTick) {
+                mRollbackFrom[player] = Math.min(mRollbackFrom[player], tick);
+            }
+        }
+        mReceived[player] = Math.max(received, end);
+    }
+
+    // 收下所有到了的包
+    public void poll() throws IOException {
+        if (mTransport == null) {
+            return;
+        }
+        while (true) {
+            mPacket.clear();
+            int length = mTransport.receive(mPacket);
+            if (length < 0) {
+                return;
+            }
+            if (length < HEADER_BYTES) {
+                continue;
+            }
+            int sender = mPacket.get(0);
+            if (sender < 0 || sender >= mPlayerCount || sender == mLocal) {
+                continue;
+            }
+            int ack = expand(mPacket.getShort(1), mReceived[mLocal]);
+            int start = expand(mPacket.getShort(3), mReceived[sender]);
+            int count = mPacket.get(5) & 0xff;
+            if (length < HEADER_BYTES + (count + 7) / 8) {
+                continue;
+            }
+            if (ack <= mReceived[mLocal]) {
+                mAcked[sender] = Math.max(mAcked[sender], ack);
+            }
+            receiveInputs(sender, start, count, mPacket, HEADER_BYTES);
+        }
+    }
+
+    // 16 位的帧号还原为离 reference 最近的帧
+    private static int expand(short value, int reference) {
+        return reference + (short) (value - reference);
+    }
+
+    // 给每个对手发一个包: 确认收到的帧数, 以及对方还没有确认的本地输入; 然后让模拟的网络前进一步
+    public void flush() throws IOException {
+        if (mTransport == null) {
+            return;
+        }
+        int end = mReceived[mLocal];
+        for (int p = 0; p < mPlayerCount; p++) {
+            if (p == mLocal) {
+                continue;
+            }
+            int start = mAcked[p];
+            int count = Math.min(end - start, MAX_INPUTS_PER_PACKET);
+            mPacket.clear();
+            mPacket.put((byte) mLocal);
+            mPacket.putShort((short) mReceived[p]);
+            mPacket.putShort((short) start);
+            mPacket.put((byte) count);
+            int bits = 0;
+            for (int i = 0; i < count; i++) {
+                bits |= mInputs[mLocal][(start + i) & (HISTORY - 1)] << (i & 7);
+                if ((i & 7) == 7) {
+                    mPacket.put((byte) bits);
+                    bits = 0;
+                }
+            }
+            if ((count & 7) != 0) {
+                mPacket.put((byte) bits);
+            }
+            mPacket.flip();
+            mTransport.send(p, mPacket);
+        }
+        mTransport.tick();
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    // 因为领先太多而没有推进的次数
+    public long getStalls() {
+        return mStalls;
+    }
+
+    // 回滚的次数 (每个对手一次算一次), 一共重新模拟了多少个玩家帧
+    public long getRollbacks() {
+        return mRollbacks;
+    }
+
+    public long getRolledBackTicks() {
+        return mRolledBackTicks;
+    }
+
+    // 最深的一次回滚重新模拟了多少帧, 不超过 MAX_ROLLBACK
+    public int getMaxRollbackTicks() {
+        return mMaxRollbackTicks;
+    }
+
+    public long getRollbackNanos() {
+        return mRollbackNanos;
+    }
+
+    // 最近 1024 帧每帧回滚的耗时
+    public RollingHistogram getRollbackCost() {
+        return mRollbackCost;
+    }
+
+    // 一行统计, 用于日志和测试报告
+    public String report() {
+        long bytes = mTransport != null ? mTransport.getBytesSent() : 0;
+        return "player " + mLocal + "/" + mPlayerCount + ": " + mFrames + " frames, " + mStalls + " stalls, "
+                + mRollbacks + " rollbacks (" + mRolledBackTicks + " ticks, max " + mMaxRollbackTicks + "), "
+                + "rollback cost avg " + (mFrames > 0 ? mRollbackNanos / mFrames / 1000 : 0) + "us/frame p99 "
+                + mRollbackCost.percentileMicros(99) + "us, "
+                + (mFrames > 0 && mPlayerCount > 1
+                ? String.format("%.1f", (double) bytes / mFrames / (mPlayerCount - 1)) : "0")
+                + " bytes sent/frame/peer";
+    }
+}
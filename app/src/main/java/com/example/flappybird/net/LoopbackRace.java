@@ -0,0 +1,148 @@
+package com.example.flappybird.net;
+
+import com.example.flappybird.sim.Simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 在一台机器上模拟一场联机竞速：每个玩家一个 LockstepSession，各用一个回环地址上的 DatagramTransport，
+ * 在同一个线程中轮流更新，每个玩家由一个简单的自动玩家控制 (鸟低于某个高度时点击, 再加上一些随机的点击)。
+ * 用于 LockstepReport 测量回滚的开销，以及测试所有玩家看到的结果完全相同。
+ *
+ * 记录每个玩家每帧实际生效的输入 (本地的点击在 inputDelay 帧以后生效)，用来离线重新模拟。
+ */
+public class LoopbackRace implements Closeable {
+    private final LockstepSession[] mSessions;
+    private final DatagramTransport[] mTransports;
+    private final Random[] mTaps;
+    private final int[] mLevel;
+    private final int[] mPending;
+    private final byte[][] mInputs;
+    private final long mSeed;
+    private final int[] mSize; // init() 的参数
+
+    public LoopbackRace(int players, long seed, int maxTicks, int width, int height,
+                        int birdWidth, int birdHeight, int pipeWidth) throws IOException {
+        mSessions = new LockstepSession[players];
+        mTransports = new DatagramTransport[players];
+        mTaps = new Random[players];
+        mLevel = new int[players];
+        mPending = new int[players];
+        mInputs = new byte[players][maxTicks + LockstepSession.MAX_ROLLBACK];
+        mSeed = seed;
+        mSize = new int[]{width, height, birdWidth, birdHeight, pipeWidth};
+        try {
+            for (int p = 0; p < players; p++) {
+                mTransports[p] = DatagramTransport.loopback().setSeed(seed * 31 + p);
+                mSessions[p] = new LockstepSession(players, p, seed, width, height, birdWidth, birdHeight, pipeWidth)
+                        .setTransport(mTransports[p]);
+                mTaps[p] = new Random(seed * 17 + p);
+                mLevel[p] = height / 3 + mTaps[p].nextInt(height / 4);
+            }
+            for (int p = 0; p < players; p++) {
+                for (int q = 0; q < players; q++) {
+                    if (p != q) {
+                        mTransports[p].setPeer(q, mTransports[q].getLocalAddress());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // 所有玩家的模拟网络: 丢包率和最多延迟多少帧
+    public LoopbackRace setNetwork(float loss, int jitter) {
+        for (DatagramTransport transport : mTransports) {
+            transport.setLoss(loss).setJitter(jitter);
+        }
+        return this;
+    }
+
+    public LoopbackRace setInputDelay(int inputDelay) {
+        for (LockstepSession session : mSessions) {
+            session.setInputDelay(inputDelay);
+        }
+        return this;
+    }
+
+    public int getPlayerCount() {
+        return mSessions.length;
+    }
+
+    public LockstepSession getSession(int player) {
+        return mSessions[player];
+    }
+
+    public DatagramTransport getTransport(int player) {
+        return mTransports[player];
+    }
+
+    // 第 player 个玩家第 tick 帧生效的输入
+    public int getInput(int player, int tick) {
+        return mInputs[player][tick];
+    }
+
+    /*
+    所有玩家都推进到第 ticks 帧, 再继续收发包直到所有输入都已确认, 返回一共更新了多少轮。
+    回环地址上的包几乎是立刻到的, 每一轮就相当于一个物理帧
+     */
+    public int run(int ticks) throws IOException {
+        int rounds = 0;
+        boolean done = false;
+        while (!done) {
+            done = true;
+            for (int p = 0; p < mSessions.length; p++) {
+                LockstepSession session = mSessions[p];
+                int tick = session.getTick();
+                if (tick < ticks) {
+                    Simulation sim = session.getSimulation(p);
+                    boolean tap = sim.getBird().getTop() > mLevel[p] || mTaps[p].nextInt(12) == 0;
+                    int input = tap ? Simulation.INPUT_TAP : Simulation.INPUT_NONE;
+                    mPending[p] |= input;
+                    if (session.update(input)) {
+                        mInputs[p][tick + session.getInputDelay()] = (byte) mPending[p];
+                        mPending[p] = 0;
+                    }
+                    done = false;
+                } else {
+                    // 已经到了, 只是确认别人的输入, 帮别人补发
+                    session.poll();
+                    session.rollback();
+                    session.flush();
+                    if (session.getConfirmedTick() < ticks) {
+                        done = false;
+                    }
+                }
+            }
+            rounds++;
+        }
+        return rounds;
+    }
+
+    /*
+    按记录的输入离线模拟第 player 个玩家的前 ticks 帧, 和 LockstepSession 一样:
+    第 0 帧所有人同时起飞, 落地以后的点击无效
+     */
+    public Simulation replay(int player, int ticks) {
+        Simulation sim = new Simulation().setSeed(mSeed).setLevelMode(Simulation.LEVEL_PROCEDURAL)
+                .init(mSize[0], mSize[1], mSize[2], mSize[3], mSize[4]);
+        for (int tick = 0; tick < ticks; tick++) {
+            int input = tick == 0 ? Simulation.INPUT_TAP : mInputs[player][tick];
+            sim.step(sim.getStage() == Simulation.STAGE_OVER ? Simulation.INPUT_NONE : input);
+        }
+        return sim;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DatagramTransport transport : mTransports) {
+            if (transport != null) {
+                transport.close();
+            }
+        }
+    }
+}
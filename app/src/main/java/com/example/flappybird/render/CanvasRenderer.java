@@ -0,0 +1,244 @@
+package com.example.flappybird.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.view.SurfaceHolder;
+
+import java.util.Arrays;
+
+/**
+ * 软件画布后端：用 SurfaceHolder.lockCanvas(dirty) 只锁定并重画脏区域，
+ * 其余部分由 Surface 保留上一帧的内容
+ *
+ * 渲染比例 (setScale())：Surface 比屏幕小时, 绘制代码仍然使用屏幕坐标，
+ * 屏幕画布和图层画布都预先缩放；纹理按同样的比例缩小后登记，同时记下它在屏幕坐标中的大小，
+ * 画的时候把 src 换算到纹理的像素上，缩小后的纹理还是按 1:1 拷贝。
+ */
+public class CanvasRenderer implements Renderer {
+    protected final SurfaceHolder mHolder;
+
+    // 登记过的纹理，图层另外带有一个往里画图的 Canvas
+    private Bitmap[] mTextures = new Bitmap[16];
+    private Canvas[] mLayerCanvases = new Canvas[16];
+    // 纹理在屏幕坐标中的大小, 没有缩放时就是位图的大小
+    private int[] mWidths = new int[16];
+    private int[] mHeights = new int[16];
+    private int mTextureCount;
+    private float mScale = 1f; // Surface 和屏幕的比例
+
+    private Canvas mScreen; // 这一帧锁定的屏幕画布
+    private Canvas mTarget; // 当前画到哪里：屏幕或者某个图层
+    private DirtyRect mDirty;
+    private int mFilledPixels;
+    private int mLastFilledPixels;
+
+    // 绘制时使用的区域，避免每帧创建对象
+    private final Rect mLockRect = new Rect();
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+    private final RectF mDstF = new RectF();
+    private final Paint mFilterPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mBatchPaint = new Paint(); // drawSprites() 用的画笔, 只改变不透明度
+    private Paint mTextPaint; // 画文字用的画笔
+    private Bitmap.Config mOpaqueLayerConfig = Bitmap.Config.ARGB_8888; // 不透明图层的格式
+
+    public CanvasRenderer(SurfaceHolder holder) {
+        mHolder = holder;
+    }
+
+    // 设置画文字用的画笔
+    public CanvasRenderer setTextPaint(Paint paint) {
+        mTextPaint = paint;
+        return this;
+    }
+
+    // 设置不透明图层的格式, 比如用 RGB_565 节省一半内存
+    public CanvasRenderer setOpaqueLayerConfig(Bitmap.Config config) {
+        mOpaqueLayerConfig = config;
+        return this;
+    }
+
+    // 设置渲染比例, 在登记纹理和创建图层之前调用
+    public CanvasRenderer setScale(float scale) {
+        mScale = scale;
+        return this;
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    // 登记一个纹理，返回它的 id
+    public int addTexture(Bitmap bitmap) {
+        return addTexture(bitmap, bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    // 登记一个已经按渲染比例缩小的纹理, width x height 是它在屏幕坐标中的大小
+    public int addTexture(Bitmap bitmap, int width, int height) {
+        if (mTextureCount == mTextures.length) {
+            mTextures = Arrays.copyOf(mTextures, mTextureCount * 2);
+            mLayerCanvases = Arrays.copyOf(mLayerCanvases, mTextureCount * 2);
+            mWidths = Arrays.copyOf(mWidths, mTextureCount * 2);
+            mHeights = Arrays.copyOf(mHeights, mTextureCount * 2);
+        }
+        mTextures[mTextureCount] = bitmap;
+        mWidths[mTextureCount] = width;
+        mHeights[mTextureCount] = height;
+        return mTextureCount++;
+    }
+
+    // 所有纹理和图层占用的内存字节数, 硬件位图不在堆中, 按 0 计算
+    public long getTextureBytes() {
+        long bytes = 0;
+        for (int i = 0; i < mTextureCount; i++) {
+            if (mTextures[i].getConfig() != Bitmap.Config.HARDWARE) {
+                bytes += mTextures[i].getAllocationByteCount();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public int getTextureWidth(int texture) {
+        return mWidths[texture];
+    }
+
+    @Override
+    public int getTextureHeight(int texture) {
+        return mHeights[texture];
+    }
+
+    @Override
+    public int createLayer(int width, int height, boolean opaque) {
+        Bitmap.Config config = opaque ? mOpaqueLayerConfig : Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = Bitmap.createBitmap((int) Math.ceil(width * mScale), (int) Math.ceil(height * mScale),
+                config);
+        int layer = addTexture(bitmap, width, height);
+        mLayerCanvases[layer] = new Canvas(bitmap);
+        mLayerCanvases[layer].scale(mScale, mScale);
+        return layer;
+    }
+
+    // 把纹理中 src 区域 (屏幕坐标) 换算到位图的像素上, 放在 mSrc 中
+    private void setSource(int texture, int srcLeft, int srcTop, int srcRight, int srcBottom) {
+        if (mWidths[texture] == mTextures[texture].getWidth()
+                && mHeights[texture] == mTextures[texture].getHeight()) {
+            mSrc.set(srcLeft, srcTop, srcRight, srcBottom);
+            return;
+        }
+        float sx = (float) mTextures[texture].getWidth() / mWidths[texture];
+        float sy = (float) mTextures[texture].getHeight() / mHeights[texture];
+        mSrc.set(Math.round(srcLeft * sx), Math.round(srcTop * sy),
+                Math.round(srcRight * sx), Math.round(srcBottom * sy));
+    }
+
+    @Override
+    public void clearLayer(int layer) {
+        mTextures[layer].eraseColor(0);
+    }
+
+    @Override
+    public void beginLayer(int layer) {
+        mTarget = mLayerCanvases[layer];
+    }
+
+    @Override
+    public void endLayer() {
+        mTarget = mScreen;
+    }
+
+    @Override
+    public boolean preservesContent() {
+        return true;
+    }
+
+    // 锁定屏幕画布，dirty 会被改成实际需要重画的区域
+    protected Canvas lockCanvas(Rect dirty) {
+        return mHolder.lockCanvas(dirty);
+    }
+
+    @Override
+    public boolean beginFrame(DirtyRect dirty) {
+        // 脏区域换算到 Surface 的像素上, 向外取整, 锁定以后再换算回来
+        float s = mScale;
+        mLockRect.set((int) Math.floor(dirty.left * s), (int) Math.floor(dirty.top * s),
+                (int) Math.ceil(dirty.right * s), (int) Math.ceil(dirty.bottom * s));
+        Canvas canvas = lockCanvas(mLockRect);
+        if (canvas == null) {
+            return false;
+        }
+        dirty.set((int) Math.floor(mLockRect.left / s), (int) Math.floor(mLockRect.top / s),
+                (int) Math.ceil(mLockRect.right / s), (int) Math.ceil(mLockRect.bottom / s));
+        canvas.save();
+        canvas.scale(s, s);
+        mDirty = dirty;
+        mScreen = canvas;
+        mTarget = canvas;
+        mFilledPixels = 0;
+        return true;
+    }
+
+    @Override
+    public void drawSprite(int texture, int srcLeft, int srcTop, int srcRight, int srcBottom,
+                           int dstLeft, int dstTop, int dstRight, int dstBottom) {
+        setSource(texture, srcLeft, srcTop, srcRight, srcBottom);
+        mDst.set(dstLeft, dstTop, dstRight, dstBottom);
+        mTarget.drawBitmap(mTextures[texture], mSrc, mDst, null);
+        if (mTarget == mScreen) {
+            mFilledPixels += mDirty.overlapArea(dstLeft, dstTop, dstRight, dstBottom);
+        }
+    }
+
+    @Override
+    public void drawSprites(int texture, int width, int height, int[] positions, int count, int alpha) {
+        Bitmap bitmap = mTextures[texture];
+        mBatchPaint.setAlpha(alpha);
+        for (int i = 0, p = 0; i < count; i++, p += 4) {
+            int srcLeft = positions[p];
+            int srcTop = positions[p + 1];
+            int dstLeft = positions[p + 2];
+            int dstTop = positions[p + 3];
+            setSource(texture, srcLeft, srcTop, srcLeft + width, srcTop + height);
+            mDst.set(dstLeft, dstTop, dstLeft + width, dstTop + height);
+            mTarget.drawBitmap(bitmap, mSrc, mDst, mBatchPaint);
+            if (mTarget == mScreen) {
+                mFilledPixels += mDirty.overlapArea(dstLeft, dstTop, dstLeft + width, dstTop + height);
+            }
+        }
+    }
+
+    @Override
+    public void drawSpriteRotated(int texture, int srcLeft, int srcTop, int srcRight, int srcBottom,
+                                  float centerX, float centerY, float width, float height,
+                                  float degrees) {
+        setSource(texture, srcLeft, srcTop, srcRight, srcBottom);
+        mDstF.set(-width / 2, -height / 2, width / 2, height / 2);
+        mTarget.save();
+        mTarget.translate(centerX, centerY);
+        mTarget.rotate(degrees);
+        mTarget.drawBitmap(mTextures[texture], mSrc, mDstF, mFilterPaint);
+        mTarget.restore();
+    }
+
+    @Override
+    public void drawText(char[] text, int start, int count, int x, int y) {
+        mTarget.drawText(text, start, count, x, y, mTextPaint);
+    }
+
+    @Override
+    public void endFrame() {
+        mScreen.restore();
+        mHolder.unlockCanvasAndPost(mScreen);
+        mScreen = null;
+        mTarget = null;
+        mLastFilledPixels = mFilledPixels;
+    }
+
+    @Override
+    public int getFilledPixels() {
+        return mLastFilledPixels;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.flappybird.render;
+
+/**
+ * 一帧中需要重画的矩形区域 (左上右下)，不依赖 Android
+ */
+public class DirtyRect {
+    public int left;
+    public int top;
+    public int right;
+    public int bottom;
+
+    public void set(int left, int top, int right, int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public void set(DirtyRect r) {
+        set(r.left, r.top, r.right, r.bottom);
+    }
+
+    public void setEmpty() {
+        left = top = right = bottom = 0;
+    }
+
+    public boolean isEmpty() {
+        return left >= right || top >= bottom;
+    }
+
+    public int width() {
+        return right - left;
+    }
+
+    public int height() {
+        return bottom - top;
+    }
+
+    // 扩大到能包含矩形 (left, top, right, bottom)，空矩形不产生影响
+    public void union(int left, int top, int right, int bottom) {
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        if (isEmpty()) {
+            set(left, top, right, bottom);
+        } else {
+            this.left = Math.min(this.left, left);
+            this.top = Math.min(this.top, top);
+            this.right = Math.max(this.right, right);
+            this.bottom = Math.max(this.bottom, bottom);
+        }
+    }
+
+    public void union(DirtyRect r) {
+        union(r.left, r.top, r.right, r.bottom);
+    }
+
+    // 缩小到与矩形 (left, top, right, bottom) 重叠的部分，没有重叠时变为空并返回 false
+    public boolean intersect(int left, int top, int right, int bottom) {
+        this.left = Math.max(this.left, left);
+        this.top = Math.max(this.top, top);
+        this.right = Math.min(this.right, right);
+        this.bottom = Math.min(this.bottom, bottom);
+        if (isEmpty()) {
+            setEmpty();
+            return false;
+        }
+        return true;
+    }
+
+    // 矩形 (left, top, right, bottom) 与这个区域重叠部分的面积
+    public int overlapArea(int left, int top, int right, int bottom) {
+        int width = Math.min(right, this.right) - Math.max(left, this.left);
+        int height = Math.min(bottom, this.bottom) - Math.max(top, this.top);
+        return width > 0 && height > 0 ? width * height : 0;
+    }
+
+    public boolean equals(int left, int top, int right, int bottom) {
+        return this.left == left && this.top == top && this.right == right && this.bottom == bottom;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.flappybird.render;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.SurfaceHolder;
+
+/**
+ * 硬件加速后端：用 SurfaceHolder.lockHardwareCanvas() 交给 GPU 绘制
+ * 所有精灵都来自少数几张纹理 (图集、图层)，一帧的绘制命令在提交时由 GPU 一次批量完成。
+ * 硬件画布不保留上一帧的内容，每一帧都要完整地重画。
+ */
+public class HardwareCanvasRenderer extends CanvasRenderer {
+
+    public HardwareCanvasRenderer(SurfaceHolder holder) {
+        super(holder);
+    }
+
+    @Override
+    public boolean preservesContent() {
+        return false;
+    }
+
+    @Override
+    protected Canvas lockCanvas(Rect dirty) {
+        dirty.set(mHolder.getSurfaceFrame());
+        return mHolder.lockHardwareCanvas();
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.flappybird.render;
+
+import java.util.Arrays;
+
+/**
+ * 不依赖设备的记录后端：只把绘制命令记录下来，用于在 JVM 测试中检查画面
+ *
+ * 每条命令占 COMMAND_SIZE 个 int：命令类型, 目标 (屏幕为 SCREEN, 否则是图层 id), 纹理 id,
+ * src 左上右下, dst 左上右下 (旋转命令的 dst 记录的是中心和大小取整后的值;
+ * 文字命令的纹理 id 为 -1, src 记录起始位置和字符数, dst 记录基线的位置;
+ * 一批精灵只记一条命令, src 记录精灵的宽、高、数量和不透明度, dst 记录第一个精灵的位置)
+ */
+public class RecordingRenderer implements Renderer {
+    public static final int COMMAND_SIZE = 11;
+    public static final int SCREEN = -1;
+
+    public static final int CMD_SPRITE = 1;
+    public static final int CMD_SPRITE_ROTATED = 2;
+    public static final int CMD_CLEAR_LAYER = 3;
+    public static final int CMD_TEXT = 4;
+    public static final int CMD_SPRITES = 5;
+
+    private int[] mTextureWidth = new int[16];
+    private int[] mTextureHeight = new int[16];
+    private int mTextureCount;
+
+    private final boolean mPreservesContent;
+    private final int mWidth;
+    private final int mHeight;
+    private int mTarget = SCREEN;
+    private DirtyRect mDirty;
+    private final DirtyRect mLastDirty = new DirtyRect();
+    private int mFrameCount;
+    private int mFilledPixels;
+    private int mLastFilledPixels;
+
+    private int[] mCommands = new int[COMMAND_SIZE * 64];
+    private int mCommandCount;
+
+    // width, height: 屏幕的大小
+    public RecordingRenderer(int width, int height, boolean preservesContent) {
+        mWidth = width;
+        mHeight = height;
+        mPreservesContent = preservesContent;
+    }
+
+    // 登记一个纹理，返回它的 id
+    public int addTexture(int width, int height) {
+        if (mTextureCount == mTextureWidth.length) {
+            mTextureWidth = Arrays.copyOf(mTextureWidth, mTextureCount * 2);
+            mTextureHeight = Arrays.copyOf(mTextureHeight, mTextureCount * 2);
+        }
+        mTextureWidth[mTextureCount] = width;
+        mTextureHeight[mTextureCount] = height;
+        return mTextureCount++;
+    }
+
+    @Override
+    public int getTextureWidth(int texture) {
+        return mTextureWidth[texture];
+    }
+
+    @Override
+    public int getTextureHeight(int texture) {
+        return mTextureHeight[texture];
+    }
+
+    @Override
+    public int createLayer(int width, int height, boolean opaque) {
+        return addTexture(width, height);
+    }
+
+    @Override
+    public void clearLayer(int layer) {
+        record(CMD_CLEAR_LAYER, layer, layer, 0, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void beginLayer(int layer) {
+        mTarget = layer;
+    }
+
+    @Override
+    public void endLayer() {
+        mTarget = SCREEN;
+    }
+
+    @Override
+    public boolean preservesContent() {
+        return mPreservesContent;
+    }
+
+    @Override
+    public boolean beginFrame(DirtyRect dirty) {
+        if (!mPreservesContent) {
+            dirty.set(0, 0, mWidth, mHeight);
+        }
+        mDirty = dirty;
+        mLastDirty.set(dirty);
+        mFilledPixels = 0;
+        return true;
+    }
+
+    @Override
+    public void drawSprite(int texture, int srcLeft, int srcTop, int srcRight, int srcBottom,
+                           int dstLeft, int dstTop, int dstRight, int dstBottom) {
+        record(CMD_SPRITE, mTarget, texture, srcLeft, srcTop, srcRight, srcBottom,
+                dstLeft, dstTop, dstRight, dstBottom);
+        if (mTarget == SCREEN) {
+            mFilledPixels += mDirty.overlapArea(dstLeft, dstTop, dstRight, dstBottom);
+        }
+    }
+
+    @Override
+    public void drawSprites(int texture, int width, int height, int[] positions, int count, int alpha) {
+        record(CMD_SPRITES, mTarget, texture, width, height, count, alpha,
+                count > 0 ? positions[0] : 0, count > 0 ? positions[1] : 0,
+                count > 0 ? positions[2] : 0, count > 0 ? positions[3] : 0);
+        if (mTarget == SCREEN) {
+            for (int i = 0, p = 0; i < count; i++, p += 4) {
+                mFilledPixels += mDirty.overlapArea(positions[p + 2], positions[p + 3],
+                        positions[p + 2] + width, positions[p + 3] + height);
+            }
+        }
+    }
+
+    @Override
+    public void drawSpriteRotated(int texture, int srcLeft, int srcTop, int srcRight, int srcBottom,
+                                  float centerX, float centerY, float width, float height,
+                                  float degrees) {
+        record(CMD_SPRITE_ROTATED, mTarget, texture, srcLeft, srcTop, srcRight, srcBottom,
+                Math.round(centerX), Math.round(centerY), Math.round(width), Math.round(height));
+    }
+
+    @Override
+    public void drawText(char[] text, int start, int count, int x, int y) {
+        record(CMD_TEXT, mTarget, -1, start, count, 0, 0, x, y, 0, 0);
+    }
+
+    @Override
+    public void endFrame() {
+        mLastFilledPixels = mFilledPixels;
+        mFrameCount++;
+    }
+
+    @Override
+    public int getFilledPixels() {
+        return mLastFilledPixels;
+    }
+
+    private void record(int... command) {
+        if (mCommandCount * COMMAND_SIZE == mCommands.length) {
+            mCommands = Arrays.copyOf(mCommands, mCommands.length * 2);
+        }
+        System.arraycopy(command, 0, mCommands, mCommandCount * COMMAND_SIZE, COMMAND_SIZE);
+        mCommandCount++;
+    }
+
+    // 清空记录的命令
+    public void reset() {
+        mCommandCount = 0;
+    }
+
+    public int getCommandCount() {
+        return mCommandCount;
+    }
+
+    // 第 index 条命令的第 field 个值
+    public int getCommand(int index, int field) {
+        return mCommands[index * COMMAND_SIZE + field];
+    }
+
+    // 所有命令，可以用来比较两次绘制是否完全相同
+    public int[] getCommands() {
+        return Arrays.copyOf(mCommands, mCommandCount * COMMAND_SIZE);
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    // 最近一帧实际重画的区域
+    public DirtyRect getLastDirty() {
+        return mLastDirty;
+    }
+}
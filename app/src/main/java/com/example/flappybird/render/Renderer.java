@@ -0,0 +1,59 @@
+package com.example.flappybird.render;
+
+/**
+ * 绘制后端
+ * Bird 和 BirdWorld 只通过这个接口画图，不直接接触 Canvas，
+ * 所以同样的绘制代码可以用软件画布、硬件加速画布，或者在 JVM 测试中用 RecordingRenderer 记录下来。
+ *
+ * 纹理 (位图) 用整数 id 表示，由具体的后端负责登记。
+ * 离屏图层也是一种纹理，可以先画进图层，再把图层当作纹理画到屏幕上。
+ */
+public interface Renderer {
+    // 纹理的大小
+    int getTextureWidth(int texture);
+
+    int getTextureHeight(int texture);
+
+    // 创建一个透明的离屏图层，返回它的纹理 id
+    // opaque 表示图层总是会被完全画满，后端可以用不带透明通道、更省内存的格式
+    int createLayer(int width, int height, boolean opaque);
+
+    // 清空图层
+    void clearLayer(int layer);
+
+    // 之后的绘制都画进图层 layer，直到 endLayer()
+    void beginLayer(int layer);
+
+    void endLayer();
+
+    // 没有重画的区域是否保留上一帧的内容
+    // 返回 false 时每一帧都必须完整地重画
+    boolean preservesContent();
+
+    // 开始在屏幕上画一帧，只有 dirty 区域会被重画，后端可能会扩大 dirty
+    // 返回 false 表示这一帧不能绘制
+    boolean beginFrame(DirtyRect dirty);
+
+    // 把纹理中的 src 区域画到 dst 区域，两者大小相同时只是一次拷贝
+    void drawSprite(int texture, int srcLeft, int srcTop, int srcRight, int srcBottom,
+                    int dstLeft, int dstTop, int dstRight, int dstBottom);
+
+    // 一批大小都是 width x height 的精灵, 全部来自同一个纹理, 用同样的不透明度 alpha (0 - 255) 画出来
+    // positions 中每个精灵占 4 个 int: src 的左上角和 dst 的左上角
+    // 同一个纹理、同一个画笔的连续绘制可以被后端合并成一次提交 (硬件加速画布会合并成一个批次)
+    void drawSprites(int texture, int width, int height, int[] positions, int count, int alpha);
+
+    // 把纹理中的 src 区域缩放到 width x height，绕中心旋转 degrees 度后，
+    // 中心放在 (centerX, centerY)，使用滤波，比较慢，只用于预先生成图层
+    void drawSpriteRotated(int texture, int srcLeft, int srcTop, int srcRight, int srcBottom,
+                           float centerX, float centerY, float width, float height, float degrees);
+
+    // 在 (x, y) 画出 text 中从 start 开始的 count 个字符, y 是文字的基线
+    void drawText(char[] text, int start, int count, int x, int y);
+
+    // 结束一帧并提交到屏幕
+    void endFrame();
+
+    // 上一帧在屏幕上填充的像素数, 用来衡量过度绘制
+    int getFilledPixels();
+}
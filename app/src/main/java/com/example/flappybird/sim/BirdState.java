@@ -0,0 +1,245 @@
+package com.example.flappybird.sim;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 鸟的物理状态，不依赖 Android，可以直接在 JVM 上运行
+ * 位置用左上右下四个坐标表示，单位是像素
+ *
+ * 纵向的位置、速度、加速度和旋转角度、角速度都是 Q16.16 定点数 (低 16 位是小数)，只用整数运算，
+ * 在任何 JVM 和 CPU 上每一步的结果都完全相同，回放、批量模拟和联机锁步的结果逐位一致，也不需要浮点运算。
+ * 速度和加速度可以调成亚像素的值；现在的常数都是整数像素，BatchSim 用整数像素模拟，结果和这里相同。
+ */
+public class BirdState {
+    public static final int RISING_MAX_ANGLE = -30;
+    public static final int FALLING_MAX_ANGLE = 70;
+    public static final int MAX_RISE_SPEED_Y_STANDBY = -10; // 待命时刻向上飞的速度
+    public static final int FALL_ACCEL_Y_STANDBY = 1; // 待命时刻向下的加速的
+    public static final int MAX_RISE_SPEED_Y = -80;
+    public static final int FALL_ACCEL_Y = 20;
+    // Q16.16 定点数
+    public static final int FX_SHIFT = 16;
+    public static final int FX_ONE = 1 << FX_SHIFT;
+    private static final int RISING_MAX_ANGLE_FX = RISING_MAX_ANGLE << FX_SHIFT;
+    private static final int FALLING_MAX_ANGLE_FX = FALLING_MAX_ANGLE << FX_SHIFT;
+    private static final int MAX_RISE_SPEED_Y_STANDBY_FX = MAX_RISE_SPEED_Y_STANDBY << FX_SHIFT;
+    private static final int FALL_ACCEL_Y_STANDBY_FX = FALL_ACCEL_Y_STANDBY << FX_SHIFT;
+    private static final int MAX_RISE_SPEED_Y_FX = MAX_RISE_SPEED_Y << FX_SHIFT;
+    private static final int FALL_ACCEL_Y_FX = FALL_ACCEL_Y << FX_SHIFT;
+    // 过了最高点以后, 用多少帧转到 FALLING_MAX_ANGLE: 上升时间的两倍
+    private static final int FALL_TURN_FRAMES = Math.max(1, 2 * -MAX_RISE_SPEED_Y / FALL_ACCEL_Y);
+    // 鸟的皮肤由 3 张位图构成，对这三张图进行切换，就可以实现飞翔效果
+    public static final int SKIN_FRAMES = 3;
+
+    // 记录鸟的位置和大小, mTop 和 mBottom 是 mTopFx 取整以后的像素
+    private int mLeft;
+    private int mTop;
+    private int mRight;
+    private int mBottom;
+    private int mTopFx;
+
+    // 标识是否处于待命状态 （另一个状态是游戏状态）
+    private boolean mIsStandby;
+    private boolean mIsDead;
+
+    // Y方向的速度 (Q16.16, 像素/帧)
+    private int mSpeedY;
+    // Y方向的加速度 (Q16.16)
+    private int mAccelY;
+    // 旋转角的速度 (Q16.16, 度/帧)
+    private int mAngularSpeed;
+
+    // 当前变换帧数
+    private int mFrameCount;
+    // 当前旋转的角度 (Q16.16, 度)
+    private int mRotationAngle;
+    // 上一个物理帧的位置和角度，绘制时在两帧之间插值
+    private int mPrevTop;
+    private int mPrevRotationAngle;
+
+    // 设置鸟在屏幕中的位置
+    public BirdState setBound(int left, int top, int right, int bottom) {
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+        mTopFx = top << FX_SHIFT;
+        mPrevTop = top; // 重新放置后不做插值
+        return this;
+    }
+
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    public int getRight() {
+        return mRight;
+    }
+
+    public int getBottom() {
+        return mBottom;
+    }
+
+    public int getWidth() {
+        return mRight - mLeft;
+    }
+
+    public int getHeight() {
+        return mBottom - mTop;
+    }
+
+    public int getPrevTop() {
+        return mPrevTop;
+    }
+
+    // 速度, 取整到像素
+    public int getSpeedY() {
+        return mSpeedY >> FX_SHIFT;
+    }
+
+    // 角度在 +-128 度以内, 转成 float 没有误差
+    public float getRotationAngle() {
+        return (float) mRotationAngle / FX_ONE;
+    }
+
+    public float getPrevRotationAngle() {
+        return (float) mPrevRotationAngle / FX_ONE;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public boolean isStandby() {
+        return mIsStandby;
+    }
+
+    public boolean isDead() {
+        return mIsDead;
+    }
+
+    // 待命状态： 上下飞
+    public void makeStandby() {
+        mIsStandby = true;
+        mIsDead = false;
+        mSpeedY = MAX_RISE_SPEED_Y_STANDBY_FX; // 从中间开始向上飞
+        mAccelY = FALL_ACCEL_Y_STANDBY_FX; // 加速度向下
+    }
+
+    public void put2Death() {
+        mIsDead = true;
+        mSpeedY = 0;
+        mAccelY = FALL_ACCEL_Y_FX;
+    }
+
+    // 发射 单击屏幕后小鸟向上飞的过程
+    public void shot() {
+        mIsStandby = false;
+        mAccelY = FALL_ACCEL_Y_FX; // 向下的加速度
+        mSpeedY = MAX_RISE_SPEED_Y_FX; // 速度向上
+        calAngularSpeed(RISING_MAX_ANGLE_FX); //计算角速度
+    }
+
+    // 角速度计算： 参数是从当前角速度变换至最大角度
+    // 观察鸟的飞行效果，当鸟发射时，会有一个向上旋转的过程，这个旋转角度的最大值
+    // 在鸟飞行到最高点后，会朝饭方向旋转（向下）达到 70 度
+    // 鸟发射至最高点的时间，可以由发射时速度除以加速度计算得到 (向上取整, 至少 1 帧, 加速度为 0 时也不会除以 0)
+    private void calAngularSpeed(int toAngle) {
+        int frameCount;
+        // 在往上飞的时候
+        if (mSpeedY < 0 && mAccelY > 0) {
+            frameCount = Math.max(1, (-mSpeedY + mAccelY - 1) / mAccelY);
+        } else {
+            frameCount = FALL_TURN_FRAMES; // 坠落的时候
+        }
+        mAngularSpeed = (toAngle - mRotationAngle) / frameCount;
+    }
+
+    // 推进一个物理帧：更新位置、速度和角度
+    public void step() {
+        // [mFrameCount % SKIN_FRAMES] => [0,1,2]
+        if (++mFrameCount == SKIN_FRAMES)
+            mFrameCount = 0;
+
+        mPrevTop = mTop;
+        mPrevRotationAngle = mRotationAngle;
+        if (mIsStandby) {
+            // 待命状态下，鸟上下来回飞动，并不需要处理旋转变换
+            offsetY(mSpeedY); // 更新鸟的位置
+            // 当鸟处于中间位置时，速度最快，这时需要改变加速方向
+            if (mSpeedY <= MAX_RISE_SPEED_Y_STANDBY_FX) {
+                mAccelY = FALL_ACCEL_Y_STANDBY_FX;
+            } else if (mSpeedY >= -MAX_RISE_SPEED_Y_STANDBY_FX) {
+                mAccelY = -FALL_ACCEL_Y_STANDBY_FX;
+            }
+            mSpeedY += mAccelY;  // 更新速度
+        } else {
+            offsetY(mSpeedY); // 用速度更新位置
+            int prevSpeed = mSpeedY;
+            mSpeedY += mAccelY; //用加速度更新速度
+            if (prevSpeed <= 0 && mSpeedY > 0) { // 速度由不向下变为向下: 小鸟由上升状态转入下落状态
+                calAngularSpeed(FALLING_MAX_ANGLE_FX);
+            }
+            int angle = mRotationAngle + mAngularSpeed; // 更新角度
+            if (angle >= RISING_MAX_ANGLE_FX && angle <= FALLING_MAX_ANGLE_FX) {
+                mRotationAngle = angle;
+            }
+        }
+    }
+
+    // 把所有状态折叠进摘要 hash 中
+    long hashState(long hash) {
+        hash = StateHash.mix(hash, mLeft);
+        hash = StateHash.mix(hash, mTopFx);
+        hash = StateHash.mix(hash, mRight);
+        hash = StateHash.mix(hash, mBottom);
+        hash = StateHash.mix(hash, mIsStandby);
+        hash = StateHash.mix(hash, mIsDead);
+        hash = StateHash.mix(hash, mSpeedY);
+        hash = StateHash.mix(hash, mAccelY);
+        hash = StateHash.mix(hash, mAngularSpeed);
+        hash = StateHash.mix(hash, mFrameCount);
+        hash = StateHash.mix(hash, mRotationAngle);
+        hash = StateHash.mix(hash, mPrevTop);
+        return StateHash.mix(hash, mPrevRotationAngle);
+    }
+
+    // 快照: 按 hashState() 的顺序写出所有状态, restore() 按同样的顺序读回来
+    void save(ByteBuffer out) {
+        out.putInt(mLeft).putInt(mTopFx).putInt(mRight).putInt(mBottom);
+        out.put((byte) ((mIsStandby ? 1 : 0) | (mIsDead ? 2 : 0)));
+        out.putInt(mSpeedY).putInt(mAccelY).putInt(mAngularSpeed);
+        out.putInt(mFrameCount).putInt(mRotationAngle);
+        out.putInt(mPrevTop).putInt(mPrevRotationAngle);
+    }
+
+    void restore(ByteBuffer in) {
+        mLeft = in.getInt();
+        mTopFx = in.getInt();
+        mTop = mTopFx >> FX_SHIFT;
+        mRight = in.getInt();
+        mBottom = in.getInt();
+        byte flags = in.get();
+        mIsStandby = (flags & 1) != 0;
+        mIsDead = (flags & 2) != 0;
+        mSpeedY = in.getInt();
+        mAccelY = in.getInt();
+        mAngularSpeed = in.getInt();
+        mFrameCount = in.getInt();
+        mRotationAngle = in.getInt();
+        mPrevTop = in.getInt();
+        mPrevRotationAngle = in.getInt();
+    }
+
+    // dy 是 Q16.16, 像素坐标取整 (向下), 高度不变
+    private void offsetY(int dy) {
+        mTopFx += dy;
+        int top = mTopFx >> FX_SHIFT;
+        mBottom += top - mTop;
+        mTop = top;
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.flappybird.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 幽灵竞速用的一组轨迹：同一条赛道 (同样的 init() 参数、种子和水管生成方式) 上录下的多局游戏
+ *
+ * 二进制格式 (大端)：
+ *   int MAGIC, int VERSION
+ *   int width, height, birdWidth, birdHeight, pipeWidth
+ *   long seed, int 水管的生成方式 (Simulation.LEVEL_*)
+ *   int 幽灵数量 n, int 每块的帧数 blockTicks, int 最大的块的字节数
+ *   n 个 int: 每只幽灵的帧数
+ *   之后按时间分块, 第 b 块是所有幽灵在 [b * blockTicks, (b + 1) * blockTicks) 帧中的数据：
+ *     int 这一块的字节数, n 个 unsigned short: 每只幽灵在这一块中的字节数, 然后依次是每只幽灵的数据
+ * 每只幽灵每帧两个变长整数 (zigzag, 每字节 7 位)：
+ *   位置的二阶差分 —— 鸟每帧的速度变化就是重力加速度, 只有点击的那一帧不同, 通常只占 1 个字节
+ *   角度的一阶差分 (1 / GhostTrack.ANGLE_SCALE 度)
+ * 解码时每只幽灵只需要记住上一帧的位置、速度和角度。
+ *
+ * 按时间分块以后，播放时只需要从文件中顺序读出当前的一块 (GhostStream)，
+ * 内存中只有一块数据，和录了多久、有多少局无关。
+ */
+public class GhostPack {
+    public static final int MAGIC = 0x46424750; // "FBGP"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_BLOCK_TICKS = 64; // 3.2 秒
+    // 最多保存多少局, 再多时丢掉最早的一局
+    public static final int MAX_GHOSTS = 512;
+    static final int HEADER_BYTES = 4 * 7 + 8 + 4 * 4;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBirdWidth;
+    private final int mBirdHeight;
+    private final int mPipeWidth;
+    private final long mSeed;
+    private int mLevelMode = Simulation.LEVEL_TEMPLATES;
+    private int mBlockTicks = DEFAULT_BLOCK_TICKS;
+    private final List<GhostTrack> mTracks = new ArrayList<>();
+
+    public GhostPack(int width, int height, int birdWidth, int birdHeight, int pipeWidth, long seed) {
+        mWidth = width;
+        mHeight = height;
+        mBirdWidth = birdWidth;
+        mBirdHeight = birdHeight;
+        mPipeWidth = pipeWidth;
+        mSeed = seed;
+    }
+
+    public GhostPack setLevelMode(int levelMode) {
+        mLevelMode = levelMode;
+        return this;
+    }
+
+    public int getLevelMode() {
+        return mLevelMode;
+    }
+
+    // 每块的帧数, 块越大读文件的次数越少, 但内存中的一块也越大
+    public GhostPack setBlockTicks(int blockTicks) {
+        mBlockTicks = Math.max(1, blockTicks);
+        return this;
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    // 按记录的参数创建一个新的模拟, 和录制时是同一条赛道
+    public Simulation newSimulation() {
+        return new Simulation().setSeed(mSeed).setLevelMode(mLevelMode)
+                .init(mWidth, mHeight, mBirdWidth, mBirdHeight, mPipeWidth);
+    }
+
+    // 是否是在同样大小的世界中录制的, 位置都是像素, 屏幕大小不同时不能用
+    public boolean matches(int width, int height, int birdWidth, int birdHeight, int pipeWidth) {
+        return mWidth == width && mHeight == height && mBirdWidth == birdWidth
+                && mBirdHeight == birdHeight && mPipeWidth == pipeWidth;
+    }
+
+    // 是否和 other 是同一条赛道
+    public boolean sameCourse(GhostPack other) {
+        return matches(other.mWidth, other.mHeight, other.mBirdWidth, other.mBirdHeight, other.mPipeWidth)
+                && mSeed == other.mSeed && mLevelMode == other.mLevelMode;
+    }
+
+    // 加入一局的轨迹, 超过 MAX_GHOSTS 时丢掉最早的一局
+    public GhostPack add(GhostTrack track) {
+        if (mTracks.size() == MAX_GHOSTS) {
+            mTracks.remove(0);
+        }
+        mTracks.add(track);
+        return this;
+    }
+
+    public int getGhostCount() {
+        return mTracks.size();
+    }
+
+    public GhostTrack getTrack(int ghost) {
+        return mTracks.get(ghost);
+    }
+
+    // 在后台线程中调用, 先在内存中编码所有的块, 才知道最大的块有多大
+    public void writeTo(OutputStream os) throws IOException {
+        int count = mTracks.size();
+        int maxLength = 0;
+        for (GhostTrack track : mTracks) {
+            maxLength = Math.max(maxLength, track.getLength());
+        }
+        // 每只幽灵的编码状态: 上一帧的位置、速度和角度
+        int[] tops = new int[count];
+        int[] speeds = new int[count];
+        int[] angles = new int[count];
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        DataOutputStream blocksOut = new DataOutputStream(blocks);
+        VarintBuffer[] data = new VarintBuffer[count];
+        for (int i = 0; i < count; i++) {
+            data[i] = new VarintBuffer();
+        }
+        int maxBlockBytes = 0;
+        for (int start = 0; start < maxLength; start += mBlockTicks) {
+            int blockBytes = 2 * count;
+            for (int i = 0; i < count; i++) {
+                GhostTrack track = mTracks.get(i);
+                VarintBuffer buffer = data[i];
+                buffer.clear();
+                int end = Math.min(start + mBlockTicks, track.getLength());
+                for (int tick = start; tick < end; tick++) {
+                    int speed = track.getTop(tick) - tops[i];
+                    buffer.putZigzag(speed - speeds[i]);
+                    buffer.putZigzag(track.getAngleUnits(tick) - angles[i]);
+                    tops[i] = track.getTop(tick);
+                    speeds[i] = speed;
+                    angles[i] = track.getAngleUnits(tick);
+                }
+                if (buffer.length > 0xffff) {
+                    throw new IOException("ghost block too large, reduce block ticks");
+                }
+                blockBytes += buffer.length;
+            }
+            blocksOut.writeInt(blockBytes);
+            for (int i = 0; i < count; i++) {
+                blocksOut.writeShort(data[i].length);
+            }
+            for (int i = 0; i < count; i++) {
+                blocksOut.write(data[i].bytes, 0, data[i].length);
+            }
+            maxBlockBytes = Math.max(maxBlockBytes, blockBytes);
+        }
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mWidth);
+        out.writeInt(mHeight);
+        out.writeInt(mBirdWidth);
+        out.writeInt(mBirdHeight);
+        out.writeInt(mPipeWidth);
+        out.writeLong(mSeed);
+        out.writeInt(mLevelMode);
+        out.writeInt(count);
+        out.writeInt(mBlockTicks);
+        out.writeInt(maxBlockBytes);
+        for (GhostTrack track : mTracks) {
+            out.writeInt(track.getLength());
+        }
+        blocksOut.flush();
+        blocks.writeTo(out);
+        out.flush();
+    }
+
+    // 完整地读出所有轨迹, 用来加入新的一局后重新写入, 不在游戏线程中调用
+    public static GhostPack read(File file) throws IOException {
+        GhostStream stream = GhostStream.open(file);
+        try {
+            GhostPack pack = stream.getCourse();
+            int count = stream.getGhostCount();
+            GhostTrack[] tracks = new GhostTrack[count];
+            for (int i = 0; i < count; i++) {
+                tracks[i] = new GhostTrack();
+                pack.add(tracks[i]);
+            }
+            GhostStore store = new GhostStore(count);
+            stream.rewind(store);
+            while (stream.step(store)) {
+                for (int i = 0; i < count; i++) {
+                    if (store.isActive(i)) {
+                        tracks[i].add(store.getTop(i), store.getAngle(i));
+                    }
+                }
+            }
+            return pack;
+        } finally {
+            stream.close();
+        }
+    }
+
+    // 编码用的字节缓冲区
+    private static class VarintBuffer {
+        byte[] bytes = new byte[256];
+        int length;
+
+        void clear() {
+            length = 0;
+        }
+
+        void putZigzag(int value) {
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            int v = (value << 1) ^ (value >> 31);
+            while ((v & ~0x7f) != 0) {
+                bytes[length++] = (byte) (v | 0x80);
+                v >>>= 7;
+            }
+            bytes[length++] = (byte) v;
+        }
+    }
+}
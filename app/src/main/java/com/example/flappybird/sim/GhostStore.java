@@ -0,0 +1,109 @@
+package com.example.flappybird.sim;
+
+import java.util.Arrays;
+
+/**
+ * 幽灵鸟的状态：所有鸟的位置和角度都放在几个基本类型的数组中，
+ * 几百只鸟也不需要几百个 BirdState / Bird 对象，每帧更新和绘制都只是顺序地扫一遍数组
+ *
+ * 由 GhostStream (联机竞速时由 GameView 用对手的模拟) 每个物理帧写入一次, 绘制时在上一帧和当前帧之间插值
+ */
+public class GhostStore {
+    private int mCount;
+    private int[] mTop;
+    private int[] mPrevTop;
+    private float[] mAngle;
+    private float[] mPrevAngle;
+    private boolean[] mActive; // 这一帧是否在飞, 轨迹结束以后不再显示
+    private int mActiveCount;
+    private int mTick = -1;
+
+    public GhostStore(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    private void allocate(int capacity) {
+        mTop = new int[capacity];
+        mPrevTop = new int[capacity];
+        mAngle = new float[capacity];
+        mPrevAngle = new float[capacity];
+        mActive = new boolean[capacity];
+    }
+
+    // 清空, 准备放 count 只鸟, 都还没有出现; 容量不够时重新分配
+    public void reset(int count) {
+        if (count > mActive.length) {
+            allocate(count);
+        } else {
+            Arrays.fill(mActive, false);
+        }
+        mCount = count;
+        mActiveCount = 0;
+        mTick = -1;
+    }
+
+    // 开始新的一帧: 这一帧的位置由 set() 写入, 没有写入的鸟不再显示
+    public void beginTick(int tick) {
+        mTick = tick;
+        mActiveCount = 0;
+    }
+
+    public void set(int ghost, int top, float angle) {
+        if (mActive[ghost]) {
+            mPrevTop[ghost] = mTop[ghost];
+            mPrevAngle[ghost] = mAngle[ghost];
+        } else {
+            // 刚出现, 不从上一次的位置插值过来
+            mPrevTop[ghost] = top;
+            mPrevAngle[ghost] = angle;
+            mActive[ghost] = true;
+        }
+        mTop[ghost] = top;
+        mAngle[ghost] = angle;
+        mActiveCount++;
+    }
+
+    public void setInactive(int ghost) {
+        mActive[ghost] = false;
+    }
+
+    // 停在当前的位置, 之后插值时不再移动 (玩家撞到水管以后)
+    public void freeze() {
+        System.arraycopy(mTop, 0, mPrevTop, 0, mCount);
+        System.arraycopy(mAngle, 0, mPrevAngle, 0, mCount);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    // 正在飞的鸟的数量
+    public int getActiveCount() {
+        return mActiveCount;
+    }
+
+    // 最近一次写入的是轨迹中的第几帧, -1 表示还没有开始
+    public int getTick() {
+        return mTick;
+    }
+
+    public boolean isActive(int ghost) {
+        return mActive[ghost];
+    }
+
+    public int getTop(int ghost) {
+        return mTop[ghost];
+    }
+
+    public int getPrevTop(int ghost) {
+        return mPrevTop[ghost];
+    }
+
+    public float getAngle(int ghost) {
+        return mAngle[ghost];
+    }
+
+    public float getPrevAngle(int ghost) {
+        return mPrevAngle[ghost];
+    }
+}
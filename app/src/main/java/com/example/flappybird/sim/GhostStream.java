@@ -0,0 +1,231 @@
+package com.example.flappybird.sim;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 边播放边读的幽灵轨迹 (格式见 GhostPack)
+ *
+ * 打开时只读出文件头, 之后每 blockTicks 帧从 FileChannel 中顺序读出一块，
+ * 解码到 GhostStore 中。块缓冲区和每只幽灵的解码状态在打开时一次分配好，
+ * 播放过程中不再分配内存；每帧的开销是每只幽灵两个变长整数，读文件的开销分摊到一块中的每一帧。
+ *
+ * 只在一个线程中使用 (游戏线程)
+ */
+public class GhostStream implements Closeable {
+    private final RandomAccessFile mFile; // 由 open() 打开时负责关闭
+    private final FileChannel mChannel;
+    // 文件头中赛道的参数: width, height, birdWidth, birdHeight, pipeWidth, 水管的生成方式
+    private final int[] mCourse = new int[6];
+    private final long mSeed;
+    private final int mCount;
+    private final int mBlockTicks;
+    private final int[] mLengths;
+    private final int mMaxLength;
+    private final long mDataStart;
+
+    // 当前的一块: 4 字节的长度读进 mBlockHeader, 其余部分读进 mBlock
+    private final ByteBuffer mBlockHeader = ByteBuffer.allocate(4);
+    private final byte[] mBlock;
+    private final ByteBuffer mBlockBuffer;
+    // 每只幽灵在当前块中读到了哪里
+    private final int[] mCursor;
+    // 每只幽灵上一帧的位置、速度和角度 (1 / GhostTrack.ANGLE_SCALE 度)
+    private final int[] mTop;
+    private final int[] mSpeed;
+    private final int[] mAngle;
+    private int mTick;
+
+    public GhostStream(FileChannel channel) throws IOException {
+        this(channel, null);
+    }
+
+    private GhostStream(FileChannel channel, RandomAccessFile file) throws IOException {
+        mChannel = channel;
+        mFile = file;
+        ByteBuffer header = ByteBuffer.allocate(GhostPack.HEADER_BYTES);
+        readFully(header);
+        if (header.getInt() != GhostPack.MAGIC) {
+            throw new IOException("not a ghost pack");
+        }
+        int version = header.getInt();
+        if (version != GhostPack.VERSION) {
+            throw new IOException("unsupported ghost pack version " + version);
+        }
+        for (int i = 0; i < 5; i++) {
+            mCourse[i] = header.getInt();
+        }
+        mSeed = header.getLong();
+        mCourse[5] = header.getInt();
+        mCount = header.getInt();
+        mBlockTicks = header.getInt();
+        int maxBlockBytes = header.getInt();
+        if (mCount < 0 || mCount > GhostPack.MAX_GHOSTS || mBlockTicks <= 0
+                || maxBlockBytes < 2 * mCount) {
+            throw new IOException("corrupt ghost pack");
+        }
+
+        mLengths = new int[mCount];
+        ByteBuffer lengths = ByteBuffer.allocate(4 * mCount);
+        readFully(lengths);
+        int maxLength = 0;
+        for (int i = 0; i < mCount; i++) {
+            mLengths[i] = lengths.getInt();
+            maxLength = Math.max(maxLength, mLengths[i]);
+        }
+        mMaxLength = maxLength;
+        mDataStart = mChannel.position();
+
+        mBlock = new byte[maxBlockBytes];
+        mBlockBuffer = ByteBuffer.wrap(mBlock);
+        mCursor = new int[mCount];
+        mTop = new int[mCount];
+        mSpeed = new int[mCount];
+        mAngle = new int[mCount];
+    }
+
+    // 打开文件, close() 时关闭
+    public static GhostStream open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new GhostStream(raf.getChannel(), raf);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    // 录制时的赛道, 每次返回一个新的、没有轨迹的 GhostPack
+    public GhostPack getCourse() {
+        return new GhostPack(mCourse[0], mCourse[1], mCourse[2], mCourse[3], mCourse[4], mSeed)
+                .setLevelMode(mCourse[5]).setBlockTicks(mBlockTicks);
+    }
+
+    // 赛道的种子
+    public long getSeed() {
+        return mSeed;
+    }
+
+    public int getGhostCount() {
+        return mCount;
+    }
+
+    // 第 ghost 只幽灵的帧数
+    public int getLength(int ghost) {
+        return mLengths[ghost];
+    }
+
+    // 最长的一条轨迹的帧数
+    public int getMaxLength() {
+        return mMaxLength;
+    }
+
+    // 下一次 step() 读出的是第几帧
+    public int getTick() {
+        return mTick;
+    }
+
+    // 回到第 0 帧, store 中的幽灵全部清空, 第一次 step() 之前也要调用
+    public void rewind(GhostStore store) throws IOException {
+        mChannel.position(mDataStart);
+        mTick = 0;
+        for (int i = 0; i < mCount; i++) {
+            mTop[i] = 0;
+            mSpeed[i] = 0;
+            mAngle[i] = 0;
+        }
+        store.reset(mCount);
+    }
+
+    /*
+    推进一帧: 把所有幽灵在第 getTick() 帧的位置和角度写进 store, 轨迹已经结束的幽灵不再显示。
+    所有轨迹都结束时返回 false, store 不变
+     */
+    public boolean step(GhostStore store) throws IOException {
+        int tick = mTick;
+        if (tick >= mMaxLength) {
+            return false;
+        }
+        if (tick % mBlockTicks == 0) {
+            readBlock();
+        }
+        byte[] block = mBlock;
+        store.beginTick(tick);
+        for (int i = 0; i < mCount; i++) {
+            if (tick >= mLengths[i]) {
+                store.setInactive(i);
+                continue;
+            }
+            int cursor = mCursor[i];
+            // 两个 zigzag 变长整数: 位置的二阶差分和角度的差分
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = block[cursor++];
+                v |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            int speed = mSpeed[i] + ((v >>> 1) ^ -(v & 1));
+            v = 0;
+            shift = 0;
+            do {
+                b = block[cursor++];
+                v |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            int angle = mAngle[i] + ((v >>> 1) ^ -(v & 1));
+            int top = mTop[i] + speed;
+            mCursor[i] = cursor;
+            mTop[i] = top;
+            mSpeed[i] = speed;
+            mAngle[i] = angle;
+            store.set(i, top, (float) angle / GhostTrack.ANGLE_SCALE);
+        }
+        mTick = tick + 1;
+        return true;
+    }
+
+    // 读出下一块, 算出每只幽灵的数据在块中的起点
+    private void readBlock() throws IOException {
+        mBlockHeader.clear();
+        readFully(mBlockHeader);
+        int blockBytes = mBlockHeader.getInt(0);
+        if (blockBytes < 2 * mCount || blockBytes > mBlock.length) {
+            throw new IOException("corrupt ghost block");
+        }
+        mBlockBuffer.clear();
+        mBlockBuffer.limit(blockBytes);
+        readFully(mBlockBuffer);
+        int offset = 2 * mCount;
+        for (int i = 0; i < mCount; i++) {
+            mCursor[i] = offset;
+            offset += mBlockBuffer.getShort(2 * i) & 0xffff;
+        }
+        if (offset != blockBytes) {
+            throw new IOException("corrupt ghost block");
+        }
+    }
+
+    // 读满 buffer 中剩余的空间, 读完以后从头开始
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer) < 0) {
+                throw new EOFException("truncated ghost pack");
+            }
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mFile != null) {
+            mFile.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.flappybird.sim;
+
+import java.util.Arrays;
+
+/**
+ * 一只幽灵鸟的轨迹：从点击开始的那一帧起，每一帧鸟的位置 (top) 和角度
+ * 角度按 1 / ANGLE_SCALE 度取整，编码时只需要整数
+ *
+ * 录制时每帧调用一次 record()，只在数组满时扩容；写进 GhostPack 以后由 GhostStream 边读边解码
+ */
+public class GhostTrack {
+    public static final int ANGLE_SCALE = 4;
+
+    private int[] mTops = new int[256];
+    private int[] mAngles = new int[256];
+    private int mLength;
+
+    public void clear() {
+        mLength = 0;
+    }
+
+    // 记下鸟在这一帧的位置和角度
+    public void record(BirdState bird) {
+        add(bird.getTop(), bird.getRotationAngle());
+    }
+
+    public void add(int top, float angle) {
+        addUnits(top, Math.round(angle * ANGLE_SCALE));
+    }
+
+    void addUnits(int top, int angleUnits) {
+        if (mLength == mTops.length) {
+            mTops = Arrays.copyOf(mTops, mLength * 2);
+            mAngles = Arrays.copyOf(mAngles, mLength * 2);
+        }
+        mTops[mLength] = top;
+        mAngles[mLength] = angleUnits;
+        mLength++;
+    }
+
+    // 帧数
+    public int getLength() {
+        return mLength;
+    }
+
+    public int getTop(int tick) {
+        return mTops[tick];
+    }
+
+    public float getAngle(int tick) {
+        return (float) mAngles[tick] / ANGLE_SCALE;
+    }
+
+    int getAngleUnits(int tick) {
+        return mAngles[tick];
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.flappybird.sim;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 程序生成的关卡：按难度生成无限的水管序列
+ *
+ * 难度只由水管的序号决定 (第 i 对水管就是第 i 分)，从 0 线性增加到 getRampPipes() 时为 1：
+ *   空隙的高度     从 startGap 缩小到 minGap
+ *   水管的间距     从 startSpacing 缩小到 minSpacing (相邻两对水管左边界的距离, 像素)
+ *   画面滚动速度   从 startSpeed 增加到 maxSpeed
+ *   空隙的上下变化 从 startShift 增加到 maxShift (相邻两个空隙中心的最大距离)
+ * 空隙高度、间距和速度是序号的纯函数, 只有空隙的位置是随机的，所以环形缓冲区中只需要保存空隙。
+ *
+ * 可达性: 空隙中心的变化不超过鸟在两对水管之间能飞过的距离 (见 getMaxRise() 和 getMaxFall())，
+ * 空隙不小于鸟的高度加上扇一次翅膀上升的高度，所以总有一种点击方式能穿过每一对水管。
+ *
+ * 水管事先按块 (CHUNK_SIZE 对) 生成在基本类型的环形缓冲区中：
+ * 游戏线程每生成一对水管只从缓冲区中取出一项，缓冲区空出一块时交给 Executor 在后台补齐。
+ * 后台还没来得及生成时游戏线程自己生成，结果一样 ——
+ * 生成过程只由 restart() 的种子决定, 和在哪个线程中生成、什么时候生成无关，回放时不需要 Executor。
+ *
+ * 只有一个线程取水管 (游戏线程, 调用 restart() 和 nextPipe())，后台最多一个任务在生成，
+ * 生成的状态都在 mLock 中修改, 已生成和已取出的数量用 volatile 发布。
+ */
+public class LevelGenerator {
+    public static final int CHUNK_SIZE = 64;
+    private static final int CHUNKS = 4;
+    private static final int CAPACITY = CHUNK_SIZE * CHUNKS; // 2 的幂
+    public static final int DEFAULT_RAMP_PIPES = 60;
+
+    // 扇一次翅膀能上升的高度: 速度从 MAX_RISE_SPEED_Y 每帧减少 FALL_ACCEL_Y, 直到不再向上
+    public static final int FLAP_RISE;
+
+    static {
+        int rise = 0;
+        for (int speed = BirdState.MAX_RISE_SPEED_Y; speed < 0; speed += BirdState.FALL_ACCEL_Y) {
+            rise -= speed;
+        }
+        FLAP_RISE = rise;
+    }
+
+    // 世界的大小, 空隙只出现在 [mTop + height / 10, mGroundTop - height / 20] 中
+    private final int mHeight;
+    private final int mGroundTop;
+    private final int mPipeWidth;
+    private final int mBirdWidth;
+    private final int mBirdHeight;
+
+    private int mStartGap;
+    private int mMinGap;
+    private int mStartSpacing;
+    private int mMinSpacing;
+    private int mStartSpeed;
+    private int mMaxSpeed;
+    private int mStartShift;
+    private int mMaxShift;
+    private int mRampPipes = DEFAULT_RAMP_PIPES;
+
+    // 生成好的空隙, 第 i 对水管在 i & (CAPACITY - 1)
+    private final int[] mDownBottom = new int[CAPACITY];
+    private final int[] mUpTop = new int[CAPACITY];
+    private volatile int mWritten; // 已经生成的水管数量, 只在 mLock 中修改
+    private volatile int mRead; // 已经取出的水管数量, 只由游戏线程修改
+    // 刚取出的一对水管
+    private int mPipeDownBottom;
+    private int mPipeUpTop;
+
+    // 生成的状态, 只在 mLock 中访问
+    private final Object mLock = new Object();
+    private final SimRandom mRandom = new SimRandom(0);
+    private long mSeed;
+    private int mLastCenter; // 上一个空隙的中心
+    private int mLastGap;
+
+    private Executor mExecutor;
+    private final AtomicBoolean mRefillPending = new AtomicBoolean();
+    private final Runnable mRefill = new Runnable() {
+        @Override
+        public void run() {
+            mRefillPending.set(false);
+            synchronized (mLock) {
+                while (CAPACITY - (mWritten - mRead) >= CHUNK_SIZE) {
+                    genChunk();
+                }
+            }
+        }
+    };
+
+    // 参数的默认值按世界的大小计算, 开始时和模板生成的水管差不多
+    public LevelGenerator(int width, int height, int pipeWidth, int birdWidth, int birdHeight) {
+        mHeight = height;
+        mGroundTop = height * 4 / 5;
+        mPipeWidth = pipeWidth;
+        mBirdWidth = birdWidth;
+        mBirdHeight = birdHeight;
+        mStartGap = height * 3 / 10;
+        mMinGap = height * 2 / 9;
+        int interval = Math.max(1, width / WorldState.DEFAULT_ROLLING_SPEED / 2);
+        mStartSpacing = interval * WorldState.DEFAULT_ROLLING_SPEED;
+        mMinSpacing = mStartSpacing;
+        mStartSpeed = WorldState.DEFAULT_ROLLING_SPEED;
+        mMaxSpeed = WorldState.DEFAULT_ROLLING_SPEED * 6 / 5;
+        mStartShift = height / 10;
+        mMaxShift = height * 3 / 10;
+    }
+
+    // 空隙的高度, 不会小于鸟的高度加上 FLAP_RISE
+    public LevelGenerator setGap(int startGap, int minGap) {
+        mStartGap = startGap;
+        mMinGap = minGap;
+        return this;
+    }
+
+    public LevelGenerator setSpacing(int startSpacing, int minSpacing) {
+        mStartSpacing = startSpacing;
+        mMinSpacing = minSpacing;
+        return this;
+    }
+
+    public LevelGenerator setSpeed(int startSpeed, int maxSpeed) {
+        mStartSpeed = startSpeed;
+        mMaxSpeed = maxSpeed;
+        return this;
+    }
+
+    public LevelGenerator setShift(int startShift, int maxShift) {
+        mStartShift = startShift;
+        mMaxShift = maxShift;
+        return this;
+    }
+
+    // 第 rampPipes 对水管之后难度不再增加
+    public LevelGenerator setRampPipes(int rampPipes) {
+        mRampPipes = Math.max(1, rampPipes);
+        return this;
+    }
+
+    // 在哪里预先生成水管, null 表示用到的时候在当前线程中生成
+    public LevelGenerator setExecutor(Executor executor) {
+        mExecutor = executor;
+        return this;
+    }
+
+    // 第 index 对水管的难度 [0, 1]
+    public float getDifficulty(int index) {
+        return Math.min(1f, (float) index / mRampPipes);
+    }
+
+    private static int lerp(int from, int to, float t) {
+        return from + Math.round((to - from) * t);
+    }
+
+    public int getGap(int index) {
+        return Math.max(lerp(mStartGap, mMinGap, getDifficulty(index)), mBirdHeight + FLAP_RISE);
+    }
+
+    // 第 index 对水管和下一对水管左边界的距离
+    public int getSpacing(int index) {
+        return lerp(mStartSpacing, mMinSpacing, getDifficulty(index));
+    }
+
+    // 第 index 对水管出现之后的滚动速度
+    public int getSpeed(int index) {
+        return lerp(mStartSpeed, mMaxSpeed, getDifficulty(index));
+    }
+
+    public int getShift(int index) {
+        return lerp(mStartShift, mMaxShift, getDifficulty(index));
+    }
+
+    public int getRampPipes() {
+        return mRampPipes;
+    }
+
+    // 最小的间距, 用来计算同时存在的水管数量
+    public int getMinSpacing() {
+        return Math.min(mStartSpacing, mMinSpacing);
+    }
+
+    /*
+    两对水管之间鸟能飞过的距离 (保守估计)
+    速度只增不减, 按最快的速度算, 鸟在水平方向上和一对水管重叠 (pipeWidth + birdWidth) / maxSpeed 帧,
+    间距 spacing 之内除去重叠的帧数, 剩下的 free 帧鸟可以自由上下:
+      向上: 每帧都点击能上升 -MAX_RISE_SPEED_Y, 只算一半
+      向下: 从速度为 0 开始下落 FALL_ACCEL_Y * free * (free - 1) / 2, 也只算一半
+    另外空隙比鸟扇一次翅膀需要的高度多出来的部分, 一半可以用来在水管中提前移动
+     */
+    private int getFreeTicks(int spacing) {
+        int fastest = Math.max(mStartSpeed, mMaxSpeed);
+        int overlap = (mPipeWidth + mBirdWidth + fastest - 1) / fastest;
+        return Math.max(0, spacing / fastest - overlap);
+    }
+
+    public int getMaxRise(int spacing, int gap) {
+        int free = getFreeTicks(spacing);
+        return -BirdState.MAX_RISE_SPEED_Y * free / 2 + getSlack(gap);
+    }
+
+    public int getMaxFall(int spacing, int gap) {
+        int free = getFreeTicks(spacing);
+        return BirdState.FALL_ACCEL_Y * free * (free - 1) / 4 + getSlack(gap);
+    }
+
+    private int getSlack(int gap) {
+        return (gap - mBirdHeight - FLAP_RISE) / 2;
+    }
+
+    // 重新开始: 丢掉已经生成的水管, 用新的种子从第 0 对开始生成
+    public void restart(long seed) {
+        synchronized (mLock) {
+            mSeed = seed;
+            mRandom.setSeed(seed);
+            mLastCenter = (mHeight / 10 + mGroundTop - mHeight / 20) / 2;
+            mLastGap = getGap(0);
+            mRead = 0;
+            mWritten = 0;
+        }
+        requestRefill();
+    }
+
+    // 恢复到 restart(seed) 之后取出了 index 对水管的状态, 用于快照
+    // 前面的水管重新生成一遍, 每对只需要几十纳秒
+    public void restore(long seed, int index) {
+        restart(seed);
+        while (mRead < index) {
+            nextPipe();
+        }
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    // 下一次 nextPipe() 取出的是第几对水管
+    public int getIndex() {
+        return mRead;
+    }
+
+    // 已经生成好、还没有取出的水管数量
+    public int getBuffered() {
+        return mWritten - mRead;
+    }
+
+    // 取出下一对水管, 返回它的序号, 空隙用 getDownBottom() 和 getUpTop() 读取
+    public int nextPipe() {
+        int index = mRead;
+        if (index == mWritten) {
+            // 后台还没有生成到这里, 只好在当前线程中生成
+            synchronized (mLock) {
+                if (index == mWritten) {
+                    genChunk();
+                }
+            }
+        }
+        int slot = index & (CAPACITY - 1);
+        mPipeDownBottom = mDownBottom[slot];
+        mPipeUpTop = mUpTop[slot];
+        mRead = index + 1;
+        requestRefill();
+        return index;
+    }
+
+    // 刚取出的一对水管: 朝下水管的底部和朝上水管的顶部
+    public int getDownBottom() {
+        return mPipeDownBottom;
+    }
+
+    public int getUpTop() {
+        return mPipeUpTop;
+    }
+
+    // 缓冲区空出一块时, 让后台补齐
+    private void requestRefill() {
+        if (mExecutor != null && CAPACITY - (mWritten - mRead) >= CHUNK_SIZE
+                && mRefillPending.compareAndSet(false, true)) {
+            mExecutor.execute(mRefill);
+        }
+    }
+
+    // 在缓冲区的空位中生成最多 CHUNK_SIZE 对水管, 需要持有 mLock
+    private void genChunk() {
+        int index = mWritten;
+        int end = Math.min(index + CHUNK_SIZE, mRead + CAPACITY);
+        int minTop = mHeight / 10;
+        int maxBottom = mGroundTop - mHeight / 20;
+        for (; index < end; index++) {
+            int gap = getGap(index);
+            int center = mLastCenter;
+            if (index > 0) {
+                int spacing = getSpacing(index - 1);
+                int slack = Math.min(gap, mLastGap);
+                int shift = getShift(index);
+                int low = Math.max(center - Math.min(shift, getMaxRise(spacing, slack)), minTop + gap / 2);
+                int high = Math.min(center + Math.min(shift, getMaxFall(spacing, slack)), maxBottom - gap / 2);
+                // 空隙只会变小, 所以上一个中心总在 [low, high] 中
+                center = low + mRandom.nextInt(high - low + 1);
+            }
+            int slot = index & (CAPACITY - 1);
+            mDownBottom[slot] = center - gap / 2;
+            mUpTop[slot] = center - gap / 2 + gap;
+            mLastCenter = center;
+            mLastGap = gap;
+        }
+        mWritten = end;
+    }
+}
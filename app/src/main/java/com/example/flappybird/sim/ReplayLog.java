@@ -0,0 +1,196 @@
+package com.example.flappybird.sim;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 一局 (或一段) 游戏的回放记录
+ * 模拟只由种子和输入决定，所以只需要记录 init() 的参数、随机数种子，
+ * 以及每一个非空输入发生在第几帧，就能在任何地方重新模拟出完全相同的过程。
+ *
+ * 二进制格式 (大端)：
+ *   int MAGIC, int VERSION
+ *   int width, height, birdWidth, birdHeight, pipeWidth
+ *   long seed
+ *   int 水管的生成方式 (Simulation.LEVEL_*)
+ *   int 结束时的帧数, long 结束时的状态摘要 (Simulation.stateHash())
+ *   int 输入记录的字节数, 输入记录
+ * 每条输入记录是和上一条记录相隔的帧数 (变长整数, 每字节 7 位) 加上 1 字节的输入，
+ * 通常只占 2 个字节
+ */
+public class ReplayLog {
+    public static final int MAGIC = 0x46425250; // "FBRP"
+    public static final int VERSION = 3;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBirdWidth;
+    private final int mBirdHeight;
+    private final int mPipeWidth;
+    private final long mSeed;
+    private int mLevelMode = Simulation.LEVEL_TEMPLATES;
+
+    // 编码后的输入记录, 录制时只在缓冲区满时扩容
+    private byte[] mInputs;
+    private int mInputsLength;
+    private int mInputCount;
+    private int mLastTick;
+
+    private int mEndTick = -1; // -1 表示还没有结束录制
+    private long mEndHash;
+
+    public ReplayLog(int width, int height, int birdWidth, int birdHeight, int pipeWidth, long seed) {
+        mWidth = width;
+        mHeight = height;
+        mBirdWidth = birdWidth;
+        mBirdHeight = birdHeight;
+        mPipeWidth = pipeWidth;
+        mSeed = seed;
+        mInputs = new byte[1024];
+    }
+
+    // 录制时模拟使用的水管生成方式
+    public ReplayLog setLevelMode(int levelMode) {
+        mLevelMode = levelMode;
+        return this;
+    }
+
+    public int getLevelMode() {
+        return mLevelMode;
+    }
+
+    // 按记录的参数创建并初始化一个新的模拟, 关卡在当前线程中生成
+    public Simulation newSimulation() {
+        return new Simulation().setSeed(mSeed).setLevelMode(mLevelMode)
+                .init(mWidth, mHeight, mBirdWidth, mBirdHeight, mPipeWidth);
+    }
+
+    // 记录第 tick 帧的输入, tick 不能小于上一次记录的帧数, 空输入不记录
+    public void record(int tick, int input) {
+        if (input == Simulation.INPUT_NONE) {
+            return;
+        }
+        if (tick < mLastTick || mEndTick >= 0) {
+            throw new IllegalStateException("tick " + tick + " out of order");
+        }
+        if (mInputsLength + 6 > mInputs.length) {
+            mInputs = Arrays.copyOf(mInputs, mInputs.length * 2);
+        }
+        int delta = tick - mLastTick;
+        while (delta >= 0x80) {
+            mInputs[mInputsLength++] = (byte) (delta | 0x80);
+            delta >>>= 7;
+        }
+        mInputs[mInputsLength++] = (byte) delta;
+        mInputs[mInputsLength++] = (byte) input;
+        mLastTick = tick;
+        mInputCount++;
+    }
+
+    // 结束录制, 记下结束时的帧数和状态摘要, 回放时用来检查结果是否一致
+    public void finish(int tick, long stateHash) {
+        mEndTick = tick;
+        mEndHash = stateHash;
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    public int getInputCount() {
+        return mInputCount;
+    }
+
+    public int getEndTick() {
+        return mEndTick;
+    }
+
+    public long getEndHash() {
+        return mEndHash;
+    }
+
+    // 按顺序读出输入记录：cursor 是在输入记录中的位置, 从 0 开始
+    // 返回新的位置, 记录的帧号和输入写在 out[0] 和 out[1] 中; 没有更多记录时返回 -1
+    int readInput(int cursor, int prevTick, int[] out) {
+        if (cursor >= mInputsLength) {
+            return -1;
+        }
+        int delta = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = mInputs[cursor++];
+            delta |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        out[0] = prevTick + delta;
+        out[1] = mInputs[cursor++] & 0xff;
+        return cursor;
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+        if (mEndTick < 0) {
+            throw new IllegalStateException("replay not finished");
+        }
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mWidth);
+        out.writeInt(mHeight);
+        out.writeInt(mBirdWidth);
+        out.writeInt(mBirdHeight);
+        out.writeInt(mPipeWidth);
+        out.writeLong(mSeed);
+        out.writeInt(mLevelMode);
+        out.writeInt(mEndTick);
+        out.writeLong(mEndHash);
+        out.writeInt(mInputsLength);
+        out.write(mInputs, 0, mInputsLength);
+        out.flush();
+    }
+
+    public static ReplayLog readFrom(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a replay log");
+        }
+        int version = in.readInt();
+        // 版本 3 起鸟的物理改为定点数, 之前的回放重新模拟的结果和记录的摘要对不上, 不再支持
+        if (version != VERSION) {
+            throw new IOException("unsupported replay version " + version);
+        }
+        ReplayLog log = new ReplayLog(in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                in.readInt(), in.readLong());
+        log.mLevelMode = in.readInt();
+        int endTick = in.readInt();
+        long endHash = in.readLong();
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("corrupt replay log");
+        }
+        // 多留出一条记录的空间, 数据不完整时读到的是 0, 不会越界
+        log.mInputs = new byte[length + 6];
+        in.readFully(log.mInputs, 0, length);
+        log.mInputsLength = length;
+        // 数一下记录的条数, 顺便检查数据是否完整
+        int[] input = new int[2];
+        int cursor = 0;
+        while (cursor < length) {
+            cursor = log.readInput(cursor, log.mLastTick, input);
+            if (cursor > length) {
+                throw new IOException("truncated replay log");
+            }
+            log.mLastTick = input[0];
+            log.mInputCount++;
+        }
+        if (log.mLastTick > endTick) {
+            throw new IOException("input after end of replay");
+        }
+        log.finish(endTick, endHash);
+        return log;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.flappybird.sim;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 回放：不需要设备和画面，按记录的种子和输入以最快的速度重新模拟一遍，
+ * 结束时的状态应该和录制时完全相同。
+ *
+ * 可以直接在 JVM 上运行，用来重现从设备上拿到的回放记录，也可以当作性能基准：
+ *   java -cp ... com.example.flappybird.sim.ReplayPlayer replay.fbr [重复次数]
+ */
+public class ReplayPlayer {
+    private final ReplayLog mLog;
+    private final int[] mInput = new int[2];
+
+    public ReplayPlayer(ReplayLog log) {
+        mLog = log;
+    }
+
+    // 从头模拟到记录结束的那一帧, 返回结束时的模拟
+    public Simulation play() {
+        Simulation sim = mLog.newSimulation();
+        int endTick = mLog.getEndTick();
+        int cursor = mLog.readInput(0, 0, mInput);
+        while (sim.getTick() < endTick) {
+            int input = Simulation.INPUT_NONE;
+            if (cursor >= 0 && mInput[0] == sim.getTick()) {
+                input = mInput[1];
+                cursor = mLog.readInput(cursor, mInput[0], mInput);
+            }
+            sim.step(input);
+        }
+        return sim;
+    }
+
+    // 回放一遍, 检查结束时的状态是否和录制时完全相同
+    public boolean verify() {
+        return play().stateHash() == mLog.getEndHash();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ReplayPlayer <replay file> [repeat]");
+            System.exit(2);
+        }
+        ReplayLog log;
+        InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+        try {
+            log = ReplayLog.readFrom(in);
+        } finally {
+            in.close();
+        }
+        int repeat = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        System.out.println("seed " + log.getSeed() + ", " + log.getEndTick() + " ticks, "
+                + log.getInputCount() + " inputs");
+
+        ReplayPlayer player = new ReplayPlayer(log);
+        boolean ok = true;
+        long start = System.nanoTime();
+        for (int i = 0; i < repeat; i++) {
+            ok &= player.verify();
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println((ok ? "OK" : "MISMATCH") + ": " + nanos / 1000000L + " ms, "
+                + (long) log.getEndTick() * repeat * 1000000000L / Math.max(nanos, 1) + " ticks/s");
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.flappybird.sim;
+
+/**
+ * 模拟用的随机数发生器 (xorshift64*)
+ * 整个状态只有一个 long，同样的种子在任何设备上都产生同样的序列，
+ * 所以一局游戏可以由种子和输入完全重现
+ */
+public class SimRandom {
+    private long mState;
+
+    public SimRandom(long seed) {
+        setSeed(seed);
+    }
+
+    // 用 splitmix64 打散种子, 种子为 0 时状态也不会是 0
+    public void setSeed(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        mState = z != 0 ? z : 0x9E3779B97F4A7C15L;
+    }
+
+    // 当前状态, 保存后可以用 setState() 恢复
+    public long getState() {
+        return mState;
+    }
+
+    public void setState(long state) {
+        mState = state;
+    }
+
+    public long nextLong() {
+        mState ^= mState >>> 12;
+        mState ^= mState << 25;
+        mState ^= mState >>> 27;
+        return mState * 0x2545F4914F6CDD1DL;
+    }
+
+    // [0, 1) 之间的随机浮点数
+    public float nextFloat() {
+        return (nextLong() >>> 40) * (1.0f / (1 << 24));
+    }
+
+    // [0, bound) 之间的随机整数
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+}
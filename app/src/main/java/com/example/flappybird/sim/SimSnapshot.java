@@ -0,0 +1,106 @@
+package com.example.flappybird.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 游戏状态的快照：切到后台或者旋转屏幕时保存, 回来时恢复, 不丢掉正在进行的一局
+ *
+ * 快照放在一块固定大小的缓冲区中 (MAX_BYTES)，可以是内存中的直接缓冲区，
+ * 也可以是映射到文件的缓冲区 —— 写快照只是往内存里写几百个字节，由系统在后台写回文件，
+ * 进程被杀掉以后下次启动也能恢复。
+ *
+ * 格式 (大端)：
+ *   int MAGIC (写完所有数据以后最后写, 没写完的快照不会被当作有效), int VERSION
+ *   int extra (调用者自己的一个整数, GameView 用来记鸟的皮肤)
+ *   Simulation.writeState() 写出的状态
+ */
+public class SimSnapshot {
+    public static final int MAGIC = 0x46425353; // "FBSS"
+    public static final int VERSION = 2; // 2: 鸟的状态改为定点数
+    public static final int MAX_BYTES = 4096;
+    private static final int HEADER_BYTES = 12;
+
+    private final ByteBuffer mBuffer;
+    private final RandomAccessFile mFile;
+
+    // 内存中的快照
+    public SimSnapshot() {
+        this(ByteBuffer.allocateDirect(MAX_BYTES), null);
+    }
+
+    private SimSnapshot(ByteBuffer buffer, RandomAccessFile file) {
+        mBuffer = buffer;
+        mFile = file;
+    }
+
+    // 映射到文件的快照, 文件不存在时创建
+    public static SimSnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, MAX_BYTES);
+            return new SimSnapshot(buffer, raf);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    // 保存模拟的全部状态, 快照放不下时返回 false
+    public boolean save(Simulation sim, int extra) {
+        if (HEADER_BYTES + sim.getSnapshotSize() > MAX_BYTES) {
+            return false;
+        }
+        mBuffer.clear();
+        mBuffer.putInt(0); // 先写数据, 最后才写 MAGIC
+        mBuffer.putInt(VERSION);
+        mBuffer.putInt(extra);
+        sim.writeState(mBuffer);
+        mBuffer.putInt(0, MAGIC);
+        return true;
+    }
+
+    // 是否有一个完整的快照
+    public boolean isValid() {
+        return mBuffer.getInt(0) == MAGIC && mBuffer.getInt(4) == VERSION;
+    }
+
+    public int getExtra() {
+        return mBuffer.getInt(8);
+    }
+
+    // 把快照恢复到 sim 中, 没有有效的快照时返回 false, sim 不变
+    public boolean restore(Simulation sim) {
+        if (!isValid()) {
+            return false;
+        }
+        mBuffer.clear();
+        mBuffer.position(HEADER_BYTES);
+        sim.readState(mBuffer);
+        return true;
+    }
+
+    // 快照中记录的世界大小, 和现在的屏幕不一样 (比如旋转了屏幕) 时不能恢复
+    public int getWidth() {
+        return mBuffer.getInt(HEADER_BYTES + 12);
+    }
+
+    public int getHeight() {
+        return mBuffer.getInt(HEADER_BYTES + 16);
+    }
+
+    // 作废快照, 比如恢复以后, 防止同一个快照被恢复两次
+    public void clear() {
+        mBuffer.putInt(0, 0);
+    }
+
+    public void close() throws IOException {
+        if (mFile != null) {
+            mFile.close();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.flappybird.sim;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * 整个游戏的模拟：鸟 + 背景世界 + 游戏阶段
+ * 每调用一次 step(input) 推进一个物理帧，返回这一帧发生的事件，
+ * 由 GameView 根据事件播放音效，绘制则交给 Bird 和 BirdWorld 读取状态完成
+ */
+public class Simulation {
+    public static final int STAGE_READY = 1;
+    public static final int STAGE_PLAY = 2;
+    public static final int STAGE_BIRD_FALLING = 3;
+    public static final int STAGE_OVER = 4;
+
+    // 输入: 这一帧内是否单击了屏幕
+    public static final int INPUT_NONE = 0;
+    public static final int INPUT_TAP = 1;
+
+    // 事件: 按位组合
+    public static final int EVENT_WING = 1;  // 鸟扇翅膀
+    public static final int EVENT_HIT = 1 << 1;  // 发生碰撞
+    public static final int EVENT_DIE = 1 << 2;  // 撞到水管, 开始坠落
+    public static final int EVENT_POINT = 1 << 3;  // 过管得分
+    public static final int EVENT_RESTART = 1 << 4;  // 重新开始
+
+    // 水管的生成方式: 原来的模板 / 程序生成的关卡 (LevelGenerator)
+    public static final int LEVEL_TEMPLATES = 0;
+    public static final int LEVEL_PROCEDURAL = 1;
+
+    private final BirdState mBird;
+    private final WorldState mWorld;
+    private int mStage;
+    private long mSeed;
+    private int mTick; // 从 init() 开始推进过的物理帧数
+    private int mLevelMode = LEVEL_TEMPLATES;
+    private Executor mExecutor;
+
+    // 屏幕大小和鸟的大小, 用来计算鸟的初始位置
+    private int mWidth;
+    private int mHeight;
+    private int mBirdWidth;
+    private int mBirdHeight;
+
+    public Simulation() {
+        mBird = new BirdState();
+        mWorld = new WorldState();
+    }
+
+    // 设置随机数种子, 在 init() 之前调用
+    // 同样的种子和同样的输入序列总是得到同样的结果
+    public Simulation setSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    // 设置水管的生成方式, 在 init() 之前调用
+    public Simulation setLevelMode(int levelMode) {
+        mLevelMode = levelMode;
+        return this;
+    }
+
+    public int getLevelMode() {
+        return mLevelMode;
+    }
+
+    // 预先生成关卡用的后台 Executor, null 表示在模拟的线程中生成, 不影响模拟的结果
+    public Simulation setExecutor(Executor executor) {
+        mExecutor = executor;
+        return this;
+    }
+
+    // 初始化世界大小、鸟的大小和水管的宽度, 进入待命状态
+    public Simulation init(int width, int height, int birdWidth, int birdHeight, int pipeWidth) {
+        mWidth = width;
+        mHeight = height;
+        mBirdWidth = birdWidth;
+        mBirdHeight = birdHeight;
+        LevelGenerator level = null;
+        if (mLevelMode == LEVEL_PROCEDURAL) {
+            level = new LevelGenerator(width, height, pipeWidth, birdWidth, birdHeight).setExecutor(mExecutor);
+        }
+        mWorld.setSeed(mSeed).setBound(0, 0, width, height).setPipeWidth(pipeWidth).setLevel(level);
+        mWorld.makeStandby();
+        placeBird(mWidth / 2);
+        mBird.makeStandby();
+        mStage = STAGE_READY;
+        mTick = 0;
+        return this;
+    }
+
+    public BirdState getBird() {
+        return mBird;
+    }
+
+    public WorldState getWorld() {
+        return mWorld;
+    }
+
+    public int getStage() {
+        return mStage;
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    // 下一次 step() 要推进的是第几帧
+    public int getTick() {
+        return mTick;
+    }
+
+    // 整个模拟状态的 64 位摘要, 两次模拟的摘要相同说明状态完全相同
+    public long stateHash() {
+        long hash = StateHash.mix(StateHash.SEED, mStage);
+        hash = StateHash.mix(hash, mTick);
+        hash = mBird.hashState(hash);
+        return mWorld.hashState(hash);
+    }
+
+    // 快照中的字节数上限, 在 init() 之后才能确定
+    public int getSnapshotSize() {
+        return 64 + 64 + mWorld.getSnapshotSize();
+    }
+
+    /*
+    快照: 写出 init() 的参数和全部状态, 不分配对象。
+    readState() 先按记录的参数重新 init(), 再覆盖鸟和世界的状态, 之后的模拟和没有中断过完全相同
+     */
+    public void writeState(ByteBuffer out) {
+        out.putLong(mSeed).putInt(mLevelMode);
+        out.putInt(mWidth).putInt(mHeight).putInt(mBirdWidth).putInt(mBirdHeight).putInt(mWorld.getPipeWidth());
+        out.putInt(mStage).putInt(mTick);
+        mBird.save(out);
+        mWorld.save(out);
+    }
+
+    public Simulation readState(ByteBuffer in) {
+        mSeed = in.getLong();
+        mLevelMode = in.getInt();
+        init(in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt());
+        mStage = in.getInt();
+        mTick = in.getInt();
+        mBird.restore(in);
+        mWorld.restore(in);
+        return this;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    // 把鸟的中心放在 (centerX, 屏幕中间)
+    private void placeBird(int centerX) {
+        mBird.setBound(centerX - mBirdWidth / 2, mHeight / 2 - mBirdHeight / 2,
+                centerX + mBirdWidth / 2, mHeight / 2 + mBirdHeight / 2);
+    }
+
+    // 点击屏幕时的动作, 与当前所处的阶段有关
+    private int onTap() {
+        int events = 0;
+        if (mStage == STAGE_READY) {
+            mWorld.roll();
+            placeBird(mWidth / 3);
+            mBird.shot();
+            mStage = STAGE_PLAY;
+        } else if (mStage == STAGE_PLAY) {
+            mBird.shot();
+            events |= EVENT_WING;
+        } else if (mStage == STAGE_OVER) {
+            placeBird(mWidth / 2);
+            mBird.makeStandby();
+            mWorld.makeStandby();
+            mStage = STAGE_READY;
+            events |= EVENT_RESTART;
+        }
+        return events;
+    }
+
+    // 推进一个物理帧：处理输入，移动画面和鸟，再做碰撞检测
+    public int step(int input) {
+        int events = 0;
+        mTick++;
+        if ((input & INPUT_TAP) != 0) {
+            events |= onTap();
+        }
+        mWorld.step();
+        mBird.step();
+        if (mStage == STAGE_PLAY) {
+            if (mWorld.isBirdCrash(mBird)) {
+                events |= EVENT_HIT;
+                if (mWorld.getCrashType() == WorldState.CRASH_TYPE_GROUND) {
+                    mStage = STAGE_OVER;
+                } else {
+                    mStage = STAGE_BIRD_FALLING;
+                    events |= EVENT_DIE;
+                }
+            } else if (mWorld.hasPassPipe(mBird)) {
+                events |= EVENT_POINT;
+            }
+        } else if (mStage == STAGE_BIRD_FALLING) {
+            if (mWorld.isBirdCrash(mBird) &&
+                    mWorld.getCrashType() == WorldState.CRASH_TYPE_GROUND) {
+                mStage = STAGE_OVER;
+            }
+        }
+        return events;
+    }
+}
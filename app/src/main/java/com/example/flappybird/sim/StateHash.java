@@ -0,0 +1,28 @@
+package com.example.flappybird.sim;
+
+/**
+ * 把模拟状态折叠成一个 64 位的摘要 (FNV-1a)，用来检查两次模拟的状态是否完全相同
+ */
+final class StateHash {
+    static final long SEED = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private StateHash() {
+    }
+
+    static long mix(long hash, int value) {
+        for (int i = 0; i < 4; i++) {
+            hash = (hash ^ (value & 0xff)) * PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    static long mix(long hash, long value) {
+        return mix(mix(hash, (int) value), (int) (value >>> 32));
+    }
+
+    static long mix(long hash, boolean value) {
+        return mix(hash, value ? 1 : 0);
+    }
+}
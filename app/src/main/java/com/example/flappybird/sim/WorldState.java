@@ -0,0 +1,588 @@
+package com.example.flappybird.sim;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 游戏背景世界的物理状态：画面滚动、水管的生成和碰撞检测
+ * 不依赖 Android，绘制交给 BirdWorld
+ */
+public class WorldState {
+    public static final int DEFAULT_ROLLING_SPEED = 30;
+    public static final int CRASH_DETECT_PADDING = 20;
+    public static final int CRASH_TYPE_GROUND = 1;
+    public static final int CRASH_TYPE_PIPE = 2;
+    /**
+     * 近景（地面）滚动速度是远景（天空）的8倍
+     */
+    public static final int SPEED_SCALE = 8;
+
+    //游戏背景世界的边界
+    private int mLeft;
+    private int mTop;
+    private int mRight;
+    private int mBottom;
+    private int mGroundTop; //记录地面位置 (设定为底部 1/5 的位置)
+    private int mPipeWidth; //水管的宽度
+
+    // 水管的模板列表, 4 种可能的水管位置, 分别记录朝下水管的底部和朝上水管的顶部
+    private int[] mTemplateDownBottom;
+    private int[] mTemplateUpTop;
+    private int mTemplateCount;
+
+    // 当前出现的水管，用固定容量的环形缓冲区保存，从 mPipeHead 开始按从左到右的顺序排列
+    // 每帧都不需要创建新对象
+    // 水管总是从右边生成、以相同的速度向左移动，所以缓冲区本身就是按 x 排好序的索引，
+    // 碰撞和过管检测用二分查找找到鸟附近的水管，不需要扫描所有水管
+    // 容量默认按屏幕宽度和滚动速度计算 (见 pipeCapacityFor())，只在 setBound()/setPipeWidth() 时分配，
+    // 之后不管玩多久水管数量都不会超过它
+    private int[] mPipeLeft;
+    private int[] mPipeDownBottom;
+    private int[] mPipeUpTop;
+    private int mPipeHead;
+    private int mPipeCount;
+    private final boolean mAutoCapacity; // 容量是否由屏幕宽度和滚动速度决定
+
+    private int mRollingSpeed; //画面滚动的速度
+    private int mLastScroll; // 上一个物理帧中水管实际移动的距离, 碰撞和过管检测按这段移动做扫掠
+    // 开始滚动以来画面滚动的距离 (到 SPEED_SCALE 倍宽度时归零), 绘制天空和地面用; 上一个物理帧之前的值
+    private int mScroll;
+    private int mPrevScroll;
+    private boolean mIsStandby; //是否处于待命状态
+
+    private int mNextPipeFrameCount; //用于计算下一个水管出现的帧数
+    private int mFrameCount; // 当前帧数记录
+    private int mPrevFrameCount; // 上一个物理帧的帧数，绘制时在两帧之间插值
+
+    private boolean mIsQuiet;
+    private int mCrashType; // 碰撞
+
+    // 生成水管用的随机数, 同样的种子生成同样的水管
+    private final SimRandom mRandom = new SimRandom(0);
+
+    // 程序生成的关卡, 为 null 时从模板中随机选水管、按固定的帧数生成
+    private LevelGenerator mLevel;
+    private int mNextPipeDistance; // 关卡模式: 还要滚动多少像素才生成下一对水管
+
+    /*
+    水管的描述
+    游戏中的水管都是上下成对出现的,由于涉及到碰撞的判断,描述水管时应该关心,中
+    间空隙的位置和长度. 所有水管宽度相同, 所以只需要记录左边界.
+     */
+
+    public WorldState() {
+        this(0, true);
+    }
+
+    // pipeCapacity: 同时存在的水管数量上限, 超出时回收最左边的水管
+    public WorldState(int pipeCapacity) {
+        this(pipeCapacity, false);
+    }
+
+    private WorldState(int pipeCapacity, boolean autoCapacity) {
+        mRollingSpeed = DEFAULT_ROLLING_SPEED;
+        mTemplateDownBottom = new int[0];
+        mTemplateUpTop = new int[0];
+        mAutoCapacity = autoCapacity;
+        allocatePipes(pipeCapacity);
+    }
+
+    /*
+    水管池的大小
+    每隔 getRecycleFrameCount() / 2 帧生成一对水管, 相邻两对水管相距 spacing 像素.
+    一对水管从右边界出现, 要滚动 width + pipeWidth 才完全移出屏幕, 而且要等到下一次生成水管时才被回收,
+    所以同时存在的水管不会超过 (width + pipeWidth) / spacing + 2 对
+     */
+    public static int pipeCapacityFor(int width, int pipeWidth, int rollingSpeed) {
+        int interval = Math.max(1, width / rollingSpeed / 2);
+        int spacing = interval * rollingSpeed;
+        return (width + pipeWidth) / spacing + 2;
+    }
+
+    private void allocatePipes(int capacity) {
+        mPipeLeft = new int[capacity];
+        mPipeDownBottom = new int[capacity];
+        mPipeUpTop = new int[capacity];
+        mPipeHead = 0;
+        mPipeCount = 0;
+    }
+
+    // 大小变化后重新计算水管池的容量, 容量不变时不分配
+    // 关卡模式下水管的间距不小于 LevelGenerator.getMinSpacing()
+    private void resizePipes() {
+        if (!mAutoCapacity || mRight <= mLeft) {
+            return;
+        }
+        int capacity = mLevel != null
+                ? (mRight - mLeft + mPipeWidth) / mLevel.getMinSpacing() + 2
+                : pipeCapacityFor(mRight - mLeft, mPipeWidth, mRollingSpeed);
+        if (capacity != mPipeLeft.length) {
+            allocatePipes(capacity);
+        }
+    }
+
+    // 设置随机数种子
+    public WorldState setSeed(long seed) {
+        mRandom.setSeed(seed);
+        return this;
+    }
+
+    // 设置背景的在屏幕上位置
+    public WorldState setBound(int left, int top, int right, int bottom) {
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+        mGroundTop = mTop + (mBottom - mTop) * 4 / 5;  // 地面的位置，占整个游戏背景 4/5
+        resizePipes();
+        return this;
+    }
+
+    // 设置水管的宽度 (与水管皮肤的宽度一致)
+    public WorldState setPipeWidth(int pipeWidth) {
+        mPipeWidth = pipeWidth;
+        resizePipes();
+        return this;
+    }
+
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    public int getWidth() {
+        return mRight - mLeft;
+    }
+
+    public int getHeight() {
+        return mBottom - mTop;
+    }
+
+    public int getGroundTop() {
+        return mGroundTop;
+    }
+
+    public int getRollingSpeed() {
+        return mRollingSpeed;
+    }
+
+    // 设置画面滚动的速度, 水管池的容量随之变化
+    public WorldState setRollingSpeed(int rollingSpeed) {
+        mRollingSpeed = rollingSpeed;
+        resizePipes();
+        return this;
+    }
+
+    public int getLastScroll() {
+        return mLastScroll;
+    }
+
+    // 上一个物理帧之前画面滚动的距离, 加上 getLastScroll() 就是现在的距离
+    public int getPrevScroll() {
+        return mPrevScroll;
+    }
+
+    // 使用程序生成的关卡, null 表示用模板生成水管; 在 makeStandby() 之前设置
+    public WorldState setLevel(LevelGenerator level) {
+        mLevel = level;
+        resizePipes();
+        return this;
+    }
+
+    public LevelGenerator getLevel() {
+        return mLevel;
+    }
+
+    public boolean isStandby() {
+        return mIsStandby;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getPrevFrameCount() {
+        return mPrevFrameCount;
+    }
+
+    public int getPipeWidth() {
+        return mPipeWidth;
+    }
+
+    // 当前出现的水管数量
+    public int getPipeCount() {
+        return mPipeCount;
+    }
+
+    public int getPipeCapacity() {
+        return mPipeLeft.length;
+    }
+
+    // 第 i 对水管 (0 是最左边的一对) 在环形缓冲区中的位置
+    private int slot(int i) {
+        int slot = mPipeHead + i;
+        return slot < mPipeLeft.length ? slot : slot - mPipeLeft.length;
+    }
+
+    public int getPipeLeft(int i) {
+        return mPipeLeft[slot(i)];
+    }
+
+    public int getPipeRight(int i) {
+        return mPipeLeft[slot(i)] + mPipeWidth;
+    }
+
+    public int getPipeDownBottom(int i) {
+        return mPipeDownBottom[slot(i)];
+    }
+
+    public int getPipeUpTop(int i) {
+        return mPipeUpTop[slot(i)];
+    }
+
+    // 二分查找：第一对右边界 >= x 的水管, 没有则返回水管数量
+    public int findFirstPipeRightOf(int x) {
+        int low = 0;
+        int high = mPipeCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mPipeLeft[slot(mid)] + mPipeWidth < x) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // 获取碰撞值的方法
+    public int getCrashType() {
+        return mCrashType;
+    }
+
+    // 检测鸟是否成功过管
+    // 按穿越来判断: 上一个物理帧水管的右边还没有越过鸟的左边 (right + lastScroll >= birdLeft),
+    // 这一帧越过了 (right < birdLeft)。每对水管只会穿越一次, 不管滚动多快都不会漏算或者重复计算
+    // 即水管的右边在 [birdLeft - mLastScroll, birdLeft) 之间, 只需要看第一对右边界不小于
+    // birdLeft - mLastScroll 的水管
+    public boolean hasPassPipe(BirdState bird) {
+        int birdLeft = bird.getLeft();
+        int i = findFirstPipeRightOf(birdLeft - mLastScroll);
+        return i < mPipeCount && mPipeLeft[slot(i)] + mPipeWidth < birdLeft;
+    }
+
+    /*
+    扫掠碰撞检测: 一个物理帧内鸟和一对水管是否相撞
+    这一帧中水管从 pipeLeft + scroll 匀速移动到 pipeLeft, 鸟的顶部从 prevTop 匀速移动到 top,
+    只要中间任何时刻两者重叠 (鸟的四边各收缩 CRASH_DETECT_PADDING) 就算相撞,
+    不会因为速度太快或者步长太大而直接穿过水管。
+    设这一帧中的时刻为 t (0 到 1), 水平方向上重叠的时刻是一段区间 [t0, t1],
+    鸟的顶部随 t 线性变化, 只要看区间两端的最高点和最低点是否碰到朝下或朝上的水管
+     */
+    public static boolean sweptPipeHit(int pipeLeft, int scroll, int pipeWidth, int downBottom, int upTop,
+                                       int birdLeft, int birdRight, int prevTop, int top, int birdHeight) {
+        int padding = CRASH_DETECT_PADDING;
+        double t0 = 0;
+        double t1 = 1;
+        if (scroll > 0) {
+            // 水管左边 p(t) = pipeLeft + scroll * (1 - t)
+            // 重叠: p(t) + pipeWidth >= birdLeft + padding 并且 p(t) <= birdRight - padding
+            int startLeft = pipeLeft + scroll;
+            t1 = Math.min(t1, (double) (startLeft + pipeWidth - birdLeft - padding) / scroll);
+            t0 = Math.max(t0, (double) (startLeft - birdRight + padding) / scroll);
+            if (t0 > t1) {
+                return false;
+            }
+        } else if (pipeLeft + pipeWidth < birdLeft + padding || pipeLeft > birdRight - padding) {
+            return false;
+        }
+        int dy = top - prevTop;
+        double minTop = prevTop + Math.min(dy * t0, dy * t1);
+        double maxTop = prevTop + Math.max(dy * t0, dy * t1);
+        return downBottom - minTop > padding || maxTop + birdHeight - upTop > padding;
+    }
+
+    /*
+    水管在游戏中是会不断产生的,如何高效的生成水管呢?
+    创建一个水管的模板列表,事先创建所有可能形状的水管,在每次需要新水管时从模板列表中随机拿出一个,
+    来设置新水管的形状.
+    水管从屏幕消失了,还可以回收利用当作下一个新出现的水管。
+    水管放在固定容量的环形缓冲区中, 回收就是让队列头向后移动一格, 不需要克隆对象.
+     */
+
+    // 生成水管的模板列表
+    public void genTemplatePipeList() {
+        int height = mBottom - mTop;
+        // 背景的顶部距边框的距离 + 背景的高度 / 10
+        int top = mTop + height / 10;
+        // 设置上下管道的间距
+        int space = height * 3 / 10;
+        int step = height / 10;
+        int count = 0;
+        while (top + count * step + space < mGroundTop) {
+            count++;
+        }
+        mTemplateDownBottom = new int[count];
+        mTemplateUpTop = new int[count];
+        mTemplateCount = count;
+        // 在循环中构建上下水管的模板
+        for (int i = 0; i < count; i++) {
+            mTemplateDownBottom[i] = top;
+            mTemplateUpTop[i] = top + space;
+            top += step;
+        }
+    }
+
+    // 模板的数量和第 i 个模板的形状, 需要先调用 genTemplatePipeList()
+    public int getTemplateCount() {
+        return mTemplateCount;
+    }
+
+    public int getTemplateDownBottom(int i) {
+        return mTemplateDownBottom[i];
+    }
+
+    public int getTemplateUpTop(int i) {
+        return mTemplateUpTop[i];
+    }
+
+    // 产生新的水管
+    private void genPipePair() {
+        if (mTemplateCount == 0) {
+            genTemplatePipeList();
+        }
+        // 获得一个随机的水管样式
+        int temp = mRandom.nextInt(mTemplateCount);
+        recycleHead();
+        // 把新的水管放入队列尾部
+        addPipePair(mRight, mTemplateDownBottom[temp], mTemplateUpTop[temp]);
+    }
+
+    // 关卡模式: 从关卡中取出下一对水管, 间距和滚动速度也由关卡决定
+    // 水管已经事先生成好了, 这里只是从缓冲区中读出来
+    private void genLevelPipePair() {
+        int index = mLevel.nextPipe();
+        recycleHead();
+        addPipePair(mRight + mNextPipeDistance, mLevel.getDownBottom(), mLevel.getUpTop());
+        mNextPipeDistance += mLevel.getSpacing(index);
+        mRollingSpeed = mLevel.getSpeed(index);
+    }
+
+    // 如果队列头的水管已经在屏幕中不显示, 就回收这个水管
+    private void recycleHead() {
+        if (mPipeCount > 0 && mPipeLeft[mPipeHead] + mPipeWidth < 0) {
+            mPipeHead = slot(1);
+            mPipeCount--;
+        }
+    }
+
+    // 在队列尾部放入一对水管, left 必须不小于队列中已有水管的左边界
+    // 正常游戏中水管由 step() 生成, 这个方法用于测试和性能基准中构造场景
+    public void addPipePair(int left, int downBottom, int upTop) {
+        if (mPipeCount == mPipeLeft.length) { // 缓冲区已满, 回收最左边的水管
+            mPipeHead = slot(1);
+            mPipeCount--;
+        }
+        int tail = slot(mPipeCount);
+        mPipeLeft[tail] = left;
+        mPipeDownBottom[tail] = downBottom;
+        mPipeUpTop[tail] = upTop;
+        mPipeCount++;
+    }
+
+    // 把所有状态折叠进摘要 hash 中, 水管按从左到右的顺序, 与它们在缓冲区中的位置无关
+    long hashState(long hash) {
+        hash = StateHash.mix(hash, mLeft);
+        hash = StateHash.mix(hash, mTop);
+        hash = StateHash.mix(hash, mRight);
+        hash = StateHash.mix(hash, mBottom);
+        hash = StateHash.mix(hash, mPipeWidth);
+        hash = StateHash.mix(hash, mPipeCount);
+        for (int i = 0; i < mPipeCount; i++) {
+            hash = StateHash.mix(hash, mPipeLeft[slot(i)]);
+            hash = StateHash.mix(hash, mPipeDownBottom[slot(i)]);
+            hash = StateHash.mix(hash, mPipeUpTop[slot(i)]);
+        }
+        hash = StateHash.mix(hash, mRollingSpeed);
+        hash = StateHash.mix(hash, mLastScroll);
+        hash = StateHash.mix(hash, mScroll);
+        hash = StateHash.mix(hash, mPrevScroll);
+        if (mLevel != null) {
+            hash = StateHash.mix(hash, mLevel.getIndex());
+            hash = StateHash.mix(hash, mNextPipeDistance);
+        }
+        hash = StateHash.mix(hash, mIsStandby);
+        hash = StateHash.mix(hash, mNextPipeFrameCount);
+        hash = StateHash.mix(hash, mFrameCount);
+        hash = StateHash.mix(hash, mPrevFrameCount);
+        hash = StateHash.mix(hash, mIsQuiet);
+        hash = StateHash.mix(hash, mCrashType);
+        return StateHash.mix(hash, mRandom.getState());
+    }
+
+    // 快照中的字节数上限: 固定部分加上每对水管 12 个字节
+    int getSnapshotSize() {
+        return 64 + 12 * mPipeLeft.length;
+    }
+
+    /*
+    快照: 只写会变化的状态, 边界、水管宽度和关卡的参数由 Simulation.init() 重新设置。
+    水管按从左到右的顺序写出, 读回来时从缓冲区的开头放起;
+    关卡只记种子和取到了第几对, 恢复时重新生成 (生成只由种子决定)
+     */
+    void save(ByteBuffer out) {
+        out.putInt(mRollingSpeed).putInt(mLastScroll).putInt(mScroll).putInt(mPrevScroll);
+        out.put((byte) ((mIsStandby ? 1 : 0) | (mIsQuiet ? 2 : 0) | (mTemplateCount > 0 ? 4 : 0)));
+        out.putInt(mNextPipeFrameCount).putInt(mFrameCount).putInt(mPrevFrameCount);
+        out.putInt(mCrashType);
+        out.putLong(mRandom.getState());
+        if (mLevel != null) {
+            out.putLong(mLevel.getSeed()).putInt(mLevel.getIndex()).putInt(mNextPipeDistance);
+        }
+        out.putInt(mPipeCount);
+        for (int i = 0; i < mPipeCount; i++) {
+            int slot = slot(i);
+            out.putInt(mPipeLeft[slot]).putInt(mPipeDownBottom[slot]).putInt(mPipeUpTop[slot]);
+        }
+    }
+
+    void restore(ByteBuffer in) {
+        mRollingSpeed = in.getInt();
+        mLastScroll = in.getInt();
+        mScroll = in.getInt();
+        mPrevScroll = in.getInt();
+        byte flags = in.get();
+        mIsStandby = (flags & 1) != 0;
+        mIsQuiet = (flags & 2) != 0;
+        if ((flags & 4) != 0) {
+            genTemplatePipeList();
+        }
+        mNextPipeFrameCount = in.getInt();
+        mFrameCount = in.getInt();
+        mPrevFrameCount = in.getInt();
+        mCrashType = in.getInt();
+        mRandom.setState(in.getLong());
+        if (mLevel != null) {
+            long seed = in.getLong();
+            mLevel.restore(seed, in.getInt());
+            mNextPipeDistance = in.getInt();
+        }
+        int count = in.getInt();
+        if (count < 0 || count > mPipeLeft.length) {
+            throw new IllegalArgumentException("bad pipe count " + count);
+        }
+        mPipeHead = 0;
+        mPipeCount = count;
+        for (int i = 0; i < count; i++) {
+            mPipeLeft[i] = in.getInt();
+            mPipeDownBottom[i] = in.getInt();
+            mPipeUpTop[i] = in.getInt();
+        }
+    }
+
+    public void makeStandby() {
+        mIsStandby = true;
+        mFrameCount = 0;
+        mPrevFrameCount = 0;
+        mLastScroll = 0;
+        mScroll = 0;
+        mPrevScroll = 0;
+        if (mLevel != null) {
+            // 待命的时候后台就开始生成新的一局的水管
+            mLevel.restart(mRandom.nextLong());
+            mRollingSpeed = mLevel.getSpeed(0);
+        }
+    }
+
+    public void roll() { //启动游戏时地调用,画面开始滚动
+        mIsStandby = false;
+        mNextPipeFrameCount = -1;
+        mNextPipeDistance = mRight - mLeft; // 和模板模式一样, 先空出一屏
+    }
+
+    // 循环一次的帧数
+    public int getRecycleFrameCount() {
+        return (mRight - mLeft) / mRollingSpeed;
+    }
+
+    // 推进一个物理帧：生成新水管，滚动画面
+    public void step() {
+        if (mIsStandby) {
+            return;
+        }
+        int recycleFrameCount = getRecycleFrameCount();
+        //  游戏启动时为 -1
+        //  水管的帧数
+        if (mNextPipeFrameCount == -1) {
+            // 让水管帧数 = 循环一次的帧数
+            mNextPipeFrameCount = recycleFrameCount;
+        }
+
+        if (mLevel != null) {
+            // 关卡模式按滚动的距离生成水管
+            if (mNextPipeDistance <= 0) {
+                genLevelPipePair();
+            }
+        } else if (mFrameCount == mNextPipeFrameCount) {
+            genPipePair();
+            mNextPipeFrameCount += recycleFrameCount / 2;
+            if (mNextPipeFrameCount >= (SPEED_SCALE * recycleFrameCount)) {
+                mNextPipeFrameCount -= (SPEED_SCALE * recycleFrameCount);
+            }
+        }
+
+        mPrevFrameCount = mFrameCount;
+        mFrameCount++;
+        for (int i = 0; i < mPipeCount; i++) {
+            mPipeLeft[slot(i)] -= mRollingSpeed;
+        }
+        mLastScroll = mRollingSpeed;
+        mNextPipeDistance -= mRollingSpeed;
+        mPrevScroll = mScroll;
+        mScroll += mRollingSpeed;
+        if (mScroll >= SPEED_SCALE * (mRight - mLeft)) {
+            mScroll -= SPEED_SCALE * (mRight - mLeft);
+        }
+
+        // 关卡模式中速度会变, 循环一次的帧数跟着变小, 帧数可能已经超过了新的上限
+        if (mFrameCount >= (SPEED_SCALE * recycleFrameCount)) {
+            mFrameCount = 0;
+        }
+    }
+
+    // 判断鸟的碰撞
+    public boolean isBirdCrash(BirdState bird) {
+        boolean crashed = false;
+        // 如果 鸟的底部距上方背景边界的距离 - 距上方背景边界整个背景 4/5 的距离
+        if (bird.getBottom() - mGroundTop > CRASH_DETECT_PADDING) {
+            crashed = true;
+            mCrashType = CRASH_TYPE_GROUND;
+            bird.put2Death();  //撞在地面上，鸟就直接挂了
+            mIsQuiet = true;    //表示背景不再动了
+        } else {
+            // 只检查这一帧中水平方向上可能与鸟重叠的水管:
+            // 移动前的右边界 >= 鸟的左边 + PADDING, 移动后的左边界 <= 鸟的右边 - PADDING
+            int maxLeft = bird.getRight() - CRASH_DETECT_PADDING;
+            int first = findFirstPipeRightOf(bird.getLeft() + CRASH_DETECT_PADDING - mLastScroll);
+            for (int i = first; i < mPipeCount; i++) {
+                int slot = slot(i);
+                if (mPipeLeft[slot] > maxLeft) {
+                    break;
+                }
+
+                //...CRASH_TYPE_PIPE
+                if (sweptPipeHit(mPipeLeft[slot], mLastScroll, mPipeWidth, mPipeDownBottom[slot],
+                        mPipeUpTop[slot], bird.getLeft(), bird.getRight(), bird.getPrevTop(),
+                        bird.getTop(), bird.getHeight())) {
+                    crashed = true;
+                    mCrashType = CRASH_TYPE_PIPE;
+                    mIsQuiet = true;
+                    break;
+                }
+            }
+        }
+        return crashed;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.flappybird.telemetry;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单生产者、单消费者的无锁环形缓冲区，存放定长的遥测事件
+ *
+ * 游戏线程 (唯一的生产者) 调用 offer()：往预先分配的 long 数组里写 3 个 long，再用 lazySet 发布写入位置，
+ * 不加锁、不分配对象、不等待；缓冲区满时直接丢掉这个事件并计数，绝不阻塞游戏线程。
+ * 后台的写入线程 (唯一的消费者) 调用 drainTo()，把事件按 RECORD_BYTES 的格式拷贝出来，再发布读取位置。
+ *
+ * 每个事件: long 时间 (System.nanoTime()), int 类型, int 帧号, int 参数 a, int 参数 b
+ */
+public class EventRing {
+    public static final int RECORD_BYTES = 24;
+    private static final int FIELDS = 3; // 每个事件占几个 long
+
+    private final long[] mSlots;
+    private final int mMask;
+    private final AtomicLong mHead = new AtomicLong(); // 一共写入了多少个, 只有生产者修改
+    private final AtomicLong mTail = new AtomicLong(); // 一共读走了多少个, 只有消费者修改
+    private long mCachedTail; // 生产者看到的读取位置, 只在看起来满了的时候重新读
+    private volatile long mDropped; // 只有生产者修改
+
+    // capacity: 最多缓存多少个事件, 2 的幂
+    public EventRing(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        mSlots = new long[capacity * FIELDS];
+        mMask = capacity - 1;
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    // 写入一个事件, 满了时返回 false; 只能在同一个线程中调用
+    public boolean offer(long nanos, int type, int tick, int a, int b) {
+        long head = mHead.get();
+        if (head - mCachedTail > mMask) {
+            mCachedTail = mTail.get();
+            if (head - mCachedTail > mMask) {
+                mDropped++;
+                return false;
+            }
+        }
+        int base = (int) (head & mMask) * FIELDS;
+        mSlots[base] = nanos;
+        mSlots[base + 1] = (long) type << 32 | (tick & 0xffffffffL);
+        mSlots[base + 2] = (long) a << 32 | (b & 0xffffffffL);
+        mHead.lazySet(head + 1); // 上面的写入对读到这个位置的消费者可见
+        return true;
+    }
+
+    // 把缓存的事件尽量多地拷贝到 out 中 (放不下的留在缓冲区里), 返回拷贝的个数; 只能在同一个线程中调用
+    public int drainTo(ByteBuffer out) {
+        long tail = mTail.get();
+        int count = (int) Math.min(mHead.get() - tail, out.remaining() / RECORD_BYTES);
+        for (int i = 0; i < count; i++) {
+            int base = (int) ((tail + i) & mMask) * FIELDS;
+            long typeTick = mSlots[base + 1];
+            long args = mSlots[base + 2];
+            out.putLong(mSlots[base]);
+            out.putInt((int) (typeTick >>> 32)).putInt((int) typeTick);
+            out.putInt((int) (args >>> 32)).putInt((int) args);
+        }
+        if (count > 0) {
+            mTail.lazySet(tail + count); // 读完以后才让生产者覆盖这些位置
+        }
+        return count;
+    }
+
+    // 还没有读走的事件数
+    public int size() {
+        return (int) (mHead.get() - mTail.get());
+    }
+
+    // 因为满了而丢掉的事件数
+    public long getDropped() {
+        return mDropped;
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.flappybird.telemetry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+
+/**
+ * 遥测：记录调参需要的事件 (每局的开始和结束、得分、撞到地面还是水管、卡顿的帧)，追加到一个文件中
+ *
+ * 游戏线程调用 log() 只是往 EventRing 里写几个 long，不加锁、不分配对象、不拼字符串。
+ * 后台线程每 POLL_MILLIS 把事件取出来攒成一批，攒够 BATCH_EVENTS 个或者过了 FLUSH_NANOS 时，
+ * 用 Deflater 压缩成一段，通过 FileChannel 追加到文件末尾。所有缓冲区都是预先分配的。
+ *
+ * 文件由若干段组成，每段 (大端)：
+ *   int SEGMENT_MAGIC, int 压缩后的字节数, int 压缩前的字节数, int 事件数,
+ *   压缩后的数据 (zlib 格式, 带校验和)，压缩前是 事件数 * EventRing.RECORD_BYTES 个字节
+ * 进程在写一段的中途被杀掉时，文件末尾只会多出一段不完整的数据，TelemetryReader 读到那里就停下。
+ * 用 TelemetryReport 在电脑上读出和汇总。
+ */
+public class Telemetry implements Closeable {
+    // 一局开始: a = 种子的低 32 位
+    public static final int EVENT_RUN_START = 1;
+    // 过管得分: a = 这一局的得分
+    public static final int EVENT_POINT = 2;
+    // 碰撞: a = WorldState.CRASH_TYPE_*, b = 这一局的得分
+    public static final int EVENT_CRASH = 3;
+    // 一局结束 (落地): a = 得分, b = 这一局的帧数
+    public static final int EVENT_RUN_END = 4;
+    // 卡顿: a = 这一帧的工作时间 (us), b = 每帧的预算 (us)
+    public static final int EVENT_FRAME_SPIKE = 5;
+
+    public static final int SEGMENT_MAGIC = 0x46425453; // "FBTS"
+    public static final int SEGMENT_HEADER_BYTES = 16;
+    public static final int DEFAULT_CAPACITY = 4096;
+    static final int BATCH_EVENTS = 512;
+    private static final long FLUSH_NANOS = 2000000000L;
+    private static final long POLL_MILLIS = 50;
+
+    private final File mFile;
+    private final EventRing mRing;
+    private final Thread mThread;
+    private volatile boolean mClosed;
+    private volatile IOException mError;
+    private volatile int mSegments;
+    private volatile long mBytesWritten;
+
+    // 以下只在后台线程中使用
+    private final ByteBuffer mBatch = ByteBuffer.allocate(BATCH_EVENTS * EventRing.RECORD_BYTES);
+    private final ByteBuffer mCompressed;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+    private final ByteBuffer[] mSegment;
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private long mBatchStart; // 这一批第一个事件取出的时间
+
+    private Telemetry(File file, int capacity) {
+        mFile = file;
+        mRing = new EventRing(capacity);
+        int raw = mBatch.capacity();
+        // 数据压缩不了时 deflate 每 16KB 的块多出 5 个字节, 再加上 zlib 的头和校验和
+        mCompressed = ByteBuffer.allocate(raw + raw / 1000 + 64);
+        mSegment = new ByteBuffer[] {mHeader, mCompressed};
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Telemetry");
+        mThread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    // 开始把事件追加到 file 中; 文件在后台线程中打开
+    public static Telemetry open(File file) {
+        return open(file, DEFAULT_CAPACITY);
+    }
+
+    // capacity: 缓冲区最多存放多少个还没写出的事件, 2 的幂
+    public static Telemetry open(File file, int capacity) {
+        Telemetry telemetry = new Telemetry(file, capacity);
+        telemetry.mThread.start();
+        return telemetry;
+    }
+
+    // 在游戏线程中记录一个事件, 缓冲区满了时丢掉
+    public void log(int type, int tick, int a, int b) {
+        mRing.offer(System.nanoTime(), type, tick, a, b);
+    }
+
+    public long getDropped() {
+        return mRing.getDropped();
+    }
+
+    public int getSegments() {
+        return mSegments;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    // 写文件时出的错, 出错以后不再写入
+    public IOException getError() {
+        return mError;
+    }
+
+    private void writeLoop() {
+        FileChannel channel = null;
+        try {
+            File dir = mFile.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("can't create " + dir);
+            }
+            channel = new FileOutputStream(mFile, true).getChannel();
+            while (true) {
+                boolean closing = mClosed; // 先读, 关闭之前写入的事件都会在下面取出来
+                int drained = drain(channel);
+                if (mBatch.position() > 0 && (closing || System.nanoTime() - mBatchStart >= FLUSH_NANOS)) {
+                    writeSegment(channel);
+                }
+                if (closing && mRing.size() == 0) {
+                    break;
+                }
+                if (drained == 0 && !closing) {
+                    LockSupport.parkNanos(POLL_MILLIS * 1000000L);
+                }
+            }
+        } catch (IOException e) {
+            mError = e;
+        } finally {
+            mDeflater.end();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    if (mError == null) {
+                        mError = e;
+                    }
+                }
+            }
+        }
+    }
+
+    // 取出所有事件, 这一批满了就写出一段, 返回取出的个数
+    private int drain(FileChannel channel) throws IOException {
+        int total = 0;
+        while (true) {
+            boolean empty = mBatch.position() == 0;
+            int count = mRing.drainTo(mBatch);
+            if (count == 0) {
+                return total;
+            }
+            if (empty) {
+                mBatchStart = System.nanoTime();
+            }
+            total += count;
+            if (!mBatch.hasRemaining()) {
+                writeSegment(channel);
+            }
+        }
+    }
+
+    // 压缩这一批事件, 加上段头, 一次聚集写追加到文件末尾
+    private void writeSegment(FileChannel channel) throws IOException {
+        int raw = mBatch.position();
+        mDeflater.reset();
+        mDeflater.setInput(mBatch.array(), 0, raw);
+        mDeflater.finish();
+        byte[] compressed = mCompressed.array();
+        int length = 0;
+        while (!mDeflater.finished()) {
+            length += mDeflater.deflate(compressed, length, compressed.length - length);
+            if (length == compressed.length && !mDeflater.finished()) {
+                throw new IOException("segment does not fit");
+            }
+        }
+        mHeader.clear();
+        mHeader.putInt(SEGMENT_MAGIC).putInt(length).putInt(raw).putInt(raw / EventRing.RECORD_BYTES).flip();
+        mCompressed.clear().limit(length);
+        long bytes = SEGMENT_HEADER_BYTES + length;
+        long written = 0;
+        while (written < bytes) {
+            written += channel.write(mSegment);
+        }
+        mBatch.clear();
+        mSegments++;
+        mBytesWritten += bytes;
+    }
+
+    // 写出所有已经记录的事件, 然后结束后台线程; 在调用 log() 的线程中, 或者那个线程结束以后调用
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mError != null) {
+            throw mError;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.flappybird.telemetry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 顺序读出 Telemetry 写的文件：每次 next() 读出一个事件，一段读完时再从 FileChannel 读入并解压下一段
+ *
+ * 文件末尾不完整的一段 (写的时候进程被杀掉了) 当作文件结束，isTruncated() 返回 true；
+ * 段头或者压缩数据不对时抛出 IOException。
+ */
+public class TelemetryReader implements Closeable {
+    private final FileChannel mChannel;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(Telemetry.SEGMENT_HEADER_BYTES);
+    private ByteBuffer mCompressed = ByteBuffer.allocate(4096);
+    private ByteBuffer mEvents = ByteBuffer.allocate(Telemetry.BATCH_EVENTS * EventRing.RECORD_BYTES);
+    private final Inflater mInflater = new Inflater();
+    private boolean mTruncated;
+    private int mSegments;
+    private long mEventCount;
+
+    // 当前事件
+    private long mNanos;
+    private int mType;
+    private int mTick;
+    private int mA;
+    private int mB;
+
+    public TelemetryReader(FileChannel channel) {
+        mChannel = channel;
+        mEvents.limit(0);
+    }
+
+    public static TelemetryReader open(File file) throws IOException {
+        return new TelemetryReader(new FileInputStream(file).getChannel());
+    }
+
+    // 读出下一个事件, 没有了返回 false
+    public boolean next() throws IOException {
+        while (!mEvents.hasRemaining()) {
+            if (!readSegment()) {
+                return false;
+            }
+        }
+        mNanos = mEvents.getLong();
+        mType = mEvents.getInt();
+        mTick = mEvents.getInt();
+        mA = mEvents.getInt();
+        mB = mEvents.getInt();
+        mEventCount++;
+        return true;
+    }
+
+    private boolean readSegment() throws IOException {
+        mHeader.clear();
+        int read = readFully(mHeader);
+        if (read < mHeader.capacity()) {
+            mTruncated = read > 0;
+            return false;
+        }
+        mHeader.flip();
+        int magic = mHeader.getInt();
+        int length = mHeader.getInt();
+        int raw = mHeader.getInt();
+        int count = mHeader.getInt();
+        if (magic != Telemetry.SEGMENT_MAGIC || length < 0 || count < 0
+                || raw != count * EventRing.RECORD_BYTES) {
+            throw new IOException("corrupt telemetry segment " + mSegments);
+        }
+        if (mCompressed.capacity() < length) {
+            mCompressed = ByteBuffer.allocate(length);
+        }
+        mCompressed.clear().limit(length);
+        if (readFully(mCompressed) < length) {
+            mTruncated = true;
+            return false;
+        }
+        if (mEvents.capacity() < raw) {
+            mEvents = ByteBuffer.allocate(raw);
+        }
+        mInflater.reset();
+        mInflater.setInput(mCompressed.array(), 0, length);
+        try {
+            if (mInflater.inflate(mEvents.array(), 0, raw) != raw || !mInflater.finished()) {
+                throw new IOException("corrupt telemetry segment " + mSegments);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt telemetry segment " + mSegments, e);
+        }
+        mEvents.clear().limit(raw);
+        mSegments++;
+        return true;
+    }
+
+    // 读满 buffer 或者读到文件末尾, 返回读到的字节数
+    private int readFully(ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = mChannel.read(buffer);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    public long getNanos() {
+        return mNanos;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public int getTick() {
+        return mTick;
+    }
+
+    public int getA() {
+        return mA;
+    }
+
+    public int getB() {
+        return mB;
+    }
+
+    public int getSegments() {
+        return mSegments;
+    }
+
+    public long getEventCount() {
+        return mEventCount;
+    }
+
+    // 文件末尾有一段不完整
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInflater.end();
+        mChannel.close();
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.flappybird.telemetry;
+
+import com.example.flappybird.sim.WorldState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * 在电脑上汇总遥测文件 (从设备上取下来的 files/telemetry/events.fbt)：
+ *   java -cp ... com.example.flappybird.telemetry.TelemetryReport 文件...
+ *
+ * 输出一共玩了多少局、撞到地面和水管各多少次、得分和每局时长的分布、卡顿的帧数和最长的一帧。
+ */
+public class TelemetryReport {
+    // 得分的分布, 最后一个桶是 MAX_SCORE 及以上
+    private static final int MAX_SCORE = 50;
+    private static final long TICK_MILLIS = 50;
+
+    private long mEvents;
+    private int mFiles;
+    private int mTruncatedFiles;
+    private int mRuns;
+    private int mGroundCrashes;
+    private int mPipeCrashes;
+    private long mPoints;
+    private long mTotalScore;
+    private int mMaxScore;
+    private final int[] mScores = new int[MAX_SCORE + 1];
+    private long mTotalTicks;
+    private int mMaxTicks;
+    private int mSpikes;
+    private int mMaxSpikeMicros;
+
+    // 读完一个文件中的所有事件
+    public TelemetryReport add(TelemetryReader reader) throws IOException {
+        while (reader.next()) {
+            add(reader.getType(), reader.getA(), reader.getB());
+        }
+        mFiles++;
+        if (reader.isTruncated()) {
+            mTruncatedFiles++;
+        }
+        return this;
+    }
+
+    public void add(int type, int a, int b) {
+        mEvents++;
+        switch (type) {
+            case Telemetry.EVENT_POINT:
+                mPoints++;
+                break;
+            case Telemetry.EVENT_CRASH:
+                if (a == WorldState.CRASH_TYPE_GROUND) {
+                    mGroundCrashes++;
+                } else if (a == WorldState.CRASH_TYPE_PIPE) {
+                    mPipeCrashes++;
+                }
+                break;
+            case Telemetry.EVENT_RUN_END:
+                mRuns++;
+                mTotalScore += a;
+                mMaxScore = Math.max(mMaxScore, a);
+                mScores[Math.max(0, Math.min(MAX_SCORE, a))]++;
+                mTotalTicks += b;
+                mMaxTicks = Math.max(mMaxTicks, b);
+                break;
+            case Telemetry.EVENT_FRAME_SPIKE:
+                mSpikes++;
+                mMaxSpikeMicros = Math.max(mMaxSpikeMicros, a);
+                break;
+            default:
+                break; // 一局开始, 以及以后版本新加的事件
+        }
+    }
+
+    public long getEvents() {
+        return mEvents;
+    }
+
+    public int getRuns() {
+        return mRuns;
+    }
+
+    public int getGroundCrashes() {
+        return mGroundCrashes;
+    }
+
+    public int getPipeCrashes() {
+        return mPipeCrashes;
+    }
+
+    public long getPoints() {
+        return mPoints;
+    }
+
+    public int getMaxScore() {
+        return mMaxScore;
+    }
+
+    public long getTotalTicks() {
+        return mTotalTicks;
+    }
+
+    public int getSpikes() {
+        return mSpikes;
+    }
+
+    public int getMaxSpikeMicros() {
+        return mMaxSpikeMicros;
+    }
+
+    public int getTruncatedFiles() {
+        return mTruncatedFiles;
+    }
+
+    // 得分不超过 percent% 的局的最高得分
+    public int scorePercentile(int percent) {
+        if (mRuns == 0) {
+            return 0;
+        }
+        int rank = Math.max(1, (int) (((long) mRuns * percent + 99) / 100));
+        int seen = 0;
+        for (int score = 0; score <= MAX_SCORE; score++) {
+            seen += mScores[score];
+            if (seen >= rank) {
+                return score;
+            }
+        }
+        return MAX_SCORE;
+    }
+
+    public void print(PrintStream out) {
+        out.println(mFiles + " files (" + mTruncatedFiles + " truncated), " + mEvents + " events");
+        out.println(mRuns + " runs, crashes: " + mGroundCrashes + " ground, " + mPipeCrashes + " pipe");
+        if (mRuns > 0) {
+            out.println("score: avg " + String.format("%.2f", (double) mTotalScore / mRuns)
+                    + ", p50 " + scorePercentile(50) + ", p90 " + scorePercentile(90) + ", max " + mMaxScore);
+            out.println("run length: avg " + mTotalTicks * TICK_MILLIS / mRuns + " ms, max "
+                    + mMaxTicks * TICK_MILLIS + " ms");
+            StringBuilder histogram = new StringBuilder("score histogram:");
+            for (int score = 0; score <= MAX_SCORE; score++) {
+                if (mScores[score] > 0) {
+                    histogram.append(' ').append(score).append(score == MAX_SCORE ? "+" : "")
+                            .append('=').append(mScores[score]);
+                }
+            }
+            out.println(histogram);
+        }
+        out.println(mSpikes + " frame spikes, longest " + mMaxSpikeMicros + " us");
+    }
+
+    public static void main(String[] args) throws IOException {
+        TelemetryReport report = new TelemetryReport();
+        for (String path : args) {
+            TelemetryReader reader = TelemetryReader.open(new File(path));
+            try {
+                report.add(reader);
+            } finally {
+                reader.close();
+            }
+        }
+        report.print(System.out);
+    }
+}
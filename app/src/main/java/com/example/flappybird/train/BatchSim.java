@@ -0,0 +1,492 @@
+package com.example.flappybird.train;
+
+import com.example.flappybird.sim.BirdState;
+import com.example.flappybird.sim.LevelGenerator;
+import com.example.flappybird.sim.SimRandom;
+import com.example.flappybird.sim.WorldState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 批量模拟：同时模拟 N 个互相独立的 "鸟 + 背景世界"，用来训练和评估自动玩家
+ *
+ * 每个玩家的状态按列存放在基本类型数组中 (结构数组, 第 a 个玩家就是各个数组的第 a 项)，
+ * 水管也是每个玩家一段固定容量的环形缓冲区，整个模拟过程中不创建对象。
+ * 物理规则和 Simulation 的游戏阶段完全一致：
+ *   鸟: BirdState.shot() 和重力 FALL_ACCEL_Y
+ *   水管: 没有关卡时是 WorldState 的模板、生成节奏和随机数 (Simulation.LEVEL_TEMPLATES)；
+ *         有关卡时和 Simulation.LEVEL_PROCEDURAL 一样, 按滚动的距离从 LevelGenerator 取水管, 速度随序号变化
+ *   碰撞和过管: WorldState.isBirdCrash() (按这一帧的移动扫掠) 和 hasPassPipe() (按这一帧是否越过)
+ * 所以同样的种子和同样的点击, 和 Simulation 的死亡时刻和得分相同。
+ * 只模拟到鸟第一次碰撞为止，不需要的旋转角度和皮肤帧也不计算。
+ *
+ * 关卡模式下同一个种子的赛道 (每对水管的空隙) 只生成一次，用同一个种子的玩家共用，
+ * 每个玩家只记下自己取到了第几对水管。赛道在 run() 开始之前按帧数上限生成够，并行推进时只读。
+ *
+ * 玩家之间没有任何共享的可变状态，run() 把玩家分成若干块交给 ForkJoinPool 并行推进，
+ * 每一块从头跑到所有玩家都死掉或到达帧数上限，中间不需要同步。
+ */
+public class BatchSim {
+    // 交给 Policy 的观察值个数, 含义见 observe()
+    public static final int OBSERVATIONS = 4;
+    // 每个并行任务最多模拟多少个玩家
+    private static final int CHUNK_AGENTS = 512;
+
+    private final int mAgents;
+    private final int mWidth;
+    private final int mHeight;
+
+    // 所有玩家相同的常量
+    private final int mBirdLeft;
+    private final int mBirdRight;
+    private final int mBirdHeight;
+    private final int mStartTop;
+    private final int mGroundTop;
+    private final int mPipeWidth;
+    private final int mRollingSpeed;
+    private final int mRecycleFrameCount;
+    private final int[] mTemplateDownBottom;
+    private final int[] mTemplateUpTop;
+    private final int mPipeCapacity;
+    private final LevelGenerator mLevel; // null 表示模板模式
+    private final List<Course> mCourses = new ArrayList<Course>();
+    private final Map<Long, Integer> mCourseIndex = new HashMap<Long, Integer>(); // 关卡的种子 -> 赛道
+
+    // 每个玩家的状态
+    private final int[] mBirdTop;
+    private final int[] mSpeedY;
+    private final int[] mFrameCount;
+    private final int[] mNextPipeFrameCount;
+    private final long[] mRandomState;
+    private final int[] mScroll; // 这一帧水管移动的距离, 模板模式下不变
+    private final int[] mCourse; // 关卡模式: 玩家的赛道
+    private final int[] mPipeIndex; // 关卡模式: 下一对水管的序号
+    private final int[] mNextPipeDistance; // 关卡模式: 再滚动多远生成下一对水管
+    private final boolean[] mDead;
+    private final int[] mTicks; // 活过的帧数
+    private final int[] mScore; // 过管数
+    // 每个玩家的水管, 第 a 个玩家占 [a * mPipeCapacity, (a + 1) * mPipeCapacity)
+    private final int[] mPipeHead;
+    private final int[] mPipeCount;
+    private final int[] mPipeLeft;
+    private final int[] mPipeDownBottom;
+    private final int[] mPipeUpTop;
+
+    // 一个种子的赛道: 关卡生成的前 mCount 对水管的空隙
+    private static class Course {
+        final long mSeed;
+        int mCount;
+        int[] mDownBottom = new int[0];
+        int[] mUpTop = new int[0];
+
+        Course(long seed) {
+            mSeed = seed;
+        }
+    }
+
+    // 参数和 Simulation.init() 相同, 模板模式
+    public BatchSim(int agents, int width, int height, int birdWidth, int birdHeight, int pipeWidth) {
+        this(agents, width, height, birdWidth, birdHeight, pipeWidth, null);
+    }
+
+    // level 不为 null 时是关卡模式, 按它的参数生成水管; 它的大小参数要和这里相同
+    public BatchSim(int agents, int width, int height, int birdWidth, int birdHeight, int pipeWidth,
+                    LevelGenerator level) {
+        mAgents = agents;
+        mWidth = width;
+        mHeight = height;
+        // 和 Simulation 开始游戏时一样, 鸟的中心在 (width / 3, height / 2)
+        int centerX = width / 3;
+        mBirdLeft = centerX - birdWidth / 2;
+        mBirdRight = centerX + birdWidth / 2;
+        mStartTop = height / 2 - birdHeight / 2;
+        mBirdHeight = height / 2 + birdHeight / 2 - mStartTop;
+
+        mLevel = level;
+        WorldState world = new WorldState().setBound(0, 0, width, height).setPipeWidth(pipeWidth).setLevel(level);
+        world.genTemplatePipeList();
+        mGroundTop = world.getGroundTop();
+        mPipeWidth = pipeWidth;
+        mRollingSpeed = world.getRollingSpeed();
+        mRecycleFrameCount = world.getRecycleFrameCount();
+        mPipeCapacity = world.getPipeCapacity();
+        mTemplateDownBottom = new int[world.getTemplateCount()];
+        mTemplateUpTop = new int[world.getTemplateCount()];
+        for (int i = 0; i < mTemplateDownBottom.length; i++) {
+            mTemplateDownBottom[i] = world.getTemplateDownBottom(i);
+            mTemplateUpTop[i] = world.getTemplateUpTop(i);
+        }
+
+        mBirdTop = new int[agents];
+        mSpeedY = new int[agents];
+        mFrameCount = new int[agents];
+        mNextPipeFrameCount = new int[agents];
+        mRandomState = new long[agents];
+        mScroll = new int[agents];
+        mCourse = new int[agents];
+        mPipeIndex = new int[agents];
+        mNextPipeDistance = new int[agents];
+        mDead = new boolean[agents];
+        mTicks = new int[agents];
+        mScore = new int[agents];
+        mPipeHead = new int[agents];
+        mPipeCount = new int[agents];
+        mPipeLeft = new int[agents * mPipeCapacity];
+        mPipeDownBottom = new int[agents * mPipeCapacity];
+        mPipeUpTop = new int[agents * mPipeCapacity];
+    }
+
+    public int getAgentCount() {
+        return mAgents;
+    }
+
+    public LevelGenerator getLevel() {
+        return mLevel;
+    }
+
+    // 所有玩家用同一个种子 (同样的水管) 开始新的一局, 同时丢掉之前生成的赛道
+    public void reset(long seed) {
+        mCourses.clear();
+        mCourseIndex.clear();
+        long randomState = new SimRandom(seed).getState();
+        int course = courseFor(seed);
+        for (int a = 0; a < mAgents; a++) {
+            start(a, randomState, course);
+        }
+    }
+
+    // 第 agent 个玩家用种子 seed 开始新的一局
+    public void reset(int agent, long seed) {
+        start(agent, new SimRandom(seed).getState(), courseFor(seed));
+    }
+
+    // 种子 seed 的赛道, 还没有时新建一个; 模板模式返回 -1
+    private int courseFor(long seed) {
+        if (mLevel == null) {
+            return -1;
+        }
+        // 和 Simulation.init() 一样, 关卡的种子是世界的随机数取出的第一个数
+        long levelSeed = new SimRandom(seed).nextLong();
+        Integer index = mCourseIndex.get(levelSeed);
+        if (index == null) {
+            index = mCourses.size();
+            mCourses.add(new Course(levelSeed));
+            mCourseIndex.put(levelSeed, index);
+        }
+        return index;
+    }
+
+    // 把赛道生成到至少 pipes 对水管, 每次至少翻倍; 前面的水管由 LevelGenerator.restore() 重新生成
+    private void growCourse(Course course, int pipes) {
+        if (course.mCount >= pipes) {
+            return;
+        }
+        int count = Math.max(pipes, Math.max(LevelGenerator.CHUNK_SIZE, course.mCount * 2));
+        course.mDownBottom = Arrays.copyOf(course.mDownBottom, count);
+        course.mUpTop = Arrays.copyOf(course.mUpTop, count);
+        mLevel.restore(course.mSeed, course.mCount);
+        for (int i = course.mCount; i < count; i++) {
+            mLevel.nextPipe();
+            course.mDownBottom[i] = mLevel.getDownBottom();
+            course.mUpTop[i] = mLevel.getUpTop();
+        }
+        course.mCount = count;
+    }
+
+    /*
+    活过 maxTicks 帧最多需要多少对水管:
+    第 k 对水管在滚动了 width + k * minSpacing 以上时才生成, 每帧最多滚动 fastest
+     */
+    private int pipesFor(int maxTicks) {
+        int fastest = Math.max(mLevel.getSpeed(0), mLevel.getSpeed(mLevel.getRampPipes()));
+        long distance = (long) maxTicks * fastest - mWidth;
+        return (int) Math.max(0, distance / mLevel.getMinSpacing()) + 2;
+    }
+
+    // 和 Simulation 在待命状态下点击屏幕之后的状态相同: 鸟刚刚发射, 画面开始滚动
+    private void start(int a, long randomState, int course) {
+        mBirdTop[a] = mStartTop;
+        mSpeedY[a] = BirdState.MAX_RISE_SPEED_Y;
+        mFrameCount[a] = 0;
+        mNextPipeFrameCount[a] = mRecycleFrameCount;
+        mRandomState[a] = randomState;
+        mScroll[a] = mLevel != null ? mLevel.getSpeed(0) : mRollingSpeed;
+        mCourse[a] = course;
+        mPipeIndex[a] = 0;
+        mNextPipeDistance[a] = mWidth; // WorldState.roll(): 先空出一屏
+        mDead[a] = false;
+        mTicks[a] = 0;
+        mScore[a] = 0;
+        mPipeHead[a] = 0;
+        mPipeCount[a] = 0;
+    }
+
+    public boolean isDead(int agent) {
+        return mDead[agent];
+    }
+
+    public int getTicks(int agent) {
+        return mTicks[agent];
+    }
+
+    public int getScore(int agent) {
+        return mScore[agent];
+    }
+
+    public int getBirdTop(int agent) {
+        return mBirdTop[agent];
+    }
+
+    public int getPipeCount(int agent) {
+        return mPipeCount[agent];
+    }
+
+    // 第 agent 个玩家从左往右第 i 对水管的左边界
+    public int getPipeLeft(int agent, int i) {
+        return mPipeLeft[slot(agent, i)];
+    }
+
+    // 第 a 个玩家的第 i 对水管在水管数组中的位置
+    private int slot(int a, int i) {
+        int slot = mPipeHead[a] + i;
+        if (slot >= mPipeCapacity) {
+            slot -= mPipeCapacity;
+        }
+        return a * mPipeCapacity + slot;
+    }
+
+    /*
+    第 a 个玩家的观察值, 大致缩放到 [-1, 1] 附近:
+    0: 鸟的中心相对下一对水管空隙中心的高度, 以 1/8 屏幕高度为单位, 网络需要对它最敏感
+    1: 鸟的速度
+    2: 下一对水管到鸟的水平距离
+    3: 鸟到地面的距离
+    下一对水管是还没有飞过去的第一对水管, 还没有水管时当作空隙在天空中间、距离一整个屏幕
+     */
+    public void observe(int a, float[] out) {
+        int gapCenter = mGroundTop / 2;
+        int distance = mWidth;
+        for (int i = 0; i < mPipeCount[a]; i++) {
+            int slot = slot(a, i);
+            if (mPipeLeft[slot] + mPipeWidth >= mBirdLeft) {
+                gapCenter = (mPipeDownBottom[slot] + mPipeUpTop[slot]) / 2;
+                distance = mPipeLeft[slot] - mBirdRight;
+                break;
+            }
+        }
+        int birdCenter = mBirdTop[a] + mBirdHeight / 2;
+        out[0] = (float) (birdCenter - gapCenter) * 8 / mHeight;
+        out[1] = (float) mSpeedY[a] / -BirdState.MAX_RISE_SPEED_Y;
+        out[2] = (float) distance / mWidth;
+        out[3] = (float) (mGroundTop - mBirdTop[a] - mBirdHeight) / mHeight;
+    }
+
+    // 第 a 个玩家推进一个物理帧, flap 表示这一帧是否点击了屏幕
+    // random 只是用来推进第 a 个玩家随机数状态的临时对象
+    public void step(int a, boolean flap, SimRandom random) {
+        if (mDead[a]) {
+            return;
+        }
+        if (flap) { // BirdState.shot()
+            mSpeedY[a] = BirdState.MAX_RISE_SPEED_Y;
+        }
+        stepWorld(a, random);
+        // BirdState.step(): 用速度更新位置, 用加速度更新速度
+        int prevTop = mBirdTop[a];
+        mBirdTop[a] += mSpeedY[a];
+        mSpeedY[a] += BirdState.FALL_ACCEL_Y;
+        mTicks[a]++;
+        if (isCrash(a, prevTop)) {
+            mDead[a] = true;
+        } else if (hasPassPipe(a)) {
+            mScore[a]++;
+        }
+    }
+
+    // WorldState.step(): 按节奏 (关卡模式按滚动的距离) 生成水管, 滚动画面
+    private void stepWorld(int a, SimRandom random) {
+        if (mLevel != null) {
+            if (mNextPipeDistance[a] <= 0) {
+                genLevelPipePair(a);
+            }
+        } else {
+            int frameCount = mFrameCount[a];
+            if (frameCount == mNextPipeFrameCount[a]) {
+                genPipePair(a, random);
+                int next = mNextPipeFrameCount[a] + mRecycleFrameCount / 2;
+                if (next >= WorldState.SPEED_SCALE * mRecycleFrameCount) {
+                    next -= WorldState.SPEED_SCALE * mRecycleFrameCount;
+                }
+                mNextPipeFrameCount[a] = next;
+            }
+            frameCount++;
+            if (frameCount == WorldState.SPEED_SCALE * mRecycleFrameCount) {
+                frameCount = 0;
+            }
+            mFrameCount[a] = frameCount;
+        }
+        int scroll = mScroll[a];
+        for (int i = 0; i < mPipeCount[a]; i++) {
+            mPipeLeft[slot(a, i)] -= scroll;
+        }
+        mNextPipeDistance[a] -= scroll;
+    }
+
+    // WorldState.genPipePair(): 随机选一个模板, 新水管放在右边界
+    private void genPipePair(int a, SimRandom random) {
+        random.setState(mRandomState[a]);
+        int temp = random.nextInt(mTemplateDownBottom.length);
+        mRandomState[a] = random.getState();
+        addPipePair(a, mWidth, mTemplateDownBottom[temp], mTemplateUpTop[temp]);
+    }
+
+    // WorldState.genLevelPipePair(): 从赛道中取出下一对水管, 间距和滚动速度由序号决定
+    // 赛道不够长时在当前线程中生成, run() 中事先生成好了, 不会走到这里
+    private void genLevelPipePair(int a) {
+        int index = mPipeIndex[a]++;
+        Course course = mCourses.get(mCourse[a]);
+        if (index >= course.mCount) {
+            growCourse(course, index + 1);
+        }
+        addPipePair(a, mWidth + mNextPipeDistance[a], course.mDownBottom[index], course.mUpTop[index]);
+        mNextPipeDistance[a] += mLevel.getSpacing(index);
+        mScroll[a] = mLevel.getSpeed(index);
+    }
+
+    // 回收移出屏幕的水管 (缓冲区满时回收最左边的), 把新水管放在队列尾部
+    private void addPipePair(int a, int left, int downBottom, int upTop) {
+        if (mPipeCount[a] > 0 && mPipeLeft[slot(a, 0)] + mPipeWidth < 0) {
+            recycleHead(a);
+        }
+        if (mPipeCount[a] == mPipeCapacity) {
+            recycleHead(a);
+        }
+        int tail = slot(a, mPipeCount[a]);
+        mPipeLeft[tail] = left;
+        mPipeDownBottom[tail] = downBottom;
+        mPipeUpTop[tail] = upTop;
+        mPipeCount[a]++;
+    }
+
+    private void recycleHead(int a) {
+        mPipeHead[a] = mPipeHead[a] + 1 == mPipeCapacity ? 0 : mPipeHead[a] + 1;
+        mPipeCount[a]--;
+    }
+
+    // WorldState.isBirdCrash(): 撞到地面, 或者这一帧中扫掠到了水管
+    private boolean isCrash(int a, int prevTop) {
+        int padding = WorldState.CRASH_DETECT_PADDING;
+        int top = mBirdTop[a];
+        int bottom = top + mBirdHeight;
+        int scroll = mScroll[a];
+        if (bottom - mGroundTop > padding) {
+            return true;
+        }
+        for (int i = 0; i < mPipeCount[a]; i++) {
+            int slot = slot(a, i);
+            int left = mPipeLeft[slot];
+            if (left + scroll + mPipeWidth < mBirdLeft + padding) {
+                continue;
+            }
+            if (left > mBirdRight - padding) {
+                break;
+            }
+            if (WorldState.sweptPipeHit(left, scroll, mPipeWidth, mPipeDownBottom[slot],
+                    mPipeUpTop[slot], mBirdLeft, mBirdRight, prevTop, top, mBirdHeight)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // WorldState.hasPassPipe(): 水管的右边界在 [birdLeft - 这一帧的滚动距离, birdLeft) 之间
+    private boolean hasPassPipe(int a) {
+        for (int i = 0; i < mPipeCount[a]; i++) {
+            int right = mPipeLeft[slot(a, i)] + mPipeWidth;
+            if (right >= mBirdLeft - mScroll[a]) {
+                return right < mBirdLeft;
+            }
+        }
+        return false;
+    }
+
+    // 在当前线程中推进 [from, to) 的玩家, 直到全部死掉或者都活过了 maxTicks 帧
+    private void runRange(Policy policy, int maxTicks, int from, int to) {
+        float[] observation = new float[OBSERVATIONS];
+        SimRandom random = new SimRandom(0);
+        boolean alive = true;
+        while (alive) {
+            alive = false;
+            for (int a = from; a < to; a++) {
+                if (mDead[a] || mTicks[a] >= maxTicks) {
+                    continue;
+                }
+                observe(a, observation);
+                step(a, policy.flap(a, mTicks[a], observation), random);
+                alive |= !mDead[a] && mTicks[a] < maxTicks;
+            }
+        }
+    }
+
+    /**
+     * 用 policy 决定每个玩家什么时候点击, 推进所有玩家直到全部死掉或者都活过了 maxTicks 帧
+     * pool 为 null 时在当前线程中运行。返回这一次总共模拟的玩家帧数
+     */
+    public long run(Policy policy, int maxTicks, ForkJoinPool pool) {
+        if (mLevel != null) {
+            int pipes = pipesFor(maxTicks);
+            for (int i = 0; i < mCourses.size(); i++) {
+                growCourse(mCourses.get(i), pipes);
+            }
+        }
+        long start = totalTicks();
+        if (pool == null) {
+            runRange(policy, maxTicks, 0, mAgents);
+        } else {
+            pool.invoke(new RangeTask(policy, maxTicks, 0, mAgents));
+        }
+        return totalTicks() - start;
+    }
+
+    private long totalTicks() {
+        long ticks = 0;
+        for (int a = 0; a < mAgents; a++) {
+            ticks += mTicks[a];
+        }
+        return ticks;
+    }
+
+    // 把玩家对半分开, 直到每一块不超过 CHUNK_AGENTS 个
+    private class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Policy mPolicy;
+        private final int mMaxTicks;
+        private final int mFrom;
+        private final int mTo;
+
+        RangeTask(Policy policy, int maxTicks, int from, int to) {
+            mPolicy = policy;
+            mMaxTicks = maxTicks;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= CHUNK_AGENTS) {
+                runRange(mPolicy, mMaxTicks, mFrom, mTo);
+                return;
+            }
+            int mid = (mFrom + mTo) >>> 1;
+            invokeAll(new RangeTask(mPolicy, mMaxTicks, mFrom, mid),
+                    new RangeTask(mPolicy, mMaxTicks, mid, mTo));
+        }
+    }
+}
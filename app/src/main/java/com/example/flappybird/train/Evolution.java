@@ -0,0 +1,125 @@
+package com.example.flappybird.train;
+
+import com.example.flappybird.sim.SimRandom;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 用遗传算法训练 NeuralPolicy
+ *
+ * 每一代所有玩家玩同一局 (同一个种子, 同样的水管)，适应度 = 活过的帧数 + POINT_BONUS x 过管数。
+ * 下一代: 最好的 ELITE_FRACTION 原样保留，其余的用锦标赛选出两个父代，逐个参数随机取一方，
+ * 再以 MUTATION_RATE 的概率给参数加上 [-MUTATION_SCALE, MUTATION_SCALE) 的扰动。
+ * 每一代换一个种子，防止网络只记住某一局的水管。
+ * 同样的种子在任何线程数下训练出同样的结果。
+ */
+public class Evolution {
+    public static final int POINT_BONUS = 100;
+    private static final float ELITE_FRACTION = 0.05f;
+    private static final int TOURNAMENT_SIZE = 3;
+    private static final float MUTATION_RATE = 0.1f;
+    private static final float MUTATION_SCALE = 0.5f;
+
+    private final BatchSim mSim;
+    private final NeuralPolicy mPolicy;
+    private final ForkJoinPool mPool;
+    private final int mMaxTicks;
+    private final SimRandom mRandom;
+
+    private final int mPopulation;
+    private final int[] mFitness;
+    private final long[] mRanking; // 适应度 (高 32 位) 和玩家编号 (低 32 位), 排序后就是排名
+    private final float[] mNextGenomes;
+    private final float[] mBestGenome = new float[NeuralPolicy.GENOME_SIZE];
+    private int mGeneration;
+    private int mBestFitness;
+    private int mBestScore;
+
+    // 每一局最多 maxTicks 帧, pool 为 null 时在当前线程中模拟
+    public Evolution(BatchSim sim, NeuralPolicy policy, int maxTicks, long seed, ForkJoinPool pool) {
+        mSim = sim;
+        mPolicy = policy;
+        mPool = pool;
+        mMaxTicks = maxTicks;
+        mRandom = new SimRandom(seed);
+        mPopulation = policy.getPopulation();
+        mFitness = new int[mPopulation];
+        mRanking = new long[mPopulation];
+        mNextGenomes = new float[policy.getGenomes().length];
+        // 第 0 代的参数在 [-1, 1) 中随机取
+        float[] genomes = policy.getGenomes();
+        for (int i = 0; i < genomes.length; i++) {
+            genomes[i] = mRandom.nextFloat() * 2 - 1;
+        }
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    // 上一代中最好的适应度和过管数
+    public int getBestFitness() {
+        return mBestFitness;
+    }
+
+    public int getBestScore() {
+        return mBestScore;
+    }
+
+    // 上一代中最好的网络的参数
+    public float[] getBestGenome() {
+        return mBestGenome;
+    }
+
+    // 评估当前这一代，然后生成下一代, 返回这一代模拟的玩家帧数
+    public long evolve() {
+        mSim.reset(mRandom.nextLong());
+        long ticks = mSim.run(mPolicy, mMaxTicks, mPool);
+        for (int a = 0; a < mPopulation; a++) {
+            mFitness[a] = mSim.getTicks(a) + POINT_BONUS * mSim.getScore(a);
+            mRanking[a] = (long) mFitness[a] << 32 | a;
+        }
+        Arrays.sort(mRanking);
+        int best = (int) mRanking[mPopulation - 1];
+        mBestFitness = mFitness[best];
+        mBestScore = mSim.getScore(best);
+        float[] genomes = mPolicy.getGenomes();
+        System.arraycopy(genomes, best * NeuralPolicy.GENOME_SIZE, mBestGenome, 0, NeuralPolicy.GENOME_SIZE);
+
+        int elites = Math.max(1, (int) (mPopulation * ELITE_FRACTION));
+        for (int child = 0; child < mPopulation; child++) {
+            int to = child * NeuralPolicy.GENOME_SIZE;
+            if (child < elites) {
+                int elite = (int) mRanking[mPopulation - 1 - child];
+                System.arraycopy(genomes, elite * NeuralPolicy.GENOME_SIZE, mNextGenomes, to,
+                        NeuralPolicy.GENOME_SIZE);
+                continue;
+            }
+            int mother = select() * NeuralPolicy.GENOME_SIZE;
+            int father = select() * NeuralPolicy.GENOME_SIZE;
+            for (int i = 0; i < NeuralPolicy.GENOME_SIZE; i++) {
+                float gene = mRandom.nextInt(2) == 0 ? genomes[mother + i] : genomes[father + i];
+                if (mRandom.nextFloat() < MUTATION_RATE) {
+                    gene += (mRandom.nextFloat() * 2 - 1) * MUTATION_SCALE;
+                }
+                mNextGenomes[to + i] = gene;
+            }
+        }
+        System.arraycopy(mNextGenomes, 0, genomes, 0, genomes.length);
+        mGeneration++;
+        return ticks;
+    }
+
+    // 锦标赛选择: 随机取 TOURNAMENT_SIZE 个玩家, 返回其中适应度最高的
+    private int select() {
+        int winner = mRandom.nextInt(mPopulation);
+        for (int i = 1; i < TOURNAMENT_SIZE; i++) {
+            int other = mRandom.nextInt(mPopulation);
+            if (mFitness[other] > mFitness[winner]) {
+                winner = other;
+            }
+        }
+        return winner;
+    }
+}
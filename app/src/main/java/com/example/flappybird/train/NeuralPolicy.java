@@ -0,0 +1,46 @@
+package com.example.flappybird.train;
+
+/**
+ * 一群小神经网络，每个玩家一个：OBSERVATIONS 个输入，HIDDEN 个隐藏单元，一个输出，输出大于 0 就点击
+ *
+ * 所有网络的参数 (基因) 连续存放在一个 float 数组中，第 a 个玩家占 [a * GENOME_SIZE, (a + 1) * GENOME_SIZE)：
+ *   输入到隐藏层的权重 HIDDEN x OBSERVATIONS, 隐藏层的偏置 HIDDEN, 隐藏层到输出的权重 HIDDEN, 输出的偏置 1
+ * 激活函数用 x / (1 + |x|)，形状和 tanh 差不多，但不需要算指数。
+ */
+public class NeuralPolicy implements Policy {
+    public static final int HIDDEN = 6;
+    private static final int INPUTS = BatchSim.OBSERVATIONS;
+    public static final int GENOME_SIZE = HIDDEN * INPUTS + HIDDEN + HIDDEN + 1;
+
+    private final float[] mGenomes;
+
+    public NeuralPolicy(int population) {
+        mGenomes = new float[population * GENOME_SIZE];
+    }
+
+    public int getPopulation() {
+        return mGenomes.length / GENOME_SIZE;
+    }
+
+    // 所有网络的参数, 训练时直接修改
+    public float[] getGenomes() {
+        return mGenomes;
+    }
+
+    @Override
+    public boolean flap(int agent, int tick, float[] observation) {
+        float[] g = mGenomes;
+        int w = agent * GENOME_SIZE;
+        int b = w + HIDDEN * INPUTS;
+        int v = b + HIDDEN;
+        float output = g[v + HIDDEN];
+        for (int h = 0; h < HIDDEN; h++) {
+            float sum = g[b + h];
+            for (int i = 0; i < INPUTS; i++) {
+                sum += g[w++] * observation[i];
+            }
+            output += g[v + h] * (sum / (1 + Math.abs(sum)));
+        }
+        return output > 0;
+    }
+}
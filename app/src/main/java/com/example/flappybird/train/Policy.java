@@ -0,0 +1,12 @@
+package com.example.flappybird.train;
+
+/**
+ * 自动玩家：根据观察值决定这一帧是否点击屏幕
+ * BatchSim 会在多个线程中同时调用 flap()，每个玩家只会在一个线程中被调用，
+ * 实现中不能有各个玩家共享的可变状态
+ */
+public interface Policy {
+    // agent: 玩家编号; tick: 这一局已经活过的帧数;
+    // observation: BatchSim.observe() 得到的 BatchSim.OBSERVATIONS 个观察值
+    boolean flap(int agent, int tick, float[] observation);
+}
@@ -0,0 +1,80 @@
+package com.example.flappybird.train;
+
+import com.example.flappybird.sim.LevelGenerator;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 在电脑上训练自动玩家，并测量批量模拟的吞吐量随线程数的变化：
+ *   java -cp ... com.example.flappybird.train.Trainer [种群大小] [代数] [templates]
+ *
+ * 默认和游戏一样用程序生成的关卡 (默认参数的 LevelGenerator)，加上 templates 时用旧的模板水管。
+ * 先用所有核心训练若干代，输出每一代最好的适应度和过管数；
+ * 再用训练好的种群, 分别以 1, 2, 4 ... 个线程 (直到核心数) 模拟同样的一局，
+ * 输出每秒模拟的玩家帧数和相对单线程的加速比。
+ */
+public class Trainer {
+    // 和 GameView 在 1080x1920 屏幕上的大小相同
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int BIRD_WIDTH = WIDTH / 6;
+    private static final int BIRD_HEIGHT = HEIGHT * 3 / 32;
+    private static final int PIPE_WIDTH = WIDTH * 13 / 72;
+    private static final int MAX_TICKS = 5000;
+    private static final int SCALING_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int population = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int generations = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        boolean templates = args.length > 2 && "templates".equals(args[2]);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        LevelGenerator level = templates ? null
+                : new LevelGenerator(WIDTH, HEIGHT, PIPE_WIDTH, BIRD_WIDTH, BIRD_HEIGHT);
+        BatchSim sim = new BatchSim(population, WIDTH, HEIGHT, BIRD_WIDTH, BIRD_HEIGHT, PIPE_WIDTH, level);
+        NeuralPolicy policy = new NeuralPolicy(population);
+        ForkJoinPool pool = new ForkJoinPool(cores);
+        Evolution evolution = new Evolution(sim, policy, MAX_TICKS, 1, pool);
+        System.out.println("population " + population + ", " + cores + " cores, "
+                + (templates ? "template" : "procedural") + " pipes");
+        for (int g = 0; g < generations; g++) {
+            long start = System.nanoTime();
+            long ticks = evolution.evolve();
+            long nanos = System.nanoTime() - start;
+            System.out.println("generation " + g + ": best fitness " + evolution.getBestFitness()
+                    + ", score " + evolution.getBestScore() + ", "
+                    + String.format("%.1f", ticks * 1e3 / nanos) + "M agent-ticks/s");
+        }
+        pool.shutdown();
+
+        System.out.println("threads, agent-ticks/s, speedup");
+        double single = 0;
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            double rate = measure(sim, policy, threads);
+            if (threads == 1) {
+                single = rate;
+            }
+            System.out.println(threads + ", " + (long) rate + ", " + String.format("%.2f", rate / single));
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+
+    // 用 threads 个线程模拟同一局, 取 SCALING_ROUNDS 次中最快的一次, 返回每秒模拟的玩家帧数
+    private static double measure(BatchSim sim, Policy policy, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        double best = 0;
+        for (int round = 0; round <= SCALING_ROUNDS; round++) {
+            sim.reset(0);
+            long start = System.nanoTime();
+            long ticks = sim.run(policy, MAX_TICKS, pool);
+            double rate = ticks * 1e9 / (System.nanoTime() - start);
+            if (round > 0) { // 第一次用来预热
+                best = Math.max(best, rate);
+            }
+        }
+        pool.shutdown();
+        return best;
+    }
+}
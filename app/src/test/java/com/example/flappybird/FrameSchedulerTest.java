@@ -0,0 +1,123 @@
+package com.example.flappybird;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用假时钟检查 FrameScheduler 的每个决定: vsync 的时间戳和每帧的工作时间都由测试给出
+ */
+public class FrameSchedulerTest {
+    private static final long MS = 1000000L;
+    private static final long PERIOD = 16666667; // 60Hz
+    private static final long TICK = 50 * MS;
+
+    private static class FakeClock implements FrameClock {
+        long mNow = 1000 * MS;
+
+        @Override
+        public long nanoTime() {
+            return mNow;
+        }
+    }
+
+    private final FakeClock mClock = new FakeClock();
+    private final FrameScheduler mScheduler = new FrameScheduler(mClock)
+            .setTickNanos(TICK).setVsyncPeriod(PERIOD).setIdleFrameNanos(TICK);
+
+    // 在 vsync 时刻开始处理, 工作 work 纳秒; 返回推进的物理帧数, 待命时跳过返回 -1
+    private int frame(long vsync, long work) {
+        mClock.mNow = Math.max(mClock.mNow, vsync);
+        if (!mScheduler.onVsync(vsync)) {
+            return -1;
+        }
+        mClock.mNow += work;
+        mScheduler.onFrameDone();
+        return mScheduler.getTicks();
+    }
+
+    @Test
+    public void steadyVsyncsDrawEveryFrameAndTickAtFixedRate() {
+        long vsync = mClock.mNow;
+        int ticks = 0;
+        for (int i = 0; i <= 60; i++) { // 整整 1 秒
+            ticks += frame(vsync, 4 * MS);
+            assertTrue(mScheduler.shouldDraw());
+            float alpha = mScheduler.getAlpha();
+            assertTrue(alpha >= 0 && alpha < 1);
+            vsync += PERIOD;
+        }
+        assertEquals(20, ticks);
+        assertEquals(61, mScheduler.getDrawnFrames());
+        assertEquals(0, mScheduler.getMissedVsyncs());
+        assertEquals(0, mScheduler.getOverBudgetFrames());
+        assertEquals(0, mScheduler.getNextFrameDelayMillis());
+    }
+
+    @Test
+    public void slowFrameSkipsOneDrawAndCoalescesTicks() {
+        long vsync = mClock.mNow;
+        frame(vsync, 4 * MS);
+        // 这一帧用了 3 个周期, 中间的 vsync 被合并, 下一次回调已经晚了
+        vsync += PERIOD;
+        frame(vsync, 3 * PERIOD);
+        assertEquals(1, mScheduler.getOverBudgetFrames());
+        vsync += 3 * PERIOD;
+        mClock.mNow += 3 * PERIOD / 2; // 回调在 vsync 之后 1.5 个周期才开始
+        assertEquals(1, frame(vsync, 4 * MS)); // 累计 4 个周期, 一次推进
+        assertFalse(mScheduler.shouldDraw());
+        assertEquals(2, mScheduler.getMissedVsyncs());
+        // 紧接着又晚了, 也要画, 不会连续两帧不画
+        vsync += PERIOD;
+        mClock.mNow += 2 * PERIOD;
+        assertEquals(0, frame(vsync, 4 * MS));
+        assertTrue(mScheduler.shouldDraw());
+        assertEquals(2, mScheduler.getMissedVsyncs());
+        assertEquals(1, mScheduler.getSkippedDraws());
+    }
+
+    @Test
+    public void longStallDropsTicksBeyondCatchUpLimit() {
+        long vsync = mClock.mNow;
+        frame(vsync, 4 * MS);
+        vsync += 1000 * MS;
+        assertEquals(FrameScheduler.MAX_CATCH_UP_TICKS, frame(vsync, 4 * MS));
+        assertEquals(20 - FrameScheduler.MAX_CATCH_UP_TICKS, mScheduler.getDroppedTicks());
+    }
+
+    @Test
+    public void idleModeDrawsAtTickRateUntilFrameRequested() {
+        mScheduler.setIdle(true);
+        long vsync = mClock.mNow;
+        int drawn = 0;
+        int ticks = 0;
+        for (int i = 0; i < 60; i++) {
+            int t = frame(vsync, 2 * MS);
+            if (t >= 0) {
+                assertTrue(mScheduler.shouldDraw());
+                drawn++;
+                ticks += t;
+            }
+            vsync += PERIOD;
+        }
+        // 每 3 个 vsync 画一次, 物理帧一个都不少
+        assertEquals(20, drawn);
+        assertEquals(40, mScheduler.getIdleVsyncs());
+        assertEquals(0, mScheduler.getMissedVsyncs());
+        assertEquals(19, ticks); // 第一帧到最后一帧之间是 57 个周期
+        assertEquals((TICK - PERIOD) / MS, mScheduler.getNextFrameDelayMillis());
+
+        // 点击: 下一个 vsync 马上处理, 之后退出待命
+        frame(vsync, 2 * MS);
+        vsync += PERIOD;
+        assertEquals(-1, frame(vsync, 2 * MS));
+        mScheduler.requestFrame();
+        assertEquals(0, mScheduler.getNextFrameDelayMillis());
+        vsync += PERIOD;
+        assertTrue(frame(vsync, 2 * MS) >= 0);
+        mScheduler.setIdle(false);
+        vsync += PERIOD;
+        assertTrue(frame(vsync, 2 * MS) >= 0);
+        assertTrue(mScheduler.shouldDraw());
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.flappybird;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class FrameTimingsTest {
+    private static final long MS = 1000000L;
+
+    // 百分位数取所在桶 (0.1ms) 的上界
+    @Test
+    public void percentilesOfUniformSamples() {
+        RollingHistogram h = new RollingHistogram(100, 100, 2000);
+        assertEquals(0, h.percentileMicros(50));
+        for (int i = 1; i <= 100; i++) {
+            h.add(i * MS);
+        }
+        assertEquals(50100, h.percentileMicros(50));
+        assertEquals(95100, h.percentileMicros(95));
+        assertEquals(99100, h.percentileMicros(99));
+    }
+
+    @Test
+    public void oldSamplesRollOut() {
+        RollingHistogram h = new RollingHistogram(10, 100, 2000);
+        for (int i = 0; i < 10; i++) {
+            h.add(100 * MS);
+        }
+        for (int i = 0; i < 10; i++) {
+            h.add(16 * MS);
+        }
+        assertEquals(10, h.getCount());
+        assertEquals(20, h.getTotal());
+        assertEquals(16100, h.percentileMicros(99));
+        // 超出范围的样本落在最后一个桶
+        h.add(10000 * MS);
+        assertEquals(200000, h.percentileMicros(100));
+    }
+
+    @Test
+    public void tapLatencyIsMeasuredToFirstPost() throws IOException {
+        FrameTimings timings = new FrameTimings();
+        timings.beginDraw(10 * MS);
+        timings.endDraw(12 * MS);
+        timings.posted(13 * MS);
+        // 20ms 时点击, 50ms 的物理帧处理, 两个点击只按最早的一个计算
+        timings.onTap(20 * MS, 50 * MS);
+        timings.onTap(40 * MS, 50 * MS);
+        timings.beginDraw(51 * MS);
+        timings.endDraw(53 * MS);
+        timings.posted(55 * MS);
+        timings.beginDraw(60 * MS);
+        timings.posted(62 * MS);
+
+        assertEquals(1, timings.getTapLatency().getCount());
+        assertEquals(35100, timings.getTapLatency().percentileMicros(50));
+        assertEquals(2, timings.getFrameInterval().getCount());
+        assertEquals(3, timings.getFrameTime().getCount());
+
+        StringWriter out = new StringWriter();
+        timings.writeCsv(out);
+        String csv = out.toString();
+        assertTrue(csv.contains("tap latency (us): p50 35100"));
+        assertTrue(csv.contains("\n1,10000,40000,41000,43000,45000\n"));
+    }
+
+    @Test
+    public void formatsMillis() {
+        char[] text = new char[16];
+        assertEquals("16.7", new String(text, 0, PerfHud.appendMillis(text, 0, 16667)));
+        assertEquals("0.0", new String(text, 0, PerfHud.appendMillis(text, 0, 0)));
+        assertEquals("120.0", new String(text, 0, PerfHud.appendMillis(text, 0, 119990)));
+    }
+}
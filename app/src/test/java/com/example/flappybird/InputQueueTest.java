@@ -0,0 +1,64 @@
+package com.example.flappybird;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InputQueueTest {
+
+    @Test
+    public void keepsOrderAndTimestamps() {
+        InputQueue queue = new InputQueue(4);
+        assertEquals(InputQueue.CMD_NONE, queue.poll());
+        assertTrue(queue.offer(InputQueue.CMD_TAP, 10));
+        assertTrue(queue.offer(InputQueue.CMD_TAP, 20));
+        assertEquals(InputQueue.CMD_TAP, queue.poll());
+        assertEquals(10, queue.getPolledTime());
+        assertEquals(InputQueue.CMD_TAP, queue.poll());
+        assertEquals(20, queue.getPolledTime());
+        assertEquals(InputQueue.CMD_NONE, queue.poll());
+    }
+
+    @Test
+    public void dropsWhenFull() {
+        InputQueue queue = new InputQueue(2);
+        assertTrue(queue.offer(InputQueue.CMD_TAP, 1));
+        assertTrue(queue.offer(InputQueue.CMD_TAP, 2));
+        assertFalse(queue.offer(InputQueue.CMD_TAP, 3));
+        assertEquals(2, queue.size());
+        queue.poll();
+        assertTrue(queue.offer(InputQueue.CMD_TAP, 4));
+        assertEquals(InputQueue.CMD_TAP, queue.poll());
+        assertEquals(2, queue.getPolledTime());
+        assertEquals(InputQueue.CMD_TAP, queue.poll());
+        assertEquals(4, queue.getPolledTime());
+    }
+
+    // 两个线程同时读写, 消费者看到的时间戳必须连续递增, 没有丢失和重复
+    @Test
+    public void producerAndConsumerThreads() throws InterruptedException {
+        final InputQueue queue = new InputQueue(64);
+        final int count = 1000000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= count; i++) {
+                    while (!queue.offer(InputQueue.CMD_TAP, i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+        long expected = 1;
+        while (expected <= count) {
+            if (queue.poll() == InputQueue.CMD_NONE) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(expected++, queue.getPolledTime());
+        }
+        producer.join();
+        assertEquals(InputQueue.CMD_NONE, queue.poll());
+    }
+}
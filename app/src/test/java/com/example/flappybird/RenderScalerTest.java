@@ -0,0 +1,83 @@
+package com.example.flappybird;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RenderScalerTest {
+    private static final long MS = 1000000L;
+    private static final long BUDGET = 16 * MS;
+
+    // 连续 frames 帧工作时间都是 work, 返回其中切换了几次
+    private static int run(RenderScaler scaler, long work, int frames) {
+        int switches = 0;
+        for (int i = 0; i < frames; i++) {
+            if (scaler.onFrame(work)) {
+                switches++;
+            }
+        }
+        return switches;
+    }
+
+    @Test
+    public void slowFramesLowerTheScaleOneStepPerWindow() {
+        RenderScaler scaler = new RenderScaler().setFrameBudget(BUDGET);
+        assertEquals(0, run(scaler, 10 * MS, 10 * RenderScaler.WINDOW_FRAMES));
+        assertEquals(1f, scaler.getScale(), 0f);
+
+        // 第一个窗口结束时降一档, 下一个窗口刚切换过不算, 再下一个窗口再降一档
+        assertEquals(1, run(scaler, 15 * MS, RenderScaler.WINDOW_FRAMES));
+        assertEquals(1, scaler.getLevel());
+        assertEquals(0, run(scaler, 15 * MS, RenderScaler.WINDOW_FRAMES));
+        assertEquals(1, run(scaler, 15 * MS, RenderScaler.WINDOW_FRAMES));
+        assertEquals(2, scaler.getLevel());
+        // 一直很慢, 最多降到最低一档
+        run(scaler, 30 * MS, 20 * RenderScaler.WINDOW_FRAMES);
+        assertEquals(RenderScaler.SCALES.length - 1, scaler.getLevel());
+    }
+
+    @Test
+    public void fastFramesRaiseTheScaleOnlyAfterSeveralWindows() {
+        RenderScaler scaler = new RenderScaler().setFrameBudget(BUDGET);
+        run(scaler, 15 * MS, RenderScaler.WINDOW_FRAMES);
+        assertEquals(1, scaler.getLevel());
+        // 切换后的窗口不算, 之后要连续 3 个轻松的窗口
+        assertEquals(0, run(scaler, 4 * MS, 3 * RenderScaler.WINDOW_FRAMES));
+        assertEquals(1, run(scaler, 4 * MS, RenderScaler.WINDOW_FRAMES));
+        assertEquals(0, scaler.getLevel());
+
+        // 中等的工作量既不升也不降
+        scaler = new RenderScaler().setFrameBudget(BUDGET);
+        run(scaler, 15 * MS, RenderScaler.WINDOW_FRAMES);
+        assertEquals(0, run(scaler, 10 * MS, 20 * RenderScaler.WINDOW_FRAMES));
+        assertEquals(1, scaler.getLevel());
+    }
+
+    // 偶尔的一次卡顿不会降档, p90 才算
+    @Test
+    public void occasionalSpikesAreIgnored() {
+        RenderScaler scaler = new RenderScaler().setFrameBudget(BUDGET);
+        for (int i = 0; i < 20 * RenderScaler.WINDOW_FRAMES; i++) {
+            assertFalse(scaler.onFrame(i % 20 == 0 ? 40 * MS : 6 * MS));
+        }
+    }
+
+    @Test
+    public void thermalStatusCapsTheScale() {
+        RenderScaler scaler = new RenderScaler().setFrameBudget(BUDGET);
+        scaler.setThermalStatus(RenderScaler.thermalStatusForBattery(470));
+        assertEquals(RenderScaler.THERMAL_SEVERE, scaler.getThermalStatus());
+        // 发热时立即降到上限, 不用等一个窗口
+        assertTrue(scaler.onFrame(MS));
+        assertEquals(RenderScaler.SCALES.length - 1, scaler.getLevel());
+        assertEquals(0, run(scaler, MS, 10 * RenderScaler.WINDOW_FRAMES));
+
+        // 降温到中等: 允许升回第 1 档, 但不会回到全分辨率
+        scaler.setThermalStatus(RenderScaler.thermalStatusForBattery(440));
+        run(scaler, MS, 30 * RenderScaler.WINDOW_FRAMES);
+        assertEquals(1, scaler.getLevel());
+        scaler.setThermalStatus(RenderScaler.thermalStatusForBattery(300));
+        run(scaler, MS, 10 * RenderScaler.WINDOW_FRAMES);
+        assertEquals(0, scaler.getLevel());
+    }
+}
@@ -0,0 +1,327 @@
+package com.example.flappybird;
+
+import com.example.flappybird.render.DirtyRect;
+import com.example.flappybird.render.RecordingRenderer;
+import com.example.flappybird.sim.BirdState;
+import com.example.flappybird.sim.GhostPack;
+import com.example.flappybird.sim.GhostStore;
+import com.example.flappybird.sim.GhostStream;
+import com.example.flappybird.sim.GhostTrack;
+import com.example.flappybird.sim.Simulation;
+import com.example.flappybird.sim.WorldState;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用 RecordingRenderer 在 JVM 上检查绘制命令，不需要设备
+ */
+public class RenderTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private Simulation mSim;
+    private Bird mBird;
+    private BirdWorld mBirdWorld;
+    private GhostBirds mGhostBirds; // 只在幽灵竞速的测试中使用
+    private RecordingRenderer mRenderer;
+    private int mBirdTexture;
+    private int mSkyTexture;
+    private int[] mPipeTextures;
+    private final DirtyRect mDirty = new DirtyRect();
+
+    private void setUp(boolean preservesContent) {
+        mSim = new Simulation().init(WIDTH, HEIGHT, WIDTH / 6, HEIGHT * 3 / 32, WIDTH * 13 / 72);
+        mRenderer = new RecordingRenderer(WIDTH, HEIGHT, preservesContent);
+        mBirdTexture = mRenderer.addTexture(WIDTH / 6 * 3, HEIGHT * 3 / 32 * 3);
+        mSkyTexture = mRenderer.addTexture(WIDTH, HEIGHT * 4 / 5);
+        int ground = mRenderer.addTexture(WIDTH, HEIGHT / 5);
+        mPipeTextures = new int[] {
+                mRenderer.addTexture(WIDTH * 13 / 72, HEIGHT * 5 / 8),
+                mRenderer.addTexture(WIDTH * 13 / 72, HEIGHT * 5 / 8)};
+        mBird = new Bird().setState(mSim.getBird()).setBirdsSkin(mBirdTexture, WIDTH / 6, HEIGHT * 3 / 32, 0);
+        mBirdWorld = new BirdWorld().setState(mSim.getWorld()).setSkySkin(mSkyTexture)
+                .setGroundSkin(ground).setPipesSkin(mPipeTextures);
+    }
+
+    // 和 GameView.drawFrame() 相同的流程, 返回这一帧是否画了东西
+    private boolean drawFrame(float alpha) {
+        mDirty.setEmpty();
+        mBirdWorld.prepare(mRenderer, alpha, mDirty);
+        mBird.prepare(mRenderer, alpha, mDirty);
+        if (mGhostBirds != null) {
+            mGhostBirds.prepare(mRenderer, mSim.getBird(), true, alpha, mDirty);
+        }
+        if (!mDirty.intersect(0, 0, WIDTH, HEIGHT)) {
+            return false;
+        }
+        mRenderer.beginFrame(mDirty);
+        mBirdWorld.draw(mRenderer, mDirty);
+        if (mGhostBirds != null) {
+            mGhostBirds.draw(mRenderer, mDirty);
+        }
+        mBird.draw(mRenderer, mDirty);
+        mRenderer.endFrame();
+        return true;
+    }
+
+    @Test
+    public void firstFrameRedrawsWholeScreen() {
+        setUp(true);
+        assertTrue(drawFrame(0));
+        DirtyRect dirty = mRenderer.getLastDirty();
+        assertTrue(dirty.equals(0, 0, WIDTH, HEIGHT));
+        // 天空图层 + 地面 + 鸟 (图层可以完整地盖住整个屏幕)
+        assertTrue(mRenderer.getFilledPixels() >= WIDTH * HEIGHT);
+    }
+
+    @Test
+    public void standbyFramesRedrawOnlyTheBird() {
+        setUp(true);
+        drawFrame(0);
+        mSim.step(Simulation.INPUT_NONE);
+        mRenderer.reset();
+        assertTrue(drawFrame(0.5f));
+        DirtyRect dirty = mRenderer.getLastDirty();
+        int birdSize = (int) Math.ceil(Math.hypot(mSim.getBird().getWidth(), mSim.getBird().getHeight()));
+        assertTrue(dirty.width() <= birdSize);
+        assertTrue(dirty.height() < birdSize * 2);
+        assertTrue(mRenderer.getFilledPixels() < WIDTH * HEIGHT / 10);
+    }
+
+    @Test
+    public void pipesAreCroppedToThePlayfield() {
+        setUp(true);
+        mSim.step(Simulation.INPUT_TAP);
+        WorldState world = mSim.getWorld();
+        int pipes = 0;
+        for (int tick = 0; tick < 60; tick++) {
+            mSim.step(tick % 4 == 0 ? Simulation.INPUT_TAP : Simulation.INPUT_NONE);
+            mRenderer.reset();
+            drawFrame(0.5f);
+            for (int i = 0; i < mRenderer.getCommandCount(); i++) {
+                int texture = mRenderer.getCommand(i, 2);
+                if (texture != mPipeTextures[0] && texture != mPipeTextures[1]) {
+                    continue;
+                }
+                pipes++;
+                assertEquals(RecordingRenderer.SCREEN, mRenderer.getCommand(i, 1));
+                // src 和 dst 大小相同, 只是拷贝
+                assertEquals(mRenderer.getCommand(i, 5) - mRenderer.getCommand(i, 3),
+                        mRenderer.getCommand(i, 9) - mRenderer.getCommand(i, 7));
+                assertEquals(mRenderer.getCommand(i, 6) - mRenderer.getCommand(i, 4),
+                        mRenderer.getCommand(i, 10) - mRenderer.getCommand(i, 8));
+                assertTrue(mRenderer.getCommand(i, 8) >= world.getTop());
+                assertTrue(mRenderer.getCommand(i, 10) <= world.getGroundTop());
+            }
+        }
+        assertTrue(pipes > 0);
+    }
+
+    @Test
+    public void hardwareBackendRedrawsEveryFrameWithoutSkyLayer() {
+        setUp(false);
+        mSim.step(Simulation.INPUT_TAP);
+        for (int tick = 0; tick < 10; tick++) {
+            mSim.step(Simulation.INPUT_NONE);
+            mRenderer.reset();
+            assertTrue(drawFrame(0.5f));
+            assertTrue(mRenderer.getLastDirty().equals(0, 0, WIDTH, HEIGHT));
+            int sky = 0;
+            for (int i = 0; i < mRenderer.getCommandCount(); i++) {
+                if (mRenderer.getCommand(i, 2) == mSkyTexture) {
+                    assertEquals(RecordingRenderer.SCREEN, mRenderer.getCommand(i, 1));
+                    sky++;
+                }
+            }
+            assertTrue(sky > 0);
+        }
+    }
+
+    @Test
+    public void coarserAngleStepShrinksRotationCache() {
+        setUp(false);
+        drawFrame(0);
+        int rotationCache = mPipeTextures[1] + 1; // 硬件后端没有天空图层, 第一个图层就是旋转缓存
+        long fineArea = (long) mRenderer.getTextureWidth(rotationCache) * mRenderer.getTextureHeight(rotationCache);
+
+        setUp(false);
+        mBird.setAngleStep(10);
+        drawFrame(0);
+        long coarseArea = (long) mRenderer.getTextureWidth(rotationCache) * mRenderer.getTextureHeight(rotationCache);
+        assertTrue(coarseArea < fineArea * 6 / 10);
+        assertEquals(Bird.rotationCacheBytes(WIDTH / 6, HEIGHT * 3 / 32, 10), coarseArea * 4);
+    }
+
+    // 旋转缓存排成接近正方形的网格, 第一帧之前一次画好所有格子, 之后游戏中不再画, 换皮肤时重新画一次
+    @Test
+    public void rotationCacheIsBakedOnceInASquareGrid() {
+        setUp(false);
+        int cells = ((BirdState.FALLING_MAX_ANGLE - BirdState.RISING_MAX_ANGLE) / 5 + 1) * BirdState.SKIN_FRAMES;
+        mBird.bakeRotationCache(mRenderer);
+        int layer = mBird.getRotationCache();
+        int width = mRenderer.getTextureWidth(layer);
+        int height = mRenderer.getTextureHeight(layer);
+        int cellSize = mBird.getCellSize();
+        assertTrue(Math.max(width, height) <= Math.min(width, height) + cellSize);
+        assertTrue(Math.max(width, height) < 4096); // GPU 纹理的最大尺寸
+        assertEquals(cells, countRotated(layer, width, height, cellSize));
+
+        mRenderer.reset();
+        mSim.step(Simulation.INPUT_TAP);
+        for (int tick = 0; tick < 60; tick++) {
+            mSim.step(tick % 6 == 0 ? Simulation.INPUT_TAP : Simulation.INPUT_NONE);
+            drawFrame(0.5f);
+        }
+        assertEquals(0, countRotated(layer, width, height, cellSize));
+
+        mBird.setBirdsSkin(mBirdTexture, WIDTH / 6, HEIGHT * 3 / 32, 1);
+        mRenderer.reset();
+        drawFrame(0.5f);
+        assertEquals(cells, countRotated(layer, width, height, cellSize));
+    }
+
+    // 画进旋转缓存的旋转精灵个数, 每个都在一格的中心
+    private int countRotated(int layer, int width, int height, int cellSize) {
+        int count = 0;
+        for (int i = 0; i < mRenderer.getCommandCount(); i++) {
+            if (mRenderer.getCommand(i, 0) != RecordingRenderer.CMD_SPRITE_ROTATED) {
+                continue;
+            }
+            assertEquals(layer, mRenderer.getCommand(i, 1));
+            int centerX = mRenderer.getCommand(i, 7);
+            int centerY = mRenderer.getCommand(i, 8);
+            assertTrue(centerX + cellSize / 2 <= width && centerY + cellSize / 2 <= height);
+            assertTrue(Math.abs((centerX - cellSize / 2) % cellSize) <= 1);
+            assertTrue(Math.abs((centerY - cellSize / 2) % cellSize) <= 1);
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void shortPipeSkinsAreTiledToTheVisibleLength() {
+        setUp(false);
+        // 皮肤比水管短得多, 管身要重复铺好几次
+        int[] shortPipes = {
+                mRenderer.addTexture(WIDTH * 13 / 72, 100), mRenderer.addTexture(WIDTH * 13 / 72, 100)};
+        mBirdWorld.setPipesSkin(shortPipes).setPipeCapHeight(20);
+        mSim.step(Simulation.INPUT_TAP);
+        WorldState world = mSim.getWorld();
+        int tiles = 0;
+        for (int tick = 0; tick < 60; tick++) {
+            mSim.step(tick % 4 == 0 ? Simulation.INPUT_TAP : Simulation.INPUT_NONE);
+            mRenderer.reset();
+            drawFrame(0.5f);
+            // 同一根水管的各段首尾相接, 朝下的从天空顶部开始, 朝上的一直画到地面
+            int[] top = {world.getGroundTop(), world.getGroundTop()};
+            int[] bottom = {world.getTop(), world.getTop()};
+            int[] height = new int[2];
+            int[] left = {Integer.MIN_VALUE, Integer.MIN_VALUE};
+            for (int i = 0; i < mRenderer.getCommandCount(); i++) {
+                int pipe = mRenderer.getCommand(i, 2) == shortPipes[0] ? 0
+                        : mRenderer.getCommand(i, 2) == shortPipes[1] ? 1 : -1;
+                if (pipe < 0) {
+                    continue;
+                }
+                tiles++;
+                assertEquals(mRenderer.getCommand(i, 6) - mRenderer.getCommand(i, 4),
+                        mRenderer.getCommand(i, 10) - mRenderer.getCommand(i, 8));
+                if (mRenderer.getCommand(i, 7) != left[pipe]) {
+                    checkPipe(world, pipe, top[pipe], bottom[pipe], height[pipe]);
+                    left[pipe] = mRenderer.getCommand(i, 7);
+                    top[pipe] = world.getGroundTop();
+                    bottom[pipe] = world.getTop();
+                    height[pipe] = 0;
+                }
+                top[pipe] = Math.min(top[pipe], mRenderer.getCommand(i, 8));
+                bottom[pipe] = Math.max(bottom[pipe], mRenderer.getCommand(i, 10));
+                height[pipe] += mRenderer.getCommand(i, 10) - mRenderer.getCommand(i, 8);
+            }
+            checkPipe(world, 0, top[0], bottom[0], height[0]);
+            checkPipe(world, 1, top[1], bottom[1], height[1]);
+        }
+        assertTrue(tiles > 0);
+    }
+
+    // 几百只幽灵只有一条绘制命令, 都来自玩家的鸟的旋转缓存, 而且都在重画的区域中
+    @Test
+    public void ghostsAreDrawnInOneBatch() throws IOException {
+        setUp(true);
+        int ghosts = 300;
+        GhostPack pack = new GhostPack(WIDTH, HEIGHT, WIDTH / 6, HEIGHT * 3 / 32, WIDTH * 13 / 72, 0);
+        for (int i = 0; i < ghosts; i++) {
+            GhostTrack track = new GhostTrack();
+            for (int tick = 0; tick < 20 + i; tick++) {
+                track.add(HEIGHT / 4 + i * 3 + tick * 5, tick * 2 - 30);
+            }
+            pack.add(track);
+        }
+        File file = File.createTempFile("ghosts", ".fbg");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                pack.writeTo(out);
+            } finally {
+                out.close();
+            }
+            GhostStream stream = GhostStream.open(file);
+            GhostStore store = new GhostStore(ghosts);
+            mGhostBirds = new GhostBirds().setStore(store).setBird(mBird);
+            stream.rewind(store);
+            mSim.step(Simulation.INPUT_TAP);
+            drawFrame(0);
+            for (int tick = 0; tick < 40; tick++) {
+                mSim.step(Simulation.INPUT_NONE);
+                assertTrue(stream.step(store));
+                mRenderer.reset();
+                assertTrue(drawFrame(0.5f));
+                int batches = 0;
+                for (int i = 0; i < mRenderer.getCommandCount(); i++) {
+                    if (mRenderer.getCommand(i, 0) != RecordingRenderer.CMD_SPRITES) {
+                        continue;
+                    }
+                    batches++;
+                    assertEquals(mBird.getRotationCache(), mRenderer.getCommand(i, 2));
+                    assertEquals(store.getActiveCount(), mRenderer.getCommand(i, 5));
+                }
+                assertEquals(1, batches);
+                assertEquals(Math.min(ghosts, ghosts + 20 - tick - 1), store.getActiveCount());
+
+                int cellSize = mBird.getCellSize();
+                DirtyRect dirty = mRenderer.getLastDirty();
+                for (int i = 0; i < ghosts; i++) {
+                    if (!store.isActive(i)) {
+                        continue;
+                    }
+                    int top = Math.round((store.getPrevTop(i) + store.getTop(i)) / 2f)
+                            + (mSim.getBird().getHeight() - cellSize) / 2;
+                    assertTrue(dirty.top <= top && dirty.bottom >= top + cellSize);
+                }
+            }
+            stream.close();
+        } finally {
+            mGhostBirds = null;
+            assertTrue(file.delete());
+        }
+    }
+
+    // 检查一根水管的各段没有重叠也没有空隙
+    private static void checkPipe(WorldState world, int pipe, int top, int bottom, int height) {
+        if (height == 0) {
+            return;
+        }
+        assertEquals(bottom - top, height);
+        if (pipe == 0) {
+            assertEquals(world.getTop(), top);
+        } else {
+            assertEquals(world.getGroundTop(), bottom);
+        }
+    }
+}
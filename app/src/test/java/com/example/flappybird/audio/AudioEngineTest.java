@@ -0,0 +1,81 @@
+package com.example.flappybird.audio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用 NullAudioOutput 在 JVM 上直接调用 mix() 检查混音结果
+ */
+public class AudioEngineTest {
+    private AudioEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mEngine = new AudioEngine(new NullAudioOutput());
+        mEngine.start();
+    }
+
+    // 生成一个 16 位 PCM 的 WAV 文件, 中间插入一个需要跳过的块
+    private static ByteArrayInputStream wav(int channels, int sampleRate, short... samples) {
+        ByteBuffer b = ByteBuffer.allocate(56 + samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0x46464952).putInt(48 + samples.length * 2).putInt(0x45564157);
+        b.putInt(0x20746d66).putInt(16).putShort((short) 1).putShort((short) channels)
+                .putInt(sampleRate).putInt(sampleRate * channels * 2)
+                .putShort((short) (channels * 2)).putShort((short) 16);
+        b.putInt(0x5453494c).putInt(4).putInt(0); // "LIST"
+        b.putInt(0x61746164).putInt(samples.length * 2);
+        for (short s : samples) {
+            b.putShort(s);
+        }
+        return new ByteArrayInputStream(b.array());
+    }
+
+    @Test
+    public void mixesMonoToBothChannels() throws IOException {
+        int mono = mEngine.load(wav(1, AudioEngine.SAMPLE_RATE, (short) 100, (short) -200, (short) 300));
+        short[] out = new short[8];
+        mEngine.mix(out, 4);
+        assertArrayEquals(new short[8], out);
+
+        mEngine.play(mono);
+        mEngine.mix(out, 2);
+        assertArrayEquals(new short[] {100, 100, -200, -200, 0, 0, 0, 0}, out);
+        assertEquals(1, mEngine.getActiveVoices());
+        mEngine.mix(out, 4);
+        assertArrayEquals(new short[] {300, 300, 0, 0, 0, 0, 0, 0}, out);
+        assertEquals(0, mEngine.getActiveVoices());
+    }
+
+    @Test
+    public void sumsVoicesAndClips() throws IOException {
+        int stereo = mEngine.load(wav(2, AudioEngine.SAMPLE_RATE, (short) 30000, (short) -30000, (short) 1, (short) 2));
+        mEngine.play(stereo);
+        mEngine.play(stereo);
+        short[] out = new short[4];
+        mEngine.mix(out, 2);
+        assertArrayEquals(new short[] {Short.MAX_VALUE, Short.MIN_VALUE, 2, 4}, out);
+    }
+
+    @Test
+    public void stealsOldestVoiceWhenFull() throws IOException {
+        short[] samples = new short[100];
+        int sound = mEngine.load(wav(1, AudioEngine.SAMPLE_RATE, samples));
+        for (int i = 0; i < AudioEngine.MAX_VOICES + 3; i++) {
+            mEngine.play(sound);
+        }
+        mEngine.mix(new short[2], 1);
+        assertEquals(AudioEngine.MAX_VOICES, mEngine.getActiveVoices());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherSampleRates() throws IOException {
+        mEngine.load(wav(1, 22050, (short) 1));
+    }
+}
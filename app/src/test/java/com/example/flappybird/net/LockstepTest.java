@@ -0,0 +1,79 @@
+package com.example.flappybird.net;
+
+import com.example.flappybird.sim.Simulation;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 联机竞速: 通过回环地址, 在丢包和乱序的网络上, 每个玩家看到的所有鸟都和按真实输入离线模拟的完全相同
+ */
+public class LockstepTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int TICKS = 600;
+
+    private static LoopbackRace newRace(int players, long seed) throws IOException {
+        return new LoopbackRace(players, seed, TICKS, WIDTH, HEIGHT, WIDTH / 6, HEIGHT * 3 / 32, WIDTH * 13 / 72);
+    }
+
+    // 所有玩家的所有模拟都和离线模拟的相同
+    private static void assertConverged(LoopbackRace race) {
+        int players = race.getPlayerCount();
+        for (int p = 0; p < players; p++) {
+            long expected = race.replay(p, TICKS).stateHash();
+            for (int viewer = 0; viewer < players; viewer++) {
+                LockstepSession session = race.getSession(viewer);
+                assertEquals(TICKS, session.getConfirmedTick());
+                assertEquals("player " + p + " seen by " + viewer,
+                        expected, session.getSimulation(p).stateHash());
+            }
+        }
+    }
+
+    @Test
+    public void lossyJitteryRaceConverges() throws IOException {
+        for (int players = 2; players <= LockstepSession.MAX_PLAYERS; players *= 2) {
+            LoopbackRace race = newRace(players, players).setNetwork(0.1f, 4);
+            try {
+                race.run(TICKS);
+                assertConverged(race);
+                long rollbacks = 0;
+                for (int p = 0; p < players; p++) {
+                    rollbacks += race.getSession(p).getRollbacks();
+                    assertTrue(race.getSession(p).getMaxRollbackTicks() <= LockstepSession.MAX_ROLLBACK);
+                }
+                assertTrue("no rollback with " + players + " players", rollbacks > 0);
+            } finally {
+                race.close();
+            }
+        }
+    }
+
+    @Test
+    public void cleanNetworkNeedsFewBytesPerTick() throws IOException {
+        LoopbackRace race = newRace(2, 7);
+        try {
+            race.run(TICKS);
+            assertConverged(race);
+            // 输入延迟以内就能收到, 不需要回滚; 每帧一个包, 头 6 个字节加上 1 ~ 2 个字节的输入
+            for (int p = 0; p < 2; p++) {
+                LockstepSession session = race.getSession(p);
+                assertEquals(0, session.getRollbacks());
+                double bytes = (double) race.getTransport(p).getBytesSent() / session.getFrames();
+                assertTrue(bytes + " bytes per tick", bytes <= 8);
+            }
+            // 至少有人点击过, 起飞以后也有人落地
+            boolean tapped = false;
+            for (int tick = 1; tick < TICKS; tick++) {
+                tapped |= race.getInput(0, tick) == Simulation.INPUT_TAP;
+            }
+            assertTrue(tapped);
+        } finally {
+            race.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.flappybird.sim;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 鸟的定点数物理: 每一步的结果是确定的, 在任何 JVM 上都和这里记下的摘要相同
+ */
+public class BirdStateTest {
+    // 待命 40 帧, 再飞 1000 帧: 低于 1000 像素或者每 11 帧点击一次
+    private static BirdState fly() {
+        BirdState bird = new BirdState().setBound(450, 900, 630, 1080);
+        bird.makeStandby();
+        for (int i = 0; i < 40; i++) {
+            bird.step();
+        }
+        for (int i = 0; i < 1000; i++) {
+            if (bird.getTop() > 1000 || i % 11 == 3) {
+                bird.shot();
+            }
+            bird.step();
+        }
+        return bird;
+    }
+
+    @Test
+    public void riseTurnsUpThenTurnsDownAfterApex() {
+        BirdState bird = new BirdState().setBound(450, 900, 630, 1080);
+        bird.shot();
+        // 4 帧升到最高点, 每帧向上转 7.5 度
+        int[] tops = {820, 760, 720, 700, 700, 720};
+        float[] angles = {-7.5f, -15f, -22.5f, -30f, -17.5f, -5f};
+        for (int i = 0; i < tops.length; i++) {
+            bird.step();
+            assertEquals(tops[i], bird.getTop());
+            assertEquals(180, bird.getHeight());
+            assertEquals(angles[i], bird.getRotationAngle(), 0f);
+        }
+        // 之后每帧向下转 12.5 度, 到 70 度为止
+        for (int i = 0; i < 20; i++) {
+            bird.step();
+            assertTrue(bird.getRotationAngle() <= BirdState.FALLING_MAX_ANGLE);
+        }
+        assertEquals(70f, bird.getRotationAngle(), 0f);
+    }
+
+    @Test
+    public void deathFromStandstillTurnsDown() {
+        BirdState bird = new BirdState().setBound(450, 900, 630, 1080);
+        bird.put2Death();
+        // 用 8 帧从 0 度转到 70 度
+        for (int i = 1; i <= 8; i++) {
+            bird.step();
+            assertEquals(8.75f * i, bird.getRotationAngle(), 0f);
+        }
+    }
+
+    @Test
+    public void trajectoryIsBitExact() {
+        BirdState bird = fly();
+        assertEquals(873, bird.getTop());
+        assertEquals(7.5f, bird.getRotationAngle(), 0f);
+        assertEquals(0x945d1bcfffe76dc6L, bird.hashState(StateHash.SEED));
+
+        // 快照恢复以后继续飞, 和没有中断过的相同
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        bird.save(buffer);
+        buffer.flip();
+        BirdState restored = new BirdState();
+        restored.restore(buffer);
+        for (int i = 0; i < 50; i++) {
+            bird.step();
+            restored.step();
+        }
+        assertEquals(bird.hashState(StateHash.SEED), restored.hashState(StateHash.SEED));
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.flappybird.sim;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 幽灵轨迹: 编码再边读边解码以后和录制的完全相同
+ */
+public class GhostTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    static GhostPack newPack(long seed) {
+        return new GhostPack(WIDTH, HEIGHT, WIDTH / 6, HEIGHT * 3 / 32, WIDTH * 13 / 72, seed)
+                .setLevelMode(Simulation.LEVEL_PROCEDURAL);
+    }
+
+    // 在 pack 的赛道上玩一局, 从点击开始录到落地
+    // 鸟低于 level 时点击, 再加上一些随机的点击, 每一局飞的时间都不一样
+    static GhostTrack recordRun(GhostPack pack, long tapSeed) {
+        Simulation sim = pack.newSimulation();
+        Random taps = new Random(tapSeed);
+        int level = HEIGHT / 3 + taps.nextInt(HEIGHT / 4);
+        GhostTrack track = new GhostTrack();
+        sim.step(Simulation.INPUT_TAP);
+        track.record(sim.getBird());
+        while (sim.getStage() != Simulation.STAGE_OVER && track.getLength() < 5000) {
+            boolean tap = sim.getBird().getTop() > level || taps.nextInt(12) == 0;
+            sim.step(tap ? Simulation.INPUT_TAP : Simulation.INPUT_NONE);
+            track.record(sim.getBird());
+        }
+        return track;
+    }
+
+    private static File writePack(GhostPack pack) throws IOException {
+        File file = File.createTempFile("ghosts", ".fbg");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            pack.writeTo(out);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void streamedPlaybackMatchesRecording() throws IOException {
+        GhostPack pack = newPack(5).setBlockTicks(16);
+        int totalTicks = 0;
+        for (int i = 0; i < 40; i++) {
+            GhostTrack track = recordRun(pack, i);
+            pack.add(track);
+            totalTicks += track.getLength();
+        }
+        File file = writePack(pack);
+        try {
+            // 每帧两个变长整数, 大多数只占 1 个字节
+            assertTrue("file " + file.length() + " bytes for " + totalTicks + " ticks",
+                    file.length() < totalTicks * 3L);
+
+            GhostStream stream = GhostStream.open(file);
+            assertTrue(stream.getCourse().sameCourse(pack));
+            assertEquals(40, stream.getGhostCount());
+            GhostStore store = new GhostStore(8); // 容量不够时 reset() 扩容
+            for (int round = 0; round < 2; round++) { // 第二遍检查 rewind()
+                stream.rewind(store);
+                int tick = 0;
+                while (stream.step(store)) {
+                    assertEquals(tick, store.getTick());
+                    int active = 0;
+                    for (int i = 0; i < 40; i++) {
+                        GhostTrack track = pack.getTrack(i);
+                        assertEquals(tick < track.getLength(), store.isActive(i));
+                        if (tick < track.getLength()) {
+                            active++;
+                            assertEquals(track.getTop(tick), store.getTop(i));
+                            assertEquals(track.getAngle(tick), store.getAngle(i), 0f);
+                            assertEquals(track.getTop(Math.max(0, tick - 1)), store.getPrevTop(i));
+                        }
+                    }
+                    assertEquals(active, store.getActiveCount());
+                    tick++;
+                }
+                assertEquals(stream.getMaxLength(), tick);
+            }
+            stream.close();
+
+            // 完整读出再写回, 文件完全相同
+            GhostPack read = GhostPack.read(file);
+            assertEquals(40, read.getGhostCount());
+            File copy = writePack(read);
+            try {
+                assertArrayEquals(readAll(file), readAll(copy));
+            } finally {
+                assertTrue(copy.delete());
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void oldestRunIsDroppedWhenFull() {
+        GhostPack pack = newPack(1);
+        GhostTrack first = new GhostTrack();
+        pack.add(first);
+        for (int i = 1; i < GhostPack.MAX_GHOSTS; i++) {
+            pack.add(new GhostTrack());
+        }
+        assertSame(first, pack.getTrack(0));
+        GhostTrack last = new GhostTrack();
+        pack.add(last);
+        assertEquals(GhostPack.MAX_GHOSTS, pack.getGhostCount());
+        assertNotSame(first, pack.getTrack(0));
+        assertSame(last, pack.getTrack(GhostPack.MAX_GHOSTS - 1));
+    }
+
+    @Test
+    public void truncatedPackIsRejected() throws IOException {
+        GhostPack pack = newPack(2);
+        pack.add(recordRun(pack, 1)).add(recordRun(pack, 2));
+        File file = writePack(pack);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(file.length() - 3);
+            raf.close();
+            try {
+                GhostPack.read(file);
+                fail("truncated pack was read");
+            } catch (IOException expected) {
+                // 最后一块读不完整
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.flappybird.sim;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * 程序生成的关卡: 确定性、难度曲线和可达性
+ */
+public class LevelGeneratorTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int BIRD_WIDTH = WIDTH / 6;
+    private static final int BIRD_HEIGHT = HEIGHT * 3 / 32;
+    private static final int PIPE_WIDTH = WIDTH * 13 / 72;
+
+    private static LevelGenerator newLevel() {
+        return new LevelGenerator(WIDTH, HEIGHT, PIPE_WIDTH, BIRD_WIDTH, BIRD_HEIGHT);
+    }
+
+    private static Simulation newSim(long seed) {
+        return new Simulation().setSeed(seed).setLevelMode(Simulation.LEVEL_PROCEDURAL)
+                .init(WIDTH, HEIGHT, BIRD_WIDTH, BIRD_HEIGHT, PIPE_WIDTH);
+    }
+
+    // 在后台生成和在当前线程中生成的水管完全相同
+    @Test
+    public void backgroundGenerationMatchesInline() throws InterruptedException, ExecutionException {
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        LevelGenerator inline = newLevel();
+        LevelGenerator background = newLevel().setExecutor(worker);
+        for (long seed = 0; seed < 3; seed++) {
+            inline.restart(seed);
+            background.restart(seed);
+            worker.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+            // 还没有取水管, 后台已经生成好了
+            assertTrue(background.getBuffered() >= LevelGenerator.CHUNK_SIZE);
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, inline.nextPipe());
+                assertEquals(i, background.nextPipe());
+                assertEquals(inline.getDownBottom(), background.getDownBottom());
+                assertEquals(inline.getUpTop(), background.getUpTop());
+            }
+        }
+        worker.shutdown();
+    }
+
+    @Test
+    public void difficultyRampsWithPipeIndex() {
+        LevelGenerator level = newLevel();
+        level.restart(5);
+        int lastCenter = 0;
+        for (int i = 0; i < 3 * level.getRampPipes(); i++) {
+            assertEquals(i, level.nextPipe());
+            int gap = level.getUpTop() - level.getDownBottom();
+            int center = (level.getUpTop() + level.getDownBottom()) / 2;
+            assertEquals(level.getGap(i), gap);
+            assertTrue(gap >= BIRD_HEIGHT + LevelGenerator.FLAP_RISE);
+            assertTrue(level.getDownBottom() >= HEIGHT / 10);
+            assertTrue(level.getUpTop() <= HEIGHT * 4 / 5);
+            if (i > 0) {
+                assertTrue(level.getGap(i) <= level.getGap(i - 1));
+                assertTrue(level.getSpacing(i) <= level.getSpacing(i - 1));
+                assertTrue(level.getSpeed(i) >= level.getSpeed(i - 1));
+                assertTrue(Math.abs(center - lastCenter) <= level.getShift(i) + 1);
+            }
+            lastCenter = center;
+        }
+        assertEquals(HEIGHT * 3 / 10, level.getGap(0));
+        assertEquals(HEIGHT * 2 / 9, level.getGap(level.getRampPipes()));
+        assertEquals(WorldState.DEFAULT_ROLLING_SPEED, level.getSpeed(0));
+        assertEquals(1f, level.getDifficulty(10 * level.getRampPipes()), 0f);
+    }
+
+    // 世界按关卡的间距生成水管, 滚动速度随之变化, 水管池不会回收还在屏幕上的水管
+    @Test
+    public void worldFollowsLevelSpacingAndSpeed() {
+        LevelGenerator level = newLevel();
+        WorldState world = new WorldState().setBound(0, 0, WIDTH, HEIGHT).setPipeWidth(PIPE_WIDTH).setLevel(level);
+        world.makeStandby();
+        world.roll();
+        for (int tick = 0; tick < 5000; tick++) {
+            assertTrue(world.getPipeCount() < world.getPipeCapacity() || world.getPipeLeft(0) + PIPE_WIDTH < 0);
+            world.step();
+            int count = world.getPipeCount();
+            int first = level.getIndex() - count; // 最左边的水管的序号
+            for (int i = 1; i < count; i++) {
+                assertEquals(level.getSpacing(first + i - 1), world.getPipeLeft(i) - world.getPipeLeft(i - 1));
+            }
+            if (count > 0) {
+                assertEquals(level.getSpeed(level.getIndex() - 1), world.getLastScroll());
+            }
+            // 加速以后帧数仍然按新的循环帧数回绕
+            assertTrue(world.getFrameCount() < WorldState.SPEED_SCALE * world.getRecycleFrameCount());
+        }
+        assertTrue(level.getIndex() > level.getRampPipes());
+    }
+
+    // 按鸟的物理规则穷举每一帧点击或不点击, 只要还有一种状态活着, 就说明到这里为止的水管都能穿过
+    @Test
+    public void everyGapIsReachable() {
+        for (long seed = 0; seed < 3; seed++) {
+            assertEquals(150, reachablePipes(seed, 150));
+        }
+    }
+
+    private static int reachablePipes(long seed, int maxPipes) {
+        Simulation sim = newSim(seed);
+        sim.step(Simulation.INPUT_TAP); // 开始游戏
+        WorldState world = sim.getWorld();
+        BirdState bird = sim.getBird();
+        int padding = WorldState.CRASH_DETECT_PADDING;
+        Set<Long> states = new HashSet<Long>();
+        states.add(pack(bird.getTop(), bird.getSpeedY()));
+        int passed = 0;
+        while (passed < maxPipes && !states.isEmpty()) {
+            world.step();
+            Set<Long> next = new HashSet<Long>();
+            for (long state : states) {
+                int top = (int) (state >> 32);
+                for (int tap = 0; tap < 2; tap++) {
+                    int speed = tap == 1 ? BirdState.MAX_RISE_SPEED_Y : (int) state;
+                    int newTop = top + speed;
+                    if (newTop + BIRD_HEIGHT - world.getGroundTop() > padding || newTop < -HEIGHT) {
+                        continue;
+                    }
+                    boolean hit = false;
+                    for (int i = 0; i < world.getPipeCount() && !hit; i++) {
+                        hit = WorldState.sweptPipeHit(world.getPipeLeft(i), world.getLastScroll(), PIPE_WIDTH,
+                                world.getPipeDownBottom(i), world.getPipeUpTop(i), bird.getLeft(), bird.getRight(),
+                                top, newTop, BIRD_HEIGHT);
+                    }
+                    if (!hit) {
+                        next.add(pack(newTop, speed + BirdState.FALL_ACCEL_Y));
+                    }
+                }
+            }
+            states = next;
+            if (world.hasPassPipe(bird)) {
+                passed++;
+            }
+        }
+        return passed;
+    }
+
+    private static long pack(int top, int speed) {
+        return (long) top << 32 | (speed & 0xffffffffL);
+    }
+
+    // 关卡模式的回放: 录制时在后台生成关卡, 回放时在当前线程中生成, 结果相同
+    @Test
+    public void replayWithProceduralLevel() throws IOException {
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        Simulation sim = new Simulation().setSeed(99).setLevelMode(Simulation.LEVEL_PROCEDURAL)
+                .setExecutor(worker).init(WIDTH, HEIGHT, BIRD_WIDTH, BIRD_HEIGHT, PIPE_WIDTH);
+        ReplayLog log = new ReplayLog(WIDTH, HEIGHT, BIRD_WIDTH, BIRD_HEIGHT, PIPE_WIDTH, 99)
+                .setLevelMode(Simulation.LEVEL_PROCEDURAL);
+        Random taps = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            int input = taps.nextInt(4) == 0 ? Simulation.INPUT_TAP : Simulation.INPUT_NONE;
+            log.record(sim.getTick(), input);
+            sim.step(input);
+        }
+        log.finish(sim.getTick(), sim.stateHash());
+        worker.shutdown();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        log.writeTo(out);
+        ReplayLog read = ReplayLog.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(Simulation.LEVEL_PROCEDURAL, read.getLevelMode());
+        assertTrue(new ReplayPlayer(read).verify());
+    }
+}
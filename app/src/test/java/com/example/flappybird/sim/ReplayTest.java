@@ -0,0 +1,100 @@
+package com.example.flappybird.sim;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 回放记录的录制、保存、读取和重新模拟
+ */
+public class ReplayTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    // 用随机的点击玩 ticks 帧, 同时录制回放
+    private static ReplayLog record(long seed, int ticks, Simulation sim) {
+        ReplayLog log = new ReplayLog(WIDTH, HEIGHT, WIDTH / 6, HEIGHT * 3 / 32, WIDTH * 13 / 72, seed);
+        Random taps = new Random(42);
+        for (int i = 0; i < ticks; i++) {
+            int input = taps.nextInt(4) == 0 ? Simulation.INPUT_TAP : Simulation.INPUT_NONE;
+            log.record(sim.getTick(), input);
+            sim.step(input);
+        }
+        log.finish(sim.getTick(), sim.stateHash());
+        return log;
+    }
+
+    private static Simulation newSim(long seed) {
+        return new Simulation().setSeed(seed).init(WIDTH, HEIGHT, WIDTH / 6, HEIGHT * 3 / 32, WIDTH * 13 / 72);
+    }
+
+    @Test
+    public void sameSeedGivesSamePipes() {
+        Simulation a = newSim(7);
+        Simulation b = newSim(7);
+        Simulation c = newSim(8);
+        record(7, 2000, a);
+        record(7, 2000, b);
+        record(8, 2000, c);
+        assertEquals(a.stateHash(), b.stateHash());
+        assertNotEquals(a.stateHash(), c.stateHash());
+    }
+
+    @Test
+    public void replayEndsWithIdenticalState() throws IOException {
+        Simulation sim = newSim(12345);
+        ReplayLog log = record(12345, 5000, sim);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        log.writeTo(out);
+        // 大约 1/4 的帧有点击, 每次点击 2 个字节
+        assertTrue(out.size() < 64 + log.getInputCount() * 2 + 16);
+
+        ReplayLog read = ReplayLog.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(log.getInputCount(), read.getInputCount());
+        assertEquals(5000, read.getEndTick());
+        Simulation replayed = new ReplayPlayer(read).play();
+        assertEquals(sim.getTick(), replayed.getTick());
+        assertEquals(sim.getStage(), replayed.getStage());
+        assertEquals(sim.getBird().getTop(), replayed.getBird().getTop());
+        assertEquals(sim.stateHash(), replayed.stateHash());
+        assertTrue(new ReplayPlayer(read).verify());
+    }
+
+    @Test
+    public void longGapsBetweenInputs() throws IOException {
+        Simulation sim = newSim(1);
+        ReplayLog log = new ReplayLog(WIDTH, HEIGHT, WIDTH / 6, HEIGHT * 3 / 32, WIDTH * 13 / 72, 1);
+        int[] tapTicks = {0, 1, 200, 70000, 70001};
+        int next = 0;
+        while (sim.getTick() < 80000) {
+            int input = Simulation.INPUT_NONE;
+            if (next < tapTicks.length && tapTicks[next] == sim.getTick()) {
+                input = Simulation.INPUT_TAP;
+                next++;
+            }
+            log.record(sim.getTick(), input);
+            sim.step(input);
+        }
+        log.finish(sim.getTick(), sim.stateHash());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        log.writeTo(out);
+        ReplayLog read = ReplayLog.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(tapTicks.length, read.getInputCount());
+        assertTrue(new ReplayPlayer(read).verify());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedLog() throws IOException {
+        ReplayLog log = record(3, 100, newSim(3));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        log.writeTo(out);
+        byte[] bytes = out.toByteArray();
+        ReplayLog.readFrom(new ByteArrayInputStream(bytes, 0, bytes.length - 1));
+    }
+}
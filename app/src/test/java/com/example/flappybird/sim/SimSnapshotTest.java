@@ -0,0 +1,112 @@
+package com.example.flappybird.sim;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 快照: 保存再恢复以后, 状态和之后的模拟都和没有中断过完全相同
+ */
+public class SimSnapshotTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private static Simulation newSim(long seed, int levelMode) {
+        return new Simulation().setSeed(seed).setLevelMode(levelMode)
+                .init(WIDTH, HEIGHT, WIDTH / 6, HEIGHT * 3 / 32, WIDTH * 13 / 72);
+    }
+
+    private static int randomInput(Random taps) {
+        return taps.nextInt(4) == 0 ? Simulation.INPUT_TAP : Simulation.INPUT_NONE;
+    }
+
+    @Test
+    public void roundTripContinuesIdentically() {
+        int[] modes = {Simulation.LEVEL_TEMPLATES, Simulation.LEVEL_PROCEDURAL};
+        for (int mode : modes) {
+            for (int ticks = 0; ticks < 3000; ticks += 97) {
+                Simulation sim = newSim(ticks, mode);
+                Random taps = new Random(ticks);
+                for (int i = 0; i < ticks; i++) {
+                    sim.step(randomInput(taps));
+                }
+                SimSnapshot snapshot = new SimSnapshot();
+                assertTrue(snapshot.save(sim, 2));
+                Simulation restored = new Simulation();
+                assertTrue(snapshot.restore(restored));
+                assertEquals(2, snapshot.getExtra());
+                assertEquals(sim.getStage(), restored.getStage());
+                assertEquals(sim.getTick(), restored.getTick());
+                assertEquals(sim.stateHash(), restored.stateHash());
+                // 之后同样的输入得到同样的结果
+                for (int i = 0; i < 1000; i++) {
+                    int input = randomInput(taps);
+                    assertEquals(sim.step(input), restored.step(input));
+                }
+                assertEquals(sim.stateHash(), restored.stateHash());
+            }
+        }
+    }
+
+    @Test
+    public void mappedFileSurvivesReopen() throws IOException {
+        File file = File.createTempFile("session", ".snap");
+        try {
+            Simulation sim = newSim(3, Simulation.LEVEL_PROCEDURAL);
+            Random taps = new Random(3);
+            for (int i = 0; i < 500; i++) {
+                sim.step(randomInput(taps));
+            }
+            SimSnapshot snapshot = SimSnapshot.open(file);
+            assertFalse(snapshot.isValid());
+            assertTrue(snapshot.save(sim, 7));
+            snapshot.close();
+
+            snapshot = SimSnapshot.open(file);
+            assertTrue(snapshot.isValid());
+            assertEquals(WIDTH, snapshot.getWidth());
+            assertEquals(HEIGHT, snapshot.getHeight());
+            Simulation restored = new Simulation();
+            assertTrue(snapshot.restore(restored));
+            assertEquals(sim.stateHash(), restored.stateHash());
+            // 恢复过一次就作废
+            snapshot.clear();
+            assertFalse(snapshot.restore(new Simulation()));
+            snapshot.close();
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void restoreTakesLessThanAMillisecond() {
+        // 关卡模式玩了很久, 恢复时要重新生成前面所有的水管
+        Simulation sim = newSim(11, Simulation.LEVEL_PROCEDURAL);
+        sim.step(Simulation.INPUT_TAP);
+        WorldState world = sim.getWorld();
+        BirdState bird = sim.getBird();
+        for (int i = 0; i < 20000; i++) {
+            world.step(); // 只滚动画面, 鸟不会撞上水管
+        }
+        assertTrue(world.getLevel().getIndex() > 1000);
+        SimSnapshot snapshot = new SimSnapshot();
+        assertTrue(snapshot.save(sim, 0));
+        Simulation restored = new Simulation();
+        int rounds = 200;
+        for (int i = 0; i < rounds; i++) { // 预热
+            snapshot.restore(restored);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            snapshot.restore(restored);
+        }
+        long nanos = (System.nanoTime() - start) / rounds;
+        assertEquals(sim.stateHash(), restored.stateHash());
+        assertEquals(bird.getTop(), restored.getBird().getTop());
+        assertTrue("restore took " + nanos + "ns", nanos < 1000000L);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.flappybird.sim;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * 在 JVM 上直接运行的物理模拟测试，不需要设备
+ */
+public class SimulationTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private Simulation mSim;
+
+    @Before
+    public void setUp() {
+        mSim = new Simulation().init(WIDTH, HEIGHT, WIDTH / 6, HEIGHT * 3 / 32, WIDTH * 13 / 72);
+    }
+
+    @Test
+    public void standbyBirdFloatsAroundCenter() {
+        int initTop = mSim.getBird().getTop();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, mSim.step(Simulation.INPUT_NONE));
+            assertTrue(Math.abs(mSim.getBird().getTop() - initTop) <= 100);
+        }
+        assertEquals(Simulation.STAGE_READY, mSim.getStage());
+        assertEquals(0, mSim.getWorld().getPipeCount());
+    }
+
+    @Test
+    public void tapStartsGameAndBirdFallsToGround() {
+        mSim.step(Simulation.INPUT_TAP);
+        assertEquals(Simulation.STAGE_PLAY, mSim.getStage());
+        assertEquals(WIDTH / 3 - mSim.getBird().getWidth() / 2, mSim.getBird().getLeft());
+
+        int events = 0;
+        int ticks = 0;
+        while (mSim.getStage() == Simulation.STAGE_PLAY && ticks++ < 1000) {
+            events |= mSim.step(Simulation.INPUT_NONE);
+        }
+        assertEquals(Simulation.STAGE_OVER, mSim.getStage());
+        assertEquals(WorldState.CRASH_TYPE_GROUND, mSim.getWorld().getCrashType());
+        assertTrue((events & Simulation.EVENT_HIT) != 0);
+        assertTrue(mSim.getBird().isDead());
+
+        assertEquals(Simulation.EVENT_RESTART, mSim.step(Simulation.INPUT_TAP) & Simulation.EVENT_RESTART);
+        assertEquals(Simulation.STAGE_READY, mSim.getStage());
+    }
+
+    @Test
+    public void flapRisesBird() {
+        mSim.step(Simulation.INPUT_TAP);
+        int top = mSim.getBird().getTop();
+        mSim.step(Simulation.INPUT_TAP);
+        assertEquals(top + BirdState.MAX_RISE_SPEED_Y, mSim.getBird().getTop());
+        assertEquals(BirdState.MAX_RISE_SPEED_Y + BirdState.FALL_ACCEL_Y, mSim.getBird().getSpeedY());
+    }
+
+    @Test
+    public void pipesAppearAndScroll() {
+        mSim.step(Simulation.INPUT_TAP);
+        int recycleFrameCount = mSim.getWorld().getRecycleFrameCount();
+        for (int i = 0; i < recycleFrameCount; i++) {
+            mSim.step(i % 4 == 0 ? Simulation.INPUT_TAP : Simulation.INPUT_NONE);
+        }
+        WorldState world = mSim.getWorld();
+        assertEquals(1, world.getPipeCount());
+        assertEquals(WIDTH - WorldState.DEFAULT_ROLLING_SPEED, world.getPipeLeft(0));
+        assertTrue(world.getPipeDownBottom(0) < world.getPipeUpTop(0));
+    }
+
+    @Test
+    public void runsMillionTicksHeadless() {
+        // 每次落地后重新开始, 连续模拟一百万个物理帧
+        playTicks(1000000);
+        assertTrue(mSim.getWorld().getPipeCount() <= mSim.getWorld().getPipeCapacity());
+    }
+
+    @Test
+    public void steadyStateStepDoesNotAllocate() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        // 先跑一段时间, 让模板列表等一次性的分配完成
+        playTicks(100000);
+        long before = bean.getThreadAllocatedBytes(threadId);
+        playTicks(100000);
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+        assertEquals(0, allocated);
+    }
+
+    private void playTicks(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            int input = Simulation.INPUT_NONE;
+            if (mSim.getStage() != Simulation.STAGE_BIRD_FALLING && i % 5 == 0) {
+                input = Simulation.INPUT_TAP;
+            }
+            mSim.step(input);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.flappybird.sim;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WorldStateTest {
+    private static final int HEIGHT = 1920;
+    private static final int PIPE_WIDTH = 195;
+
+    @Test
+    public void findFirstPipeRightOf() {
+        WorldState world = new WorldState(4).setBound(0, 0, 1080, HEIGHT).setPipeWidth(PIPE_WIDTH);
+        assertEquals(0, world.findFirstPipeRightOf(0));
+        // 容量为 4, 放入 6 对后最左边的两对被回收, 环形缓冲区发生了回绕
+        for (int i = 0; i < 6; i++) {
+            world.addPipePair(i * 300, 500, 1000);
+        }
+        assertEquals(4, world.getPipeCount());
+        assertEquals(600, world.getPipeLeft(0));
+        assertEquals(0, world.findFirstPipeRightOf(600 + PIPE_WIDTH));
+        assertEquals(1, world.findFirstPipeRightOf(600 + PIPE_WIDTH + 1));
+        assertEquals(3, world.findFirstPipeRightOf(1500));
+        assertEquals(4, world.findFirstPipeRightOf(1500 + PIPE_WIDTH + 1));
+    }
+
+    @Test
+    public void indexedQueriesMatchFullScan() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            int count = 1 + random.nextInt(50);
+            WorldState world = new WorldState(count)
+                    .setBound(0, 0, count * 400, HEIGHT).setPipeWidth(PIPE_WIDTH);
+            // 先滚动一帧, 让碰撞和过管检测按这一帧的移动做扫掠
+            world.roll();
+            world.step();
+            int[] left = new int[count];
+            int[] downBottom = new int[count];
+            int[] upTop = new int[count];
+            int x = random.nextInt(100) - 300;
+            for (int i = 0; i < count; i++) {
+                x += PIPE_WIDTH / 2 + random.nextInt(400);
+                left[i] = x;
+                downBottom[i] = 200 + random.nextInt(800);
+                upTop[i] = downBottom[i] + 300 + random.nextInt(300);
+                world.addPipePair(left[i], downBottom[i], upTop[i]);
+            }
+            for (int probe = 0; probe < 50; probe++) {
+                int birdLeft = random.nextInt(x + 400) - 200;
+                int birdTop = random.nextInt(HEIGHT * 4 / 5 - 200);
+                BirdState bird = new BirdState().setBound(birdLeft, birdTop + 100, birdLeft + 180, birdTop + 280);
+                bird.shot();
+                bird.step(); // 这一帧中鸟往上飞了 100 像素
+                assertEquals(scanCrash(left, downBottom, upTop, world.getLastScroll(), bird), world.isBirdCrash(bird));
+                assertEquals(scanPass(left, world.getLastScroll(), bird), world.hasPassPipe(bird));
+            }
+        }
+    }
+
+    // 逐个扫描所有水管的写法
+    private static boolean scanCrash(int[] left, int[] downBottom, int[] upTop, int scroll, BirdState bird) {
+        for (int i = 0; i < left.length; i++) {
+            if (WorldState.sweptPipeHit(left[i], scroll, PIPE_WIDTH, downBottom[i], upTop[i], bird.getLeft(),
+                    bird.getRight(), bird.getPrevTop(), bird.getTop(), bird.getHeight())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean scanPass(int[] left, int scroll, BirdState bird) {
+        for (int i = 0; i < left.length; i++) {
+            int right = left[i] + PIPE_WIDTH;
+            if (bird.getLeft() > right && bird.getLeft() <= right + scroll) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 移动前和移动后都没有重叠, 但这一帧中间扫过了水管
+    @Test
+    public void fastPipeCannotTunnelThroughBird() {
+        int pad = WorldState.CRASH_DETECT_PADDING;
+        // 鸟在 [400, 580), 空隙在 [500, 1100), 鸟的顶部碰到了朝下的水管
+        BirdState bird = new BirdState().setBound(400, 450, 580, 630);
+        // 一帧滚动 600 像素: 水管从鸟的右边 (left = 700) 移到鸟的左边 (left = 100, right = 295)
+        assertFalse(WorldState.sweptPipeHit(700, 0, PIPE_WIDTH, 500, 1100, 400, 580, 450, 450, 180));
+        assertFalse(WorldState.sweptPipeHit(100, 0, PIPE_WIDTH, 500, 1100, 400, 580, 450, 450, 180));
+        assertTrue(WorldState.sweptPipeHit(100, 600, PIPE_WIDTH, 500, 1100, 400, 580, 450, 450, 180));
+
+        WorldState world = new WorldState(4).setBound(0, 0, 1080, HEIGHT).setPipeWidth(PIPE_WIDTH)
+                .setRollingSpeed(600);
+        world.addPipePair(700, 500, 1100);
+        world.roll();
+        world.step();
+        assertEquals(100, world.getPipeLeft(0));
+        assertTrue(world.isBirdCrash(bird));
+        assertEquals(WorldState.CRASH_TYPE_PIPE, world.getCrashType());
+        // 同样的移动, 鸟在空隙中间就不算相撞
+        bird.setBound(400, 700, 580, 880);
+        assertFalse(world.isBirdCrash(bird));
+        // 只差 PADDING 以内的重叠也不算
+        bird.setBound(400, 500 - pad, 580, 680 - pad);
+        assertFalse(world.isBirdCrash(bird));
+    }
+
+    // 鸟这一帧中往下穿过了朝上水管的管口, 而这一帧开始和结束时都没有和水管重叠
+    @Test
+    public void fastBirdCannotTunnelThroughPipeLip() {
+        // 鸟在 [400, 580), 空隙在 [500, 1100); 一帧滚动 285 像素, 水管从 left = 500 移到 left = 215 (right = 410)
+        // 开始时鸟的底部 (980) 在管口上面, 结束时水管已经到了鸟的左边
+        assertFalse(WorldState.sweptPipeHit(500, 0, PIPE_WIDTH, 500, 1100, 400, 580, 800, 800, 180));
+        assertFalse(WorldState.sweptPipeHit(215, 0, PIPE_WIDTH, 500, 1100, 400, 580, 1100, 1100, 180));
+        // 水平方向上重叠到 t = 275 / 285, 这时鸟的底部已经比管口低了 169 像素
+        assertTrue(WorldState.sweptPipeHit(215, 285, PIPE_WIDTH, 500, 1100, 400, 580, 800, 1100, 180));
+    }
+
+    // 下降得慢一点, 水管离开时鸟的底部刚好没有低于管口 + PADDING, 不算相撞
+    @Test
+    public void birdJustClearingPipeLipIsNotHit() {
+        // 到 940: 重叠结束时鸟的底部比管口低 15 像素, 在 PADDING 以内
+        assertFalse(WorldState.sweptPipeHit(215, 285, PIPE_WIDTH, 500, 1100, 400, 580, 800, 940, 180));
+        // 到 960: 低了 34 像素, 撞上了
+        assertTrue(WorldState.sweptPipeHit(215, 285, PIPE_WIDTH, 500, 1100, 400, 580, 800, 960, 180));
+    }
+
+    // 不管滚动多快, 每对水管从鸟的右边移到左边时正好得一分
+    @Test
+    public void everyCrossingScoresExactlyOnce() {
+        for (int speed = 10; speed <= 400; speed += 30) {
+            WorldState world = new WorldState().setBound(0, 0, 1080, HEIGHT).setPipeWidth(PIPE_WIDTH)
+                    .setRollingSpeed(speed);
+            BirdState bird = new BirdState().setBound(360, 870, 540, 1050);
+            world.roll();
+            int passes = 0;
+            int crossings = 0;
+            for (int tick = 0; tick < 2000; tick++) {
+                world.step();
+                if (world.hasPassPipe(bird)) {
+                    passes++;
+                }
+                for (int i = 0; i < world.getPipeCount(); i++) {
+                    int right = world.getPipeRight(i);
+                    if (right < bird.getLeft() && right + speed >= bird.getLeft()) {
+                        crossings++;
+                    }
+                }
+            }
+            assertTrue(passes > 0);
+            assertEquals(crossings, passes);
+        }
+    }
+
+    @Test
+    public void pipePoolIsSizedFromWidthAndSpeed() {
+        for (int width = 480; width <= 2560; width += 80) {
+            int pipeWidth = width * 13 / 72;
+            WorldState world = new WorldState().setBound(0, 0, width, HEIGHT).setPipeWidth(pipeWidth);
+            int capacity = world.getPipeCapacity();
+            assertEquals(WorldState.pipeCapacityFor(width, pipeWidth, world.getRollingSpeed()), capacity);
+            world.roll();
+            int lastLeft = 0;
+            int lastCount = 0;
+            for (int tick = 0; tick < 20000; tick++) {
+                world.step();
+                assertEquals(capacity, world.getPipeCapacity());
+                // 最左边的水管换掉了, 说明它被回收了: 回收的只能是已经移出屏幕的水管
+                if (lastCount > 0 && world.getPipeLeft(0) != lastLeft - world.getRollingSpeed()) {
+                    assertTrue(lastLeft + pipeWidth < 0);
+                }
+                lastCount = world.getPipeCount();
+                lastLeft = lastCount > 0 ? world.getPipeLeft(0) : 0;
+            }
+            assertTrue(lastCount > 1);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.flappybird.telemetry;
+
+import com.example.flappybird.sim.WorldState;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 遥测: 事件经过环形缓冲区和压缩的段原样读回来, 文件末尾不完整的一段被忽略
+ */
+public class TelemetryTest {
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("telemetry", ".fbt");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static TelemetryReport report(File file) throws IOException {
+        TelemetryReader reader = TelemetryReader.open(file);
+        try {
+            return new TelemetryReport().add(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // 一局: 开始, 得 score 分, 撞到 crashType, 落地
+    private static int logRun(Telemetry telemetry, int tick, int score, int crashType) {
+        int start = tick;
+        telemetry.log(Telemetry.EVENT_RUN_START, tick, 42, 0);
+        for (int i = 1; i <= score; i++) {
+            tick += 30;
+            telemetry.log(Telemetry.EVENT_POINT, tick, i, 0);
+        }
+        tick += 10;
+        telemetry.log(Telemetry.EVENT_CRASH, tick, crashType, score);
+        tick += 5;
+        telemetry.log(Telemetry.EVENT_RUN_END, tick, score, tick - start);
+        return tick;
+    }
+
+    @Test
+    public void ringDropsWhenFullAndKeepsOrder() {
+        EventRing ring = new EventRing(4);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i < 4, ring.offer(i, 1, i, -i, i * 2));
+        }
+        assertEquals(2, ring.getDropped());
+        ByteBuffer out = ByteBuffer.allocate(3 * EventRing.RECORD_BYTES);
+        assertEquals(3, ring.drainTo(out));
+        assertEquals(1, ring.size());
+        // 读走以后又有空位了
+        assertTrue(ring.offer(6, 1, 6, -6, 12));
+        out.flip();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, out.getLong());
+            assertEquals(1, out.getInt());
+            assertEquals(i, out.getInt());
+            assertEquals(-i, out.getInt());
+            assertEquals(i * 2, out.getInt());
+        }
+    }
+
+    @Test
+    public void runsRoundTripThroughSegments() throws IOException {
+        File file = tempFile();
+        Telemetry telemetry = Telemetry.open(file);
+        int tick = 0;
+        int[] scores = {0, 3, 7, 1, 12};
+        for (int i = 0; i < scores.length; i++) {
+            tick = logRun(telemetry, tick, scores[i], i % 2 == 0 ? WorldState.CRASH_TYPE_GROUND : WorldState.CRASH_TYPE_PIPE);
+        }
+        telemetry.log(Telemetry.EVENT_FRAME_SPIKE, tick, 48000, 16666);
+        telemetry.close();
+        assertEquals(0, telemetry.getDropped());
+        assertEquals(file.length(), telemetry.getBytesWritten());
+
+        TelemetryReport report = report(file);
+        assertEquals(5 * 3 + 23 + 1, report.getEvents());
+        assertEquals(5, report.getRuns());
+        assertEquals(3, report.getGroundCrashes());
+        assertEquals(2, report.getPipeCrashes());
+        assertEquals(23, report.getPoints());
+        assertEquals(12, report.getMaxScore());
+        assertEquals(3, report.scorePercentile(50));
+        assertEquals(12, report.scorePercentile(100));
+        assertEquals(1, report.getSpikes());
+        assertEquals(48000, report.getMaxSpikeMicros());
+        assertEquals(0, report.getTruncatedFiles());
+
+        // 再打开一次是追加到文件末尾
+        telemetry = Telemetry.open(file);
+        logRun(telemetry, 0, 2, WorldState.CRASH_TYPE_PIPE);
+        telemetry.close();
+        assertEquals(6, report(file).getRuns());
+    }
+
+    @Test
+    public void concurrentProducerLosesNothingButDrops() throws IOException {
+        File file = tempFile();
+        final int total = 100000;
+        Telemetry telemetry = Telemetry.open(file, 1024);
+        for (int i = 0; i < total; i++) {
+            telemetry.log(Telemetry.EVENT_POINT, i, i, ~i);
+        }
+        telemetry.close();
+        assertTrue(telemetry.getSegments() > 1);
+
+        TelemetryReader reader = TelemetryReader.open(file);
+        try {
+            int last = -1;
+            long lastNanos = 0;
+            while (reader.next()) {
+                // 按写入的顺序, 内容没有被撕裂
+                assertTrue(reader.getTick() > last);
+                assertTrue(reader.getNanos() >= lastNanos);
+                assertEquals(reader.getTick(), reader.getA());
+                assertEquals(~reader.getTick(), reader.getB());
+                last = reader.getTick();
+                lastNanos = reader.getNanos();
+            }
+            assertEquals(total, reader.getEventCount() + telemetry.getDropped());
+            assertEquals(telemetry.getSegments(), reader.getSegments());
+            assertFalse(reader.isTruncated());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void segmentsAreCompressed() throws IOException {
+        File file = tempFile();
+        Telemetry telemetry = Telemetry.open(file);
+        int tick = 0;
+        for (int i = 0; i < 200; i++) {
+            tick = logRun(telemetry, tick, i % 10, WorldState.CRASH_TYPE_PIPE);
+        }
+        telemetry.close();
+        long events = report(file).getEvents();
+        long raw = events * EventRing.RECORD_BYTES + telemetry.getSegments() * Telemetry.SEGMENT_HEADER_BYTES;
+        assertTrue(file.length() * 2 < raw);
+    }
+
+    @Test
+    public void truncatedTailIsIgnored() throws IOException {
+        File file = tempFile();
+        Telemetry telemetry = Telemetry.open(file);
+        logRun(telemetry, 0, 4, WorldState.CRASH_TYPE_GROUND);
+        telemetry.close();
+        long complete = file.length();
+        telemetry = Telemetry.open(file);
+        logRun(telemetry, 100, 5, WorldState.CRASH_TYPE_PIPE);
+        telemetry.close();
+
+        // 第二段写到一半时进程被杀掉
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(complete + (file.length() - complete) / 2);
+        } finally {
+            raf.close();
+        }
+        TelemetryReader reader = TelemetryReader.open(file);
+        try {
+            TelemetryReport report = new TelemetryReport().add(reader);
+            assertTrue(reader.isTruncated());
+            assertEquals(1, reader.getSegments());
+            assertEquals(1, report.getRuns());
+            assertEquals(4, report.getMaxScore());
+            assertEquals(1, report.getTruncatedFiles());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptSegmentThrows() throws IOException {
+        File file = tempFile();
+        Telemetry telemetry = Telemetry.open(file);
+        logRun(telemetry, 0, 1, WorldState.CRASH_TYPE_GROUND);
+        telemetry.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeInt(0);
+        } finally {
+            raf.close();
+        }
+        report(file);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.flappybird.train;
+
+import com.example.flappybird.sim.LevelGenerator;
+import com.example.flappybird.sim.SimRandom;
+import com.example.flappybird.sim.Simulation;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class BatchSimTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int BIRD_WIDTH = WIDTH / 6;
+    private static final int BIRD_HEIGHT = HEIGHT * 3 / 32;
+    private static final int PIPE_WIDTH = WIDTH * 13 / 72;
+
+    private static LevelGenerator newLevel() {
+        return new LevelGenerator(WIDTH, HEIGHT, PIPE_WIDTH, BIRD_WIDTH, BIRD_HEIGHT);
+    }
+
+    @Test
+    public void matchesSimulation() {
+        matchesSimulation(Simulation.LEVEL_TEMPLATES);
+    }
+
+    // 关卡模式: 水管的间距和滚动速度随序号变化, 要飞过几十对水管才会加速
+    @Test
+    public void matchesProceduralSimulation() {
+        assertTrue(matchesSimulation(Simulation.LEVEL_PROCEDURAL) > 20);
+    }
+
+    // 返回最高的得分
+    private static int matchesSimulation(int levelMode) {
+        boolean pilot = levelMode == Simulation.LEVEL_PROCEDURAL;
+        float[] observation = new float[BatchSim.OBSERVATIONS];
+        int maxScore = 0;
+        for (long seed = 0; seed < 50; seed++) {
+            // 同样的种子和同样的点击, 第一帧是开始游戏的那一次点击
+            final boolean[] taps = new boolean[2000];
+            SimRandom random = new SimRandom(seed * 31);
+            for (int i = 0; i < taps.length; i++) {
+                taps[i] = i == 0 || random.nextInt(5) == 0;
+            }
+            Simulation sim = new Simulation().setSeed(seed).setLevelMode(levelMode)
+                    .init(WIDTH, HEIGHT, BIRD_WIDTH, BIRD_HEIGHT, PIPE_WIDTH);
+            BatchSim batch = new BatchSim(1, WIDTH, HEIGHT, BIRD_WIDTH, BIRD_HEIGHT, PIPE_WIDTH,
+                    levelMode == Simulation.LEVEL_PROCEDURAL ? newLevel() : null);
+            batch.reset(0, seed);
+            SimRandom scratch = new SimRandom(0);
+            int score = 0;
+            int tick = 0;
+            while (tick < taps.length) {
+                boolean tap = taps[tick];
+                if (pilot && tick > 0) {
+                    // 低于空隙中心而且在下落时点击, 能飞过不少水管
+                    batch.observe(0, observation);
+                    tap = observation[0] > 0.1f && observation[1] >= 0;
+                }
+                int events = sim.step(tap ? Simulation.INPUT_TAP : Simulation.INPUT_NONE);
+                batch.step(0, tap, scratch);
+                tick++;
+                if ((events & Simulation.EVENT_POINT) != 0) {
+                    score++;
+                }
+                assertEquals(sim.getBird().getTop(), batch.getBirdTop(0));
+                assertEquals(sim.getWorld().getPipeCount(), batch.getPipeCount(0));
+                for (int i = 0; i < batch.getPipeCount(0); i++) {
+                    assertEquals(sim.getWorld().getPipeLeft(i), batch.getPipeLeft(0, i));
+                }
+                if ((events & Simulation.EVENT_HIT) != 0) {
+                    break;
+                }
+                assertFalse(batch.isDead(0));
+            }
+            assertTrue(batch.isDead(0));
+            assertEquals(tick, batch.getTicks(0));
+            assertEquals(score, batch.getScore(0));
+            maxScore = Math.max(maxScore, score);
+        }
+        return maxScore;
+    }
+
+    @Test
+    public void parallelRunMatchesSequential() {
+        parallelRunMatchesSequential(null, null, 3000);
+    }
+
+    // 关卡模式: 同一个种子的玩家共用一条赛道
+    @Test
+    public void parallelProceduralRunMatchesSequential() {
+        parallelRunMatchesSequential(newLevel(), newLevel(), 100);
+    }
+
+    // 第 a 个玩家用种子 a % seeds
+    private static void parallelRunMatchesSequential(LevelGenerator sequentialLevel, LevelGenerator parallelLevel,
+                                                     int seeds) {
+        int agents = 3000;
+        BatchSim sequential = new BatchSim(agents, WIDTH, HEIGHT, BIRD_WIDTH, BIRD_HEIGHT, PIPE_WIDTH, sequentialLevel);
+        BatchSim parallel = new BatchSim(agents, WIDTH, HEIGHT, BIRD_WIDTH, BIRD_HEIGHT, PIPE_WIDTH, parallelLevel);
+        NeuralPolicy policy = new NeuralPolicy(agents);
+        new Evolution(sequential, policy, 0, 5, null); // 随机的第 0 代
+        for (int a = 0; a < agents; a++) {
+            sequential.reset(a, a % seeds);
+            parallel.reset(a, a % seeds);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        long ticks = sequential.run(policy, 3000, null);
+        assertEquals(ticks, parallel.run(policy, 3000, pool));
+        pool.shutdown();
+        for (int a = 0; a < agents; a++) {
+            assertTrue(sequential.isDead(a) || sequential.getTicks(a) == 3000);
+            assertEquals(sequential.getTicks(a), parallel.getTicks(a));
+            assertEquals(sequential.getScore(a), parallel.getScore(a));
+        }
+    }
+
+    @Test
+    public void evolutionLearnsToPassPipes() {
+        int population = 256;
+        BatchSim sim = new BatchSim(population, WIDTH, HEIGHT, BIRD_WIDTH, BIRD_HEIGHT, PIPE_WIDTH);
+        NeuralPolicy policy = new NeuralPolicy(population);
+        Evolution evolution = new Evolution(sim, policy, 3000, 1, null);
+        evolution.evolve();
+        int first = evolution.getBestScore(); // 随机的网络偶尔也能过几根水管
+        int best = 0;
+        for (int g = 1; g < 20; g++) {
+            evolution.evolve();
+            best = Math.max(best, evolution.getBestScore());
+        }
+        assertEquals(20, evolution.getGeneration());
+        assertTrue(best > first * 3);
+    }
+}
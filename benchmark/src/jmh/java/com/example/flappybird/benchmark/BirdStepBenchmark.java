@@ -0,0 +1,33 @@
+package com.example.flappybird.benchmark;
+
+import com.example.flappybird.sim.BirdState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 鸟的物理模拟：每一帧更新位置、速度和角度，每 5 帧点击一次
+ */
+@State(Scope.Thread)
+public class BirdStepBenchmark {
+    private BirdState mBird;
+    private int mTick;
+
+    @Setup
+    public void setUp() {
+        mBird = new BirdState().setBound(360, 900, 540, 1080);
+        mBird.shot();
+    }
+
+    @Benchmark
+    public int step() {
+        if (++mTick == 5) {
+            mTick = 0;
+            mBird.shot();
+        }
+        mBird.step();
+        return mBird.getTop();
+    }
+}
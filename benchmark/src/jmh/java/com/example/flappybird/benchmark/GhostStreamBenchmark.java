@@ -0,0 +1,89 @@
+package com.example.flappybird.benchmark;
+
+import com.example.flappybird.sim.BirdState;
+import com.example.flappybird.sim.GhostPack;
+import com.example.flappybird.sim.GhostStore;
+import com.example.flappybird.sim.GhostStream;
+import com.example.flappybird.sim.GhostTrack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * 幽灵竞速每个物理帧的开销: 从文件中边读边解码 1 到 512 只幽灵的一帧
+ * 每只幽灵都一直在飞 (每条轨迹 TICKS 帧), 每次调用推进一帧, 读到结尾时从头开始
+ * ns/op 随幽灵数量的变化就是每只幽灵的开销, 读文件的开销分摊在一块中的每一帧里
+ */
+@State(Scope.Thread)
+public class GhostStreamBenchmark {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int TICKS = 4096;
+
+    @Param({"1", "16", "128", "512"})
+    public int ghostCount;
+
+    private File mFile;
+    private GhostStream mStream;
+    private GhostStore mStore;
+
+    @Setup
+    public void setUp() throws IOException {
+        // 和真实的鸟一样: 每帧受重力加速, 低于某个高度时扇翅膀, 每只的高度和随机点击不同
+        GhostPack pack = new GhostPack(WIDTH, HEIGHT, 180, 180, 195, 2019);
+        Random random = new Random(2019);
+        for (int i = 0; i < ghostCount; i++) {
+            GhostTrack track = new GhostTrack();
+            int level = HEIGHT / 3 + random.nextInt(HEIGHT / 4);
+            int top = HEIGHT / 2;
+            int speed = 0;
+            float angle = 0;
+            for (int tick = 0; tick < TICKS; tick++) {
+                if (top > level || random.nextInt(12) == 0) {
+                    speed = BirdState.MAX_RISE_SPEED_Y;
+                }
+                top += speed;
+                speed += BirdState.FALL_ACCEL_Y;
+                angle = Math.max(BirdState.RISING_MAX_ANGLE,
+                        Math.min(BirdState.FALLING_MAX_ANGLE, angle + (speed < 0 ? -6.5f : 4.5f)));
+                track.add(top, angle);
+            }
+            pack.add(track);
+        }
+        mFile = File.createTempFile("ghosts", ".fbg");
+        OutputStream out = new FileOutputStream(mFile);
+        try {
+            pack.writeTo(out);
+        } finally {
+            out.close();
+        }
+        mStream = GhostStream.open(mFile);
+        mStore = new GhostStore(ghostCount);
+        mStream.rewind(mStore);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mStream.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public int step() throws IOException {
+        if (!mStream.step(mStore)) {
+            mStream.rewind(mStore);
+            mStream.step(mStore);
+        }
+        return mStore.getActiveCount();
+    }
+}
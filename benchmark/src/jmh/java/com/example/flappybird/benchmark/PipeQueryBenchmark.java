@@ -0,0 +1,51 @@
+package com.example.flappybird.benchmark;
+
+import com.example.flappybird.sim.BirdState;
+import com.example.flappybird.sim.WorldState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 碰撞检测 isBirdCrash 和过管检测 hasPassPipe，场景中有 1 到 10000 对水管
+ * 鸟位于所有水管的空隙中，碰撞检测不会提前结束
+ */
+@State(Scope.Thread)
+public class PipeQueryBenchmark {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int PIPE_WIDTH = 195;
+    private static final int PIPE_INTERVAL = WIDTH / 2; // 相邻水管左边界的距离
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int pipeCount;
+
+    private WorldState mWorld;
+    private BirdState mBird;
+
+    @Setup
+    public void setUp() {
+        // 世界的宽度足够放下所有水管, 鸟在中间一对水管的位置
+        mWorld = new WorldState(pipeCount)
+                .setBound(0, 0, pipeCount * PIPE_INTERVAL, HEIGHT).setPipeWidth(PIPE_WIDTH);
+        for (int i = 0; i < pipeCount; i++) {
+            mWorld.addPipePair(i * PIPE_INTERVAL, HEIGHT * 3 / 10, HEIGHT * 6 / 10);
+        }
+        int birdLeft = pipeCount / 2 * PIPE_INTERVAL + PIPE_WIDTH + 1;
+        mBird = new BirdState().setBound(birdLeft, HEIGHT * 4 / 10,
+                birdLeft + WIDTH / 6, HEIGHT * 4 / 10 + HEIGHT * 3 / 32);
+    }
+
+    @Benchmark
+    public boolean isBirdCrash() {
+        return mWorld.isBirdCrash(mBird);
+    }
+
+    @Benchmark
+    public boolean hasPassPipe() {
+        return mWorld.hasPassPipe(mBird);
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.flappybird.benchmark;
+
+import com.example.flappybird.sim.WorldState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 画面滚动：每一帧移动所有水管，按节奏生成新水管并回收移出屏幕的水管 (genPipePair)
+ */
+@State(Scope.Thread)
+public class PipeScrollBenchmark {
+    private WorldState mWorld;
+
+    @Setup
+    public void setUp() {
+        mWorld = new WorldState().setBound(0, 0, 1080, 1920).setPipeWidth(195);
+        mWorld.roll();
+    }
+
+    @Benchmark
+    public int step() {
+        mWorld.step();
+        return mWorld.getPipeCount();
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.flappybird.benchmark;
+
+import com.example.flappybird.sim.ReplayLog;
+import com.example.flappybird.sim.ReplayPlayer;
+import com.example.flappybird.sim.Simulation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * 回放一段固定的游戏 (10000 帧, 固定的种子和点击), 作为整个模拟的回归基准
+ * 每次调用模拟完整的 10000 帧
+ */
+@State(Scope.Thread)
+public class ReplayBenchmark {
+    private static final int TICKS = 10000;
+
+    private ReplayPlayer mPlayer;
+
+    @Setup
+    public void setUp() {
+        Simulation sim = new Simulation().setSeed(2019).init(1080, 1920, 180, 180, 195);
+        ReplayLog log = new ReplayLog(1080, 1920, 180, 180, 195, 2019);
+        Random taps = new Random(2019);
+        for (int i = 0; i < TICKS; i++) {
+            int input = taps.nextInt(4) == 0 ? Simulation.INPUT_TAP : Simulation.INPUT_NONE;
+            log.record(sim.getTick(), input);
+            sim.step(input);
+        }
+        log.finish(sim.getTick(), sim.stateHash());
+        mPlayer = new ReplayPlayer(log);
+    }
+
+    @Benchmark
+    public long replay() {
+        return mPlayer.play().stateHash();
+    }
+}